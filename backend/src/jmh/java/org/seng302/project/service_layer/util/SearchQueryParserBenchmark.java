@@ -0,0 +1,59 @@
+package org.seng302.project.service_layer.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.seng302.project.service_layer.util.SearchQuery.SearchTerm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares SearchQueryParser with the lookahead regex splitting the search services used before it,
+ * on a long query with many quoted terms where the lookaheads scan the rest of the query at every space.
+ * The parser is uncached here, so only the parsing itself is measured.
+ * SearchQueryParserTest checks both give the same result. Run with ./gradlew jmh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchQueryParserBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int termCount;
+
+    private String query;
+
+    @Setup
+    public void setUp() {
+        var builder = new StringBuilder();
+        for (var i = 0; i < termCount; i++) {
+            builder.append(i % 3 == 0 ? "\"term " + i + "\"" : "term" + i);
+            builder.append(i % 10 == 9 ? " or " : " and ");
+        }
+        builder.append("last");
+        query = builder.toString();
+    }
+
+    @Benchmark
+    public SearchQuery parser() {
+        return SearchQueryParser.compile(query);
+    }
+
+    @Benchmark
+    public SearchQuery regexSplit() {
+        List<List<SearchTerm>> conjunctions = new ArrayList<>();
+        for (String conjunction : query.split(" or (?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)")) {
+            List<SearchTerm> terms = new ArrayList<>();
+            for (String term : conjunction.split("( and |\\s)(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)")) {
+                if (Pattern.matches("^\".*\"$", term)) {
+                    terms.add(new SearchTerm(term.replace("\"", ""), true));
+                } else {
+                    terms.add(new SearchTerm(term, false));
+                }
+            }
+            conjunctions.add(terms);
+        }
+        return new SearchQuery(conjunctions);
+    }
+}
@@ -0,0 +1,100 @@
+package org.seng302.project;
+
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.seng302.project.repository_layer.model.*;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Configuration of the Hibernate second-level cache, which keeps the reference entities that are read on
+ * nearly every request (businesses, addresses, products, keywords and images) in memory.
+ * The cache is an Ehcache heap cache used through JCache, with a size limit and a time to live for every region.
+ * The time to live is kept short because the cache is local to each node, see
+ * {@link org.seng302.project.service_layer.service.EntityCacheService} for how changes made on other nodes
+ * are evicted sooner.
+ */
+@Configuration
+public class EntityCacheConfig {
+
+    public static final String QUERY_RESULTS_REGION = "default-query-results-region";
+    public static final String UPDATE_TIMESTAMPS_REGION = "default-update-timestamps-region";
+
+    /**
+     * Names of the regions which cache entities and their collections, these are the entity class names
+     * and the collection roles.
+     */
+    public static final List<String> ENTITY_REGIONS = List.of(
+            Business.class.getName(),
+            Business.class.getName() + ".images",
+            Address.class.getName(),
+            Product.class.getName(),
+            Product.class.getName() + ".images",
+            Keyword.class.getName(),
+            Image.class.getName());
+
+    private static final Duration ENTITY_TIME_TO_LIVE = Duration.ofSeconds(60);
+    private static final Duration QUERY_TIME_TO_LIVE = Duration.ofSeconds(30);
+    private static final long MAX_ENTRIES_PER_REGION = 10000;
+    private static final long MAX_QUERY_RESULTS = 5000;
+
+    /**
+     * Creates the cache manager for the second-level cache.
+     * Each application context gets its own cache manager, so test contexts never share cached entities.
+     *
+     * @return the cache manager, closed when the context is closed
+     */
+    @Bean(destroyMethod = "close")
+    public CacheManager entityCacheManager() {
+        var configuration = ConfigurationBuilder.newConfigurationBuilder();
+        for (String region : ENTITY_REGIONS) {
+            configuration = configuration.withCache(region, regionConfiguration(MAX_ENTRIES_PER_REGION)
+                    .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(ENTITY_TIME_TO_LIVE)));
+        }
+        configuration = configuration
+                .withCache(QUERY_RESULTS_REGION, regionConfiguration(MAX_QUERY_RESULTS)
+                        .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(QUERY_TIME_TO_LIVE)))
+                // The last update of each table must outlive every query result cached from it
+                .withCache(UPDATE_TIMESTAMPS_REGION, regionConfiguration(MAX_ENTRIES_PER_REGION)
+                        .withExpiry(ExpiryPolicyBuilder.noExpiration()));
+
+        var provider = (EhcacheCachingProvider) Caching.getCachingProvider(EhcacheCachingProvider.class.getName());
+        var uri = URI.create("urn:seng302:entity-cache:" + UUID.randomUUID());
+        return provider.getCacheManager(uri, configuration.build());
+    }
+
+    /**
+     * Turns on the second-level and query caches in Hibernate, using the cache manager from this configuration.
+     * Hibernate fails at startup if an entity is cached in a region that isn't configured here.
+     *
+     * @param entityCacheManager the cache manager for the second-level cache
+     * @return the customizer for the Hibernate properties
+     */
+    @Bean
+    public HibernatePropertiesCustomizer entityCacheCustomizer(CacheManager entityCacheManager) {
+        return properties -> {
+            properties.put("hibernate.cache.use_second_level_cache", "true");
+            properties.put("hibernate.cache.use_query_cache", "true");
+            properties.put("hibernate.cache.region.factory_class", "jcache");
+            properties.put("hibernate.javax.cache.cache_manager", entityCacheManager);
+            properties.put("hibernate.javax.cache.missing_cache_strategy", "fail");
+            properties.put("hibernate.generate_statistics", "true");
+        };
+    }
+
+    private static CacheConfigurationBuilder<Object, Object> regionConfiguration(long maxEntries) {
+        return CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class,
+                ResourcePoolsBuilder.heap(maxEntries));
+    }
+}
@@ -0,0 +1,132 @@
+package org.seng302.project;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+
+/**
+ * Configuration of the metrics which Spring Boot doesn't record by itself.
+ * Spring Boot already times every request (http.server.requests) and records the connection pool
+ * and JVM metrics, this adds timers for every repository method and every scheduled job.
+ * All of the metrics are served in the Prometheus format by
+ * {@link org.seng302.project.web_layer.controller.MetricsController}.
+ */
+@Configuration
+public class MetricsConfig {
+
+    public static final String REPOSITORY_TIMER = "repository.invocations";
+    public static final String SCHEDULED_JOB_TIMER = "scheduled.jobs";
+
+    private static final String SUCCESS = "SUCCESS";
+    private static final String ERROR = "ERROR";
+
+    /**
+     * Adds a timer to every Spring Data repository, tagged with the repository and the method called.
+     * Static, as post processors are created before the other beans of the configuration.
+     *
+     * @param meterRegistry the registry to record the timings in, got when the first method is timed
+     * @return the post processor which adds the timer to each repository as it is created
+     */
+    @Bean
+    public static BeanPostProcessor repositoryMetricsPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport) {
+                    ((RepositoryFactoryBeanSupport<?, ?, ?>) bean).addRepositoryFactoryCustomizer(factory ->
+                            factory.addRepositoryProxyPostProcessor((proxyFactory, repositoryInformation) ->
+                                    proxyFactory.addAdvice(new RepositoryTimer(meterRegistry,
+                                            repositoryInformation.getRepositoryInterface().getSimpleName()))));
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * Times every scheduled job.
+     *
+     * @param meterRegistry the registry to record the timings in
+     * @return the aspect which times the jobs
+     */
+    @Bean
+    public ScheduledJobTimer scheduledJobTimer(MeterRegistry meterRegistry) {
+        return new ScheduledJobTimer(meterRegistry);
+    }
+
+    /**
+     * Interceptor which times the method calls on one repository.
+     */
+    private static class RepositoryTimer implements MethodInterceptor {
+
+        private final ObjectProvider<MeterRegistry> meterRegistry;
+        private final String repository;
+
+        RepositoryTimer(ObjectProvider<MeterRegistry> meterRegistry, String repository) {
+            this.meterRegistry = meterRegistry;
+            this.repository = repository;
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            var registry = meterRegistry.getObject();
+            var sample = Timer.start(registry);
+            var outcome = SUCCESS;
+            try {
+                return invocation.proceed();
+            } catch (Throwable throwable) {
+                outcome = ERROR;
+                throw throwable;
+            } finally {
+                sample.stop(Timer.builder(REPOSITORY_TIMER)
+                        .description("Time taken by the repository methods")
+                        .tag("repository", repository)
+                        .tag("method", invocation.getMethod().getName())
+                        .tag("outcome", outcome)
+                        .register(registry));
+            }
+        }
+    }
+
+    /**
+     * Aspect which times each run of the methods annotated with @Scheduled, tagged with the job's
+     * class and method name.
+     */
+    @Aspect
+    public static class ScheduledJobTimer {
+
+        private final MeterRegistry meterRegistry;
+
+        ScheduledJobTimer(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+        }
+
+        @Around("@annotation(org.springframework.scheduling.annotation.Scheduled)")
+        public Object time(ProceedingJoinPoint joinPoint) throws Throwable {
+            var sample = Timer.start(meterRegistry);
+            var outcome = SUCCESS;
+            try {
+                return joinPoint.proceed();
+            } catch (Throwable throwable) {
+                outcome = ERROR;
+                throw throwable;
+            } finally {
+                var signature = joinPoint.getSignature();
+                sample.stop(Timer.builder(SCHEDULED_JOB_TIMER)
+                        .description("Time taken by the scheduled jobs")
+                        .tag("job", signature.getDeclaringType().getSimpleName() + "." + signature.getName())
+                        .tag("outcome", outcome)
+                        .register(meterRegistry));
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.seng302.project;
+
+import org.seng302.project.service_layer.util.SlowQueryDataSource;
+import org.seng302.project.service_layer.util.SlowQueryLog;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * Configuration of the slow query log, which wraps the data source so every statement run through it is timed.
+ * The threshold, the number of statements kept and the columns whose parameters are redacted are set with the
+ * slowqueries properties, see {@link SlowQueryLog}.
+ */
+@Configuration
+public class SlowQueryConfig {
+
+    /**
+     * Wraps each data source so its statements are timed.
+     * Static, as post processors are created before the other beans of the configuration.
+     *
+     * @param slowQueryLog the log to add the slow statements to
+     * @return the post processor which wraps the data sources
+     */
+    @Bean
+    public static BeanPostProcessor slowQueryDataSourcePostProcessor(ObjectProvider<SlowQueryLog> slowQueryLog) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && !(bean instanceof SlowQueryDataSource)) {
+                    return new SlowQueryDataSource((DataSource) bean, slowQueryLog.getObject());
+                }
+                return bean;
+            }
+        };
+    }
+}
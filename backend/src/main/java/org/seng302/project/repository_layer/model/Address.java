@@ -1,8 +1,11 @@
 package org.seng302.project.repository_layer.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.seng302.project.service_layer.dto.address.AddressDTO;
 
 import javax.persistence.*;
@@ -13,6 +16,9 @@ import javax.persistence.*;
 @Data // generate setters and getters for all fields (lombok pre-processor)
 @NoArgsConstructor // generate a no-args constructor needed by JPA (lombok pre-processor)
 @Entity // declare this class as a JPA entity (that can be mapped to a SQL table)
+@Cacheable // keep in the second-level cache, see EntityCacheConfig
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@JsonIgnoreProperties({"hibernateLazyInitializer", "handler"}) // leave out the fields of lazy loading proxies
 public class Address {
 
     private Integer id; // automatically generated and assigned by database connection.
@@ -3,6 +3,8 @@ package org.seng302.project.repository_layer.model;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.seng302.project.service_layer.dto.business.PostBusinessDTO;
 import org.seng302.project.service_layer.exceptions.businessAdministrator.UserNotAdministratorException;
 
@@ -17,6 +19,12 @@ import java.util.List;
 @Data // generate setters and getters for all fields (lombok pre-processor)
 @NoArgsConstructor // generate a no-args constructor needed by JPA (lombok pre-processor)
 @Entity // declare this class as a JPA entity (that can be mapped to a SQL table)
+@Cacheable // keep in the second-level cache, see EntityCacheConfig
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NamedEntityGraph(name = "Business.profile", attributeNodes = { // what a business' profile page shows
+        @NamedAttributeNode("address"),
+        @NamedAttributeNode(value = "administrators", subgraph = "administrator")
+}, subgraphs = @NamedSubgraph(name = "administrator", attributeNodes = @NamedAttributeNode("homeAddress")))
 public class Business {
 
     private Integer id; // automatically generated and assigned by database connection.
@@ -29,6 +37,7 @@ public class Business {
     private LocalDateTime created = LocalDateTime.now();
     private Integer primaryImageId;
     private List<Image> images = new ArrayList<>();
+    private RatingSummary ratingSummary = new RatingSummary();
 
     /**
      * Constructor for creating a new Business object.
@@ -55,7 +64,7 @@ public class Business {
         return this.id;
     }
 
-    @OneToOne(fetch = FetchType.EAGER)
+    @OneToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "address_id")
     public Address getAddress() {
         return this.address;
@@ -157,7 +166,13 @@ public class Business {
     public void removeImage(Image image){ this.images.remove(image); }
 
     @OneToMany(targetEntity=Image.class)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     public List<Image> getImages() {
         return this.images;
     }
+
+    @Embedded
+    public RatingSummary getRatingSummary() {
+        return this.ratingSummary;
+    }
 }
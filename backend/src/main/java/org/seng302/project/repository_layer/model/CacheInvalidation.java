@@ -0,0 +1,45 @@
+package org.seng302.project.repository_layer.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Record of an entity in the second-level cache being changed, so the other nodes running the application
+ * can evict it from their own caches.
+ * Records are written in the same transaction as the change, and read by the EntityCacheService.
+ */
+@Data // generate setters and getters for all fields (lombok pre-processor)
+@NoArgsConstructor // generate a no-args constructor needed by JPA (lombok pre-processor)
+@Entity // declare this class as a JPA entity (that can be mapped to a SQL table)
+@Table(name = "cache_invalidation",
+        indexes = @Index(name = "cache_invalidation_created_index", columnList = "created"))
+public class CacheInvalidation {
+
+    @Id // this field (attribute) is the primary key of the table
+    @GeneratedValue(strategy = GenerationType.IDENTITY) // autoincrement the ID
+    @Column(name = "id")
+    private Integer id;
+
+    @Column(name = "entity_name")
+    private String entityName;
+
+    @Column(name = "node_id")
+    private String nodeId;
+
+    @Column(name = "created")
+    private LocalDateTime created = LocalDateTime.now();
+
+    /**
+     * Constructor for the record of a cached entity being changed.
+     *
+     * @param entityName name of the entity that was changed
+     * @param nodeId     id of the node that changed it
+     */
+    public CacheInvalidation(String entityName, String nodeId) {
+        this.entityName = entityName;
+        this.nodeId = nodeId;
+    }
+}
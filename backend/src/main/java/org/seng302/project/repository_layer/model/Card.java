@@ -1,6 +1,7 @@
 package org.seng302.project.repository_layer.model;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -15,6 +16,11 @@ import java.util.Set;
 @Data // generate setters and getters for all fields (lombok pre-processor)
 @NoArgsConstructor // generate a no-args constructor needed by JPA (lombok pre-processor)
 @Entity // declare this class as a JPA entity (that can be mapped to a SQL table)
+@Table(indexes = @Index(name = "card_display_period_end_index", columnList = "display_period_end"))
+@NamedEntityGraph(name = "Card.feed", attributeNodes = // what each card in the marketplace shows
+        @NamedAttributeNode(value = "creator", subgraph = "creator"),
+        subgraphs = @NamedSubgraph(name = "creator", attributeNodes = @NamedAttributeNode("homeAddress")))
+@JsonIgnoreProperties({"hibernateLazyInitializer", "handler"}) // leave out the fields of lazy loading proxies
 public class Card {
 
     private Integer id;
@@ -49,7 +55,7 @@ public class Card {
         return this.id;
     }
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
     public User getCreator() {
         return this.creator;
@@ -59,10 +65,11 @@ public class Card {
     /**
      * This returns a SET (not a List) of the card's keywords
      * It returns a Set because returning a List results in a MultipleBagFetchException
+     * The keywords are loaded lazily, in batches for a page of cards (see default_batch_fetch_size)
      *
      * @return a Set of the card's keywords
      */
-    @ManyToMany(fetch = FetchType.EAGER)
+    @ManyToMany
     @JoinTable(
             name = "card_has_keyword",
             joinColumns = @JoinColumn(name = "card_id"),
@@ -13,6 +13,7 @@ import java.util.UUID;
 @Data // generate setters and getters for all fields (lombok pre-processor)
 @NoArgsConstructor // generate a no-args constructor needed by JPA (lombok pre-processor)
 @Entity // declare this class as a JPA entity (that can be mapped to a SQL table)
+@Table(indexes = @Index(name = "conformation_token_created_index", columnList = "created"))
 public class ConformationToken {
 
     @Id // this field (attribute) is the primary key of the table
@@ -0,0 +1,72 @@
+package org.seng302.project.repository_layer.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDate;
+
+/**
+ * Running totals of the sales a business made on one day: the number of sales, their revenue and units,
+ * the number of different buyers, and the reviews left on them.
+ * Sales reports are answered from these rather than from every sale in the report period.
+ * The totals are only changed with atomic update queries (see DailySalesRollupRepository) once the row exists,
+ * so the columns are not updatable and saving a rollup can't overwrite sales made since it was loaded.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "daily_sales_rollup",
+        uniqueConstraints = @UniqueConstraint(name = "daily_sales_rollup_business_date",
+                columnNames = {"business_id", "sale_date"}))
+public class DailySalesRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "business_id", nullable = false, updatable = false)
+    private Integer businessId;
+
+    @Column(name = "sale_date", nullable = false, updatable = false)
+    private LocalDate saleDate;
+
+    @Column(name = "sale_count", nullable = false, updatable = false)
+    private int saleCount;
+
+    @Column(name = "revenue", nullable = false, updatable = false)
+    private double revenue;
+
+    @Column(name = "units", nullable = false, updatable = false)
+    private long units;
+
+    @Column(name = "buyer_count", nullable = false, updatable = false)
+    private int buyerCount;
+
+    @Column(name = "review_count", nullable = false, updatable = false)
+    private int reviewCount;
+
+    @Column(name = "rating_total", nullable = false, updatable = false)
+    private int ratingTotal;
+
+    /**
+     * Constructor for the rollup of a day a business made sales on, with nothing added yet.
+     *
+     * @param businessId id of the business that made the sales
+     * @param saleDate   the day the sales were made
+     */
+    public DailySalesRollup(Integer businessId, LocalDate saleDate) {
+        this.businessId = businessId;
+        this.saleDate = saleDate;
+    }
+
+    /**
+     * Gets the average star rating of the reviews left on the day's sales.
+     *
+     * @return Double between 1 and 5 for the average star rating, null if there are no reviews
+     */
+    public Double getAverageRating() {
+        if (reviewCount == 0) return null;
+        return (double) ratingTotal / reviewCount;
+    }
+}
@@ -2,6 +2,8 @@ package org.seng302.project.repository_layer.model;
 
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 
@@ -11,6 +13,8 @@ import javax.persistence.*;
 @Data // generate setters and getters for all fields (lombok pre-processor)
 @NoArgsConstructor // generate a no-args constructor needed by JPA (lombok pre-processor)
 @Entity // declare this class as a JPA entity (that can be mapped to a SQL table)
+@Cacheable // keep in the second-level cache, see EntityCacheConfig
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Image {
     private Integer id;
     private String filename;
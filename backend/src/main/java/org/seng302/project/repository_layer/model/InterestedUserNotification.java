@@ -31,7 +31,7 @@ public class InterestedUserNotification extends UserNotification {
      * @param product Product that was listed.
      * @return Message to be returned with notification.
      */
-    private String createMessage(Product product) {
+    public static String createMessage(Product product) {
         return String.format(MESSAGE_TEMPLATE, product.getName());
     }
 
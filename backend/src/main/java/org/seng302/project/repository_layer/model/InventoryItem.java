@@ -17,6 +17,7 @@ public class InventoryItem {
     private Integer id;
     private Product product;
     private Integer quantity;
+    private Integer reservedQuantity = 0;
     private Double pricePerItem;
     private Double totalPrice;
 
@@ -48,7 +49,28 @@ public class InventoryItem {
         return this.id;
     }
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    /**
+     * Gets the quantity of the item.
+     * After the item is created, this is only changed by the conditional updates in the InventoryItemRepository,
+     * so saving an inventory item can't overwrite a sale made since it was loaded.
+     */
+    @Column(name = "quantity", updatable = false)
+    public Integer getQuantity() {
+        return this.quantity;
+    }
+
+    /**
+     * Gets the quantity of the item taken up by sale listings.
+     * This is only changed by the conditional updates in the InventoryItemRepository,
+     * so saving an inventory item can't overwrite a reservation made since it was loaded.
+     */
+    @Column(name = "reserved_quantity", nullable = false, insertable = false, updatable = false,
+            columnDefinition = "integer default 0")
+    public Integer getReservedQuantity() {
+        return this.reservedQuantity;
+    }
+
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "product_id", referencedColumnName = "id")
     @JoinColumn(name = "business_id", referencedColumnName = "business_id")
     public Product getProduct() {
@@ -2,6 +2,8 @@ package org.seng302.project.repository_layer.model;
 
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.time.LocalDateTime;
@@ -12,6 +14,8 @@ import java.time.LocalDateTime;
 @Data // generate setters and getters for all fields (lombok pre-processor)
 @NoArgsConstructor // generate a no-args constructor needed by JPA (lombok pre-processor)
 @Entity // declare this class as a JPA entity (that can be mapped to a SQL table)
+@Cacheable // keep in the second-level cache, see EntityCacheConfig
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Keyword {
 
     private Integer id;
@@ -0,0 +1,61 @@
+package org.seng302.project.repository_layer.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.seng302.project.repository_layer.model.enums.MarketplaceEventType;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Entry in the append-only log of what has happened to the marketplace's sale listings: listings being
+ * created, liked, unliked, sold and expiring.
+ * Each entry keeps the country and type its business had at the time, as the listings and likes it refers to
+ * are deleted once the listing is sold or expires. The marketplace rollups are made from these entries,
+ * and can be rebuilt from them.
+ * Entries are only ever inserted (see MarketplaceEventRepository), so none of the columns are updatable except
+ * foldedBy. Likes, unlikes and expiries are added to the rollups in batches rather than as they happen, and
+ * foldedBy is set to the id of the batch which added the entry.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "marketplace_event",
+        indexes = @Index(name = "marketplace_event_folded_by_index", columnList = "folded_by"))
+public class MarketplaceEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "event_type", nullable = false, updatable = false)
+    private MarketplaceEventType eventType;
+
+    @Column(name = "occurred", nullable = false, updatable = false)
+    private LocalDateTime occurred;
+
+    @Column(name = "business_id", nullable = false, updatable = false)
+    private Integer businessId;
+
+    @Column(name = "listing_id", updatable = false)
+    private Integer listingId;
+
+    @Column(name = "country", updatable = false)
+    private String country;
+
+    @Column(name = "business_type", updatable = false)
+    private String businessType;
+
+    @Column(name = "price", updatable = false)
+    private Double price;
+
+    @Column(name = "quantity", updatable = false)
+    private Integer quantity;
+
+    @Column(name = "likes", nullable = false, updatable = false)
+    private int likes;
+
+    @Column(name = "folded_by")
+    private String foldedBy;
+}
@@ -0,0 +1,80 @@
+package org.seng302.project.repository_layer.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDate;
+
+/**
+ * Running totals of the marketplace events of one business on one day: the listings it created, sold and
+ * had expire, the likes and unlikes of its listings, the likes on the listings it sold, and the revenue and
+ * units of its sales. The business' country and type are kept with the totals, so they can be grouped by them.
+ * The marketplace analytics are answered from these rather than from the sales and likes.
+ * The totals are only changed with atomic update queries (see MarketplaceRollupRepository) once the row exists,
+ * so the columns are not updatable and saving a rollup can't overwrite events recorded since it was loaded.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "marketplace_rollup",
+        uniqueConstraints = @UniqueConstraint(name = "marketplace_rollup_business_date",
+                columnNames = {"business_id", "rollup_date"}),
+        indexes = @Index(name = "marketplace_rollup_date_index", columnList = "rollup_date"))
+public class MarketplaceRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "business_id", nullable = false, updatable = false)
+    private Integer businessId;
+
+    @Column(name = "rollup_date", nullable = false, updatable = false)
+    private LocalDate rollupDate;
+
+    @Column(name = "country", updatable = false)
+    private String country;
+
+    @Column(name = "business_type", updatable = false)
+    private String businessType;
+
+    @Column(name = "listings_created", nullable = false, updatable = false)
+    private int listingsCreated;
+
+    @Column(name = "listings_sold", nullable = false, updatable = false)
+    private int listingsSold;
+
+    @Column(name = "listings_expired", nullable = false, updatable = false)
+    private int listingsExpired;
+
+    @Column(name = "likes", nullable = false, updatable = false)
+    private int likes;
+
+    @Column(name = "unlikes", nullable = false, updatable = false)
+    private int unlikes;
+
+    @Column(name = "likes_converted", nullable = false, updatable = false)
+    private int likesConverted;
+
+    @Column(name = "revenue", nullable = false, updatable = false)
+    private double revenue;
+
+    @Column(name = "units", nullable = false, updatable = false)
+    private long units;
+
+    /**
+     * Constructor for the rollup of a day a business had marketplace events on, with nothing added yet.
+     *
+     * @param businessId   id of the business
+     * @param rollupDate   the day of the events
+     * @param country      country of the business
+     * @param businessType type of the business
+     */
+    public MarketplaceRollup(Integer businessId, LocalDate rollupDate, String country, String businessType) {
+        this.businessId = businessId;
+        this.rollupDate = rollupDate;
+        this.country = country;
+        this.businessType = businessType;
+    }
+}
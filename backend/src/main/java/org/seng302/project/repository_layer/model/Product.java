@@ -1,8 +1,11 @@
 package org.seng302.project.repository_layer.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.time.LocalDateTime;
@@ -15,7 +18,10 @@ import java.util.List;
 @Data // generate setters and getters for all fields (lombok pre-processor)
 @NoArgsConstructor // generate a no-args constructor needed by JPA (lombok pre-processor)
 @Entity // declare this class as a JPA entity (that can be mapped to a SQL table)
+@Cacheable // keep in the second-level cache, see EntityCacheConfig
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @IdClass(ProductId.class) // class for the id of the product
+@JsonIgnoreProperties({"hibernateLazyInitializer", "handler"}) // leave out the fields of lazy loading proxies
 public class Product {
 
     @Id
@@ -28,7 +34,8 @@ public class Product {
     private Integer primaryImageId;
     private String currencyCountry;
 
-    @OneToMany(targetEntity=Image.class, fetch= FetchType.EAGER)
+    @OneToMany(targetEntity=Image.class)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private List<Image> images = new ArrayList<>();
 
     @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
@@ -0,0 +1,63 @@
+package org.seng302.project.repository_layer.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Outbox entry for a sale listing purchase, recording the users who need to be notified that the listing was sold.
+ * Entries are written in the same transaction as the sale, and the notifications are sent from them
+ * by the PurchaseNotificationService, which claims a batch of entries before sending them.
+ */
+@Data // generate setters and getters for all fields (lombok pre-processor)
+@NoArgsConstructor // generate a no-args constructor needed by JPA (lombok pre-processor)
+@Entity // declare this class as a JPA entity (that can be mapped to a SQL table)
+@Table(name = "purchase_outbox_event")
+public class PurchaseOutboxEvent {
+
+    @Id // this field (attribute) is the primary key of the table
+    @GeneratedValue(strategy = GenerationType.IDENTITY) // autoincrement the ID
+    @Column(name = "id")
+    private Integer id;
+
+    @Column(name = "listing_id")
+    private Integer listingId;
+
+    @Column(name = "buyer_id")
+    private Integer buyerId;
+
+    @Column(name = "message")
+    private String message;
+
+    @Column(name = "created")
+    private LocalDateTime created = LocalDateTime.now();
+
+    @Column(name = "claimed_by")
+    private String claimedBy;
+
+    @Column(name = "claimed_at")
+    private LocalDateTime claimedAt;
+
+    @ElementCollection
+    @CollectionTable(name = "purchase_outbox_recipient", joinColumns = @JoinColumn(name = "event_id"))
+    @Column(name = "user_id")
+    @ToString.Exclude
+    private Set<Integer> recipientIds = new HashSet<>();
+
+    /**
+     * Constructor for the outbox entry of a sale listing purchase.
+     *
+     * @param listing the listing that was bought
+     * @param buyer   the user who bought the listing
+     */
+    public PurchaseOutboxEvent(SaleListing listing, User buyer) {
+        this.listingId = listing.getId();
+        this.buyerId = buyer.getId();
+        this.message = InterestedUserNotification.createMessage(listing.getInventoryItem().getProduct());
+    }
+}
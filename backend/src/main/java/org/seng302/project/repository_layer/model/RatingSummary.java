@@ -0,0 +1,63 @@
+package org.seng302.project.repository_layer.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Access;
+import javax.persistence.AccessType;
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import java.util.List;
+
+/**
+ * Running totals of the reviews left on a business: the number of reviews, the sum of their ratings
+ * and the number of reviews with each star rating.
+ * The totals are only changed with atomic update queries (see BusinessRepository), so the columns are not updatable
+ * and saving a business can't overwrite reviews left since it was loaded.
+ */
+@Embeddable
+@Access(AccessType.FIELD)
+@Data
+@NoArgsConstructor
+public class RatingSummary {
+
+    @Column(name = "review_count", nullable = false, updatable = false, columnDefinition = "integer default 0")
+    private int reviewCount;
+
+    @Column(name = "rating_total", nullable = false, updatable = false, columnDefinition = "integer default 0")
+    private int ratingTotal;
+
+    @Column(name = "one_star_reviews", nullable = false, updatable = false, columnDefinition = "integer default 0")
+    private int oneStarReviews;
+
+    @Column(name = "two_star_reviews", nullable = false, updatable = false, columnDefinition = "integer default 0")
+    private int twoStarReviews;
+
+    @Column(name = "three_star_reviews", nullable = false, updatable = false, columnDefinition = "integer default 0")
+    private int threeStarReviews;
+
+    @Column(name = "four_star_reviews", nullable = false, updatable = false, columnDefinition = "integer default 0")
+    private int fourStarReviews;
+
+    @Column(name = "five_star_reviews", nullable = false, updatable = false, columnDefinition = "integer default 0")
+    private int fiveStarReviews;
+
+    /**
+     * Gets the average star rating of the reviews.
+     *
+     * @return Double between 1 and 5 for the average star rating, null if there are no reviews
+     */
+    public Double getAverageRating() {
+        if (reviewCount == 0) return null;
+        return (double) ratingTotal / reviewCount;
+    }
+
+    /**
+     * Gets the number of reviews with each star rating.
+     *
+     * @return List of the number of one to five star reviews, in that order
+     */
+    public List<Integer> getHistogram() {
+        return List.of(oneStarReviews, twoStarReviews, threeStarReviews, fourStarReviews, fiveStarReviews);
+    }
+}
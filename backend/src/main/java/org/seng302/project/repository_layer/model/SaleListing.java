@@ -2,17 +2,28 @@ package org.seng302.project.repository_layer.model;
 
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.DynamicUpdate;
 
 import javax.persistence.*;
 import java.time.LocalDateTime;
 
 /**
  * Class to model a sale listing.
+ * Uses dynamic updates so saving a listing does not overwrite the like counter,
+ * which is only ever changed by the atomic updates in SaleListingRepository.
  */
 @Data
 @NoArgsConstructor
 @Entity
-@Table(name = "sale_listing")
+@DynamicUpdate
+@Table(name = "sale_listing", indexes = @Index(name = "sale_listing_closes_index", columnList = "closes"))
+@NamedEntityGraph(name = "SaleListing.browse", attributeNodes = { // what each listing in the browse page shows
+        @NamedAttributeNode(value = "inventoryItem", subgraph = "inventoryItem"),
+        @NamedAttributeNode(value = "business", subgraph = "business")
+}, subgraphs = {
+        @NamedSubgraph(name = "inventoryItem", attributeNodes = @NamedAttributeNode("product")),
+        @NamedSubgraph(name = "business", attributeNodes = @NamedAttributeNode("address"))
+})
 public class SaleListing {
 
     @Id
@@ -36,6 +47,9 @@ public class SaleListing {
     @Column(name = "featured")
     private boolean featured;
 
+    @Column(name = "likes", nullable = false, columnDefinition = "integer default 0")
+    private int likes;
+
     public SaleListing(Business business, InventoryItem inventoryItem, Double price, String moreInfo,
                        LocalDateTime closes, Integer quantity) {
         this.business = business;
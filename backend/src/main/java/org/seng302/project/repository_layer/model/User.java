@@ -18,6 +18,11 @@ import java.util.List;
 @Data // generate setters and getters for all fields (lombok pre-processor)
 @NoArgsConstructor // generate a no-args constructor needed by JPA (lombok pre-processor)
 @Entity // declare this class as a JPA entity (that can be mapped to a SQL table)
+@NamedEntityGraph(name = "User.profile", attributeNodes = { // what a user's profile page shows
+        @NamedAttributeNode("homeAddress"),
+        @NamedAttributeNode(value = "businessesAdministered", subgraph = "business")
+}, subgraphs = @NamedSubgraph(name = "business", attributeNodes = @NamedAttributeNode("address")))
+@JsonIgnoreProperties({"hibernateLazyInitializer", "handler"}) // leave out the fields of lazy loading proxies
 public class User {
 
     @Id // this field (attribute) is the primary key of the table
@@ -41,7 +46,7 @@ public class User {
 
     private String phoneNumber;
 
-    @OneToOne(fetch = FetchType.EAGER)
+    @OneToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "address_id")
     private Address homeAddress;
 
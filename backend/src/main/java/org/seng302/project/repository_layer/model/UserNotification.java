@@ -1,5 +1,6 @@
 package org.seng302.project.repository_layer.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
@@ -14,9 +15,12 @@ import javax.persistence.*;
 @NoArgsConstructor // generate a no-args constructor needed by JPA (lombok pre-processor)
 @Entity // declare this class as a JPA entity (that can be mapped to a SQL table)
 @Inheritance(strategy = InheritanceType.JOINED)
+@Table(name = "user_notification",
+        indexes = @Index(name = "user_notification_purchase_event_index", columnList = "purchase_event_id"))
 public class UserNotification extends Notification {
 
     private User user;
+    private Integer purchaseEventId;
 
     /**
      * Constructor for creating a new UserNotification object.
@@ -46,4 +50,13 @@ public class UserNotification extends Notification {
     public User getUser() {
         return this.user;
     }
+
+    /**
+     * Id of the purchase outbox entry the notification was sent for, or null if it wasn't sent from the outbox.
+     */
+    @JsonIgnore
+    @Column(name = "purchase_event_id")
+    public Integer getPurchaseEventId() {
+        return this.purchaseEventId;
+    }
 }
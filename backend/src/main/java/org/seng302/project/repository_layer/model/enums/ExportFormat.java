@@ -0,0 +1,41 @@
+package org.seng302.project.repository_layer.model.enums;
+
+/**
+ * Enum for the formats a business' sale history can be exported in
+ */
+public enum ExportFormat {
+
+    CSV("csv", "text/csv"),
+    NDJSON("ndjson", "application/x-ndjson");
+
+    private final String name;
+    private final String contentType;
+
+    ExportFormat(String name, String contentType) {
+        this.name = name;
+        this.contentType = contentType;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns the export format enum for a format name.
+     *
+     * @param name name of the format, e.g. "csv".
+     * @return export format enum, or null if there is no format with the name.
+     */
+    public static ExportFormat getFormat(String name) {
+        for (ExportFormat format : ExportFormat.values()) {
+            if (format.name.equals(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
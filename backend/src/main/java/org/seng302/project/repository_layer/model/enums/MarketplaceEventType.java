@@ -0,0 +1,13 @@
+package org.seng302.project.repository_layer.model.enums;
+
+/**
+ * Enum for the types of event recorded in the marketplace event log, which the marketplace analytics
+ * are made from
+ */
+public enum MarketplaceEventType {
+    LISTING_CREATED,
+    LISTING_LIKED,
+    LISTING_UNLIKED,
+    LISTING_SOLD,
+    LISTING_EXPIRED
+}
@@ -2,11 +2,18 @@ package org.seng302.project.repository_layer.repository;
 
 import org.seng302.project.repository_layer.model.Business;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Repository for interacting with Business objects in the database.
@@ -19,12 +26,61 @@ public interface BusinessRepository extends JpaRepository<Business, Integer>, Jp
      * @param name name of business.
      * @return list of businesses with matching name.
      */
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     List<Business> findByName(@Param("name") String name);
 
+    /**
+     * Gets a business along with its address and its administrators, for showing its profile.
+     *
+     * @param id id of the business.
+     * @return the business, or empty if there is no business with the id.
+     */
+    @EntityGraph("Business.profile")
+    Optional<Business> findProfileById(@Param("id") Integer id);
+
     /**
      * Used when searching for businesses
      * @param sort this is used to sort the search
      * @return list of businesses that match the sort
      */
     List<Business> findAll(Sort sort);
+
+    /**
+     * Atomically adds a review rating to the rating summary of a business.
+     *
+     * @param businessId The id of the business that was reviewed.
+     * @param rating     The star rating of the review, from 1 to 5.
+     * @return Number of businesses updated.
+     */
+    @Modifying
+    @Transactional
+    @Query("update Business b set b.ratingSummary.reviewCount = b.ratingSummary.reviewCount + 1, " +
+            "b.ratingSummary.ratingTotal = b.ratingSummary.ratingTotal + :rating, " +
+            "b.ratingSummary.oneStarReviews = b.ratingSummary.oneStarReviews + (case when :rating = 1 then 1 else 0 end), " +
+            "b.ratingSummary.twoStarReviews = b.ratingSummary.twoStarReviews + (case when :rating = 2 then 1 else 0 end), " +
+            "b.ratingSummary.threeStarReviews = b.ratingSummary.threeStarReviews + (case when :rating = 3 then 1 else 0 end), " +
+            "b.ratingSummary.fourStarReviews = b.ratingSummary.fourStarReviews + (case when :rating = 4 then 1 else 0 end), " +
+            "b.ratingSummary.fiveStarReviews = b.ratingSummary.fiveStarReviews + (case when :rating = 5 then 1 else 0 end) " +
+            "where b.id = :businessId")
+    int addReviewRating(@Param("businessId") Integer businessId, @Param("rating") Integer rating);
+
+    /**
+     * Rebuilds the rating summary of every business from its reviews in a single statement, so reviews added
+     * while rebuilding are not lost. Reviews with a rating outside 1 to 5 are left out.
+     *
+     * @return Number of businesses updated.
+     */
+    @Modifying
+    @Transactional
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "business"))
+    @Query(value = "update business b set " +
+            "review_count = (select count(*) from review r where r.business_id = b.business_id and r.rating between 1 and 5), " +
+            "rating_total = (select coalesce(sum(r.rating), 0) from review r where r.business_id = b.business_id and r.rating between 1 and 5), " +
+            "one_star_reviews = (select count(*) from review r where r.business_id = b.business_id and r.rating = 1), " +
+            "two_star_reviews = (select count(*) from review r where r.business_id = b.business_id and r.rating = 2), " +
+            "three_star_reviews = (select count(*) from review r where r.business_id = b.business_id and r.rating = 3), " +
+            "four_star_reviews = (select count(*) from review r where r.business_id = b.business_id and r.rating = 4), " +
+            "five_star_reviews = (select count(*) from review r where r.business_id = b.business_id and r.rating = 5)",
+            nativeQuery = true)
+    int rebuildRatingSummaries();
 }
@@ -0,0 +1,47 @@
+package org.seng302.project.repository_layer.repository;
+
+import org.seng302.project.repository_layer.model.CacheInvalidation;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Repository for the records of cached entities being changed.
+ */
+public interface CacheInvalidationRepository extends JpaRepository<CacheInvalidation, Integer> {
+
+    /**
+     * Finds the records written after a given record, in the order they were written.
+     *
+     * @param id       id of the last record already read
+     * @param pageable pageable object, to limit results
+     * @return List of the newer CacheInvalidations
+     */
+    @Query("select c from CacheInvalidation c where c.id > :id order by c.id")
+    List<CacheInvalidation> findAfter(@Param("id") Integer id, Pageable pageable);
+
+    /**
+     * Finds the id of the newest record.
+     *
+     * @return id of the newest record, or null if there are none
+     */
+    @Query("select max(c.id) from CacheInvalidation c")
+    Integer findLastId();
+
+    /**
+     * Deletes the records written before a given date in a single statement.
+     *
+     * @param date date to delete the records before
+     * @return Number of records deleted
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from CacheInvalidation c where c.created < :date")
+    int deleteCreatedBefore(@Param("date") LocalDateTime date);
+}
@@ -3,14 +3,22 @@ package org.seng302.project.repository_layer.repository;
 import org.seng302.project.repository_layer.model.Card;
 import org.seng302.project.repository_layer.model.Keyword;
 import org.seng302.project.repository_layer.model.User;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 
@@ -27,8 +35,20 @@ public interface CardRepository extends JpaRepository<Card, Integer>, JpaSpecifi
      * @param user The user to find all cards for.
      * @return List of cards created by the user.
      */
+    @EntityGraph("Card.feed")
     List<Card> findAllByCreator(@Param("creator") User user);
 
+    /**
+     * Gets a page of the cards matching a specification, along with their creators.
+     * The keywords of the cards are loaded in batches when first used.
+     * @param spec The specification the cards must match.
+     * @param pageable The page to get.
+     * @return Page of cards.
+     */
+    @Override
+    @EntityGraph("Card.feed")
+    Page<Card> findAll(Specification<Card> spec, Pageable pageable);
+
     /**
      * Finds all cards that have that keyword.
      * @param keyword The keyword to look for.
@@ -36,8 +56,36 @@ public interface CardRepository extends JpaRepository<Card, Integer>, JpaSpecifi
      */
     List<Card> findAllByKeywordsContaining(@Param("keywords") Keyword keyword);
 
+    /**
+     * Finds the cards with a display period that ended before a date, ordered by id.
+     * Only the fields needed to notify the creators are loaded.
+     * @param date Date the display periods ended before.
+     * @param pageable pageable object, to limit results
+     * @return A list of rows made up of card id, creator id and card title
+     */
+    @Query("select c.id, c.creator.id, c.title from Card c where c.displayPeriodEnd < :date order by c.id")
+    List<List<Object>> findExpiredCards(@Param("date") LocalDateTime date, Pageable pageable);
+
+    /**
+     * Deletes the keywords of a group of cards in a single statement.
+     * @param cardIds ids of the cards to delete the keywords of
+     * @return Number of card keywords deleted
+     */
+    @Modifying
+    @Transactional
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "card_has_keyword"))
+    @Query(value = "delete from card_has_keyword where card_id in :cardIds", nativeQuery = true)
+    int deleteKeywordsByCardIds(@Param("cardIds") Collection<Integer> cardIds);
+
+    /**
+     * Deletes a group of cards in a single statement.
+     * The messages and keywords of the cards must be deleted first.
+     * @param cardIds ids of the cards to delete
+     * @return Number of cards deleted
+     */
     @Modifying
     @Transactional
-    List<Card> findAllByDisplayPeriodEndBefore(LocalDateTime dayAgo);
+    @Query("delete from Card c where c.id in :cardIds")
+    int deleteByIds(@Param("cardIds") Collection<Integer> cardIds);
 
 }
\ No newline at end of file
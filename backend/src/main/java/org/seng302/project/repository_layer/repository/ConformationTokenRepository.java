@@ -2,9 +2,16 @@ package org.seng302.project.repository_layer.repository;
 
 import org.seng302.project.repository_layer.model.ConformationToken;
 import org.seng302.project.repository_layer.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -29,4 +36,25 @@ public interface ConformationTokenRepository extends JpaRepository<ConformationT
      */
     Optional<ConformationToken> findByUser(@Param("user") User user);
 
+    /**
+     * Finds the ids of the ConformationTokens created before a date.
+     *
+     * @param date     Date the tokens were created before.
+     * @param pageable pageable object, to limit results
+     * @return List of ConformationToken ids.
+     */
+    @Query("select t.id from ConformationToken t where t.created < :date order by t.id")
+    List<Integer> findIdsByCreatedBefore(@Param("date") LocalDateTime date, Pageable pageable);
+
+    /**
+     * Deletes a group of ConformationTokens in a single statement.
+     *
+     * @param tokenIds ids of the tokens to delete.
+     * @return Number of tokens deleted.
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from ConformationToken t where t.id in :tokenIds")
+    int deleteByIds(@Param("tokenIds") Collection<Integer> tokenIds);
+
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+package org.seng302.project.repository_layer.repository;
+
+import org.seng302.project.repository_layer.model.DailySalesRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Repository for the daily totals of each business' sales.
+ */
+public interface DailySalesRollupRepository extends JpaRepository<DailySalesRollup, Integer> {
+
+    /**
+     * Finds the rollups of a business' sales for the days within a period.
+     *
+     * @param businessId ID of the business to get the rollups for
+     * @param start      the first day of the period
+     * @param end        the last day of the period
+     * @return List of the rollups of the days with sales, ordered by day
+     */
+    @Query("select r from DailySalesRollup r where r.businessId = :businessId " +
+            "and r.saleDate >= :start and r.saleDate <= :end order by r.saleDate")
+    List<DailySalesRollup> findWithinPeriod(@Param("businessId") Integer businessId,
+                                            @Param("start") LocalDate start,
+                                            @Param("end") LocalDate end);
+
+    /**
+     * Adds a sale to the rollup of the day it was made, in a single statement.
+     * This locks the rollup until the transaction commits.
+     *
+     * @param businessId ID of the business that made the sale
+     * @param saleDate   the day the sale was made
+     * @param price      price of the sale
+     * @param quantity   quantity sold
+     * @return Number of rollups updated, 0 if there is no rollup for the day yet
+     */
+    @Modifying
+    @Transactional
+    @Query("update DailySalesRollup r set r.saleCount = r.saleCount + 1, r.revenue = r.revenue + :price, " +
+            "r.units = r.units + :quantity where r.businessId = :businessId and r.saleDate = :saleDate")
+    int addSale(@Param("businessId") Integer businessId, @Param("saleDate") LocalDate saleDate,
+                @Param("price") double price, @Param("quantity") long quantity);
+
+    /**
+     * Creates the rollup of a day with the business' first sale that day, in a single statement.
+     * Inserted directly rather than saved, so the rollup isn't kept in the persistence context and left stale
+     * by the update queries. Fails if another transaction has already created the rollup.
+     *
+     * @param businessId ID of the business that made the sale
+     * @param saleDate   the day the sale was made
+     * @param price      price of the sale
+     * @param quantity   quantity sold
+     * @return Number of rollups created
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "insert into daily_sales_rollup (business_id, sale_date, sale_count, revenue, units, " +
+            "buyer_count, review_count, rating_total) values (:businessId, :saleDate, 1, :price, :quantity, 0, 0, 0)",
+            nativeQuery = true)
+    int createRollup(@Param("businessId") Integer businessId, @Param("saleDate") LocalDate saleDate,
+                     @Param("price") double price, @Param("quantity") long quantity);
+
+    /**
+     * Adds a buyer who hadn't already bought from the business to the rollup of the day, in a single statement.
+     *
+     * @param businessId ID of the business that made the sale
+     * @param saleDate   the day the sale was made
+     * @return Number of rollups updated
+     */
+    @Modifying
+    @Transactional
+    @Query("update DailySalesRollup r set r.buyerCount = r.buyerCount + 1 " +
+            "where r.businessId = :businessId and r.saleDate = :saleDate")
+    int addBuyer(@Param("businessId") Integer businessId, @Param("saleDate") LocalDate saleDate);
+
+    /**
+     * Adds a review's rating to the rollup of the day the reviewed sale was made, in a single statement.
+     *
+     * @param businessId ID of the business that was reviewed
+     * @param saleDate   the day the reviewed sale was made
+     * @param rating     star rating of the review, from 1 to 5
+     * @return Number of rollups updated, 0 if there is no rollup for the day yet
+     */
+    @Modifying
+    @Transactional
+    @Query("update DailySalesRollup r set r.reviewCount = r.reviewCount + 1, r.ratingTotal = r.ratingTotal + :rating " +
+            "where r.businessId = :businessId and r.saleDate = :saleDate")
+    int addReview(@Param("businessId") Integer businessId, @Param("saleDate") LocalDate saleDate,
+                  @Param("rating") int rating);
+
+    /**
+     * Deletes every rollup in a single statement, used before they are rebuilt from the sales.
+     *
+     * @return Number of rollups deleted
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from DailySalesRollup r")
+    int deleteAllRollups();
+}
@@ -1,24 +1,131 @@
 package org.seng302.project.repository_layer.repository;
 
 import org.seng302.project.repository_layer.model.InventoryItem;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Repository for interfacing with products in the database.
  */
 public interface InventoryItemRepository extends JpaRepository<InventoryItem, Integer> {
 
+    /**
+     * Gets an inventory item along with its product.
+     *
+     * @param itemId Id of the inventory item.
+     * @return The inventory item, or empty if there is no inventory item with the id.
+     */
+    @Override
+    @EntityGraph(attributePaths = "product")
+    Optional<InventoryItem> findById(Integer itemId);
+
     /**
      * Gets all inventory items for a specific business.
      *
      * @param businessId Id of the business to filter inventory items by.
      * @return List of inventory items that belong to the business.
      */
+    @EntityGraph(attributePaths = "product")
     @Query("from InventoryItem i where i.product.businessId = :businessId")
     List<InventoryItem> findAllByBusinessId(@Param("businessId") Integer businessId);
 
+    /**
+     * Reserves some of an inventory item for a sale listing, only if that much of it isn't already reserved.
+     * The stock check and the reservation happen in a single statement.
+     *
+     * @param itemId   Id of the inventory item.
+     * @param quantity Quantity to reserve.
+     * @return Number of inventory items updated, 0 if there wasn't enough available.
+     */
+    @Modifying
+    @Transactional
+    @Query("update InventoryItem i set i.reservedQuantity = i.reservedQuantity + :quantity " +
+            "where i.id = :itemId and i.quantity - i.reservedQuantity >= :quantity")
+    int reserveQuantity(@Param("itemId") Integer itemId, @Param("quantity") Integer quantity);
+
+    /**
+     * Atomically lowers the quantity of an inventory item when a sale listing for it is bought,
+     * only if it has at least that much left. The quantity reserved for the listing is released at the same time.
+     *
+     * @param itemId   Id of the inventory item.
+     * @param quantity Quantity sold.
+     * @return Number of inventory items updated, 0 if there wasn't enough left.
+     */
+    @Modifying
+    @Transactional
+    @Query("update InventoryItem i set i.quantity = i.quantity - :quantity, " +
+            "i.reservedQuantity = i.reservedQuantity - :quantity " +
+            "where i.id = :itemId and i.quantity >= :quantity")
+    int sellQuantity(@Param("itemId") Integer itemId, @Param("quantity") Integer quantity);
+
+    /**
+     * Releases the quantities reserved by a group of sale listings, for when they are removed without being bought.
+     *
+     * @param listingIds Ids of the sale listings.
+     * @return Number of inventory items updated.
+     */
+    @Modifying
+    @Transactional
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "inventory_item"))
+    @Query(value = "update inventory_item i set i.reserved_quantity = i.reserved_quantity - " +
+            "(select coalesce(sum(s.quantity), 0) from sale_listing s " +
+            "where s.inventory_item_id = i.inventory_item_id and s.listing_id in :listingIds) " +
+            "where i.inventory_item_id in " +
+            "(select s.inventory_item_id from sale_listing s where s.listing_id in :listingIds)", nativeQuery = true)
+    int releaseReservedByListingIds(@Param("listingIds") Collection<Integer> listingIds);
+
+    /**
+     * Sets the reserved quantity of every inventory item to the total quantity of its sale listings,
+     * repairing any drift.
+     *
+     * @return Number of inventory items updated.
+     */
+    @Modifying
+    @Transactional
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "inventory_item"))
+    @Query(value = "update inventory_item i set i.reserved_quantity = " +
+            "(select coalesce(sum(s.quantity), 0) from sale_listing s where s.inventory_item_id = i.inventory_item_id)",
+            nativeQuery = true)
+    int reconcileReservedQuantities();
+
+    /**
+     * Updates the quantity of an inventory item, only if the new quantity covers what is reserved by sale listings.
+     *
+     * @param itemId   Id of the inventory item.
+     * @param quantity The new quantity.
+     * @return Number of inventory items updated, 0 if more than the new quantity is reserved.
+     */
+    @Modifying
+    @Transactional
+    @Query("update InventoryItem i set i.quantity = :quantity where i.id = :itemId and i.reservedQuantity <= :quantity")
+    int updateQuantity(@Param("itemId") Integer itemId, @Param("quantity") Integer quantity);
+
+    /**
+     * Gets the current quantity of an inventory item from the database.
+     *
+     * @param itemId Id of the inventory item.
+     * @return The quantity, or null if the item doesn't exist.
+     */
+    @Query("select i.quantity from InventoryItem i where i.id = :itemId")
+    Integer findQuantityById(@Param("itemId") Integer itemId);
+
+    /**
+     * Gets the current quantity of an inventory item reserved by sale listings from the database.
+     *
+     * @param itemId Id of the inventory item.
+     * @return The reserved quantity, or null if the item doesn't exist.
+     */
+    @Query("select i.reservedQuantity from InventoryItem i where i.id = :itemId")
+    Integer findReservedQuantityById(@Param("itemId") Integer itemId);
+
 }
@@ -3,9 +3,11 @@ package org.seng302.project.repository_layer.repository;
 import org.seng302.project.repository_layer.model.Keyword;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 
+import javax.persistence.QueryHint;
 import java.util.List;
 
 /**
@@ -20,5 +22,6 @@ public interface KeywordRepository extends JpaRepository<Keyword, Integer>, JpaS
      * @param name keyword name
      * @return list of keywords with matching name
      */
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     List<Keyword> findByName(@Param("name") String name);
 }
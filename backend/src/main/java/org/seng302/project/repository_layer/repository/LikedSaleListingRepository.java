@@ -5,10 +5,14 @@ import org.seng302.project.repository_layer.model.SaleListing;
 import org.seng302.project.repository_layer.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
 import java.util.List;
 
 public interface LikedSaleListingRepository extends JpaRepository<LikedSaleListing, Integer>,
@@ -60,4 +64,32 @@ public interface LikedSaleListingRepository extends JpaRepository<LikedSaleListi
     @Query("select l.listing, count(l.listing) from LikedSaleListing l group by l.listing order by count(l.listing) desc")
     List<List<Object>> findPopular(Pageable pageable);
 
+    /**
+     * Counts the likes of each sale listing in a group of sale listings
+     * @param listingIds ids of the listings to count likes for
+     * @return A list made up of listing id, count "pairs" (lists). Listings with no likes are not included
+     */
+    @Query("select l.listing.id, count(l) from LikedSaleListing l where l.listing.id in :listingIds group by l.listing.id")
+    List<List<Object>> countLikesByListingIds(@Param("listingIds") Collection<Integer> listingIds);
+
+    /**
+     * Finds which of a group of sale listings have been liked by a user
+     * @param userId id of the user to check likes for
+     * @param listingIds ids of the listings to check
+     * @return List of the ids of the listings the user has liked
+     */
+    @Query("select l.listing.id from LikedSaleListing l where l.user.id = :userId and l.listing.id in :listingIds")
+    List<Integer> findListingIdsLikedByUser(@Param("userId") Integer userId,
+                                            @Param("listingIds") Collection<Integer> listingIds);
+
+    /**
+     * Deletes all likes of a group of sale listings in a single statement
+     * @param listingIds ids of the listings to delete the likes of
+     * @return Number of likes deleted
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from LikedSaleListing l where l.listing.id in :listingIds")
+    int deleteByListingIds(@Param("listingIds") Collection<Integer> listingIds);
+
 }
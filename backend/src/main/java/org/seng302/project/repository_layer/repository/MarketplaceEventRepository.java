@@ -0,0 +1,200 @@
+package org.seng302.project.repository_layer.repository;
+
+import org.seng302.project.repository_layer.model.MarketplaceEvent;
+import org.seng302.project.repository_layer.model.enums.MarketplaceEventType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository for the append-only log of marketplace events.
+ * Events are inserted with a single statement which copies the country and type of their business,
+ * so recording one doesn't load the business.
+ */
+public interface MarketplaceEventRepository extends JpaRepository<MarketplaceEvent, Integer> {
+
+    /**
+     * Records an event of a business' sale listing, in a single statement.
+     *
+     * @param eventType  name of the type of event, one of MarketplaceEventType
+     * @param occurred   when the event happened
+     * @param businessId ID of the business with the listing
+     * @param listingId  ID of the listing
+     * @param price      price of the listing
+     * @param quantity   quantity of the listing
+     * @param likes      number of likes the listing had when it was sold, otherwise 0
+     * @return Number of events recorded
+     */
+    @Modifying
+    @Transactional
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "marketplace_event"))
+    @Query(value = "insert into marketplace_event (event_type, occurred, business_id, listing_id, country, " +
+            "business_type, price, quantity, likes) " +
+            "select :eventType, :occurred, b.business_id, :listingId, a.country, b.business_type, " +
+            ":price, :quantity, :likes from business b left join address a on a.address_id = b.address_id " +
+            "where b.business_id = :businessId", nativeQuery = true)
+    int addEvent(@Param("eventType") String eventType,
+                 @Param("occurred") LocalDateTime occurred,
+                 @Param("businessId") Integer businessId,
+                 @Param("listingId") Integer listingId,
+                 @Param("price") Double price,
+                 @Param("quantity") Integer quantity,
+                 @Param("likes") int likes);
+
+    /**
+     * Records the expiry of a batch of sale listings, in a single statement. Must be called with listings
+     * claimed for expiry in the same transaction, before they are deleted, so the listings it reads are locked.
+     *
+     * @param occurred   when the listings expired
+     * @param listingIds IDs of the listings
+     * @return Number of events recorded
+     */
+    @Modifying
+    @Transactional
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "marketplace_event"))
+    @Query(value = "insert into marketplace_event (event_type, occurred, business_id, listing_id, country, " +
+            "business_type, price, quantity, likes) " +
+            "select 'LISTING_EXPIRED', :occurred, b.business_id, l.listing_id, a.country, b.business_type, " +
+            "l.price, l.quantity, l.likes from sale_listing l join business b on b.business_id = l.business_id " +
+            "left join address a on a.address_id = b.address_id where l.listing_id in :listingIds",
+            nativeQuery = true)
+    int addExpiredEvents(@Param("occurred") LocalDateTime occurred,
+                         @Param("listingIds") List<Integer> listingIds);
+
+    /**
+     * Gets the totals of the events of each business for each day and type of event, in one grouped query.
+     * Used to rebuild the marketplace rollups.
+     *
+     * @return A list of rows made up of the business id, day, event type, country, business type, number of events,
+     * total price, total quantity and total likes
+     */
+    @Query("select e.businessId, cast(e.occurred as date), e.eventType, max(e.country), max(e.businessType), " +
+            "count(e), sum(e.price), sum(e.quantity), sum(e.likes) from MarketplaceEvent e " +
+            "group by e.businessId, cast(e.occurred as date), e.eventType")
+    List<List<Object>> findDailyTotals();
+
+    /**
+     * Finds the ids of the oldest events of the given types which haven't been added to the rollups.
+     *
+     * @param eventTypes types of the events to find
+     * @param pageable   the number of events to find
+     * @return List of the ids of the oldest events not yet added to the rollups
+     */
+    @Query("select e.id from MarketplaceEvent e where e.foldedBy is null and e.eventType in :eventTypes " +
+            "order by e.id")
+    List<Integer> findUnfoldedIds(@Param("eventTypes") Collection<MarketplaceEventType> eventTypes,
+                                  Pageable pageable);
+
+    /**
+     * Atomically claims events to be added to the rollups by a batch, skipping any another batch claimed first.
+     *
+     * @param ids      ids of the events to claim
+     * @param foldedBy unique id of the batch
+     * @return Number of events claimed
+     */
+    @Modifying
+    @Transactional
+    @Query("update MarketplaceEvent e set e.foldedBy = :foldedBy where e.id in :ids and e.foldedBy is null")
+    int claimForFold(@Param("ids") Collection<Integer> ids, @Param("foldedBy") String foldedBy);
+
+    /**
+     * Claims every event of the given types which hasn't been added to the rollups, as rebuilding the rollups
+     * adds them.
+     *
+     * @param eventTypes types of the events to claim
+     * @param foldedBy   unique id of the rebuild
+     * @return Number of events claimed
+     */
+    @Modifying
+    @Transactional
+    @Query("update MarketplaceEvent e set e.foldedBy = :foldedBy where e.foldedBy is null " +
+            "and e.eventType in :eventTypes")
+    int claimAllForFold(@Param("eventTypes") Collection<MarketplaceEventType> eventTypes,
+                        @Param("foldedBy") String foldedBy);
+
+    /**
+     * Gets the number of events of each business for each day and type of event out of the events claimed
+     * by a batch, in one grouped query.
+     *
+     * @param foldedBy unique id of the batch
+     * @return A list of rows made up of the business id, day, event type and number of events
+     */
+    @Query("select e.businessId, cast(e.occurred as date), e.eventType, count(e) from MarketplaceEvent e " +
+            "where e.foldedBy = :foldedBy group by e.businessId, cast(e.occurred as date), e.eventType")
+    List<List<Object>> findFoldedTotals(@Param("foldedBy") String foldedBy);
+
+    /**
+     * Records the sale of every sale in the sale history, in a single statement.
+     * Used to backfill the log the first time the application is run with it.
+     *
+     * @return Number of events recorded
+     */
+    @Modifying
+    @Transactional
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "marketplace_event"))
+    @Query(value = "insert into marketplace_event (event_type, occurred, business_id, listing_id, country, " +
+            "business_type, price, quantity, likes) " +
+            "select 'LISTING_SOLD', s.date_sold, b.business_id, s.old_listing_id, a.country, b.business_type, " +
+            "s.price, s.quantity, 0 from sale s join business b on b.business_id = s.business_id " +
+            "left join address a on a.address_id = b.address_id where s.date_sold is not null", nativeQuery = true)
+    int backfillSoldEvents();
+
+    /**
+     * Records the creation of the listing of every sale in the sale history, in a single statement.
+     * Used to backfill the log the first time the application is run with it.
+     *
+     * @return Number of events recorded
+     */
+    @Modifying
+    @Transactional
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "marketplace_event"))
+    @Query(value = "insert into marketplace_event (event_type, occurred, business_id, listing_id, country, " +
+            "business_type, price, quantity, likes) " +
+            "select 'LISTING_CREATED', s.created, b.business_id, s.old_listing_id, a.country, b.business_type, " +
+            "s.price, s.quantity, 0 from sale s join business b on b.business_id = s.business_id " +
+            "left join address a on a.address_id = b.address_id where s.created is not null", nativeQuery = true)
+    int backfillSoldListingEvents();
+
+    /**
+     * Records the creation of every current sale listing, in a single statement.
+     * Used to backfill the log the first time the application is run with it.
+     *
+     * @return Number of events recorded
+     */
+    @Modifying
+    @Transactional
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "marketplace_event"))
+    @Query(value = "insert into marketplace_event (event_type, occurred, business_id, listing_id, country, " +
+            "business_type, price, quantity, likes) " +
+            "select 'LISTING_CREATED', l.created, b.business_id, l.listing_id, a.country, b.business_type, " +
+            "l.price, l.quantity, 0 from sale_listing l join business b on b.business_id = l.business_id " +
+            "left join address a on a.address_id = b.address_id where l.created is not null", nativeQuery = true)
+    int backfillListingEvents();
+
+    /**
+     * Records a like for every like of the current sale listings, in a single statement. When a like was made
+     * isn't kept, so it is recorded as made when its listing was created.
+     * Used to backfill the log the first time the application is run with it.
+     *
+     * @return Number of events recorded
+     */
+    @Modifying
+    @Transactional
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "marketplace_event"))
+    @Query(value = "insert into marketplace_event (event_type, occurred, business_id, listing_id, country, " +
+            "business_type, price, quantity, likes) " +
+            "select 'LISTING_LIKED', l.created, b.business_id, l.listing_id, a.country, b.business_type, " +
+            "l.price, l.quantity, 0 from liked_sale_listing k join sale_listing l on l.listing_id = k.listing_id " +
+            "join business b on b.business_id = l.business_id " +
+            "left join address a on a.address_id = b.address_id where l.created is not null", nativeQuery = true)
+    int backfillLikeEvents();
+}
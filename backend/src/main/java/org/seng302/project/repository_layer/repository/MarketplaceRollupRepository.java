@@ -0,0 +1,136 @@
+package org.seng302.project.repository_layer.repository;
+
+import org.seng302.project.repository_layer.model.MarketplaceRollup;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.QueryHint;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Repository for the daily totals of each business' marketplace events, which the marketplace analytics
+ * are answered from.
+ */
+public interface MarketplaceRollupRepository extends JpaRepository<MarketplaceRollup, Integer> {
+
+    /**
+     * Adds to the totals of a business' rollup for a day, in a single statement.
+     * This locks the rollup until the transaction commits.
+     *
+     * @param businessId      ID of the business
+     * @param rollupDate      the day of the events
+     * @param listingsCreated number of listings created
+     * @param listingsSold    number of listings sold
+     * @param listingsExpired number of listings expired
+     * @param likes           number of likes
+     * @param unlikes         number of unlikes
+     * @param likesConverted  number of likes the sold listings had
+     * @param revenue         total price of the listings sold
+     * @param units           total quantity of the listings sold
+     * @return Number of rollups updated, 0 if there is no rollup for the day yet
+     */
+    @Modifying
+    @Transactional
+    @Query("update MarketplaceRollup r set r.listingsCreated = r.listingsCreated + :listingsCreated, " +
+            "r.listingsSold = r.listingsSold + :listingsSold, " +
+            "r.listingsExpired = r.listingsExpired + :listingsExpired, r.likes = r.likes + :likes, " +
+            "r.unlikes = r.unlikes + :unlikes, r.likesConverted = r.likesConverted + :likesConverted, " +
+            "r.revenue = r.revenue + :revenue, r.units = r.units + :units " +
+            "where r.businessId = :businessId and r.rollupDate = :rollupDate")
+    int addToRollup(@Param("businessId") Integer businessId, @Param("rollupDate") LocalDate rollupDate,
+                    @Param("listingsCreated") int listingsCreated, @Param("listingsSold") int listingsSold,
+                    @Param("listingsExpired") int listingsExpired, @Param("likes") int likes,
+                    @Param("unlikes") int unlikes, @Param("likesConverted") int likesConverted,
+                    @Param("revenue") double revenue, @Param("units") long units);
+
+    /**
+     * Creates a business' rollup for a day with its first events that day, copying the business' country
+     * and type, in a single statement.
+     * Inserted directly rather than saved, so the rollup isn't kept in the persistence context and left stale
+     * by the update queries. Fails if another transaction has already created the rollup.
+     *
+     * @param businessId      ID of the business
+     * @param rollupDate      the day of the events
+     * @param listingsCreated number of listings created
+     * @param listingsSold    number of listings sold
+     * @param listingsExpired number of listings expired
+     * @param likes           number of likes
+     * @param unlikes         number of unlikes
+     * @param likesConverted  number of likes the sold listings had
+     * @param revenue         total price of the listings sold
+     * @param units           total quantity of the listings sold
+     * @return Number of rollups created
+     */
+    @Modifying
+    @Transactional
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "marketplace_rollup"))
+    @Query(value = "insert into marketplace_rollup (business_id, rollup_date, country, business_type, " +
+            "listings_created, listings_sold, listings_expired, likes, unlikes, likes_converted, revenue, units) " +
+            "select b.business_id, :rollupDate, a.country, b.business_type, :listingsCreated, :listingsSold, " +
+            ":listingsExpired, :likes, :unlikes, :likesConverted, :revenue, :units " +
+            "from business b left join address a on a.address_id = b.address_id where b.business_id = :businessId",
+            nativeQuery = true)
+    int createRollup(@Param("businessId") Integer businessId, @Param("rollupDate") LocalDate rollupDate,
+                     @Param("listingsCreated") int listingsCreated, @Param("listingsSold") int listingsSold,
+                     @Param("listingsExpired") int listingsExpired, @Param("likes") int likes,
+                     @Param("unlikes") int unlikes, @Param("likesConverted") int likesConverted,
+                     @Param("revenue") double revenue, @Param("units") long units);
+
+    /**
+     * Gets the sales of the marketplace within a period for each day, country and business type.
+     *
+     * @param start the first day of the period
+     * @param end   the last day of the period
+     * @return A list of rows made up of the day, country, business type, number of sales, revenue and units,
+     * ordered by day
+     */
+    @Query("select r.rollupDate, r.country, r.businessType, sum(r.listingsSold), sum(r.revenue), sum(r.units) " +
+            "from MarketplaceRollup r where r.rollupDate >= :start and r.rollupDate <= :end " +
+            "and r.listingsSold > 0 group by r.rollupDate, r.country, r.businessType order by r.rollupDate")
+    List<List<Object>> findSalesByMarket(@Param("start") LocalDate start, @Param("end") LocalDate end);
+
+    /**
+     * Gets the businesses with the most revenue within a period.
+     *
+     * @param start    the first day of the period
+     * @param end      the last day of the period
+     * @param pageable the number of businesses to get
+     * @return A list of rows made up of the business id, name, country, type, number of sales, revenue and units,
+     * ordered by revenue, highest first
+     */
+    @Query("select r.businessId, b.name, max(r.country), max(r.businessType), sum(r.listingsSold), " +
+            "sum(r.revenue), sum(r.units) from MarketplaceRollup r, Business b where b.id = r.businessId " +
+            "and r.rollupDate >= :start and r.rollupDate <= :end group by r.businessId, b.name " +
+            "having sum(r.listingsSold) > 0 order by sum(r.revenue) desc, r.businessId")
+    List<List<Object>> findTopBusinesses(@Param("start") LocalDate start, @Param("end") LocalDate end,
+                                         Pageable pageable);
+
+    /**
+     * Gets the totals of the listing events of the marketplace within a period.
+     *
+     * @param start the first day of the period
+     * @param end   the last day of the period
+     * @return A row made up of the number of listings created, sold and expired, likes, unlikes and likes
+     * converted, which are null if there are no rollups in the period
+     */
+    @Query("select sum(r.listingsCreated), sum(r.listingsSold), sum(r.listingsExpired), sum(r.likes), " +
+            "sum(r.unlikes), sum(r.likesConverted) from MarketplaceRollup r " +
+            "where r.rollupDate >= :start and r.rollupDate <= :end")
+    List<List<Object>> findListingTotals(@Param("start") LocalDate start, @Param("end") LocalDate end);
+
+    /**
+     * Deletes every rollup in a single statement, used before they are rebuilt from the events.
+     *
+     * @return Number of rollups deleted
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from MarketplaceRollup r")
+    int deleteAllRollups();
+}
@@ -4,9 +4,13 @@ import org.seng302.project.repository_layer.model.Card;
 import org.seng302.project.repository_layer.model.Message;
 import org.seng302.project.repository_layer.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -18,4 +22,14 @@ public interface MessageRepository extends JpaRepository<Message, Integer> {
     List<Message> findAllByReceiver(@Param("receiver") User receiver);
 
     List<Message> findAllByCard(@Param("card") Card card);
+
+    /**
+     * Deletes all messages about a group of cards in a single statement.
+     * @param cardIds ids of the cards to delete the messages of
+     * @return Number of messages deleted
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from Message m where m.card.id in :cardIds")
+    int deleteByCardIds(@Param("cardIds") Collection<Integer> cardIds);
 }
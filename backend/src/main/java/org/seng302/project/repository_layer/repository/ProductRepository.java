@@ -4,8 +4,10 @@ import org.seng302.project.repository_layer.model.Product;
 import org.seng302.project.repository_layer.model.ProductId;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,6 +23,7 @@ public interface ProductRepository extends JpaRepository<Product, ProductId>,
      * @param businessId Id of the business to filter products by.
      * @return List of products that belong to the business.
      */
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     List<Product> findAllByBusinessId(@Param("businessId") Integer businessId);
 
     /**
@@ -30,5 +33,6 @@ public interface ProductRepository extends JpaRepository<Product, ProductId>,
      * @param businessId Business id
      * @return The product with the matching id and business id.
      */
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     Optional<Product> findByIdAndBusinessId(@Param("id") String id, @Param("businessId") Integer businessId);
 }
@@ -0,0 +1,88 @@
+package org.seng302.project.repository_layer.repository;
+
+import org.seng302.project.repository_layer.model.PurchaseOutboxEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository for the outbox of sale listing purchases waiting to have their notifications sent.
+ */
+public interface PurchaseOutboxEventRepository extends JpaRepository<PurchaseOutboxEvent, Integer> {
+
+    /**
+     * Finds the ids of the oldest outbox entries that no worker has claimed, or whose claim has expired,
+     * in the order they were written.
+     *
+     * @param claimExpiry entries claimed before this time can be claimed again
+     * @param pageable    pageable object, to limit results
+     * @return List of the ids of the oldest unclaimed PurchaseOutboxEvents
+     */
+    @Query("select e.id from PurchaseOutboxEvent e where e.claimedAt is null or e.claimedAt < :claimExpiry " +
+            "order by e.id")
+    List<Integer> findClaimableIds(@Param("claimExpiry") LocalDateTime claimExpiry, Pageable pageable);
+
+    /**
+     * Atomically claims outbox entries for a worker, skipping any another worker claimed first.
+     *
+     * @param ids         ids of the outbox entries to claim
+     * @param claimedBy   unique id of the claim
+     * @param claimedAt   when the entries were claimed
+     * @param claimExpiry entries claimed before this time can be claimed again
+     * @return Number of outbox entries claimed
+     */
+    @Modifying
+    @Transactional
+    @Query("update PurchaseOutboxEvent e set e.claimedBy = :claimedBy, e.claimedAt = :claimedAt " +
+            "where e.id in :ids and (e.claimedAt is null or e.claimedAt < :claimExpiry)")
+    int claim(@Param("ids") Collection<Integer> ids,
+              @Param("claimedBy") String claimedBy,
+              @Param("claimedAt") LocalDateTime claimedAt,
+              @Param("claimExpiry") LocalDateTime claimExpiry);
+
+    /**
+     * Finds the outbox entries of a claim, in the order they were written.
+     *
+     * @param claimedBy unique id of the claim
+     * @return List of the claimed PurchaseOutboxEvents
+     */
+    @Query("select e from PurchaseOutboxEvent e where e.claimedBy = :claimedBy order by e.id")
+    List<PurchaseOutboxEvent> findClaimed(@Param("claimedBy") String claimedBy);
+
+    /**
+     * Finds when the oldest outbox entry was written.
+     *
+     * @return creation date of the oldest entry, or null if the outbox is empty
+     */
+    @Query("select min(e.created) from PurchaseOutboxEvent e")
+    LocalDateTime findOldestCreated();
+
+    /**
+     * Adds the users who liked a sale listing, other than its buyer, as the recipients of an outbox entry
+     * in a single statement.
+     *
+     * @param eventId   id of the outbox entry
+     * @param listingId id of the listing that was bought
+     * @param buyerId   id of the user who bought the listing
+     * @return Number of recipients added
+     */
+    @Modifying
+    @Transactional
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "purchase_outbox_recipient"))
+    @Query(value = "insert into purchase_outbox_recipient (event_id, user_id) " +
+            "select :eventId, l.user_id from liked_sale_listing l " +
+            "where l.listing_id = :listingId and l.user_id <> :buyerId", nativeQuery = true)
+    int addRecipients(@Param("eventId") Integer eventId,
+                      @Param("listingId") Integer listingId,
+                      @Param("buyerId") Integer buyerId);
+
+}
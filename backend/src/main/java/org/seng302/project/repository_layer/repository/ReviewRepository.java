@@ -4,6 +4,7 @@ import org.seng302.project.repository_layer.model.Review;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.util.List;
@@ -26,4 +27,12 @@ public interface ReviewRepository extends JpaRepository<Review, Integer> {
      * @return List of reviews
      */
     List<Review> findAllByUserId(@Param("userId") Integer userId);
+
+    /**
+     * Method for counting the businesses that have reviews with a rating from 1 to 5.
+     *
+     * @return Number of businesses with rated reviews
+     */
+    @Query("select count(distinct r.business.id) from Review r where r.rating between 1 and 5")
+    long countRatedBusinesses();
 }
@@ -1,10 +1,14 @@
 package org.seng302.project.repository_layer.repository;
 
 import org.seng302.project.repository_layer.model.Sale;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -14,4 +18,47 @@ public interface SaleHistoryRepository extends JpaRepository<Sale, Integer>, Jpa
 
     Optional<Sale> findByOldListingId(@Param("oldListingId") Integer oldListingId);
 
+    /**
+     * Checks if a buyer has bought from a business within a period.
+     *
+     * @param businessId ID of the business
+     * @param buyerId    ID of the buyer
+     * @param start      the start of the period
+     * @param end        the end of the period
+     * @return true if the buyer bought from the business within the period
+     */
+    boolean existsByBusinessIdAndBuyerIdAndDateSoldBetween(Integer businessId, Integer buyerId,
+                                                           LocalDateTime start, LocalDateTime end);
+
+    /**
+     * Gets the totals of every business' sales for each day they made sales on, in one grouped query.
+     * Used to rebuild the daily sales rollups.
+     *
+     * @return A list of rows made up of the business id, day, number of sales, total price, total quantity,
+     * number of different buyers, number of reviews and total rating of the reviews
+     */
+    @Query("select s.business.id, cast(s.dateSold as date), count(s), sum(s.price), sum(s.quantity), " +
+            "count(distinct s.buyerId), count(r), sum(r.rating) from Sale s left join s.review r " +
+            "group by s.business.id, cast(s.dateSold as date)")
+    List<List<Object>> findDailyRollups();
+
+    /**
+     * Gets the next batch of a business' sales to export, as plain rows rather than entities so they aren't
+     * kept by the persistence context. Sales are in the order of their ids, so each batch carries on from the
+     * last sale of the previous one.
+     *
+     * @param businessId  ID of the business
+     * @param afterSaleId ID of the last sale already exported, the batch starts with the next one
+     * @param pageable    the size of the batch
+     * @return A list of rows made up of the sale id, date sold, listing id, product id, product name, quantity,
+     * price, currency country, buyer id and review rating
+     */
+    @Query("select s.saleId, s.dateSold, s.oldListingId, s.inventoryItem.product.productId, " +
+            "s.inventoryItem.product.name, s.quantity, s.price, s.inventoryItem.product.currencyCountry, " +
+            "s.buyerId, r.rating from Sale s left join s.review r " +
+            "where s.business.id = :businessId and s.saleId > :afterSaleId order by s.saleId")
+    List<List<Object>> findExportRows(@Param("businessId") Integer businessId,
+                                      @Param("afterSaleId") Integer afterSaleId,
+                                      Pageable pageable);
+
 }
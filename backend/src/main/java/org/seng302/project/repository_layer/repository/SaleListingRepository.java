@@ -1,39 +1,287 @@
 package org.seng302.project.repository_layer.repository;
 
 import org.seng302.project.repository_layer.model.SaleListing;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 public interface SaleListingRepository extends JpaRepository<SaleListing, Integer>, JpaSpecificationExecutor<SaleListing> {
 
+    /**
+     * Gets sale listings by id, along with their products and businesses.
+     * Used to load the listings found by the search index.
+     *
+     * @param listingIds The ids of the sale listings to get.
+     * @return List of sale listings, in no particular order
+     */
+    @Override
+    @EntityGraph("SaleListing.browse")
+    List<SaleListing> findAllById(Iterable<Integer> listingIds);
+
+    /**
+     * Gets a page of the sale listings matching a specification, along with their products and businesses.
+     *
+     * @param spec     The specification the listings must match.
+     * @param pageable The page to get.
+     * @return Page of sale listings
+     */
+    @Override
+    @EntityGraph("SaleListing.browse")
+    Page<SaleListing> findAll(Specification<SaleListing> spec, Pageable pageable);
+
     /**
      * Method for getting sale listings that belong to a business.
      *
      * @param businessId The id of the business to get sale listings of.
      * @return List of sale listings
      */
+    @EntityGraph("SaleListing.browse")
     List<SaleListing> findAllByBusinessId(@Param("businessId") Integer businessId);
 
     /**
-     * Method for getting sale listings that belong to an inventory item in a business.
+     * Gets the ids of the sale listings that belong to an inventory item in a business.
      *
      * @param businessId      The id of the business the item belongs to.
      * @param inventoryItemId The id of the inventory item.
-     * @return List of sale listings
+     * @return List of sale listing ids
      */
-    List<SaleListing> findAllByBusinessIdAndInventoryItemId(
+    @Query("select s.id from SaleListing s where s.business.id = :businessId " +
+            "and s.inventoryItem.id = :inventoryItemId")
+    List<Integer> findIdsByBusinessIdAndInventoryItemId(
             @Param("businessId") Integer businessId,
             @Param("inventoryItemId") Integer inventoryItemId);
 
     /**
-     * Gets all sale listings that close before a specified date.
+     * Gets the ids of all sale listings that close before a specified date.
      *
      * @param date Date the listings will have closed before.
-     * @return List of sale listings.
+     * @return List of sale listing ids.
+     */
+    @Query("select s.id from SaleListing s where s.closes < :date")
+    List<Integer> findIdsByClosesBefore(@Param("date") LocalDateTime date);
+
+    /**
+     * Gets the closing date of every sale listing.
+     * Used to load the listing expiry queue.
+     *
+     * @return A list made up of listing id, closing date "pairs" (lists)
+     */
+    @Query("select s.id, s.closes from SaleListing s")
+    List<List<Object>> findClosingDates();
+
+    /**
+     * Deletes a group of sale listings in a single statement.
+     * The likes of the listings must be deleted first.
+     *
+     * @param listingIds ids of the listings to delete
+     * @return Number of sale listings deleted.
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from SaleListing s where s.id in :listingIds")
+    int deleteByIds(@Param("listingIds") Collection<Integer> listingIds);
+
+    /**
+     * Atomically adds one to the like counter of a sale listing.
+     *
+     * @param listingId The id of the sale listing that was liked.
+     * @return Number of sale listings updated.
+     */
+    @Modifying
+    @Transactional
+    @Query("update SaleListing s set s.likes = s.likes + 1 where s.id = :listingId")
+    int incrementLikes(@Param("listingId") Integer listingId);
+
+    /**
+     * Atomically removes one from the like counter of a sale listing, never going below zero.
+     *
+     * @param listingId The id of the sale listing that was unliked.
+     * @return Number of sale listings updated.
+     */
+    @Modifying
+    @Transactional
+    @Query("update SaleListing s set s.likes = s.likes - 1 where s.id = :listingId and s.likes > 0")
+    int decrementLikes(@Param("listingId") Integer listingId);
+
+    /**
+     * Claims a sale listing for a purchase by locking its row until the transaction commits.
+     * A concurrent purchase of the same listing waits for the lock, then finds the listing gone.
+     * The like counter is read under the lock, so it includes every like and unlike committed before the claim.
+     *
+     * @param listingId The id of the sale listing being bought.
+     * @return The like counter of the sale listing, or null if it has already been removed.
+     */
+    @Query(value = "select s.likes from sale_listing s where s.listing_id = :listingId for update",
+            nativeQuery = true)
+    Integer claimForPurchase(@Param("listingId") Integer listingId);
+
+    /**
+     * Claims a batch of sale listings for expiry by locking their rows until the transaction commits.
+     * Another node expiring the same listings waits for the locks, then finds the listings gone.
+     *
+     * @param listingIds The ids of the sale listings to expire.
+     * @return The ids of the sale listings claimed, leaving out any which have already been removed.
+     */
+    @Query(value = "select s.listing_id from sale_listing s where s.listing_id in :listingIds for update",
+            nativeQuery = true)
+    List<Integer> claimForExpiry(@Param("listingIds") Collection<Integer> listingIds);
+
+    /**
+     * Resets the like counter of a sale listing to zero, used when all of its likes are removed.
+     *
+     * @param listingId The id of the sale listing.
+     * @return Number of sale listings updated.
+     */
+    @Modifying
+    @Transactional
+    @Query("update SaleListing s set s.likes = 0 where s.id = :listingId")
+    int clearLikes(@Param("listingId") Integer listingId);
+
+    /**
+     * Sets the like counter of a sale listing, only if it still holds the expected value.
+     * Used to repair drift without losing likes made while the repair was running.
+     *
+     * @param listingId The id of the sale listing.
+     * @param expected  The like count the listing is expected to currently have.
+     * @param likes     The new like count.
+     * @return Number of sale listings updated.
+     */
+    @Modifying
+    @Transactional
+    @Query("update SaleListing s set s.likes = :likes where s.id = :listingId and s.likes = :expected")
+    int updateLikes(@Param("listingId") Integer listingId,
+                    @Param("expected") Integer expected,
+                    @Param("likes") Integer likes);
+
+    /**
+     * Gets the stored like counter of each sale listing after a given id, ordered by listing id.
+     *
+     * @param afterId  only listings with an id greater than this are returned
+     * @param pageable pageable object, to limit results
+     * @return A list made up of listing id, like count "pairs" (lists)
+     */
+    @Query("select s.id, s.likes from SaleListing s where s.id > :afterId order by s.id")
+    List<List<Object>> findLikeCounts(@Param("afterId") Integer afterId, Pageable pageable);
+
+    /**
+     * Finds the most liked sale listings for all countries.
+     *
+     * @param pageable pageable object, to limit results
+     * @return List of sale listings, most liked first
+     */
+    @EntityGraph("SaleListing.browse")
+    @Query("select s from SaleListing s where s.likes > 0 order by s.likes desc")
+    List<SaleListing> findPopular(Pageable pageable);
+
+    /**
+     * Finds the most liked sale listings of businesses in a specified country.
+     *
+     * @param country  country to get popular sale listings for
+     * @param pageable pageable object, to limit results
+     * @return List of sale listings, most liked first
+     */
+    @EntityGraph("SaleListing.browse")
+    @Query("select s from SaleListing s where s.business.address.country = :country and s.likes > 0 order by s.likes desc")
+    List<SaleListing> findPopularByCountry(@Param("country") String country, Pageable pageable);
+
+    /**
+     * Gets the like counter, business and country of every liked sale listing.
+     * Used to seed the in-memory popular listings leaderboard.
+     *
+     * @return A list of rows made up of listing id, like count, business id and country
+     */
+    @Query("select s.id, s.likes, b.id, a.country from SaleListing s join s.business b left join b.address a " +
+            "where s.likes > 0")
+    List<List<Object>> findLikedListingRanks();
+
+    /**
+     * Gets the like counter, business and country of the given sale listings, which may have no likes.
+     * Used to update the in-memory popular listings leaderboard when their likes change.
+     *
+     * @param listingIds ids of the listings
+     * @return A list of rows made up of listing id, like count, business id and country, without the listings
+     * which no longer exist
+     */
+    @Query("select s.id, s.likes, b.id, a.country from SaleListing s join s.business b left join b.address a " +
+            "where s.id in :listingIds")
+    List<List<Object>> findListingRanks(@Param("listingIds") Collection<Integer> listingIds);
+
+    /**
+     * Gets the searchable fields of sale listings with an id greater than the one given, ordered by id.
+     * Used to build the in-memory search index without loading full entities.
+     *
+     * @param afterId  only listings with an id greater than this are returned
+     * @param pageable pageable object, to limit results
+     * @return A list of rows made up of listing id, product name, business name, business type, country, city,
+     * price, closing date and inventory item expiry date
+     */
+    @Query("select s.id, p.name, b.name, b.businessType, a.country, a.city, s.price, s.closes, i.expires " +
+            "from SaleListing s join s.inventoryItem i join i.product p join s.business b left join b.address a " +
+            "where s.id > :afterId order by s.id")
+    List<List<Object>> findSearchDocuments(@Param("afterId") Integer afterId, Pageable pageable);
+
+    /**
+     * Gets the searchable fields of the sale listings of a business.
+     *
+     * @param businessId id of the business
+     * @return A list of rows in the same format as findSearchDocuments
+     */
+    @Query("select s.id, p.name, b.name, b.businessType, a.country, a.city, s.price, s.closes, i.expires " +
+            "from SaleListing s join s.inventoryItem i join i.product p join s.business b left join b.address a " +
+            "where b.id = :businessId")
+    List<List<Object>> findSearchDocumentsByBusinessId(@Param("businessId") Integer businessId);
+
+    /**
+     * Gets the searchable fields of the sale listings of a product.
+     *
+     * @param businessId id of the business with the product
+     * @param productId  id of the product
+     * @return A list of rows in the same format as findSearchDocuments
+     */
+    @Query("select s.id, p.name, b.name, b.businessType, a.country, a.city, s.price, s.closes, i.expires " +
+            "from SaleListing s join s.inventoryItem i join i.product p join s.business b left join b.address a " +
+            "where p.businessId = :businessId and p.id = :productId")
+    List<List<Object>> findSearchDocumentsByProduct(@Param("businessId") Integer businessId,
+                                                    @Param("productId") String productId);
+
+    /**
+     * Gets the searchable fields of the sale listings of an inventory item.
+     *
+     * @param inventoryItemId id of the inventory item
+     * @return A list of rows in the same format as findSearchDocuments
+     */
+    @Query("select s.id, p.name, b.name, b.businessType, a.country, a.city, s.price, s.closes, i.expires " +
+            "from SaleListing s join s.inventoryItem i join i.product p join s.business b left join b.address a " +
+            "where i.id = :inventoryItemId")
+    List<List<Object>> findSearchDocumentsByInventoryItemId(@Param("inventoryItemId") Integer inventoryItemId);
+
+    /**
+     * Gets the searchable fields of the given sale listings.
+     *
+     * @param listingIds ids of the sale listings
+     * @return A list of rows in the same format as findSearchDocuments, without the listings which no longer exist
+     */
+    @Query("select s.id, p.name, b.name, b.businessType, a.country, a.city, s.price, s.closes, i.expires " +
+            "from SaleListing s join s.inventoryItem i join i.product p join s.business b left join b.address a " +
+            "where s.id in :listingIds")
+    List<List<Object>> findSearchDocumentsByIds(@Param("listingIds") Collection<Integer> listingIds);
+
+    /**
+     * Gets the ids of all sale listings.
+     *
+     * @return List of sale listing ids
      */
-    List<SaleListing> findAllByClosesBefore(@Param("closes") LocalDateTime date);
+    @Query("select s.id from SaleListing s")
+    List<Integer> findAllIds();
 }
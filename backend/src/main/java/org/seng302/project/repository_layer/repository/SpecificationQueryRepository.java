@@ -0,0 +1,144 @@
+package org.seng302.project.repository_layer.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Specification queries that the Spring Data repositories can't do without also counting every matching row,
+ * as findAll(spec, pageable) does. Works with any entity type.
+ */
+@Repository
+public class SpecificationQueryRepository {
+
+    private final EntityManager entityManager;
+
+    public SpecificationQueryRepository(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Gets a page of the entities matching a specification, without counting the total number of matches.
+     *
+     * @param type     type of entity to get
+     * @param spec     specification the entities must match
+     * @param pageable page number, size and sort to get
+     * @param <T>      type of entity to get
+     * @return List of entities in the page
+     */
+    public <T> List<T> findPage(Class<T> type, Specification<T> spec, Pageable pageable) {
+        TypedQuery<T> query = createQuery(type, spec, pageable.getSort());
+        if (pageable.isPaged()) {
+            query.setFirstResult((int) pageable.getOffset());
+            query.setMaxResults(pageable.getPageSize());
+        }
+        return query.getResultList();
+    }
+
+    /**
+     * Gets the first entities matching a specification, without counting the total number of matches.
+     *
+     * @param type  type of entity to get
+     * @param spec  specification the entities must match
+     * @param sort  order of the entities
+     * @param limit maximum number of entities to get
+     * @param <T>   type of entity to get
+     * @return List of entities
+     */
+    public <T> List<T> findFirst(Class<T> type, Specification<T> spec, Sort sort, int limit) {
+        return createQuery(type, spec, sort).setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * Counts the entities matching a specification, stopping once a limit is reached.
+     * Only the ids of up to limit matching entities are read, so this is cheaper than
+     * a full count when there are many matches.
+     *
+     * @param type  type of entity to count
+     * @param spec  specification the entities must match
+     * @param limit maximum number to count up to
+     * @param <T>   type of entity to count
+     * @return number of matching entities, or limit if there are at least that many
+     */
+    public <T> long countUpTo(Class<T> type, Specification<T> spec, int limit) {
+        var builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object> query = builder.createQuery();
+        Root<T> root = query.from(type);
+
+        var entityType = entityManager.getMetamodel().entity(type);
+        var idAttribute = entityType.getId(entityType.getIdType().getJavaType());
+        query.select(root.get(idAttribute.getName()));
+
+        var predicate = spec == null ? null : spec.toPredicate(root, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        return entityManager.createQuery(query).setMaxResults(limit).getResultList().size();
+    }
+
+    /**
+     * Counts the entities matching a specification in groups, with a single grouped query.
+     *
+     * @param type    type of entity to count
+     * @param spec    specification the entities must match
+     * @param groupBy function giving the expressions to group the entities by, from the query root and builder
+     * @param <T>     type of entity to count
+     * @return List of rows made up of the values of the group expressions followed by the number of entities
+     */
+    public <T> List<List<Object>> countGroups(Class<T> type, Specification<T> spec,
+                                              BiFunction<Root<T>, CriteriaBuilder, List<Expression<?>>> groupBy) {
+        var builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object[]> query = builder.createQuery(Object[].class);
+        Root<T> root = query.from(type);
+
+        List<Expression<?>> groups = groupBy.apply(root, builder);
+        List<Selection<?>> selections = new ArrayList<>(groups);
+        selections.add(builder.count(root));
+        query.multiselect(selections);
+
+        var predicate = spec == null ? null : spec.toPredicate(root, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.groupBy(groups);
+
+        List<List<Object>> rows = new ArrayList<>();
+        for (Object[] row : entityManager.createQuery(query).getResultList()) {
+            rows.add(Arrays.asList(row));
+        }
+        return rows;
+    }
+
+    /**
+     * Creates a query for the entities matching a specification.
+     */
+    private <T> TypedQuery<T> createQuery(Class<T> type, Specification<T> spec, Sort sort) {
+        var builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<T> query = builder.createQuery(type);
+        Root<T> root = query.from(type);
+
+        var predicate = spec == null ? null : spec.toPredicate(root, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.select(root);
+        if (sort.isSorted()) {
+            query.orderBy(QueryUtils.toOrders(sort, root, builder));
+        }
+        return entityManager.createQuery(query);
+    }
+}
@@ -1,13 +1,18 @@
 package org.seng302.project.repository_layer.repository;
 
 import org.seng302.project.repository_layer.model.User;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 
 import java.util.List;
+import java.util.Optional;
 
 /**
  * User repository which acts as an interface to the database for manipulating users.
@@ -28,4 +33,22 @@ public interface UserRepository extends JpaRepository<User, Integer>, JpaSpecifi
      */
     List<User> findAll(Sort sort);
 
+    /**
+     * Used when searching for users, gets the home address of each user with the page
+     * @param spec the specification the users must match
+     * @param pageable the page to get
+     * @return page of users that match the specification
+     */
+    @Override
+    @EntityGraph(attributePaths = "homeAddress")
+    Page<User> findAll(Specification<User> spec, Pageable pageable);
+
+    /**
+     * Gets a user along with their home address and the businesses they administer, for showing their profile
+     * @param id id of the user
+     * @return the user, or empty if there is no user with the id
+     */
+    @EntityGraph("User.profile")
+    Optional<User> findProfileById(@Param("id") Integer id);
+
 }
\ No newline at end of file
@@ -3,6 +3,11 @@ package org.seng302.project.repository_layer.specification;
 import org.seng302.project.repository_layer.model.SaleListing;
 import org.springframework.data.jpa.domain.Specification;
 
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
 import java.time.LocalDateTime;
 
 public final class SaleListingSpecifications {
@@ -201,4 +206,58 @@ public final class SaleListingSpecifications {
         );
     }
 
+    /**
+     * Creates a Specification object used to get the sale listings after a position in a sorted search,
+     * for cursor pagination. Listings are expected to be ordered by the sort property, then by id.
+     * Null values of the property come first when ascending and last when descending, as in the database.
+     * The associations on the path are left joined, and the sort reuses the joins, so listings missing one
+     * (e.g. a business without an address) are kept like they are on the first page.
+     *
+     * @param property   dot separated path of the sort property, or null if only sorted by id
+     * @param value      value of the sort property of the last listing on the previous page
+     * @param descending whether the sort property is sorted in descending order
+     * @param id         id of the last listing on the previous page
+     * @param <T>        type of the sort property
+     * @return a specification object to search repository with
+     */
+    public static <T extends Comparable<? super T>> Specification<SaleListing> isAfter(String property, T value,
+                                                                                    boolean descending, Integer id) {
+        return ((root, query, builder) -> {
+            Predicate laterId = builder.greaterThan(root.get("id"), id);
+            if (property == null) {
+                return laterId;
+            }
+
+            String[] attributes = property.split("\\.");
+            From<?, ?> from = root;
+            for (var i = 0; i < attributes.length - 1; i++) {
+                from = getOrCreateLeftJoin(from, attributes[i]);
+            }
+            Path<T> path = from.get(attributes[attributes.length - 1]);
+
+            if (value == null) {
+                Predicate nullWithLaterId = builder.and(builder.isNull(path), laterId);
+                return descending ? nullWithLaterId : builder.or(builder.isNotNull(path), nullWithLaterId);
+            }
+            Predicate beyond = descending ? builder.lessThan(path, value) : builder.greaterThan(path, value);
+            Predicate after = builder.or(beyond, builder.and(builder.equal(path, value), laterId));
+            return descending ? builder.or(after, builder.isNull(path)) : after;
+        });
+    }
+
+    /**
+     * Gets the left join of an association, creating it if it hasn't already been joined.
+     *
+     * @param from      the entity to join from
+     * @param attribute name of the association
+     * @return the left join of the association
+     */
+    private static Join<?, ?> getOrCreateLeftJoin(From<?, ?> from, String attribute) {
+        for (Join<?, ?> join : from.getJoins()) {
+            if (join.getAttribute().getName().equals(attribute) && join.getJoinType() == JoinType.LEFT) {
+                return join;
+            }
+        }
+        return from.join(attribute, JoinType.LEFT);
+    }
 }
@@ -30,6 +30,11 @@ public class GetBusinessDTO {
     private Integer primaryImageId;
     private List<Image> images;
     private Double averageRating;
+    private Integer reviewCount;
+    /**
+     * Number of one to five star reviews, in that order.
+     */
+    private List<Integer> ratingHistogram;
 
     public GetBusinessDTO(Business business) {
         this.id = business.getId();
@@ -42,6 +47,12 @@ public class GetBusinessDTO {
         this.created = business.getCreated();
         this.primaryImageId = business.getPrimaryImageId();
         this.images = business.getImages();
+        var ratingSummary = business.getRatingSummary();
+        if (ratingSummary != null) {
+            this.averageRating = ratingSummary.getAverageRating();
+            this.reviewCount = ratingSummary.getReviewCount();
+            this.ratingHistogram = ratingSummary.getHistogram();
+        }
     }
 
     /**
@@ -55,13 +66,4 @@ public class GetBusinessDTO {
         }
     }
 
-    /**
-     * Method which attaches a business' average review rating to the DTO
-     *
-     * @param averageRating Average review rating
-     */
-    public void attachAverageRating(Double averageRating) {
-        this.averageRating  = averageRating;
-    }
-
 }
@@ -0,0 +1,89 @@
+package org.seng302.project.service_layer.dto.sale_listings;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Response DTO for the facet counts of a sale listing search: the number of matching listings
+ * of each business type, in each country and in each price bucket.
+ */
+@Data
+@NoArgsConstructor
+public class SaleListingFacetsDTO {
+
+    private Map<String, Long> businessTypes = new TreeMap<>();
+    private Map<String, Long> countries = new TreeMap<>();
+    private List<PriceBucket> priceBuckets = new ArrayList<>();
+
+    /**
+     * Creates empty facet counts with price buckets split at the given prices.
+     * For example, bounds of 10 and 20 give the buckets under 10, 10 to under 20, and 20 and over.
+     *
+     * @param priceBounds ascending prices to split the price buckets at
+     */
+    public SaleListingFacetsDTO(List<Double> priceBounds) {
+        Double lower = null;
+        for (Double bound : priceBounds) {
+            priceBuckets.add(new PriceBucket(lower, bound, 0));
+            lower = bound;
+        }
+        priceBuckets.add(new PriceBucket(lower, null, 0));
+    }
+
+    /**
+     * Adds matching listings to the facet counts.
+     *
+     * @param businessType business type of the listings
+     * @param country      country of the listings' business
+     * @param price        price of the listings
+     * @param count        number of listings to add
+     */
+    public void add(String businessType, String country, Double price, long count) {
+        Integer priceBucket = null;
+        if (price != null) {
+            priceBucket = 0;
+            while (priceBuckets.get(priceBucket).upper != null && price >= priceBuckets.get(priceBucket).upper) {
+                priceBucket++;
+            }
+        }
+        addToPriceBucket(businessType, country, priceBucket, count);
+    }
+
+    /**
+     * Adds matching listings that are already sorted into a price bucket to the facet counts.
+     *
+     * @param businessType business type of the listings
+     * @param country      country of the listings' business
+     * @param priceBucket  index of the price bucket of the listings, or null if they have no price
+     * @param count        number of listings to add
+     */
+    public void addToPriceBucket(String businessType, String country, Integer priceBucket, long count) {
+        if (businessType != null) {
+            businessTypes.merge(businessType, count, Long::sum);
+        }
+        if (country != null) {
+            countries.merge(country, count, Long::sum);
+        }
+        if (priceBucket != null) {
+            priceBuckets.get(priceBucket).count += count;
+        }
+    }
+
+    /**
+     * Number of matching listings with a price from lower (inclusive) to upper (exclusive).
+     * A null bound means the bucket is unbounded on that side.
+     */
+    @Data
+    @AllArgsConstructor
+    public static class PriceBucket {
+        private Double lower;
+        private Double upper;
+        private long count;
+    }
+}
@@ -1,7 +1,9 @@
 package org.seng302.project.service_layer.dto.sales_report;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.seng302.project.repository_layer.model.DailySalesRollup;
 import org.seng302.project.repository_layer.model.Sale;
 
 import java.time.LocalDate;
@@ -20,36 +22,80 @@ public class GetSalesReportDTO {
     private LocalDate periodEnd;
     private Double totalPurchaseValue;
     private Integer purchaseCount;
+    private Long totalQuantity;
+    private Integer reviewCount;
+    private Double averageRating;
 
-    public GetSalesReportDTO(
-            LocalDate periodStart,
-            LocalDate periodEnd,
-            List<GetSaleDTO> sales) {
-        this.sales = sales;
+    @JsonIgnore
+    private long ratingTotal;
+
+    /**
+     * Creates a report for a period with no sales yet, sales and totals are added as they are found
+     *
+     * @param periodStart the first day of the period
+     * @param periodEnd   the last day of the period
+     */
+    public GetSalesReportDTO(LocalDate periodStart, LocalDate periodEnd) {
+        this.sales = new ArrayList<>();
         this.periodStart = periodStart;
         this.periodEnd = periodEnd;
-        this.totalPurchaseValue = sales.stream().mapToDouble(GetSaleDTO::getPrice).sum();
-        this.purchaseCount = sales.size();
+        this.totalPurchaseValue = 0.0;
+        this.purchaseCount = 0;
+        this.totalQuantity = 0L;
+        this.reviewCount = 0;
+    }
+
+    /**
+     * Adds a sale to the report as a GetSaleDTO, and adds it to the totals
+     *
+     * @param sale the sale to add
+     */
+    public void addSale(Sale sale) {
+        attachSale(sale);
+        Integer rating = sale.getReview() == null ? null : sale.getReview().getRating();
+        addTotals(1, sale.getPrice() == null ? 0 : sale.getPrice(), sale.getQuantity() == null ? 0 : sale.getQuantity(),
+                rating == null ? 0 : 1, rating == null ? 0 : rating);
     }
 
     /**
-     * Takes a list of sales and attaches them to the
-     * GetSalesReportDTO as a list of GetSaleDTOs
-     * @param sales list of Sale objects
+     * Adds a sale to the report as a GetSaleDTO, without adding it to the totals
+     *
+     * @param sale the sale to add
      */
-    public void attachSales(List<Sale> sales) {
-        List<GetSaleDTO> saleDTOS = new ArrayList<>();
-        for (Sale sale : sales) {
-            GetSaleDTO dto = new GetSaleDTO(sale);
-            if (sale.getReview() != null){
-                dto.attachReview(sale.getReview());
-            }
-            saleDTOS.add(dto);
+    public void attachSale(Sale sale) {
+        GetSaleDTO dto = new GetSaleDTO(sale);
+        if (sale.getReview() != null) {
+            dto.attachReview(sale.getReview());
         }
+        sales.add(dto);
+    }
 
-        this.sales = saleDTOS;
-        this.totalPurchaseValue = this.sales.stream().mapToDouble(GetSaleDTO::getPrice).sum();
-        this.purchaseCount = this.sales.size();
+    /**
+     * Adds the totals of a day's sales to the report, without adding the sales themselves
+     *
+     * @param rollup the rollup of the day's sales
+     */
+    public void addRollup(DailySalesRollup rollup) {
+        addTotals(rollup.getSaleCount(), rollup.getRevenue(), rollup.getUnits(),
+                rollup.getReviewCount(), rollup.getRatingTotal());
+    }
+
+    /**
+     * Adds to the totals of the report, without adding the sales themselves
+     *
+     * @param count       the number of sales
+     * @param value       the total price of the sales
+     * @param quantity    the total quantity sold
+     * @param reviews     the number of reviews left on the sales
+     * @param ratingTotal the total star rating of the reviews
+     */
+    public void addTotals(int count, double value, long quantity, int reviews, long ratingTotal) {
+        this.purchaseCount += count;
+        this.totalPurchaseValue += value;
+        this.totalQuantity += quantity;
+        this.reviewCount += reviews;
+        this.ratingTotal += ratingTotal;
+        this.averageRating = reviewCount == 0 ? null : (double) this.ratingTotal / reviewCount;
     }
 
 }
@@ -0,0 +1,21 @@
+package org.seng302.project.service_layer.dto.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * DTO describing the total number of results of a paginated search, and how it was counted.
+ */
+@Data
+@AllArgsConstructor
+public class TotalCountDTO {
+    private long count;
+    /**
+     * Count mode used, one of "exact", "cached" or "estimated".
+     */
+    private String mode;
+    /**
+     * True if the count was capped, so there are at least count results (e.g. "1000+").
+     */
+    private boolean atLeast;
+}
@@ -0,0 +1,54 @@
+package org.seng302.project.service_layer.dto.statistics;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+/**
+ * Response for the sales of one country and business type within a period of the marketplace analytics.
+ */
+@Data
+@NoArgsConstructor
+public class GetMarketplaceSalesDTO {
+
+    private LocalDate periodStart;
+    private LocalDate periodEnd;
+    private String country;
+    private String businessType;
+    private Integer purchaseCount;
+    private Double totalPurchaseValue;
+    private Long totalQuantity;
+
+    /**
+     * Creates the sales of a country and business type for a period with no sales yet, totals are added
+     * as they are found
+     *
+     * @param periodStart  the first day of the period
+     * @param periodEnd    the last day of the period
+     * @param country      the country of the businesses
+     * @param businessType the type of the businesses
+     */
+    public GetMarketplaceSalesDTO(LocalDate periodStart, LocalDate periodEnd, String country, String businessType) {
+        this.periodStart = periodStart;
+        this.periodEnd = periodEnd;
+        this.country = country;
+        this.businessType = businessType;
+        this.purchaseCount = 0;
+        this.totalPurchaseValue = 0.0;
+        this.totalQuantity = 0L;
+    }
+
+    /**
+     * Adds to the totals of the period
+     *
+     * @param count    the number of sales
+     * @param value    the total price of the sales
+     * @param quantity the total quantity sold
+     */
+    public void addTotals(int count, double value, long quantity) {
+        this.purchaseCount += count;
+        this.totalPurchaseValue += value;
+        this.totalQuantity += quantity;
+    }
+}
@@ -0,0 +1,22 @@
+package org.seng302.project.service_layer.dto.statistics;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Response for one of the businesses with the most revenue in the marketplace analytics.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GetTopBusinessDTO {
+
+    private Integer businessId;
+    private String name;
+    private String country;
+    private String businessType;
+    private Integer purchaseCount;
+    private Double totalPurchaseValue;
+    private Long totalQuantity;
+}
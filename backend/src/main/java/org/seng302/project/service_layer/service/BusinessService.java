@@ -13,22 +13,27 @@ import org.seng302.project.service_layer.exceptions.businessAdministrator.Admini
 import org.seng302.project.service_layer.exceptions.businessAdministrator.CantRemoveAdministratorException;
 import org.seng302.project.service_layer.exceptions.businessAdministrator.UserNotAdministratorException;
 import org.seng302.project.service_layer.exceptions.register.UserUnderageException;
+import org.seng302.project.service_layer.util.CountMode;
 import org.seng302.project.service_layer.util.DateArithmetic;
+import org.seng302.project.service_layer.util.PopularListingsLeaderboard;
+import org.seng302.project.service_layer.util.SaleListingSearchIndex;
+import org.seng302.project.service_layer.util.SearchCounter;
+import org.seng302.project.service_layer.util.SearchQuery.SearchTerm;
+import org.seng302.project.service_layer.util.SearchQueryParser;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.regex.Pattern;
 
 @Service
 public class BusinessService {
@@ -40,6 +45,10 @@ public class BusinessService {
     private final ReviewRepository reviewRepository;
     private final ProductCatalogueService productCatalogueService;
     private final BusinessNotificationRepository businessNotificationRepository;
+    private final SearchCounter searchCounter;
+    private final PopularListingsLeaderboard popularListingsLeaderboard;
+    private final SaleListingSearchIndex saleListingSearchIndex;
+    private final EntityCacheService entityCacheService;
 
     @Autowired
     public BusinessService(BusinessRepository businessRepository,
@@ -47,13 +56,21 @@ public class BusinessService {
                            UserRepository userRepository,
                            ReviewRepository reviewRepository,
                            ProductCatalogueService productCatalogueService,
-                           BusinessNotificationRepository businessNotificationRepository) {
+                           BusinessNotificationRepository businessNotificationRepository,
+                           SearchCounter searchCounter,
+                           PopularListingsLeaderboard popularListingsLeaderboard,
+                           SaleListingSearchIndex saleListingSearchIndex,
+                           EntityCacheService entityCacheService) {
         this.businessRepository = businessRepository;
         this.addressRepository = addressRepository;
         this.userRepository = userRepository;
         this.productCatalogueService = productCatalogueService;
         this.reviewRepository = reviewRepository;
         this.businessNotificationRepository = businessNotificationRepository;
+        this.searchCounter = searchCounter;
+        this.popularListingsLeaderboard = popularListingsLeaderboard;
+        this.saleListingSearchIndex = saleListingSearchIndex;
+        this.entityCacheService = entityCacheService;
     }
 
 
@@ -119,6 +136,7 @@ public class BusinessService {
 
             addressRepository.save(address);
             businessRepository.save(newBusiness);
+            searchCounter.invalidate(SearchCounter.BUSINESSES);
             logger.info("Successful creation of business {}", newBusiness.getId());
             return newBusiness.getId();
         } catch (NoUserExistsException | UserUnderageException | InvalidDateException handledException) {
@@ -138,14 +156,13 @@ public class BusinessService {
     public GetBusinessDTO getBusiness(Integer businessId) {
         logger.info("Request to get business {}", businessId);
         try {
-            Optional<Business> business = businessRepository.findById(businessId);
+            Optional<Business> business = businessRepository.findProfileById(businessId);
             if (business.isEmpty()) {
                 throw new BusinessNotFoundException(businessId);
             } else {
                 Business retrievedBusiness = business.get();
                 GetBusinessDTO getBusinessDTO = new GetBusinessDTO(retrievedBusiness);
                 getBusinessDTO.attachAdministrators(retrievedBusiness);
-                getBusinessDTO.attachAverageRating(getAverageStarRating(businessId));
                 return getBusinessDTO;
             }
         } catch (BusinessNotFoundException businessNotFoundException) {
@@ -249,6 +266,11 @@ public class BusinessService {
         business.updateBusiness(requestDTO);
         addressRepository.save(business.getAddress());
         businessRepository.save(business);
+        // Sale listings can be searched by business name, type and location too
+        searchCounter.invalidate(SearchCounter.BUSINESSES);
+        searchCounter.invalidate(SearchCounter.LISTINGS);
+        popularListingsLeaderboard.updateCountry(businessId, business.getAddress().getCountry());
+        saleListingSearchIndex.reindexBusiness(businessId);
     }
 
     /**
@@ -355,32 +377,44 @@ public class BusinessService {
      *
      * @param searchQuery  query to match business by name
      * @param businessType the type of business to filter by
-     * @see <a href="https://stackoverflow.com/questions/1757065/java-splitting-a-comma-separated-string-but-ignoring-commas-in-quotes">
-     * https://stackoverflow.com/questions/1757065/java-splitting-a-comma-separated-string-but-ignoring-commas-in-quotes</a>
+     * @see SearchQueryParser
      */
     public List<Object> searchBusiness(String searchQuery, BusinessType businessType, Integer pageNumber, String sortBy) {
+        return searchBusiness(searchQuery, businessType, pageNumber, sortBy, CountMode.EXACT);
+    }
+
+    /**
+     * Searches for business based on name and type,
+     * counting the total number of matching businesses with the given count mode
+     *
+     * @param searchQuery  query to match business by name
+     * @param businessType the type of business to filter by
+     * @param pageNumber   the page number to get
+     * @param sortBy       the column to sort by, with ASC or DESC on the end
+     * @param countMode    how to count the total number of matching businesses
+     * @return List of the page of businesses, the total number of businesses and how the total was counted
+     */
+    public List<Object> searchBusiness(String searchQuery, BusinessType businessType, Integer pageNumber, String sortBy,
+                                       CountMode countMode) {
         List<Business> businesses;
         long totalCount;
         boolean sortASC;
-        String checkedBusinessType;
+        String checkedBusinessType = null;
         List<Object> sortChecker = checkSort(sortBy);
         sortASC = (boolean) sortChecker.get(0);
         sortBy = (String) sortChecker.get(1);
-        searchQuery = searchQuery.toLowerCase(); // Convert search query to all lowercase.
-        String[] conjunctions = searchQuery.split(" or (?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)"); // Split by OR
+        var query = SearchQueryParser.parse(searchQuery);
         Specification<Business> spec = null;
 
-        for (String conjunction : conjunctions) {
+        for (List<SearchTerm> conjunction : query.getConjunctions()) {
             Specification<Business> newSpec = Specification.where(null);
-            String[] names = conjunction.split("( and |\\s)(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)"); // Split by AND
             // Iterate over the names in the search and check if they are quoted
-            for (String name : names) {
-                if (Pattern.matches("^\".*\"$", name)) {
-                    name = name.replace("\"", "");
-                    newSpec = newSpec.and(BusinessSpecifications.hasName(name));
+            for (SearchTerm name : conjunction) {
+                if (name.isQuoted()) {
+                    newSpec = newSpec.and(BusinessSpecifications.hasName(name.getText()));
                 } else {
-                    newSpec = newSpec.and(BusinessSpecifications.hasName(name))
-                            .or(BusinessSpecifications.containsName(name));
+                    newSpec = newSpec.and(BusinessSpecifications.hasName(name.getText()))
+                            .or(BusinessSpecifications.containsName(name.getText()));
                 }
             }
             if (spec == null) {
@@ -396,45 +430,39 @@ public class BusinessService {
             checkedBusinessType = checkBusinessType(businessType);
             spec = spec.and(Specification.where(BusinessSpecifications.hasBusinessType(checkedBusinessType)));
         }
-        // query the repository and get a Page object, from which you can get the content by doing page.getContent()
-        if(!sortBy.isEmpty()){
-            Page<Business> page = sortBusinessSearch(spec, sortBy, sortASC, pageNumber);
-            totalCount = page.getTotalElements();
-            businesses = page.getContent();
-        } else {
-            Pageable pageable = PageRequest.of(pageNumber, 10);
-            Page<Business> page = businessRepository.findAll(spec, pageable);
-            totalCount = page.getTotalElements();
-            businesses = page.getContent();
-        }
+        // query the repository for the page, counting the total with the count mode
+        Pageable pageable = buildBusinessSearchPageable(sortBy, sortASC, pageNumber);
+        var page = searchCounter.findPage(countMode, SearchCounter.BUSINESSES,
+                Arrays.asList(query, checkedBusinessType), businessRepository, Business.class, spec, pageable);
+        totalCount = page.getTotalCount().getCount();
+        businesses = page.getContent();
 
         logger.info("Retrieved {} businesses, showing {}", totalCount, businesses.size());
         List<GetBusinessDTO> getBusinessDTOs = new ArrayList<>();
         for (Business business : businesses) {
             GetBusinessDTO dto = new GetBusinessDTO(business);
             dto.attachAdministrators(business);
-            dto.attachAverageRating(getAverageStarRating(business.getId()));
             getBusinessDTOs.add(dto);
         }
-        return Arrays.asList(getBusinessDTOs, totalCount);
+        return Arrays.asList(getBusinessDTOs, totalCount, page.getTotalCount());
     }
 
     /**
-     * Helper function for business search, does the sorting
-     * @param spec the specification used to search by
-     * @param sortBy the column that is to be sorted
+     * Helper function for business search, creates the page request with the sorting
+     * @param sortBy the column that is to be sorted, or the empty string for no sorting
      * @param sortASC the direction of the sort
-     * @return the sorted list of users searched for
+     * @param pageNumber the page number to get
+     * @return the page request
      */
-    public Page<Business> sortBusinessSearch(Specification<Business> spec, String sortBy, boolean sortASC, Integer pageNumber){
-        if(sortASC){
+    public Pageable buildBusinessSearchPageable(String sortBy, boolean sortASC, Integer pageNumber){
+        if(sortBy.isEmpty()){
+            return PageRequest.of(pageNumber, 10);
+        } else if(sortASC){
             sortBy = sortBy.substring(0, sortBy.lastIndexOf("A"));
-            Pageable pageable = PageRequest.of(pageNumber, 10, Sort.by(Sort.Order.asc(sortBy).ignoreCase()));
-            return businessRepository.findAll(spec, pageable);
+            return PageRequest.of(pageNumber, 10, Sort.by(Sort.Order.asc(sortBy).ignoreCase()));
         } else {
             sortBy = sortBy.substring(0, sortBy.lastIndexOf("D"));
-            Pageable pageable = PageRequest.of(pageNumber, 10, Sort.by(Sort.Order.desc(sortBy).ignoreCase()));
-            return businessRepository.findAll(spec, pageable);
+            return PageRequest.of(pageNumber, 10, Sort.by(Sort.Order.desc(sortBy).ignoreCase()));
         }
     }
 
@@ -483,22 +511,40 @@ public class BusinessService {
     }
 
     /**
-     * Helper method to calculate a businesses average star rating from its reviews.
+     * Helper method to get a businesses average star rating from its rating summary.
      * @param businessId id of the business to get the average star rating from
      * @return Double between 1 and 5 for the average star rating, null for if the business has no ratings
      */
     public Double getAverageStarRating(Integer businessId) {
-        var reviewsPage = reviewRepository.findAllByBusinessId(businessId, Pageable.unpaged());
-        var reviews = reviewsPage.getContent();
+        return businessRepository.findById(businessId)
+                .map(business -> business.getRatingSummary().getAverageRating())
+                .orElse(null);
+    }
 
-        //return null if there are no reviews
-        if (reviews.isEmpty()) return null;
+    /**
+     * Adds the rating of a new review to the rating summary of a business.
+     * @param businessId id of the business that was reviewed
+     * @param rating     star rating of the review, from 1 to 5
+     */
+    public void addReviewRating(Integer businessId, Integer rating) {
+        businessRepository.addReviewRating(businessId, rating);
+        // The rating summary is part of the cached business, so the other nodes need to evict it
+        entityCacheService.recordBulkChange(Business.class);
+    }
 
-        Double total = 0.0;
-        for (var review: reviews) {
-            total += review.getRating();
-        }
-        return total / reviews.size();
+    /**
+     * Rebuilds the rating summary of every business from its reviews.
+     * Used to fill in the summaries of reviews left before they were kept, or that were added without newReview.
+     *
+     * @return the number of businesses with reviews
+     */
+    @Transactional
+    public int rebuildRatingSummaries() {
+        businessRepository.rebuildRatingSummaries();
+        entityCacheService.recordBulkChange(Business.class);
+        var ratedBusinesses = (int) reviewRepository.countRatedBusinesses();
+        logger.info("Rebuilt the rating summaries of {} businesses with reviews", ratedBusinesses);
+        return ratedBusinesses;
     }
 
     /**
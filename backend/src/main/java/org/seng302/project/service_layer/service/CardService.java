@@ -14,17 +14,20 @@ import org.seng302.project.service_layer.exceptions.RequiredFieldsMissingExcepti
 import org.seng302.project.service_layer.exceptions.card.ForbiddenCardActionException;
 import org.seng302.project.service_layer.exceptions.card.InvalidMarketplaceSectionException;
 import org.seng302.project.service_layer.exceptions.card.NoCardExistsException;
+import org.seng302.project.service_layer.util.CountMode;
+import org.seng302.project.service_layer.util.SearchCounter;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
 import java.util.*;
@@ -37,23 +40,30 @@ import java.util.stream.Collectors;
 public class CardService {
 
     private static final Logger logger = LoggerFactory.getLogger(CardService.class.getName());
+    private static final int CLEANUP_CHUNK_SIZE = 500;
     private final CardRepository cardRepository;
     private final MessageRepository messageRepository;
     private final UserRepository userRepository;
     private final KeywordRepository keywordRepository;
     private final UserNotificationRepository userNotificationRepository;
+    private final SearchCounter searchCounter;
+    private final TransactionTemplate transactionTemplate;
 
     @Autowired
     public CardService(CardRepository cardRepository,
                        MessageRepository messageRepository,
                        UserRepository userRepository,
                        KeywordRepository keywordRepository,
-                       UserNotificationRepository userNotificationRepository) {
+                       UserNotificationRepository userNotificationRepository,
+                       SearchCounter searchCounter,
+                       PlatformTransactionManager transactionManager) {
         this.cardRepository = cardRepository;
         this.messageRepository = messageRepository;
         this.userRepository = userRepository;
         this.keywordRepository = keywordRepository;
         this.userNotificationRepository = userNotificationRepository;
+        this.searchCounter = searchCounter;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     /**
@@ -83,6 +93,7 @@ public class CardService {
 
             var newCard = new Card(creator.get(), dto.getSection(), dto.getTitle(), dto.getDescription(), keywords);
             Integer cardId = cardRepository.save(newCard).getId();
+            searchCounter.invalidate(SearchCounter.CARDS);
             return new CreateCardResponseDTO(cardId);
         } catch (NoUserExistsException | RequiredFieldsMissingException expectedException) {
             throw expectedException;
@@ -119,9 +130,12 @@ public class CardService {
      * @param page        page opf results to get from
      * @param sortBy      string representing how to sort cards
      * @param keywordSpec specification to filter by keyword IDs
+     * @param keywordKey  the keyword IDs and how they are combined, to cache the total count with
+     * @param countMode   how to count the total number of cards
      * @return a list of response DTOs containing card data
      */
-    public JSONObject getAllCardsForSection(String section, Integer page, String sortBy, Specification<Card> keywordSpec) {
+    private JSONObject getAllCardsForSection(String section, Integer page, String sortBy, Specification<Card> keywordSpec,
+                                             List<Object> keywordKey, CountMode countMode) {
         try {
             logger.info("Request to get all cards by section: {}, page {}", section, page);
 
@@ -137,14 +151,16 @@ public class CardService {
             }
             Sort sort = parseSortBy(sortBy);
             Pageable pageable = PageRequest.of(page, 10, sort);
-            Page<Card> cardsPage = cardRepository.findAll(spec, pageable);
+            var cardsPage = searchCounter.findPage(countMode, SearchCounter.CARDS, Arrays.asList(section, keywordKey),
+                    cardRepository, Card.class, spec, pageable);
             List<Card> cards = cardsPage.getContent();
-            Long totalCards = cardsPage.getTotalElements();
+            Long totalCards = cardsPage.getTotalCount().getCount();
             List<GetCardResponseDTO> responseCards = cards.stream().map(GetCardResponseDTO::new).collect(Collectors.toList());
 
             JSONObject response = new JSONObject();
             response.put("cards", responseCards);
             response.put("totalCards", totalCards);
+            response.put("totalCardsCount", cardsPage.getTotalCount());
             return response;
         } catch (Exception exception) {
             logger.error("Unexpected error while getting all cards");
@@ -161,7 +177,21 @@ public class CardService {
      * @return JSONObject containing page of cards and total number of results
      */
     public JSONObject getAllCardsForSection(String section, Integer page, String sortBy) {
-        return getAllCardsForSection(section, page, sortBy, null);
+        return getAllCardsForSection(section, page, sortBy, CountMode.EXACT);
+    }
+
+    /**
+     * Overloaded method for getting all cards from a marketplace section, without filtering by keyword,
+     * counting the total number of cards with the given count mode
+     *
+     * @param section   the section to get all cards from
+     * @param page      page opf results to get from
+     * @param sortBy    string representing how to sort cards
+     * @param countMode how to count the total number of cards
+     * @return JSONObject containing page of cards, total number of results and how the total was counted
+     */
+    public JSONObject getAllCardsForSection(String section, Integer page, String sortBy, CountMode countMode) {
+        return getAllCardsForSection(section, page, sortBy, null, List.of(), countMode);
     }
 
     /**
@@ -225,6 +255,7 @@ public class CardService {
             //Change the cards displayPeriodEnd date to 12 days in the future
             cardToExtend.setDisplayPeriodEnd(cardToExtend.getDisplayPeriodEnd().plusWeeks(2));
             cardRepository.save(cardToExtend);
+            searchCounter.invalidate(SearchCounter.CARDS);
         } catch (NoCardExistsException | ForbiddenCardActionException foundException) {
             logger.warn(foundException.getMessage());
             throw foundException;
@@ -265,6 +296,7 @@ public class CardService {
 
             //200 if card successfully deleted
             cardRepository.deleteById(cardId);
+            searchCounter.invalidate(SearchCounter.CARDS);
         } catch (NoCardExistsException | ForbiddenCardActionException expectedException) {
             logger.warn(expectedException.getMessage());
             throw expectedException;
@@ -343,6 +375,7 @@ public class CardService {
             retrievedCard.setKeywords(keywords);
 
             cardRepository.save(retrievedCard);
+            searchCounter.invalidate(SearchCounter.CARDS);
         } catch (NoCardExistsException | ForbiddenCardActionException expectedException) {
             logger.warn(expectedException.getMessage());
             throw expectedException;
@@ -361,6 +394,21 @@ public class CardService {
      * @return a list of cards that matches the query
      */
     public JSONObject searchCards(String section, List<Integer> keywordIds, Boolean union, Integer page, String sortBy) {
+        return searchCards(section, keywordIds, union, page, sortBy, CountMode.EXACT);
+    }
+
+    /**
+     * Searches for cards based on a section and keyword IDs,
+     * counting the total number of matching cards with the given count mode
+     *
+     * @param section    the section to search cards in
+     * @param keywordIds the keyword IDs to search for cards with
+     * @param union      whether cards should match with any or all keywords
+     * @param countMode  how to count the total number of matching cards
+     * @return a list of cards that matches the query
+     */
+    public JSONObject searchCards(String section, List<Integer> keywordIds, Boolean union, Integer page, String sortBy,
+                                  CountMode countMode) {
         logger.info("Request to search for cards by keyword ID");
         if (section == null || !List.of("ForSale", "Wanted", "Exchange").contains(section)) {
             var exception = new BadRequestException("Bad Request: invalid section");
@@ -395,31 +443,68 @@ public class CardService {
             }
         }
 
-        return getAllCardsForSection(section, page, sortBy, spec);
+        return getAllCardsForSection(section, page, sortBy, spec, Arrays.asList(keywordIds, union), countMode);
     }
 
 
     /**
-     * Method that gets called every 60 seconds that removes all cards that have a display period end of more than a day ago
+     * Method that gets called every 60 seconds that removes all cards that have a display period end of more than a day ago.
+     * The expired cards are deleted in chunks, with bulk deletes of their messages and keywords,
+     * and a CardExpiryNotification is created for the creator of each card.
+     * Each chunk is deleted and notified in its own transaction, so a failure can't leave cards half deleted.
      */
     @Scheduled(fixedRate = 60000)
     public void removeCardsAfter24Hrs() {
-        logger.info("Removing cards that have been expired for 24 hours or more");
+        long startTime = System.currentTimeMillis();
         LocalDateTime oneDayAgo = LocalDateTime.now().minusDays(1);
-        List<Card> cardsDeleted = cardRepository.findAllByDisplayPeriodEndBefore(oneDayAgo);
+        var cardsDeleted = 0;
+        var messagesDeleted = 0;
+        int chunkSize;
+        do {
+            int[] deleted = transactionTemplate.execute(status -> removeExpiredCardChunk(oneDayAgo));
+            chunkSize = deleted[0];
+            cardsDeleted += deleted[1];
+            messagesDeleted += deleted[2];
+        } while (chunkSize == CLEANUP_CHUNK_SIZE);
+
+        if (cardsDeleted > 0) {
+            searchCounter.invalidate(SearchCounter.CARDS);
+        }
+        logger.info("Removed {} cards that have been expired for 24 hours or more, and {} of their messages, in {} ms",
+                cardsDeleted, messagesDeleted, System.currentTimeMillis() - startTime);
+    }
 
-        //Create a CardExpiryNotification for each expired card
-        for (Card card : cardsDeleted) {
-            List<Message> messages = messageRepository.findAllByCard(card);
-            for (Message message: messages) {
-                messageRepository.delete(message);
+    /**
+     * Deletes the first chunk of cards that expired before a time, along with their messages and keywords,
+     * and notifies their creators.
+     *
+     * @param expiredBefore time the cards' display period must have ended before
+     * @return the number of expired cards found, cards deleted and messages deleted
+     */
+    private int[] removeExpiredCardChunk(LocalDateTime expiredBefore) {
+        // Deleted cards no longer match, so the next chunk is always the first page
+        List<List<Object>> expiredCards = cardRepository.findExpiredCards(expiredBefore,
+                PageRequest.of(0, CLEANUP_CHUNK_SIZE));
+        if (expiredCards.isEmpty()) {
+            return new int[]{0, 0, 0};
+        }
+
+        List<Integer> cardIds = new ArrayList<>();
+        List<UserNotification> notifications = new ArrayList<>();
+        for (List<Object> row : expiredCards) {
+            cardIds.add((Integer) row.get(0));
+            Integer creatorId = (Integer) row.get(1);
+            if (creatorId != null) {
+                notifications.add(new CardExpiryNotification(
+                        userRepository.getOne(creatorId),
+                        "This card has expired and was deleted.",
+                        (String) row.get(2)));
             }
-            var newNotification = new CardExpiryNotification(
-                    card.getCreator(),
-                    "This card has expired and was deleted.",
-                    card.getTitle());
-            userNotificationRepository.save(newNotification);
-            cardRepository.delete(card);
         }
+        int messagesDeleted = messageRepository.deleteByCardIds(cardIds);
+        cardRepository.deleteKeywordsByCardIds(cardIds);
+        int cardsDeleted = cardRepository.deleteByIds(cardIds);
+        userNotificationRepository.saveAll(notifications);
+        return new int[]{expiredCards.size(), cardsDeleted, messagesDeleted};
     }
 }
@@ -0,0 +1,300 @@
+package org.seng302.project.service_layer.service;
+
+import net.minidev.json.JSONObject;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.seng302.project.EntityCacheConfig;
+import org.seng302.project.repository_layer.model.CacheInvalidation;
+import org.seng302.project.repository_layer.repository.CacheInvalidationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Service that keeps the second-level cache of each node in step with changes made on the other nodes,
+ * and gets the cache metrics.
+ * Every change to a cached entity writes a record to the cache_invalidation table in the same transaction
+ * as the change. Bulk updates don't fire Hibernate events, so they record their changes with recordBulkChange.
+ * Each node polls the table for records written by other nodes, and evicts the changed entities, their
+ * collections and the cached query results. Other caches local to each node can record their changes the same
+ * way with recordCacheChange, and have the records of other nodes passed to a handler added for their prefix.
+ * A record committed after a newer one has already been read is missed, so the short time to live of the
+ * cache regions is what bounds how long a stale entity can be read in that case.
+ */
+@Service
+public class EntityCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EntityCacheService.class.getName());
+    private static final int INVALIDATION_BATCH_SIZE = 500;
+
+    private static final String INSERT_INVALIDATION_SQL =
+            "insert into cache_invalidation (entity_name, node_id, created) values (?, ?, ?)";
+
+    private final SessionFactoryImplementor sessionFactory;
+    private final CacheInvalidationRepository cacheInvalidationRepository;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Map<String, Consumer<String>> remoteChangeHandlers = new ConcurrentHashMap<>();
+    private volatile int lastSeenId;
+    private final AtomicLong changesRecorded = new AtomicLong();
+    private final AtomicLong remoteEvictions = new AtomicLong();
+
+    @Autowired
+    public EntityCacheService(EntityManagerFactory entityManagerFactory,
+                              CacheInvalidationRepository cacheInvalidationRepository) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        this.cacheInvalidationRepository = cacheInvalidationRepository;
+
+        // Changes made before this node started are not in its cache, so only records after now are needed
+        Integer lastId = cacheInvalidationRepository.findLastId();
+        this.lastSeenId = lastId == null ? 0 : lastId;
+
+        var listener = new ChangeListener();
+        var registry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, listener);
+        registry.appendListeners(EventType.POST_UPDATE, listener);
+        registry.appendListeners(EventType.POST_DELETE, listener);
+        registry.appendListeners(EventType.POST_COLLECTION_RECREATE, listener);
+        registry.appendListeners(EventType.POST_COLLECTION_UPDATE, listener);
+        registry.appendListeners(EventType.POST_COLLECTION_REMOVE, listener);
+    }
+
+    /**
+     * Gets the id of this node, which the records of the changes made on this node are written with.
+     *
+     * @return the node id
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Records a change to a cached entity, to be written just before the transaction making the change commits.
+     * Changes to entities which aren't cached are ignored.
+     *
+     * @param session   the session making the change
+     * @param persister the persister of the changed entity
+     */
+    private void recordChange(EventSource session, EntityPersister persister) {
+        if (!persister.hasCache()) return;
+        String entityName = persister.getRootEntityName();
+        session.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) transactionSession ->
+                transactionSession.doWork(connection -> {
+                    try (var statement = connection.prepareStatement(INSERT_INVALIDATION_SQL)) {
+                        statement.setString(1, entityName);
+                        statement.setString(2, nodeId);
+                        statement.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+                        statement.executeUpdate();
+                    }
+                }));
+        changesRecorded.incrementAndGet();
+    }
+
+    /**
+     * Records a change to cached entities made by a bulk update or native statement, which Hibernate doesn't send
+     * events for, although it does evict the entities from this node's cache.
+     * The record is written in the transaction making the change, or on its own if there isn't one.
+     *
+     * @param entityClass class of the changed entities
+     */
+    public void recordBulkChange(Class<?> entityClass) {
+        recordCacheChange(entityClass.getName());
+    }
+
+    /**
+     * Records a change to a cache other than the entity cache, so the other nodes pass it to the handler
+     * added for its prefix. The name must start with that prefix, followed by what the handler needs to
+     * know which entries changed.
+     * The record is written in the transaction making the change, or on its own if there isn't one.
+     *
+     * @param name prefix of the cache followed by the changed entries
+     */
+    public void recordCacheChange(String name) {
+        cacheInvalidationRepository.save(new CacheInvalidation(name, nodeId));
+        changesRecorded.incrementAndGet();
+    }
+
+    /**
+     * Adds a handler for the changes recorded by other nodes with recordCacheChange.
+     *
+     * @param prefix  prefix of the names the changes are recorded with, which can't be an entity name
+     * @param handler handler given the rest of the name of each change made on another node
+     */
+    public void addRemoteChangeHandler(String prefix, Consumer<String> handler) {
+        remoteChangeHandlers.put(prefix, handler);
+    }
+
+    /**
+     * Evicts the entities changed on other nodes since this last ran from the cache.
+     * Scheduled to run every 5 seconds.
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void evictRemoteChanges() {
+        List<CacheInvalidation> batch;
+        do {
+            batch = cacheInvalidationRepository.findAfter(lastSeenId, PageRequest.of(0, INVALIDATION_BATCH_SIZE));
+            Set<String> changedEntities = new HashSet<>();
+            for (CacheInvalidation invalidation : batch) {
+                lastSeenId = invalidation.getId();
+                if (!nodeId.equals(invalidation.getNodeId())) {
+                    changedEntities.add(invalidation.getEntityName());
+                }
+            }
+            for (String entityName : changedEntities) {
+                evictChange(entityName);
+            }
+            if (!changedEntities.isEmpty()) {
+                logger.info("Evicted {} changed on other nodes from the entity cache", changedEntities);
+                remoteEvictions.addAndGet(changedEntities.size());
+            }
+        } while (batch.size() == INVALIDATION_BATCH_SIZE);
+    }
+
+    /**
+     * Passes a change made on another node to the handler for its prefix, or evicts the entity it names if
+     * there isn't one.
+     *
+     * @param name name the change was recorded with
+     */
+    private void evictChange(String name) {
+        for (Map.Entry<String, Consumer<String>> entry : remoteChangeHandlers.entrySet()) {
+            if (name.startsWith(entry.getKey())) {
+                entry.getValue().accept(name.substring(entry.getKey().length()));
+                return;
+            }
+        }
+        evictEntity(name);
+    }
+
+    /**
+     * Evicts all cached entities with the given name, along with their collections and the cached query results.
+     *
+     * @param entityName name of the entity to evict
+     */
+    private void evictEntity(String entityName) {
+        var cache = sessionFactory.getCache();
+        cache.evictEntityData(entityName);
+        for (Map.Entry<String, CollectionPersister> entry : sessionFactory.getMetamodel().collectionPersisters().entrySet()) {
+            var persister = entry.getValue();
+            if (persister.hasCache() && entityName.equals(persister.getOwnerEntityPersister().getEntityName())) {
+                cache.evictCollectionData(entry.getKey());
+            }
+        }
+        cache.evictQueryRegions();
+    }
+
+    /**
+     * Deletes the records of changes which every node has had time to read.
+     * Scheduled to run every hour.
+     */
+    @Scheduled(cron = "@hourly")
+    public void deleteOldInvalidations() {
+        int deleted = cacheInvalidationRepository.deleteCreatedBefore(LocalDateTime.now().minusHours(1));
+        logger.info("Deleted {} old entity cache invalidations", deleted);
+    }
+
+    /**
+     * Gets the entity cache metrics: the hits, misses and puts of the cache as a whole, of the query cache
+     * and of each entity region along with the number of entries it holds, and the number of changes recorded
+     * and evicted since startup.
+     *
+     * @return JSONObject with the cache metrics
+     */
+    public JSONObject getStatistics() {
+        var hibernateStatistics = sessionFactory.getStatistics();
+        var statistics = new JSONObject();
+        statistics.put("nodeId", nodeId);
+        statistics.put("hits", hibernateStatistics.getSecondLevelCacheHitCount());
+        statistics.put("misses", hibernateStatistics.getSecondLevelCacheMissCount());
+        statistics.put("puts", hibernateStatistics.getSecondLevelCachePutCount());
+        statistics.put("queryHits", hibernateStatistics.getQueryCacheHitCount());
+        statistics.put("queryMisses", hibernateStatistics.getQueryCacheMissCount());
+        statistics.put("queryPuts", hibernateStatistics.getQueryCachePutCount());
+        statistics.put("changesRecorded", changesRecorded.get());
+        statistics.put("remoteEvictions", remoteEvictions.get());
+
+        var regions = new JSONObject();
+        for (String region : EntityCacheConfig.ENTITY_REGIONS) {
+            var regionStatistics = hibernateStatistics.getDomainDataRegionStatistics(region);
+            if (regionStatistics == null) continue;
+            var regionJson = new JSONObject();
+            regionJson.put("hits", regionStatistics.getHitCount());
+            regionJson.put("misses", regionStatistics.getMissCount());
+            regionJson.put("puts", regionStatistics.getPutCount());
+            regionJson.put("size", regionStatistics.getElementCountInMemory());
+            // Leave off the package name to keep the keys short
+            regions.put(region.substring(region.lastIndexOf("model.") + "model.".length()), regionJson);
+        }
+        statistics.put("regions", regions);
+        return statistics;
+    }
+
+    /**
+     * Hibernate event listener which records the changes to cached entities and their collections.
+     */
+    private class ChangeListener implements PostInsertEventListener, PostUpdateEventListener,
+            PostDeleteEventListener, PostCollectionRecreateEventListener, PostCollectionUpdateEventListener,
+            PostCollectionRemoveEventListener {
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            recordChange(event.getSession(), event.getPersister());
+        }
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            recordChange(event.getSession(), event.getPersister());
+        }
+
+        @Override
+        public void onPostDelete(PostDeleteEvent event) {
+            recordChange(event.getSession(), event.getPersister());
+        }
+
+        @Override
+        public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+            recordCollectionChange(event);
+        }
+
+        @Override
+        public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+            recordCollectionChange(event);
+        }
+
+        @Override
+        public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+            recordCollectionChange(event);
+        }
+
+        /**
+         * Records a change to a collection as a change to the entity which owns it.
+         */
+        private void recordCollectionChange(AbstractCollectionEvent event) {
+            var owner = event.getAffectedOwnerEntityName();
+            if (owner == null) return;
+            recordChange(event.getSession(), event.getSession().getFactory().getMetamodel().entityPersister(owner));
+        }
+
+        /**
+         * The change is recorded in the transaction making it, not after it commits.
+         */
+        public boolean requiresPostCommitHanding(EntityPersister persister) {
+            return false;
+        }
+    }
+}
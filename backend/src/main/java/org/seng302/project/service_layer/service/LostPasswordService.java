@@ -10,6 +10,7 @@ import org.seng302.project.service_layer.util.SpringEnvironment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
@@ -21,6 +22,7 @@ import java.util.List;
 public class LostPasswordService {
 
     private static final Logger logger = LoggerFactory.getLogger(LostPasswordService.class.getName());
+    private static final int CLEANUP_CHUNK_SIZE = 500;
 
     private final ConformationTokenRepository conformationTokenRepository;
     private final UserRepository userRepository;
@@ -56,20 +58,24 @@ public class LostPasswordService {
 
     /**
      * Method that gets called every 60 seconds that removes all confirmation tokens
-     * that have been active for an hour or longer.
+     * that have been active for an hour or longer. The tokens are deleted in chunks, with a bulk delete for each chunk.
      */
     @Scheduled(fixedRate = 60000)
     public void removeConfirmationTokenAfter1Hr() {
-        logger.info("Removing confirmation tokens that have been active for an hour or more");
+        long startTime = System.currentTimeMillis();
         LocalDateTime oneHourAgo = LocalDateTime.now().minusHours(1);
-        List<ConformationToken> currentTokens = conformationTokenRepository.findAll();
+        var tokensDeleted = 0;
+        List<Integer> tokenIds;
+        do {
+            // Deleted tokens no longer match, so the next chunk is always the first page
+            tokenIds = conformationTokenRepository.findIdsByCreatedBefore(oneHourAgo,
+                    PageRequest.of(0, CLEANUP_CHUNK_SIZE));
+            if (tokenIds.isEmpty()) break;
+            tokensDeleted += conformationTokenRepository.deleteByIds(tokenIds);
+        } while (tokenIds.size() == CLEANUP_CHUNK_SIZE);
 
-        for (ConformationToken token : currentTokens) {
-            LocalDateTime tokenCreated = token.getCreated();
-            if (tokenCreated.isBefore(oneHourAgo)) {
-                conformationTokenRepository.delete(token);
-            }
-        }
+        logger.info("Removed {} confirmation tokens that have been active for an hour or more, in {} ms",
+                tokensDeleted, System.currentTimeMillis() - startTime);
     }
 
     /**
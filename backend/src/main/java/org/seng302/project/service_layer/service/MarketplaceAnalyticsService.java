@@ -0,0 +1,503 @@
+package org.seng302.project.service_layer.service;
+
+import net.minidev.json.JSONObject;
+import org.seng302.project.repository_layer.model.MarketplaceRollup;
+import org.seng302.project.repository_layer.model.Sale;
+import org.seng302.project.repository_layer.model.SaleListing;
+import org.seng302.project.repository_layer.model.enums.MarketplaceEventType;
+import org.seng302.project.repository_layer.model.enums.ReportGranularity;
+import org.seng302.project.repository_layer.repository.MarketplaceEventRepository;
+import org.seng302.project.repository_layer.repository.MarketplaceRollupRepository;
+import org.seng302.project.repository_layer.repository.SaleHistoryRepository;
+import org.seng302.project.repository_layer.repository.SaleListingRepository;
+import org.seng302.project.service_layer.dto.statistics.GetMarketplaceSalesDTO;
+import org.seng302.project.service_layer.dto.statistics.GetTopBusinessDTO;
+import org.seng302.project.service_layer.exceptions.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+
+/**
+ * Service for the marketplace-wide analytics shown to the DGAA: sales and revenue over time for each country
+ * and business type, the businesses with the most revenue, the sell-through rate of listings and how many likes
+ * end in a purchase.
+ * Listings being created, liked, unliked, sold and expiring are appended to the marketplace event log.
+ * Listings being created and sold are added to the rollup of the business' day in the same transaction, while
+ * likes, unlikes and expiries are added in batches every few seconds, so liking a listing doesn't lock its
+ * business' rollup. The analytics are answered from the rollups, which have one row for each day a business had
+ * events on, so they never read the sales or likes.
+ * The rollups can be rebuilt from the event log, which is backfilled from the sales, listings and likes
+ * at startup if it is empty.
+ */
+@Service
+public class MarketplaceAnalyticsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MarketplaceAnalyticsService.class.getName());
+    private static final int MAX_TOP_BUSINESSES = 100;
+    private static final int FOLD_BATCH_SIZE = 1000;
+
+    // Events added to the rollups in batches by foldEvents, rather than in the transaction they are recorded in
+    private static final List<MarketplaceEventType> FOLDED_EVENT_TYPES = List.of(MarketplaceEventType.LISTING_LIKED,
+            MarketplaceEventType.LISTING_UNLIKED, MarketplaceEventType.LISTING_EXPIRED);
+
+    private final MarketplaceEventRepository marketplaceEventRepository;
+    private final MarketplaceRollupRepository marketplaceRollupRepository;
+    private final SaleListingRepository saleListingRepository;
+    private final SaleHistoryRepository saleHistoryRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public MarketplaceAnalyticsService(MarketplaceEventRepository marketplaceEventRepository,
+                                       MarketplaceRollupRepository marketplaceRollupRepository,
+                                       SaleListingRepository saleListingRepository,
+                                       SaleHistoryRepository saleHistoryRepository,
+                                       PlatformTransactionManager transactionManager) {
+        this.marketplaceEventRepository = marketplaceEventRepository;
+        this.marketplaceRollupRepository = marketplaceRollupRepository;
+        this.saleListingRepository = saleListingRepository;
+        this.saleHistoryRepository = saleHistoryRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Records a sale listing being created.
+     *
+     * @param listing the listing, already saved
+     */
+    public void recordListingCreated(SaleListing listing) {
+        recordEvent(MarketplaceEventType.LISTING_CREATED, listing, LocalDateTime.now(), 0);
+    }
+
+    /**
+     * Records a user liking a sale listing. The like is only appended to the log, and added to the rollups
+     * by foldEvents.
+     *
+     * @param listing the listing that was liked
+     */
+    public void recordLike(SaleListing listing) {
+        appendEvent(MarketplaceEventType.LISTING_LIKED, listing, LocalDateTime.now(), 0);
+    }
+
+    /**
+     * Records a user unliking a sale listing. The unlike is only appended to the log, and added to the rollups
+     * by foldEvents.
+     *
+     * @param listing the listing that was unliked
+     */
+    public void recordUnlike(SaleListing listing) {
+        appendEvent(MarketplaceEventType.LISTING_UNLIKED, listing, LocalDateTime.now(), 0);
+    }
+
+    /**
+     * Records a sale listing being sold, along with the number of likes it had, which count as converted.
+     *
+     * @param listing the listing that was sold
+     * @param sale    the sale of the listing
+     * @param likes   the like counter of the listing, read when it was claimed for the purchase
+     */
+    public void recordSale(SaleListing listing, Sale sale, int likes) {
+        recordEvent(MarketplaceEventType.LISTING_SOLD, listing, sale.getDateSold(), likes);
+    }
+
+    /**
+     * Records a batch of sale listings expiring, in a single statement. The expiries are only appended to the log,
+     * and added to the rollups by foldEvents, so only the listings are read, which must have been claimed for
+     * expiry in the same transaction and not yet deleted.
+     *
+     * @param listingIds ids of the listings that expired, claimed by the caller's transaction
+     */
+    public void recordExpired(List<Integer> listingIds) {
+        if (listingIds.isEmpty()) return;
+        marketplaceEventRepository.addExpiredEvents(LocalDateTime.now(), listingIds);
+    }
+
+    /**
+     * Appends an event of a listing to the log and adds it to the rollup of its business' day.
+     */
+    private void recordEvent(MarketplaceEventType eventType, SaleListing listing, LocalDateTime occurred, int likes) {
+        appendEvent(eventType, listing, occurred, likes);
+
+        double price = listing.getPrice() == null ? 0 : listing.getPrice();
+        long quantity = listing.getQuantity() == null ? 0 : listing.getQuantity();
+        var totals = new MarketplaceRollup();
+        addEvents(totals, eventType, 1, price, quantity, likes);
+        addToRollup(listing.getBusiness().getId(), occurred.toLocalDate(), totals);
+    }
+
+    /**
+     * Appends an event of a listing to the log, without adding it to the rollups.
+     */
+    private void appendEvent(MarketplaceEventType eventType, SaleListing listing, LocalDateTime occurred, int likes) {
+        marketplaceEventRepository.addEvent(eventType.name(), occurred, listing.getBusiness().getId(),
+                listing.getId(), listing.getPrice(), listing.getQuantity(), likes);
+    }
+
+    /**
+     * Adds the likes, unlikes and expiries appended to the log since the last run to the rollups, oldest first,
+     * in batches.
+     * Each batch is claimed, totalled by business, day and type in one grouped query and added to the rollups
+     * in a single transaction, so several nodes can fold the log at once without adding any event twice, and
+     * a batch that fails is retried on the next run.
+     * Scheduled to run every 5 seconds.
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void foldEvents() {
+        var folded = 0;
+        List<Integer> unfolded;
+        try {
+            do {
+                unfolded = marketplaceEventRepository.findUnfoldedIds(FOLDED_EVENT_TYPES,
+                        PageRequest.of(0, FOLD_BATCH_SIZE));
+                if (unfolded.isEmpty()) break;
+
+                List<Integer> batch = unfolded;
+                Integer batchFolded = transactionTemplate.execute(status -> foldBatch(batch));
+                folded += batchFolded == null ? 0 : batchFolded;
+            } while (unfolded.size() == FOLD_BATCH_SIZE);
+        } catch (ConcurrencyFailureException exception) {
+            logger.warn("Failed to add a batch of marketplace events to the rollups, retrying on the next run: {}",
+                    exception.getMessage());
+        }
+        if (folded > 0) {
+            logger.info("Added {} marketplace events to the rollups", folded);
+        }
+    }
+
+    /**
+     * Helper method of the foldEvents method that claims a batch of events and adds them to the rollups.
+     *
+     * @param ids ids of the events in the batch
+     * @return number of events added to the rollups, fewer than the batch if another node claimed some first
+     */
+    private int foldBatch(List<Integer> ids) {
+        var foldedBy = UUID.randomUUID().toString();
+        int claimed = marketplaceEventRepository.claimForFold(ids, foldedBy);
+        if (claimed == 0) return 0;
+
+        Map<List<Object>, MarketplaceRollup> rollups = new LinkedHashMap<>();
+        for (List<Object> row : marketplaceEventRepository.findFoldedTotals(foldedBy)) {
+            var rollup = rollups.computeIfAbsent(List.of(row.get(0), toLocalDate(row.get(1))),
+                    key -> new MarketplaceRollup());
+            addEvents(rollup, (MarketplaceEventType) row.get(2), ((Number) row.get(3)).intValue(), 0, 0, 0);
+        }
+        rollups.forEach((key, totals) -> addToRollup((Integer) key.get(0), (LocalDate) key.get(1), totals));
+        return claimed;
+    }
+
+    /**
+     * Adds events of one type to the totals of a rollup.
+     *
+     * @param rollup    the rollup to add to
+     * @param eventType the type of the events
+     * @param count     the number of events
+     * @param price     the total price of the events' listings, only counted for sales
+     * @param quantity  the total quantity of the events' listings, only counted for sales
+     * @param likes     the total likes the events' listings had when sold
+     */
+    private void addEvents(MarketplaceRollup rollup, MarketplaceEventType eventType, int count,
+                           double price, long quantity, int likes) {
+        switch (eventType) {
+            case LISTING_CREATED:
+                rollup.setListingsCreated(rollup.getListingsCreated() + count);
+                break;
+            case LISTING_LIKED:
+                rollup.setLikes(rollup.getLikes() + count);
+                break;
+            case LISTING_UNLIKED:
+                rollup.setUnlikes(rollup.getUnlikes() + count);
+                break;
+            case LISTING_SOLD:
+                rollup.setListingsSold(rollup.getListingsSold() + count);
+                rollup.setLikesConverted(rollup.getLikesConverted() + likes);
+                rollup.setRevenue(rollup.getRevenue() + price);
+                rollup.setUnits(rollup.getUnits() + quantity);
+                break;
+            default:
+                rollup.setListingsExpired(rollup.getListingsExpired() + count);
+        }
+    }
+
+    /**
+     * Adds totals to the rollup of a business' day, creating it for the business' first events that day.
+     * Adding to the rollup locks it until the transaction commits. If another transaction creates the day's
+     * rollup at the same time, a ConcurrencyFailureException is thrown so the caller retries, and adds to that
+     * rollup instead.
+     */
+    private void addToRollup(Integer businessId, LocalDate day, MarketplaceRollup totals) {
+        if (marketplaceRollupRepository.addToRollup(businessId, day, totals.getListingsCreated(),
+                totals.getListingsSold(), totals.getListingsExpired(), totals.getLikes(), totals.getUnlikes(),
+                totals.getLikesConverted(), totals.getRevenue(), totals.getUnits()) > 0) {
+            return;
+        }
+        try {
+            marketplaceRollupRepository.createRollup(businessId, day, totals.getListingsCreated(),
+                    totals.getListingsSold(), totals.getListingsExpired(), totals.getLikes(), totals.getUnlikes(),
+                    totals.getLikesConverted(), totals.getRevenue(), totals.getUnits());
+        } catch (DataIntegrityViolationException exception) {
+            throw new ConcurrencyFailureException(String.format(
+                    "Marketplace rollup of business with ID %d for %s was created by another transaction",
+                    businessId, day), exception);
+        }
+    }
+
+    /**
+     * Rebuilds the rollups of every business from the event log, in a single transaction.
+     * The events are totalled by business, day and type in one grouped query, so the log is only read once.
+     *
+     * @return the number of rollups, one for each day a business had events on
+     */
+    public int rebuildRollups() {
+        Integer rebuilt = transactionTemplate.execute(status -> {
+            // The rebuilt rollups include every event, so none are left to be added by foldEvents
+            marketplaceEventRepository.claimAllForFold(FOLDED_EVENT_TYPES, UUID.randomUUID().toString());
+            marketplaceRollupRepository.deleteAllRollups();
+            Map<List<Object>, MarketplaceRollup> rollups = new LinkedHashMap<>();
+            for (List<Object> row : marketplaceEventRepository.findDailyTotals()) {
+                Integer businessId = (Integer) row.get(0);
+                LocalDate day = toLocalDate(row.get(1));
+                var rollup = rollups.computeIfAbsent(List.of(businessId, day),
+                        key -> new MarketplaceRollup(businessId, day, (String) row.get(3), (String) row.get(4)));
+                addEvents(rollup, (MarketplaceEventType) row.get(2), ((Number) row.get(5)).intValue(),
+                        row.get(6) == null ? 0 : ((Number) row.get(6)).doubleValue(),
+                        row.get(7) == null ? 0 : ((Number) row.get(7)).longValue(),
+                        row.get(8) == null ? 0 : ((Number) row.get(8)).intValue());
+            }
+            marketplaceRollupRepository.saveAll(rollups.values());
+            return rollups.size();
+        });
+        logger.info("Rebuilt {} marketplace rollups", rebuilt);
+        return rebuilt == null ? 0 : rebuilt;
+    }
+
+    /**
+     * Backfills the event log at startup if it is empty but there are sales or listings, e.g. the first time
+     * the application is run with it, then builds the rollups from it.
+     * Listings and likes are deleted once the listing is sold or expires, so only the sales and the current
+     * listings and likes can be backfilled.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillEvents() {
+        if (marketplaceEventRepository.count() > 0
+                || (saleHistoryRepository.count() == 0 && saleListingRepository.count() == 0)) {
+            return;
+        }
+        logger.info("No marketplace events found, backfilling them from the sales, listings and likes");
+        Integer backfilled = transactionTemplate.execute(status -> marketplaceEventRepository.backfillSoldEvents()
+                + marketplaceEventRepository.backfillSoldListingEvents()
+                + marketplaceEventRepository.backfillListingEvents()
+                + marketplaceEventRepository.backfillLikeEvents());
+        logger.info("Backfilled {} marketplace events", backfilled);
+        rebuildRollups();
+    }
+
+    /**
+     * Parses the start or end date of an analytics period.
+     * Throws BadRequestException when the date is an incorrect format
+     *
+     * @param dateString A date that should be in the form "yyyy-MM-dd"
+     * @return a LocalDate object of the date
+     */
+    private LocalDate parseDate(String dateString) {
+        try {
+            return LocalDate.parse(dateString);
+        } catch (DateTimeParseException parseException) {
+            var exception = new BadRequestException(
+                    "Date: " + dateString + " is not in the correct format of yyyy-MM-dd");
+            logger.warn(exception.getMessage());
+            throw exception;
+        }
+    }
+
+    /**
+     * Checks the end of an analytics period isn't before its start.
+     */
+    private void checkPeriod(LocalDate periodStart, LocalDate periodEnd) {
+        if (periodEnd.isBefore(periodStart)) {
+            var message = "Period end date should be after the period start date.";
+            logger.warn(message);
+            throw new BadRequestException(message);
+        }
+    }
+
+    /**
+     * Gets the first day of the period of the given granularity a day falls in.
+     * Weekly periods start on the report start date, monthly and yearly periods on the first day of the month
+     * or year, the same as in sales reports.
+     */
+    private LocalDate getPeriodStart(ReportGranularity granularity, LocalDate reportStart, LocalDate day) {
+        switch (granularity) {
+            case DAY:
+                return day;
+            case WEEK:
+                return reportStart.plusWeeks(ChronoUnit.WEEKS.between(reportStart, day));
+            case MONTH:
+                return day.with(TemporalAdjusters.firstDayOfMonth());
+            case YEAR:
+                return day.with(TemporalAdjusters.firstDayOfYear());
+            default:
+                return reportStart;
+        }
+    }
+
+    /**
+     * Gets the last day of the period of the given granularity that starts on the given day,
+     * cut short at the report end.
+     */
+    private LocalDate getPeriodEnd(ReportGranularity granularity, LocalDate periodStart, LocalDate reportEnd) {
+        LocalDate periodEnd;
+        switch (granularity) {
+            case DAY:
+                periodEnd = periodStart;
+                break;
+            case WEEK:
+                periodEnd = periodStart.plusDays(6);
+                break;
+            case MONTH:
+                periodEnd = periodStart.with(TemporalAdjusters.lastDayOfMonth());
+                break;
+            case YEAR:
+                periodEnd = periodStart.with(TemporalAdjusters.lastDayOfYear());
+                break;
+            default:
+                periodEnd = reportEnd;
+        }
+        return periodEnd.isAfter(reportEnd) ? reportEnd : periodEnd;
+    }
+
+    /**
+     * Gets the marketplace's sales and revenue within a period, split into periods of the given granularity
+     * and by the country and type of the businesses. Only the periods, countries and types with sales are included.
+     *
+     * @param periodStart The date to start the report in the form "yyyy-MM-dd"
+     * @param periodEnd   The date to end the report in the form "yyyy-MM-dd"
+     * @param granularity The granularity for the report e.g. "monthly", "weekly"
+     * @return the sales of each country and business type in each period, ordered by period
+     */
+    public List<GetMarketplaceSalesDTO> getSales(String periodStart, String periodEnd, String granularity) {
+        logger.info("Request to get the marketplace sales from {} to {}", periodStart, periodEnd);
+        LocalDate startDate = parseDate(periodStart);
+        LocalDate endDate = parseDate(periodEnd);
+        checkPeriod(startDate, endDate);
+        if (!ReportGranularity.checkGranularity(granularity)) {
+            var message = granularity + " is not a valid granularity";
+            logger.warn(message);
+            throw new BadRequestException(message);
+        }
+        ReportGranularity reportGranularity = ReportGranularity.getGranularity(granularity);
+
+        Map<List<Object>, GetMarketplaceSalesDTO> periods = new LinkedHashMap<>();
+        for (List<Object> row : marketplaceRollupRepository.findSalesByMarket(startDate, endDate)) {
+            LocalDate start = getPeriodStart(reportGranularity, startDate, toLocalDate(row.get(0)));
+            String country = (String) row.get(1);
+            String businessType = (String) row.get(2);
+            // The key can't be a List.of as the country or business type may be missing
+            var period = periods.computeIfAbsent(Arrays.asList(start, country, businessType),
+                    key -> new GetMarketplaceSalesDTO(start, getPeriodEnd(reportGranularity, start, endDate),
+                            country, businessType));
+            period.addTotals(((Number) row.get(3)).intValue(), ((Number) row.get(4)).doubleValue(),
+                    ((Number) row.get(5)).longValue());
+        }
+        return new ArrayList<>(periods.values());
+    }
+
+    /**
+     * Gets the businesses with the most revenue within a period.
+     *
+     * @param periodStart The date to start the period in the form "yyyy-MM-dd"
+     * @param periodEnd   The date to end the period in the form "yyyy-MM-dd"
+     * @param limit       The number of businesses to get, from 1 to 100
+     * @return the businesses with their sales and revenue, highest revenue first
+     */
+    public List<GetTopBusinessDTO> getTopBusinesses(String periodStart, String periodEnd, int limit) {
+        logger.info("Request to get the top {} businesses from {} to {}", limit, periodStart, periodEnd);
+        LocalDate startDate = parseDate(periodStart);
+        LocalDate endDate = parseDate(periodEnd);
+        checkPeriod(startDate, endDate);
+        if (limit < 1 || limit > MAX_TOP_BUSINESSES) {
+            var message = String.format("Limit must be between 1 and %d", MAX_TOP_BUSINESSES);
+            logger.warn(message);
+            throw new BadRequestException(message);
+        }
+
+        List<GetTopBusinessDTO> businesses = new ArrayList<>();
+        for (List<Object> row : marketplaceRollupRepository.findTopBusinesses(startDate, endDate,
+                PageRequest.of(0, limit))) {
+            businesses.add(new GetTopBusinessDTO((Integer) row.get(0), (String) row.get(1), (String) row.get(2),
+                    (String) row.get(3), ((Number) row.get(4)).intValue(), ((Number) row.get(5)).doubleValue(),
+                    ((Number) row.get(6)).longValue()));
+        }
+        return businesses;
+    }
+
+    /**
+     * Gets how the marketplace's listings did within a period: the number created, sold and expired,
+     * the sell-through rate (the share of the listings which ended that were sold rather than expiring),
+     * the number of likes and unlikes, and the like conversion rate (the share of the likes, less unlikes,
+     * which were on listings that were then sold).
+     *
+     * @param periodStart The date to start the period in the form "yyyy-MM-dd"
+     * @param periodEnd   The date to end the period in the form "yyyy-MM-dd"
+     * @return JSONObject with the listing totals and rates, the rates are null if nothing they are out of happened
+     */
+    public JSONObject getListingStatistics(String periodStart, String periodEnd) {
+        logger.info("Request to get the marketplace listing statistics from {} to {}", periodStart, periodEnd);
+        LocalDate startDate = parseDate(periodStart);
+        LocalDate endDate = parseDate(periodEnd);
+        checkPeriod(startDate, endDate);
+
+        List<Object> row = marketplaceRollupRepository.findListingTotals(startDate, endDate).get(0);
+        long created = toLong(row.get(0));
+        long sold = toLong(row.get(1));
+        long expired = toLong(row.get(2));
+        long likes = toLong(row.get(3));
+        long unlikes = toLong(row.get(4));
+        long likesConverted = toLong(row.get(5));
+
+        var statistics = new JSONObject();
+        statistics.put("listingsCreated", created);
+        statistics.put("listingsSold", sold);
+        statistics.put("listingsExpired", expired);
+        statistics.put("sellThroughRate", sold + expired == 0 ? null : (double) sold / (sold + expired));
+        statistics.put("likes", likes);
+        statistics.put("unlikes", unlikes);
+        statistics.put("likesConverted", likesConverted);
+        statistics.put("likeConversionRate", likes - unlikes <= 0 ? null
+                : Math.min(1.0, (double) likesConverted / (likes - unlikes)));
+        return statistics;
+    }
+
+    private long toLong(Object total) {
+        return total == null ? 0 : ((Number) total).longValue();
+    }
+
+    /**
+     * Converts the day a grouped query returns into a LocalDate, as the type depends on the database driver
+     * @param day the day as returned by the query
+     * @return the day as a LocalDate
+     */
+    private LocalDate toLocalDate(Object day) {
+        if (day instanceof java.sql.Date) {
+            return ((java.sql.Date) day).toLocalDate();
+        } else if (day instanceof Timestamp) {
+            return ((Timestamp) day).toLocalDateTime().toLocalDate();
+        }
+        return (LocalDate) day;
+    }
+}
@@ -0,0 +1,43 @@
+package org.seng302.project.service_layer.service;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import net.minidev.json.JSONObject;
+import org.seng302.project.service_layer.util.SlowQueryLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Service that gets the metrics of this node, for Prometheus to scrape.
+ * The metrics include the latency, rate and errors of every endpoint, the timings of every repository method
+ * and scheduled job, the connection pool usage and the JVM memory and garbage collection.
+ */
+@Service
+public class MetricsService {
+
+    private final PrometheusMeterRegistry prometheusMeterRegistry;
+    private final SlowQueryLog slowQueryLog;
+
+    @Autowired
+    public MetricsService(PrometheusMeterRegistry prometheusMeterRegistry, SlowQueryLog slowQueryLog) {
+        this.prometheusMeterRegistry = prometheusMeterRegistry;
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * Gets all of the metrics recorded on this node.
+     *
+     * @return the metrics in the Prometheus text format
+     */
+    public String getMetrics() {
+        return prometheusMeterRegistry.scrape();
+    }
+
+    /**
+     * Gets the statements run on this node which took longer than the slow query threshold, newest first.
+     *
+     * @return JSONObject with the slow query log
+     */
+    public JSONObject getSlowQueries() {
+        return slowQueryLog.getStatistics();
+    }
+}
@@ -14,6 +14,10 @@ import org.seng302.project.service_layer.exceptions.*;
 import org.seng302.project.service_layer.exceptions.business.BusinessNotFoundException;
 import org.seng302.project.service_layer.exceptions.businessAdministrator.ForbiddenAdministratorActionException;
 import org.seng302.project.service_layer.exceptions.product.ProductNotFoundException;
+import org.seng302.project.service_layer.util.SaleListingSearchIndex;
+import org.seng302.project.service_layer.util.SearchQuery;
+import org.seng302.project.service_layer.util.SearchQuery.SearchTerm;
+import org.seng302.project.service_layer.util.SearchQueryParser;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,7 +28,6 @@ import org.springframework.stereotype.Service;
 
 import javax.transaction.Transactional;
 import java.util.*;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Service
@@ -35,19 +38,19 @@ public class ProductCatalogueService {
     private final ProductRepository productRepository;
     private final InventoryItemRepository inventoryItemRepository;
     private final UserRepository userRepository;
-
-    private static final String AND_SPACE_REGEX = "( and |\\s)(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
-    private static final String QUOTE_REGEX = "^\".*\"$";
+    private final SaleListingSearchIndex saleListingSearchIndex;
 
     @Autowired
     public ProductCatalogueService(UserRepository userRepository,
                                BusinessRepository businessRepository,
                                ProductRepository productRepository,
-                                   InventoryItemRepository inventoryItemRepository) {
+                                   InventoryItemRepository inventoryItemRepository,
+                                   SaleListingSearchIndex saleListingSearchIndex) {
         this.userRepository = userRepository;
         this.businessRepository = businessRepository;
         this.productRepository = productRepository;
         this.inventoryItemRepository = inventoryItemRepository;
+        this.saleListingSearchIndex = saleListingSearchIndex;
     }
 
     /**
@@ -260,6 +263,8 @@ public class ProductCatalogueService {
                 //Save edited product
                 productRepository.save(product);
             }
+            // Sale listings can be searched by product name
+            saleListingSearchIndex.reindexProduct(requestDTO.getBusinessId(), newId);
 
         } catch (BusinessNotFoundException | ForbiddenAdministratorActionException |
                 ProductIdAlreadyExistsException handledException) {
@@ -277,19 +282,15 @@ public class ProductCatalogueService {
      * Searches the product id field, handling ORs, ANDs, spaces and quotes
      * Updates the set of products for searchProducts()
      * @param currentResult The products that have already been retrieved searchProducts()
-     * @param conjunctions The list of strings that have been split by OR
+     * @param query The parsed search query
      * @param businessId The id of the business we are searching the catalogue of
      */
-    private void searchIdField(Set<Product> currentResult, String[] conjunctions, Integer businessId) {
-        for (String conjunction : conjunctions) {
-            String[] terms = conjunction.split(AND_SPACE_REGEX); // Split by AND and spaces
+    private void searchIdField(Set<Product> currentResult, SearchQuery query, Integer businessId) {
+        for (List<SearchTerm> conjunction : query.getConjunctions()) {
             Specification<Product> spec = Specification.where(ProductSpecifications.hasBusinessId(businessId));
-            for (String term : terms) {
-                //Remove quotes from quoted string, then search by full contents inside the quotes
-                if (Pattern.matches(QUOTE_REGEX, term)) {
-                    term = term.replace("\"", "");
-                }
-                spec = spec.and(ProductSpecifications.containsId(term));
+            for (SearchTerm term : conjunction) {
+                //Quoted terms have had their quotes removed, and are searched for like any other term
+                spec = spec.and(ProductSpecifications.containsId(term.getText()));
             }
             currentResult.addAll(productRepository.findAll(spec));
         }
@@ -300,19 +301,15 @@ public class ProductCatalogueService {
      * Searches the product name field, handling ORs, ANDs, spaces and quotes
      * Updates the set of products for searchProducts()
      * @param currentResult The products that have already been retrieved searchProducts()
-     * @param conjunctions The list of strings that have been split by OR
+     * @param query The parsed search query
      * @param businessId The id of the business we are searching the catalogue of
      */
-    private void searchNameField(Set<Product> currentResult, String[] conjunctions, Integer businessId) {
-        for (String conjunction : conjunctions) {
-            String[] terms = conjunction.split(AND_SPACE_REGEX); // Split by AND and spaces
+    private void searchNameField(Set<Product> currentResult, SearchQuery query, Integer businessId) {
+        for (List<SearchTerm> conjunction : query.getConjunctions()) {
             Specification<Product> spec = Specification.where(ProductSpecifications.hasBusinessId(businessId));
-            for (String term : terms) {
-                //Remove quotes from quoted string, then search by full contents inside the quotes
-                if (Pattern.matches(QUOTE_REGEX, term)) {
-                    term = term.replace("\"", "");
-                }
-                spec = spec.and(ProductSpecifications.containsName(term));
+            for (SearchTerm term : conjunction) {
+                //Quoted terms have had their quotes removed, and are searched for like any other term
+                spec = spec.and(ProductSpecifications.containsName(term.getText()));
             }
             currentResult.addAll(productRepository.findAll(spec));
         }
@@ -323,19 +320,15 @@ public class ProductCatalogueService {
      * Searches the product description field, handling ORs, ANDs, spaces and quotes
      * Updates the set of products for searchProducts()
      * @param currentResult The products that have already been retrieved searchProducts()
-     * @param conjunctions The list of strings that have been split by OR
+     * @param query The parsed search query
      * @param businessId The id of the business we are searching the catalogue of
      */
-    private void searchDescriptionField(Set<Product> currentResult, String[] conjunctions, Integer businessId) {
-        for (String conjunction : conjunctions) {
-            String[] terms = conjunction.split(AND_SPACE_REGEX); // Split by AND and spaces
+    private void searchDescriptionField(Set<Product> currentResult, SearchQuery query, Integer businessId) {
+        for (List<SearchTerm> conjunction : query.getConjunctions()) {
             Specification<Product> spec = Specification.where(ProductSpecifications.hasBusinessId(businessId));
-            for (String term : terms) {
-                //Remove quotes from quoted string, then search by full contents inside the quotes
-                if (Pattern.matches(QUOTE_REGEX, term)) {
-                    term = term.replace("\"", "");
-                }
-                spec = spec.and(ProductSpecifications.containsDescription(term));
+            for (SearchTerm term : conjunction) {
+                //Quoted terms have had their quotes removed, and are searched for like any other term
+                spec = spec.and(ProductSpecifications.containsDescription(term.getText()));
             }
             currentResult.addAll(productRepository.findAll(spec));
         }
@@ -345,19 +338,15 @@ public class ProductCatalogueService {
      * Searches the product manufacturer field, handling ORs, ANDs, spaces and quotes
      * Updates the set of products for searchProducts()
      * @param currentResult The products that have already been retrieved searchProducts()
-     * @param conjunctions The list of strings that have been split by OR
+     * @param query The parsed search query
      * @param businessId The id of the business we are searching the catalogue of
      */
-    private void searchManufacturerField(Set<Product> currentResult, String[] conjunctions, Integer businessId) {
-        for (String conjunction : conjunctions) {
-            String[] terms = conjunction.split(AND_SPACE_REGEX); // Split by AND and spaces
+    private void searchManufacturerField(Set<Product> currentResult, SearchQuery query, Integer businessId) {
+        for (List<SearchTerm> conjunction : query.getConjunctions()) {
             Specification<Product> spec = Specification.where(ProductSpecifications.hasBusinessId(businessId));
-            for (String term : terms) {
-                //Remove quotes from quoted string, then search by full contents inside the quotes
-                if (Pattern.matches(QUOTE_REGEX, term)) {
-                    term = term.replace("\"", "");
-                }
-                spec = spec.and(ProductSpecifications.containsManufacturer(term));
+            for (SearchTerm term : conjunction) {
+                //Quoted terms have had their quotes removed, and are searched for like any other term
+                spec = spec.and(ProductSpecifications.containsManufacturer(term.getText()));
             }
             currentResult.addAll(productRepository.findAll(spec));
         }
@@ -379,28 +368,27 @@ public class ProductCatalogueService {
         var business = getBusiness(businessId);
         checkUserAdmin(business, loggedInUser);
 
-        searchQuery = searchQuery.toLowerCase();
         Set<Product> result = new LinkedHashSet<>();
-        String[] conjunctions = searchQuery.split(" or (?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)"); // Split by OR
+        var query = SearchQueryParser.parse(searchQuery);
 
         //Searching id field
         if (Boolean.TRUE.equals(requestDTO.getMatchingId())) {
-            searchIdField(result, conjunctions, businessId);
+            searchIdField(result, query, businessId);
         }
 
         //Searching name field
         if (Boolean.TRUE.equals(requestDTO.getMatchingName())) {
-            searchNameField(result, conjunctions, businessId);
+            searchNameField(result, query, businessId);
         }
 
         //Searching description field
         if (Boolean.TRUE.equals(requestDTO.getMatchingDescription())) {
-            searchDescriptionField(result, conjunctions, businessId);
+            searchDescriptionField(result, query, businessId);
         }
 
         //Searching manufacturer field
         if (Boolean.TRUE.equals(requestDTO.getMatchingManufacturer())) {
-            searchManufacturerField(result, conjunctions, businessId);
+            searchManufacturerField(result, query, businessId);
         }
 
         List<Product> products = new ArrayList<>(result);
@@ -0,0 +1,166 @@
+package org.seng302.project.service_layer.service;
+
+import net.minidev.json.JSONObject;
+import org.seng302.project.repository_layer.model.PurchaseOutboxEvent;
+import org.seng302.project.repository_layer.repository.PurchaseOutboxEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Service that sends the notifications for sale listing purchases from the purchase outbox.
+ * Buying a listing only records who needs to be notified, so the buyer doesn't wait on the notifications
+ * to the users who liked the listing. The notifications are then written here in batches,
+ * with a few statements per batch of purchases rather than a few statements per user.
+ * <p>
+ * Also keeps the worker metrics: how many purchases and notifications have been processed,
+ * and the lag between a purchase and its notifications being sent.
+ */
+@Service
+public class PurchaseNotificationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PurchaseNotificationService.class.getName());
+    private static final int OUTBOX_BATCH_SIZE = 100;
+
+    // Claims older than this are from a worker that stopped, so the purchases can be claimed again
+    private static final Duration CLAIM_TIMEOUT = Duration.ofMinutes(5);
+
+    private static final String INSERT_NOTIFICATIONS_SQL =
+            "insert into user_notification (type, message, has_read, created, user_id, purchase_event_id) " +
+            "select 'interested', e.message, false, e.created, r.user_id, e.id from purchase_outbox_event e " +
+            "join purchase_outbox_recipient r on r.event_id = e.id where e.claimed_by = ?";
+    private static final String INSERT_INTERESTED_NOTIFICATIONS_SQL =
+            "insert into interested_user_notification (notification_id) " +
+            "select n.notification_id from user_notification n " +
+            "join purchase_outbox_event e on n.purchase_event_id = e.id where e.claimed_by = ?";
+    private static final String DELETE_RECIPIENTS_SQL = "delete from purchase_outbox_recipient where event_id in " +
+            "(select e.id from purchase_outbox_event e where e.claimed_by = ?)";
+    private static final String DELETE_EVENTS_SQL = "delete from purchase_outbox_event where claimed_by = ?";
+
+    private final PurchaseOutboxEventRepository purchaseOutboxEventRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate outboxTransaction;
+
+    private final AtomicLong purchasesProcessed = new AtomicLong();
+    private final AtomicLong notificationsSent = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile long lastRunMillis = 0;
+    private volatile long lastLagMillis = 0;
+    private volatile long maxLagMillis = 0;
+
+    @Autowired
+    public PurchaseNotificationService(PurchaseOutboxEventRepository purchaseOutboxEventRepository,
+                                       JdbcTemplate jdbcTemplate,
+                                       PlatformTransactionManager transactionManager) {
+        this.purchaseOutboxEventRepository = purchaseOutboxEventRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.outboxTransaction = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Sends the notifications for all purchases in the outbox, oldest first, in batches.
+     * Each batch is claimed first, so several workers can send notifications at once without sending any twice.
+     * The batch is then sent and removed from the outbox in a single transaction, so a failed batch is retried
+     * once its claim expires.
+     * Scheduled to run every second.
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void sendPurchaseNotifications() {
+        long startTime = System.currentTimeMillis();
+        var purchases = 0;
+        var notifications = 0;
+        List<Integer> claimable;
+        do {
+            var now = LocalDateTime.now();
+            claimable = purchaseOutboxEventRepository.findClaimableIds(now.minus(CLAIM_TIMEOUT),
+                    PageRequest.of(0, OUTBOX_BATCH_SIZE));
+            if (claimable.isEmpty()) break;
+
+            var claim = UUID.randomUUID().toString();
+            if (purchaseOutboxEventRepository.claim(claimable, claim, now, now.minus(CLAIM_TIMEOUT)) == 0) continue;
+            List<PurchaseOutboxEvent> batch = purchaseOutboxEventRepository.findClaimed(claim);
+
+            Integer sent = outboxTransaction.execute(status -> sendBatch(claim, batch.size()));
+            recordBatch(batch, sent == null ? 0 : sent, LocalDateTime.now());
+            purchases += batch.size();
+            notifications += sent == null ? 0 : sent;
+        } while (claimable.size() == OUTBOX_BATCH_SIZE);
+
+        if (purchases > 0) {
+            lastRunMillis = System.currentTimeMillis() - startTime;
+            logger.info("Sent {} notifications for {} purchases in {} ms", notifications, purchases, lastRunMillis);
+        }
+    }
+
+    /**
+     * Helper method of the sendPurchaseNotifications method that sends the notifications for a claimed batch
+     * of purchases, then removes them from the outbox.
+     * Throws a ConcurrencyFailureException, rolling the batch back, if another worker has taken over the claim.
+     *
+     * @param claim     unique id of the claim on the batch
+     * @param batchSize number of purchases in the batch
+     * @return number of notifications sent
+     */
+    private int sendBatch(String claim, int batchSize) {
+        jdbcTemplate.update(INSERT_NOTIFICATIONS_SQL, claim);
+        // Interested user notifications are split over two tables, so add the subclass rows for the new notifications
+        int sent = jdbcTemplate.update(INSERT_INTERESTED_NOTIFICATIONS_SQL, claim);
+
+        jdbcTemplate.update(DELETE_RECIPIENTS_SQL, claim);
+        if (jdbcTemplate.update(DELETE_EVENTS_SQL, claim) != batchSize) {
+            throw new ConcurrencyFailureException("Purchase outbox claim " + claim + " expired before it was sent");
+        }
+        return sent;
+    }
+
+    /**
+     * Records a batch of purchases having their notifications sent.
+     *
+     * @param batch purchases that had their notifications sent
+     * @param sent  number of notifications sent
+     * @param now   when the notifications were sent
+     */
+    private void recordBatch(List<PurchaseOutboxEvent> batch, int sent, LocalDateTime now) {
+        long lag = Duration.between(batch.get(0).getCreated(), now).toMillis();
+        purchasesProcessed.addAndGet(batch.size());
+        notificationsSent.addAndGet(sent);
+        batches.incrementAndGet();
+        lastLagMillis = lag;
+        maxLagMillis = Math.max(maxLagMillis, lag);
+    }
+
+    /**
+     * Gets the worker metrics: the number of purchases waiting in the outbox and how long the oldest has been waiting,
+     * the number of purchases, notifications and batches processed since startup, how long the last run took,
+     * and the longest time between a purchase in the last batch and its notifications being sent,
+     * along with the longest such lag since startup.
+     *
+     * @return JSONObject with the worker metrics
+     */
+    public JSONObject getStatistics() {
+        var oldest = purchaseOutboxEventRepository.findOldestCreated();
+        var statistics = new JSONObject();
+        statistics.put("pending", purchaseOutboxEventRepository.count());
+        statistics.put("oldestPendingMillis", oldest == null ? 0 : Duration.between(oldest, LocalDateTime.now()).toMillis());
+        statistics.put("purchasesProcessed", purchasesProcessed.get());
+        statistics.put("notificationsSent", notificationsSent.get());
+        statistics.put("batches", batches.get());
+        statistics.put("lastRunMillis", lastRunMillis);
+        statistics.put("lastLagMillis", lastLagMillis);
+        statistics.put("maxLagMillis", maxLagMillis);
+        return statistics;
+    }
+}
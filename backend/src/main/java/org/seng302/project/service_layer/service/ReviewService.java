@@ -13,6 +13,7 @@ import org.seng302.project.service_layer.dto.review.GetReviewDTO;
 import org.seng302.project.repository_layer.repository.UserNotificationRepository;
 import org.seng302.project.service_layer.dto.review.PostReviewDTO;
 import org.seng302.project.service_layer.exceptions.NotAcceptableException;
+import org.seng302.project.service_layer.util.SalesReportCache;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +23,7 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -37,6 +39,8 @@ public class ReviewService {
     private final SaleHistoryRepository saleHistoryRepository;
     private final UserNotificationRepository userNotificationRepository;
     private final BusinessNotificationRepository businessNotificationRepository;
+    private final SalesRollupService salesRollupService;
+    private final SalesReportCache salesReportCache;
 
     @Autowired
     public ReviewService(BusinessService businessService,
@@ -44,13 +48,17 @@ public class ReviewService {
                          ReviewRepository reviewRepository,
                          SaleHistoryRepository saleHistoryRepository,
                          UserNotificationRepository userNotificationRepository,
-                         BusinessNotificationRepository businessNotificationRepository) {
+                         BusinessNotificationRepository businessNotificationRepository,
+                         SalesRollupService salesRollupService,
+                         SalesReportCache salesReportCache) {
         this.businessService = businessService;
         this.userService = userService;
         this.reviewRepository = reviewRepository;
         this.saleHistoryRepository = saleHistoryRepository;
         this.userNotificationRepository = userNotificationRepository;
         this.businessNotificationRepository = businessNotificationRepository;
+        this.salesRollupService = salesRollupService;
+        this.salesReportCache = salesReportCache;
     }
 
     /**
@@ -85,13 +93,16 @@ public class ReviewService {
 
 
     /**
-     * Creates a review on a sale (purchased sale listing)
+     * Creates a review on a sale (purchased sale listing), and adds its rating to the business' rating summary
+     * and to the business' sales rollup for the day of the sale. The cached sales report periods holding the sale
+     * are invalidated, as their review totals change.
      *
      * @param userId     id of the user to make the review as
      * @param purchaseId id of the sale the user is leaving the review about
      * @param requestDTO the dto containing the rating and message of the review
      * @param appUser    the user making the request
      */
+    @Transactional
     public void newReview(Integer userId, Integer purchaseId, PostReviewDTO requestDTO,
                           AppUserDetails appUser) {
 
@@ -122,6 +133,9 @@ public class ReviewService {
 
         Review review = new Review(purchase, user, requestDTO.getRating(), requestDTO.getReviewMessage());
         reviewRepository.save(review);
+        businessService.addReviewRating(purchase.getBusiness().getId(), review.getRating());
+        salesRollupService.addReview(purchase, review.getRating());
+        salesReportCache.invalidate(purchase.getBusiness().getId(), purchase.getDateSold().toLocalDate());
         purchase.setReview(review);
         saleHistoryRepository.save(purchase);
         ReviewNotification notification = new ReviewNotification(review);
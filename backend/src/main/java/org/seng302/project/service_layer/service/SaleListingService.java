@@ -1,47 +1,68 @@
 package org.seng302.project.service_layer.service;
 
+import net.minidev.json.JSONObject;
 import org.seng302.project.repository_layer.model.*;
 import org.seng302.project.repository_layer.model.enums.Tag;
 import org.seng302.project.repository_layer.repository.*;
-import org.seng302.project.repository_layer.specification.LikedSaleListingSpecification;
 import org.seng302.project.repository_layer.specification.SaleListingSpecifications;
 import org.seng302.project.service_layer.dto.sale_listings.GetSaleListingDTO;
 import org.seng302.project.service_layer.dto.sale_listings.PostSaleListingDTO;
+import org.seng302.project.service_layer.dto.sale_listings.SaleListingFacetsDTO;
 import org.seng302.project.service_layer.dto.sale_listings.SearchSaleListingsDTO;
 import org.seng302.project.service_layer.exceptions.BadRequestException;
 import org.seng302.project.service_layer.exceptions.InvalidDateException;
 import org.seng302.project.service_layer.exceptions.NotAcceptableException;
+import org.seng302.project.service_layer.dto.search.TotalCountDTO;
+import org.seng302.project.service_layer.util.CountMode;
+import org.seng302.project.service_layer.util.ListingExpiryQueue;
+import org.seng302.project.service_layer.util.ListingExpiryQueue.ExpiringListing;
+import org.seng302.project.service_layer.util.PopularListingsLeaderboard;
+import org.seng302.project.service_layer.util.SaleListingCursor;
+import org.seng302.project.service_layer.util.SaleListingSearchCache;
+import org.seng302.project.service_layer.util.SaleListingSearchIndex;
+import org.seng302.project.service_layer.util.SearchCounter;
+import org.seng302.project.service_layer.util.SearchQuery;
+import org.seng302.project.service_layer.util.SearchQuery.SearchTerm;
+import org.seng302.project.service_layer.util.SearchQueryParser;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Optional;
-import java.util.regex.Pattern;
+import java.util.*;
 
 @Service
 public class SaleListingService {
 
     private static final Logger logger = LoggerFactory.getLogger(SaleListingService.class.getName());
-    private static final String AND_SPACE_REGEX = "( and |\\s)(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
-    private static final String QUOTE_REGEX = "^\".*\"$";
+    private static final int RECONCILE_CHUNK_SIZE = 500;
+    private static final int EXPIRY_BATCH_SIZE = 100;
+    private static final int MAX_TRANSACTION_ATTEMPTS = 3;
+    private static final int SEARCH_PAGE_SIZE = 10;
+    private static final List<Double> DEFAULT_PRICE_BUCKETS = List.of(10.0, 25.0, 50.0, 100.0);
+    private static final int MAX_PRICE_BUCKETS = 20;
 
     private final UserService userService;
     private final BusinessService businessService;
@@ -52,6 +73,16 @@ public class SaleListingService {
     private final InventoryItemRepository inventoryItemRepository;
     private final UserRepository userRepository;
     private final UserNotificationRepository userNotificationRepository;
+    private final PurchaseOutboxEventRepository purchaseOutboxEventRepository;
+    private final SalesRollupService salesRollupService;
+    private final MarketplaceAnalyticsService marketplaceAnalyticsService;
+    private final SaleListingSearchIndex saleListingSearchIndex;
+    private final SpecificationQueryRepository specificationQueryRepository;
+    private final SearchCounter searchCounter;
+    private final SaleListingSearchCache saleListingSearchCache;
+    private final PopularListingsLeaderboard popularListingsLeaderboard;
+    private final ListingExpiryQueue listingExpiryQueue;
+    private final TransactionTemplate transactionTemplate;
 
     @Autowired
     public SaleListingService(UserService userService,
@@ -61,19 +92,41 @@ public class SaleListingService {
                               SaleHistoryRepository saleHistoryRepository,
                               InventoryItemRepository inventoryItemRepository,
                               UserRepository userRepository,
-                              UserNotificationRepository userNotificationRepository) {
+                              UserNotificationRepository userNotificationRepository,
+                              PurchaseOutboxEventRepository purchaseOutboxEventRepository,
+                              SalesRollupService salesRollupService,
+                              MarketplaceAnalyticsService marketplaceAnalyticsService,
+                              SaleListingSearchIndex saleListingSearchIndex,
+                              SpecificationQueryRepository specificationQueryRepository,
+                              SearchCounter searchCounter,
+                              SaleListingSearchCache saleListingSearchCache,
+                              PopularListingsLeaderboard popularListingsLeaderboard,
+                              ListingExpiryQueue listingExpiryQueue,
+                              PlatformTransactionManager transactionManager) {
         this.saleListingRepository = saleListingRepository;
         this.likedSaleListingRepository = likedSaleListingRepository;
         this.saleHistoryRepository = saleHistoryRepository;
         this.inventoryItemRepository = inventoryItemRepository;
         this.userRepository = userRepository;
         this.userNotificationRepository = userNotificationRepository;
+        this.purchaseOutboxEventRepository = purchaseOutboxEventRepository;
+        this.salesRollupService = salesRollupService;
+        this.marketplaceAnalyticsService = marketplaceAnalyticsService;
+        this.saleListingSearchIndex = saleListingSearchIndex;
+        this.specificationQueryRepository = specificationQueryRepository;
+        this.searchCounter = searchCounter;
+        this.saleListingSearchCache = saleListingSearchCache;
+        this.popularListingsLeaderboard = popularListingsLeaderboard;
+        this.listingExpiryQueue = listingExpiryQueue;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
         this.userService = userService;
         this.businessService = businessService;
     }
 
     /**
-     * Helper method to convert a list of listings to a list of GetSaleListingDTOs, with the liked count attached
+     * Helper method to convert a list of listings to a list of GetSaleListingDTOs, with the liked count attached.
+     * The user's likes are fetched for the whole list at once, rather than with separate queries for each listing.
+     * Business ratings come from the rating summaries of the listings' businesses.
      *
      * @param listings listings to convert
      * @param user     currently logged-in user (used to check if they like a listing)
@@ -81,16 +134,23 @@ public class SaleListingService {
      */
     private List<GetSaleListingDTO> getListingDTOs(List<SaleListing> listings, User user) {
         List<GetSaleListingDTO> listingDTOs = new ArrayList<>();
+        if (listings.isEmpty()) return listingDTOs;
+
+        Set<Integer> listingIds = new HashSet<>();
         for (SaleListing listing : listings) {
-            // Get like and star data for the listings
-            Integer likes = likedSaleListingRepository.findAllByListing(listing).size();
-            List<LikedSaleListing> likedSaleListings = likedSaleListingRepository.findByListingAndUser(listing, user);
-            var userLikes = !likedSaleListings.isEmpty();
+            listingIds.add(listing.getId());
+        }
 
-            // Create DTO and annotate with like and star data
+        // Get like data for the listings
+        Set<Integer> userLikedIds = new HashSet<>();
+        if (user != null) {
+            userLikedIds.addAll(likedSaleListingRepository.findListingIdsLikedByUser(user.getId(), listingIds));
+        }
+
+        for (SaleListing listing : listings) {
+            // Create DTO and annotate with like data
             var dto = new GetSaleListingDTO(listing);
-            dto.attachLikeData(likes, userLikes);
-            dto.getBusiness().setAverageRating(businessService.getAverageStarRating(listing.getBusiness().getId()));
+            dto.attachLikeData(listing.getLikes(), userLikedIds.contains(listing.getId()));
             listingDTOs.add(dto);
         }
         return listingDTOs;
@@ -155,12 +215,32 @@ public class SaleListingService {
 
     /**
      * Adds a new sale listing to a business.
+     * The listing's quantity is reserved on the inventory item with a conditional update,
+     * so two listings created at once can't both take the same stock.
+     * The listing is created in a transaction which is retried if it fails because of a concurrency failure.
      *
      * @param requestDTO DTO containing fields for the new sale listing
      * @param businessId Business to get the sale listings from.
      * @param appUser    The user that made the request.
      */
     public void newBusinessListing(PostSaleListingDTO requestDTO, Integer businessId, AppUserDetails appUser) {
+        SaleListing saleListing = executeWithRetries("creating a sale listing for business with ID " + businessId,
+                status -> createListing(requestDTO, businessId, appUser));
+
+        // Only update the in-memory structures once the listing has committed
+        listingExpiryQueue.add(saleListing);
+        searchCounter.invalidate(SearchCounter.LISTINGS);
+    }
+
+    /**
+     * Helper method of the newBusinessListing method that creates the listing, inside its transaction.
+     *
+     * @param requestDTO DTO containing fields for the new sale listing
+     * @param businessId Business to get the sale listings from.
+     * @param appUser    The user that made the request.
+     * @return the saved sale listing
+     */
+    private SaleListing createListing(PostSaleListingDTO requestDTO, Integer businessId, AppUserDetails appUser) {
         // Get the user that made the request
         var user = userService.getUserByEmail(appUser.getUsername());
 
@@ -185,15 +265,14 @@ public class SaleListingService {
         InventoryItem item = retrievedItemOptions.get();
 
         Integer quantity = requestDTO.getQuantity();
-        List<SaleListing> listings = saleListingRepository.findAllByBusinessIdAndInventoryItemId(businessId, inventoryItemId);
+        Double price = requestDTO.getPrice();
+        String moreInfo = requestDTO.getMoreInfo();
+        var closesDateString = requestDTO.getCloses();
+        LocalDateTime closesDateTime = getClosesDateTime(closesDateString, item);
 
-        //Calculates the quantity used of this Inventory item in other sales listings, if any
-        Integer quantityUsed = 0;
-        for (SaleListing listing : listings) {
-            quantityUsed += listing.getQuantity();
-        }
-        //Check if there is enough of the inventory item
-        if (quantity > (item.getQuantity() - quantityUsed)) {
+        //Check there is enough of the inventory item not used in other sale listings, and reserve it
+        if (inventoryItemRepository.reserveQuantity(inventoryItemId, quantity) == 0) {
+            Integer quantityUsed = inventoryItemRepository.findReservedQuantityById(inventoryItemId);
             var exception = new BadRequestException(
                     String.format(
                             "You do not have enough of item with id %d for this listing (you have %d, with %d used in other sale listings).",
@@ -202,18 +281,18 @@ public class SaleListingService {
             throw exception;
         }
 
-        Double price = requestDTO.getPrice();
-        String moreInfo = requestDTO.getMoreInfo();
-        var closesDateString = requestDTO.getCloses();
-        LocalDateTime closesDateTime = getClosesDateTime(closesDateString, item);
-
         var saleListing = new SaleListing(business, item, price, moreInfo, closesDateTime, quantity);
         saleListingRepository.save(saleListing);
+        marketplaceAnalyticsService.recordListingCreated(saleListing);
+        // The search index of every node is only updated once the listing has committed
+        saleListingSearchIndex.add(saleListing);
+        return saleListing;
     }
 
 
     /**
-     * Searches sales listings to match specific requirements set out in the SearchSaleListingsDTO
+     * Searches sales listings to match specific requirements set out in the SearchSaleListingsDTO.
+     * Uses the search index once it has been built, otherwise queries the repository.
      *
      * @param dto DTO that holds the search requirements:
      *            the Search Query,
@@ -223,76 +302,324 @@ public class SaleListingService {
      * @return List of the paginated list of sales listings, and the total number of sales listings
      */
     public List<Object> searchSaleListings(SearchSaleListingsDTO dto, AppUserDetails appUser) {
+        return searchSaleListings(dto, CountMode.EXACT, appUser);
+    }
+
+    /**
+     * Searches sales listings to match specific requirements set out in the SearchSaleListingsDTO,
+     * counting the total number of matching listings with the given count mode.
+     * Counts from the search index are always exact, as they cost nothing extra.
+     * Results are cached by the normalised search, so the same search made by different users is only computed once.
+     *
+     * @param dto       DTO that holds the search requirements
+     * @param countMode how to count the total number of matching listings when querying the repository
+     * @param appUser   the user that made the request
+     * @return List of the paginated list of sales listings, the total number of sales listings,
+     * and a TotalCountDTO describing how the total was counted
+     */
+    public List<Object> searchSaleListings(SearchSaleListingsDTO dto, CountMode countMode, AppUserDetails appUser) {
         // Get the user that made the request
         var user = userService.getUserByEmail(appUser.getUsername());
 
         List<SaleListing> listings;
-        long totalCount;
-        String searchQuery = dto.getSearchQuery().toLowerCase(); // Convert search query to all lowercase.
-        String[] conjunctions = searchQuery.split(" or (?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)"); // Split by OR
+        TotalCountDTO totalCount;
+        var query = SearchQueryParser.parse(dto.getSearchQuery());
+        var sort = buildListingSort(dto.getSortBy());
 
-        Specification<SaleListing> spec = buildListingSpec(dto, conjunctions);
+        List<Object> cacheKey = new ArrayList<>(buildListingCountKey(dto, query));
+        cacheKey.addAll(Arrays.asList(sort == null ? "" : dto.getSortBy(), dto.getPageNumber(), countMode));
+        var cached = saleListingSearchCache.get(cacheKey);
+        if (cached != null) {
+            totalCount = cached.getTotalCount();
+            listings = getListingsInOrder(cached.getListingIds());
 
-        var sort = buildListingSort(dto.getSortBy());
+            logger.info("Retrieved {} Sales Listings from the search cache, showing {}",
+                    totalCount.getCount(), listings.size());
+            return Arrays.asList(getListingDTOs(listings, user), totalCount.getCount(), totalCount);
+        }
+        long generation = saleListingSearchCache.getGeneration();
+
+        if (saleListingSearchIndex.isReady()) {
+            var result = saleListingSearchIndex.search(dto, query,
+                    parseSearchDate(dto.getClosingDateLower()), parseSearchDate(dto.getClosingDateUpper()),
+                    SEARCH_PAGE_SIZE);
+            totalCount = new TotalCountDTO(result.getTotalCount(), CountMode.EXACT.toString(), false);
+            saleListingSearchCache.put(cacheKey, generation, result.getListingIds(), totalCount);
+            listings = getListingsInOrder(result.getListingIds());
+
+            logger.info("Retrieved {} Sales Listings from the search index, showing {}",
+                    totalCount.getCount(), listings.size());
+            return Arrays.asList(getListingDTOs(listings, user), totalCount.getCount(), totalCount);
+        }
+
+        Specification<SaleListing> spec = buildListingSpec(dto, query);
 
         Pageable pageable;
         if (sort != null) {
-            pageable = PageRequest.of(dto.getPageNumber(), 10, sort);
+            pageable = PageRequest.of(dto.getPageNumber(), SEARCH_PAGE_SIZE, sort);
         } else {
-            pageable = PageRequest.of(dto.getPageNumber(), 10);
+            pageable = PageRequest.of(dto.getPageNumber(), SEARCH_PAGE_SIZE);
         }
 
-        Page<SaleListing> page = saleListingRepository.findAll(spec, pageable);
-        totalCount = page.getTotalElements();
+        var page = searchCounter.findPage(countMode, SearchCounter.LISTINGS, buildListingCountKey(dto, query),
+                saleListingRepository, SaleListing.class, spec, pageable);
+        totalCount = page.getTotalCount();
         listings = page.getContent();
 
-        logger.info("Retrieved {} Sales Listings, showing {}", totalCount, listings.size());
+        List<Integer> listingIds = new ArrayList<>();
+        for (SaleListing listing : listings) {
+            listingIds.add(listing.getId());
+        }
+        saleListingSearchCache.put(cacheKey, generation, listingIds, totalCount);
+
+        logger.info("Retrieved {} Sales Listings, showing {}", totalCount.getCount(), listings.size());
 
         var listingDTOs = getListingDTOs(listings, user);
 
-        return Arrays.asList(listingDTOs, totalCount);
+        return Arrays.asList(listingDTOs, totalCount.getCount(), totalCount);
+    }
+
+    /**
+     * Searches sales listings like searchSaleListings, but pages through the results with a cursor
+     * rather than a page number. The next page is found by seeking past the sort value and id of the
+     * last listing on the previous page, so deep pages are as quick to get as the first.
+     *
+     * @param dto          DTO that holds the search requirements (the page number is ignored)
+     * @param cursor       cursor returned with the previous page, or null or empty for the first page
+     * @param includeCount whether to count the total number of matching sales listings
+     * @param appUser      the user that made the request
+     * @return List of the page of sales listings, the total number of sales listings (or null if not requested),
+     * and the cursor for the next page (or null if this is the last page)
+     */
+    public List<Object> searchSaleListingsAfter(SearchSaleListingsDTO dto, String cursor, boolean includeCount,
+                                                AppUserDetails appUser) {
+        // Get the user that made the request
+        var user = userService.getUserByEmail(appUser.getUsername());
+
+        SaleListingCursor after = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            after = SaleListingCursor.decode(cursor);
+            if (!after.getSortBy().equals(dto.getSortBy())) {
+                var exception = new BadRequestException("The cursor was created for a search with a different sort.");
+                logger.warn(exception.getMessage());
+                throw exception;
+            }
+        }
+
+        var query = SearchQueryParser.parse(dto.getSearchQuery());
+        List<SaleListing> listings;
+        Long totalCount = null;
+        // Get one extra listing to check if there is a next page
+        if (saleListingSearchIndex.isReady()) {
+            var result = saleListingSearchIndex.searchAfter(dto, query,
+                    parseSearchDate(dto.getClosingDateLower()), parseSearchDate(dto.getClosingDateUpper()),
+                    after, SEARCH_PAGE_SIZE + 1);
+            listings = getListingsInOrder(result.getListingIds());
+            if (includeCount) {
+                totalCount = result.getTotalCount();
+            }
+        } else {
+            Specification<SaleListing> spec = buildListingSpec(dto, query);
+            if (includeCount) {
+                // Pages after the first reuse the count made for the first page
+                var countSpec = spec;
+                totalCount = searchCounter.getCount(SearchCounter.LISTINGS, buildListingCountKey(dto, query),
+                        () -> saleListingRepository.count(countSpec));
+            }
+            if (after != null) {
+                spec = spec.and(buildCursorSpec(after));
+            }
+            listings = specificationQueryRepository.findFirst(SaleListing.class, spec,
+                    buildCursorSort(dto.getSortBy()), SEARCH_PAGE_SIZE + 1);
+        }
+
+        String nextCursor = null;
+        if (listings.size() > SEARCH_PAGE_SIZE) {
+            listings = listings.subList(0, SEARCH_PAGE_SIZE);
+            nextCursor = SaleListingCursor.after(dto.getSortBy(), listings.get(SEARCH_PAGE_SIZE - 1)).encode();
+        }
+
+        logger.info("Retrieved {} Sales Listings after cursor", listings.size());
+
+        return Arrays.asList(getListingDTOs(listings, user), totalCount, nextCursor);
+    }
+
+    /**
+     * Creates the key cached search counts are stored with,
+     * made up of everything in the search that affects which listings match.
+     * The query is left out when no fields are searched, as it doesn't affect the matches.
+     *
+     * @param dto   DTO containing parameters to search by
+     * @param query Parsed search query
+     * @return the count key
+     */
+    private List<Object> buildListingCountKey(SearchSaleListingsDTO dto, SearchQuery query) {
+        boolean searchesFields = dto.isMatchProductName() || dto.isMatchBusinessName()
+                || dto.isMatchBusinessLocation() || dto.isMatchBusinessType();
+        return Arrays.asList(searchesFields ? query : null, dto.isMatchProductName(), dto.isMatchBusinessName(),
+                dto.isMatchBusinessLocation(), dto.isMatchBusinessType(),
+                dto.getPriceRangeLower(), dto.getPriceRangeUpper(),
+                dto.getClosingDateLower(), dto.getClosingDateUpper());
+    }
+
+    /**
+     * Gets the hit, miss and eviction metrics of the sale listing search cache.
+     *
+     * @return JSONObject with the cache metrics
+     */
+    public JSONObject getSearchCacheStatistics() {
+        return saleListingSearchCache.getStatistics();
+    }
+
+    /**
+     * Loads sale listings by id, keeping the order of the ids.
+     * Listings that no longer exist are left out.
+     *
+     * @param listingIds ids of the listings to load
+     * @return List of sale listings
+     */
+    private List<SaleListing> getListingsInOrder(List<Integer> listingIds) {
+        Map<Integer, SaleListing> listingsById = new HashMap<>();
+        for (SaleListing listing : saleListingRepository.findAllById(listingIds)) {
+            listingsById.put(listing.getId(), listing);
+        }
+        List<SaleListing> listings = new ArrayList<>();
+        for (Integer listingId : listingIds) {
+            if (listingsById.containsKey(listingId)) {
+                listings.add(listingsById.get(listingId));
+            }
+        }
+        return listings;
+    }
+
+    /**
+     * Counts the sale listings matching a search by business type, country and price bucket,
+     * so the results can be refined without making a new search for each option.
+     * The counts come from the search index, or from a single grouped query until the index is built.
+     *
+     * @param dto          DTO that holds the search requirements (the sort and page number are ignored)
+     * @param priceBuckets ascending prices to split the price buckets at, or null for the default buckets
+     * @return the facet counts
+     */
+    public SaleListingFacetsDTO getListingFacets(SearchSaleListingsDTO dto, List<Double> priceBuckets) {
+        List<Double> bounds = checkPriceBuckets(priceBuckets);
+        var facets = new SaleListingFacetsDTO(bounds);
+        var query = SearchQueryParser.parse(dto.getSearchQuery());
+
+        if (saleListingSearchIndex.isReady()) {
+            saleListingSearchIndex.countFacets(dto, query, parseSearchDate(dto.getClosingDateLower()),
+                    parseSearchDate(dto.getClosingDateUpper()), facets);
+            return facets;
+        }
+
+        // Sort the listings into the price buckets in the query, so there is one group for each bucket
+        List<List<Object>> groups = specificationQueryRepository.countGroups(SaleListing.class,
+                buildListingSpec(dto, query), (root, builder) -> {
+                    Join<SaleListing, Business> business = root.join("business");
+                    Join<Business, Address> address = business.join("address", JoinType.LEFT);
+                    Expression<Double> price = root.get("price");
+                    CriteriaBuilder.Case<Integer> priceBucket = builder.selectCase();
+                    for (var i = 0; i < bounds.size(); i++) {
+                        priceBucket = priceBucket.when(builder.lessThan(price, bounds.get(i)), i);
+                    }
+                    // Listings without a price are left out of the buckets
+                    priceBucket = priceBucket.when(builder.isNotNull(price), bounds.size());
+                    return List.<Expression<?>>of(business.get("businessType"), address.get("country"), priceBucket);
+                });
+        for (List<Object> group : groups) {
+            Number priceBucket = (Number) group.get(2);
+            facets.addToPriceBucket((String) group.get(0), (String) group.get(1),
+                    priceBucket == null ? null : priceBucket.intValue(), ((Number) group.get(3)).longValue());
+        }
+        return facets;
+    }
+
+    /**
+     * Checks the prices to split facet price buckets at are finite, non-negative and in ascending order.
+     * Throws a BadRequestException if they aren't.
+     *
+     * @param priceBuckets prices to split the price buckets at, or null for the default buckets
+     * @return the prices to split the price buckets at
+     */
+    private List<Double> checkPriceBuckets(List<Double> priceBuckets) {
+        if (priceBuckets == null || priceBuckets.isEmpty()) {
+            return DEFAULT_PRICE_BUCKETS;
+        }
+        if (priceBuckets.size() > MAX_PRICE_BUCKETS) {
+            var message = String.format("There can be at most %d prices to split price buckets at", MAX_PRICE_BUCKETS);
+            logger.warn(message);
+            throw new BadRequestException(message);
+        }
+        Double previous = null;
+        for (Double bound : priceBuckets) {
+            if (bound == null || !Double.isFinite(bound) || bound < 0 || (previous != null && bound <= previous)) {
+                var message = "Price buckets must be non-negative prices in ascending order";
+                logger.warn(message);
+                throw new BadRequestException(message);
+            }
+            previous = bound;
+        }
+        return priceBuckets;
+    }
+
+    /**
+     * Converts a closing date search bound from a "yyyy-MM-dd" string to a LocalDateTime.
+     *
+     * @param date the date string, or null
+     * @return the start of the date, or null if no date was given
+     */
+    private LocalDateTime parseSearchDate(String date) {
+        if (date == null) return null;
+        try {
+            var formatter = new SimpleDateFormat("yyyy-MM-dd");
+            return formatter.parse(date).toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
+        } catch (ParseException parseException) {
+            var invalidDateException = new InvalidDateException();
+            logger.warn(invalidDateException.getMessage());
+            throw invalidDateException;
+        }
     }
 
     /**
      * Method which builds the specification used to search sale listings with.
      *
      * @param dto          DTO containing parameters to search by
-     * @param conjunctions Search query split by AND keyword
+     * @param query        Parsed search query
      * @return Spec used to search sale listing repository by
      */
-    private Specification<SaleListing> buildListingSpec(SearchSaleListingsDTO dto, String[] conjunctions) {
+    private Specification<SaleListing> buildListingSpec(SearchSaleListingsDTO dto, SearchQuery query) {
         Specification<SaleListing> spec = null;
 
         //Product name
         if (dto.isMatchProductName()) {
             //Always first
-            spec = searchNameField(conjunctions);
+            spec = searchNameField(query);
         }
 
         //Business name
         if (dto.isMatchBusinessName()) {
             if (spec == null) {
-                spec = searchByBusinessName(conjunctions);
+                spec = searchByBusinessName(query);
             } else {
-                spec = spec.or(searchByBusinessName(conjunctions));
+                spec = spec.or(searchByBusinessName(query));
             }
         }
 
         //Business location
         if (dto.isMatchBusinessLocation()) {
             if (spec == null) {
-                spec = searchByBusinessCountry(conjunctions);
+                spec = searchByBusinessCountry(query);
             } else {
-                spec = spec.or(searchByBusinessCountry(conjunctions));
+                spec = spec.or(searchByBusinessCountry(query));
             }
         }
 
         //Business type
         if (dto.isMatchBusinessType()) {
             if (spec == null) {
-                spec = searchByBusinessType(conjunctions);
+                spec = searchByBusinessType(query);
             } else {
-                spec = spec.or(searchByBusinessType(conjunctions));
+                spec = spec.or(searchByBusinessType(query));
             }
         }
 
@@ -304,24 +631,9 @@ public class SaleListingService {
         }
 
         //Closing date range
-        try {
-            LocalDateTime closingDateLower = null;
-            LocalDateTime closingDateUpper = null;
-            var formatter = new SimpleDateFormat("yyyy-MM-dd");
-            if (dto.getClosingDateLower() != null) {
-                var date = formatter.parse(dto.getClosingDateLower());
-                closingDateLower = date.toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
-            }
-            if (dto.getClosingDateUpper() != null) {
-                var date = formatter.parse(dto.getClosingDateUpper());
-                closingDateUpper = date.toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
-            }
-            spec = spec.and(searchClosesInBetween(closingDateLower, closingDateUpper));
-        } catch (ParseException parseException) {
-            var invalidDateException = new InvalidDateException();
-            logger.warn(invalidDateException.getMessage());
-            throw invalidDateException;
-        }
+        LocalDateTime closingDateLower = parseSearchDate(dto.getClosingDateLower());
+        LocalDateTime closingDateUpper = parseSearchDate(dto.getClosingDateUpper());
+        spec = spec.and(searchClosesInBetween(closingDateLower, closingDateUpper));
 
         return spec;
     }
@@ -329,24 +641,22 @@ public class SaleListingService {
     /**
      * Searches the product name field, handling ORs, ANDs, spaces and quotes
      *
-     * @param conjunctions The list of strings that have been split by OR
+     * @param query The parsed search query
      * @return specification you can add to the current specification
      */
-    private Specification<SaleListing> searchNameField(String[] conjunctions) {
+    private Specification<SaleListing> searchNameField(SearchQuery query) {
         Specification<SaleListing> spec = null;
 
-        for (String conjunction : conjunctions) {
+        for (List<SearchTerm> conjunction : query.getConjunctions()) {
             Specification<SaleListing> newSpec = Specification.where(null);
 
-            String[] terms = conjunction.split(AND_SPACE_REGEX); // Split by AND and spaces
-            for (String term : terms) {
-                //Remove quotes from quoted string, then search by full contents inside the quotes
-                if (Pattern.matches(QUOTE_REGEX, term)) {
-                    term = term.replace("\"", "");
-                    newSpec = newSpec.and(SaleListingSpecifications.hasProductName(term));
+            for (SearchTerm term : conjunction) {
+                //Quoted terms search by full contents inside the quotes
+                if (term.isQuoted()) {
+                    newSpec = newSpec.and(SaleListingSpecifications.hasProductName(term.getText()));
                 } else {
-                    newSpec = newSpec.and(SaleListingSpecifications.hasProductName(term))
-                            .or(SaleListingSpecifications.containsProductName(term));
+                    newSpec = newSpec.and(SaleListingSpecifications.hasProductName(term.getText()))
+                            .or(SaleListingSpecifications.containsProductName(term.getText()));
                 }
             }
             if (spec == null) {
@@ -410,24 +720,22 @@ public class SaleListingService {
     /**
      * Searches for products by businesses that are located in specified countries, handling ORs, ANDs, spaces and quotes
      *
-     * @param conjunctions The list of strings that have been split by OR
+     * @param query The parsed search query
      * @return specification you can add to the current specification
      */
-    private Specification<SaleListing> searchByBusinessCountry(String[] conjunctions) {
+    private Specification<SaleListing> searchByBusinessCountry(SearchQuery query) {
         Specification<SaleListing> spec = null;
 
-        for (String conjunction : conjunctions) {
+        for (List<SearchTerm> conjunction : query.getConjunctions()) {
             Specification<SaleListing> newSpec = Specification.where(null);
 
-            String[] terms = conjunction.split(AND_SPACE_REGEX); // Split by AND and spaces
-            for (String term : terms) {
-                //Remove quotes from quoted string, then search by full contents inside the quotes
-                if (Pattern.matches(QUOTE_REGEX, term)) {
-                    term = term.replace("\"", "");
-                    newSpec = newSpec.and(SaleListingSpecifications.hasCountry(term));
+            for (SearchTerm term : conjunction) {
+                //Quoted terms search by full contents inside the quotes
+                if (term.isQuoted()) {
+                    newSpec = newSpec.and(SaleListingSpecifications.hasCountry(term.getText()));
                 } else {
-                    newSpec = newSpec.and(SaleListingSpecifications.hasCountry(term))
-                            .or(SaleListingSpecifications.containsCountry(term));
+                    newSpec = newSpec.and(SaleListingSpecifications.hasCountry(term.getText()))
+                            .or(SaleListingSpecifications.containsCountry(term.getText()));
                 }
             }
             if (spec == null) {
@@ -442,23 +750,21 @@ public class SaleListingService {
     /**
      * Searches for sales listings by business name
      *
-     * @param conjunctions list of strings representing conjunctive search terms
+     * @param query parsed search query
      * @return specification for querying the JPA repository of sale listings with
      */
-    public Specification<SaleListing> searchByBusinessName(String[] conjunctions) {
+    public Specification<SaleListing> searchByBusinessName(SearchQuery query) {
         Specification<SaleListing> spec = null;
 
-        for (String conjunction : conjunctions) {
+        for (List<SearchTerm> conjunction : query.getConjunctions()) {
             Specification<SaleListing> newSpec = Specification.where(null);
 
-            String[] terms = conjunction.split(AND_SPACE_REGEX);
-            for (String term : terms) {
-                if (Pattern.matches(QUOTE_REGEX, term)) {
-                    term = term.replace("\"", "");
-                    newSpec = newSpec.and(SaleListingSpecifications.hasBusinessName(term));
+            for (SearchTerm term : conjunction) {
+                if (term.isQuoted()) {
+                    newSpec = newSpec.and(SaleListingSpecifications.hasBusinessName(term.getText()));
                 } else {
-                    newSpec = newSpec.and(SaleListingSpecifications.hasBusinessName(term)
-                            .or(SaleListingSpecifications.containsBusinessName(term)));
+                    newSpec = newSpec.and(SaleListingSpecifications.hasBusinessName(term.getText())
+                            .or(SaleListingSpecifications.containsBusinessName(term.getText())));
                 }
             }
             if (spec == null) {
@@ -473,23 +779,21 @@ public class SaleListingService {
     /**
      * Searches for sales listings by business type
      *
-     * @param conjunctions list of strings representing conjunctive search terms
+     * @param query parsed search query
      * @return specification for querying the JPA repository of sale listings with
      */
-    public Specification<SaleListing> searchByBusinessType(String[] conjunctions) {
+    public Specification<SaleListing> searchByBusinessType(SearchQuery query) {
         Specification<SaleListing> spec = null;
 
-        for (String conjunction : conjunctions) {
+        for (List<SearchTerm> conjunction : query.getConjunctions()) {
             Specification<SaleListing> newSpec = Specification.where(null);
 
-            String[] terms = conjunction.split(AND_SPACE_REGEX);
-            for (String term : terms) {
-                if (Pattern.matches(QUOTE_REGEX, term)) {
-                    term = term.replace("\"", "");
-                    newSpec = newSpec.and(SaleListingSpecifications.hasBusinessType(term));
+            for (SearchTerm term : conjunction) {
+                if (term.isQuoted()) {
+                    newSpec = newSpec.and(SaleListingSpecifications.hasBusinessType(term.getText()));
                 } else {
-                    newSpec = newSpec.and(SaleListingSpecifications.hasBusinessType(term)
-                            .or(SaleListingSpecifications.containsBusinessType(term)));
+                    newSpec = newSpec.and(SaleListingSpecifications.hasBusinessType(term.getText())
+                            .or(SaleListingSpecifications.containsBusinessType(term.getText())));
                 }
             }
             if (spec == null) {
@@ -540,6 +844,52 @@ public class SaleListingService {
         return sort;
     }
 
+    /**
+     * Given a sort query string, returns the Sort used for cursor pagination,
+     * which is the same as buildListingSort but always ends with the listing id so the order is total.
+     *
+     * @param sortQuery String query to sort by.
+     * @return Sort object used to sort entries retrieved from the Sale Listing Repository
+     */
+    private Sort buildCursorSort(String sortQuery) {
+        var sort = buildListingSort(sortQuery);
+        if (sort == null) {
+            return Sort.by(Sort.Order.asc("id"));
+        }
+        return sort.and(Sort.by(Sort.Order.asc("id")));
+    }
+
+    /**
+     * Builds the specification matching the sale listings after a cursor, in the order given by buildCursorSort.
+     *
+     * @param cursor cursor pointing to the last listing of the previous page
+     * @return specification you can add to the current specification
+     */
+    private Specification<SaleListing> buildCursorSpec(SaleListingCursor cursor) {
+        var key = cursor.getKey();
+        var id = cursor.getId();
+        switch (cursor.getSortBy()) {
+            case "priceAsc":
+                return SaleListingSpecifications.isAfter("price", cursor.getPrice(), false, id);
+            case "priceDesc":
+                return SaleListingSpecifications.isAfter("price", cursor.getPrice(), true, id);
+            case "productName":
+                return SaleListingSpecifications.isAfter("inventoryItem.product.name", key, false, id);
+            case "country":
+                return SaleListingSpecifications.isAfter("business.address.country", key, false, id);
+            case "city":
+                return SaleListingSpecifications.isAfter("business.address.city", key, false, id);
+            case "expiryDateAsc":
+                return SaleListingSpecifications.isAfter("inventoryItem.expires", key, false, id);
+            case "expiryDateDesc":
+                return SaleListingSpecifications.isAfter("inventoryItem.expires", key, true, id);
+            case "seller":
+                return SaleListingSpecifications.isAfter("business.name", key, false, id);
+            default:
+                return SaleListingSpecifications.isAfter(null, key, false, id);
+        }
+    }
+
     /**
      * Retrieves the sale listing.
      * Throws a NotAcceptableException if the listing is not found
@@ -580,13 +930,24 @@ public class SaleListingService {
     }
 
     /**
-     * Likes a sale listing if it is liked by a user
+     * Likes a sale listing if it is liked by a user.
+     * The like is made in a transaction which is retried if it fails because of a concurrency failure.
      *
      * @param listingId ID of the sale listing to like
      * @param user      User who is liking the sale listing
      */
-    @Transactional
     public void likeSaleListing(Integer listingId, AppUserDetails user) {
+        executeWithRetries("liking Sale Listing with ID " + listingId, status -> addLike(listingId, user));
+    }
+
+    /**
+     * Helper method of the likeSaleListing method that likes the listing, inside its transaction.
+     *
+     * @param listingId ID of the sale listing to like
+     * @param user      User who is liking the sale listing
+     * @return the liked sale listing
+     */
+    private SaleListing addLike(Integer listingId, AppUserDetails user) {
         // Get the logged in user from the users email
         var loggedInUser = userService.getUserByEmail(user.getUsername());
 
@@ -600,6 +961,11 @@ public class SaleListingService {
             loggedInUser.addLikedListing(likedSaleListing);
             //Add liked sale listing to the list of liked sale listings of user
             userRepository.save(loggedInUser);
+            saleListingRepository.incrementLikes(listingId);
+            // The leaderboard is only updated once the like has committed
+            popularListingsLeaderboard.updateLikes(listingId);
+            marketplaceAnalyticsService.recordLike(listing);
+            return listing;
         } else {
             var message = String.format("User with ID %d has not liked sale listing with ID %d", loggedInUser.getId(), listingId);
             logger.warn(message);
@@ -608,13 +974,24 @@ public class SaleListingService {
     }
 
     /**
-     * Unlikes a sale listing if it is liked by a user
+     * Unlikes a sale listing if it is liked by a user.
+     * The unlike is made in a transaction which is retried if it fails because of a concurrency failure.
      *
      * @param listingId ID of the sale listing to unlike
      * @param user      User who is unliking the sale listing
      */
-    @Transactional
     public void unlikeSaleListing(Integer listingId, AppUserDetails user) {
+        executeWithRetries("unliking Sale Listing with ID " + listingId, status -> removeLike(listingId, user));
+    }
+
+    /**
+     * Helper method of the unlikeSaleListing method that unlikes the listing, inside its transaction.
+     *
+     * @param listingId ID of the sale listing to unlike
+     * @param user      User who is unliking the sale listing
+     * @return the unliked sale listing
+     */
+    private SaleListing removeLike(Integer listingId, AppUserDetails user) {
         var loggedInUser = userService.getUserByEmail(user.getUsername());
 
         SaleListing listing = retrieveListing(listingId);
@@ -622,6 +999,11 @@ public class SaleListingService {
         var likedSaleListing = retrieveLikedSaleListing(listing, loggedInUser);
         loggedInUser.removeLikedListing(likedSaleListing);
         userRepository.save(loggedInUser);
+        saleListingRepository.decrementLikes(listingId);
+        // The leaderboard is only updated once the unlike has committed
+        popularListingsLeaderboard.updateLikes(listingId);
+        marketplaceAnalyticsService.recordUnlike(listing);
+        return listing;
     }
 
     /**
@@ -629,6 +1011,12 @@ public class SaleListingService {
      * updates the sellers inventory
      * removes the sales listing
      * records the sale in sales history
+     * <p>
+     * The purchase runs in a single transaction, which starts by claiming the listing with a locking select.
+     * This locks only the listing's row, so when many users try to buy the same listing at once,
+     * one of them gets it and the rest are told it has already been bought once that purchase commits.
+     * Purchases that fail because of a deadlock, lock timeout or a rollup being created at the same time
+     * are retried a few times.
      *
      * @param listingId Sales Listing ID to purchase
      * @param appUser   User purchasing the sales listing
@@ -636,68 +1024,139 @@ public class SaleListingService {
     public void buySaleListing(Integer listingId, AppUserDetails appUser) {
         var buyer = userService.getUserByEmail(appUser.getUsername());
 
+        List<Integer> removedIds = executeWithRetries("buying Sale Listing with ID " + listingId,
+                status -> purchaseListing(listingId, buyer));
+
+        // Only update the in-memory structures once the purchase has committed
+        listingExpiryQueue.removeAll(removedIds);
+        searchCounter.invalidate(SearchCounter.LISTINGS);
+        searchCounter.invalidate(SearchCounter.PURCHASES);
+    }
+
+    /**
+     * Runs work in a transaction, running it again in a new transaction if it fails because of a concurrency
+     * failure such as a deadlock, until it has been tried MAX_TRANSACTION_ATTEMPTS times.
+     *
+     * @param action   description of the work, for the logs
+     * @param callback the work to run in the transaction
+     * @param <T>      type of the result of the work
+     * @return the result of the work
+     */
+    private <T> T executeWithRetries(String action, TransactionCallback<T> callback) {
+        for (var attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(callback);
+            } catch (ConcurrencyFailureException exception) {
+                if (attempt == MAX_TRANSACTION_ATTEMPTS) {
+                    logger.warn("Giving up {} after {} attempts", action, attempt);
+                    throw exception;
+                }
+                logger.info("Retrying {} after a concurrency failure", action);
+            }
+        }
+    }
+
+    /**
+     * Helper method of the buySaleListing method that makes the purchase, inside the purchase transaction.
+     *
+     * @param listingId Sales Listing ID to purchase
+     * @param buyer     User purchasing the sales listing
+     * @return the ids of the listings removed by the purchase, the purchased listing and any other listings
+     * of an inventory item it sold out
+     */
+    private List<Integer> purchaseListing(Integer listingId, User buyer) {
         SaleListing listing = retrieveListing(listingId);
 
         logger.info("User with ID: {} Request to buy Sale Listing with ID: {}", buyer.getId(), listing.getId());
 
-        //Record the sale
+        // Claim the listing. This locks its row until the purchase commits, and finds nothing
+        // if another purchase has already removed it
+        Integer likes = saleListingRepository.claimForPurchase(listing.getId());
+        if (likes == null) {
+            var message = String.format("Sale listing with ID %d has already been bought", listingId);
+            logger.warn(message);
+            throw new NotAcceptableException(message);
+        }
+
+        //Record the sale, and add it to the business' sales for the day and the marketplace analytics
         var sale = new Sale(listing);
         sale.setBuyerId(buyer.getId());
+        salesRollupService.addSale(sale);
+        marketplaceAnalyticsService.recordSale(listing, sale, likes);
         saleHistoryRepository.save(sale);
 
-        //Send notifications to the users who liked the listing saying it was brought
+        //Send notifications to the buyer, and the users who liked the listing saying it was brought
         sendPurchaseNotifications(listing, buyer);
-        //Update the inventory items quantity or remove it if its new quantity is 0
-        updateInventoryItem(listing);
-
-        //Remove the sales listing
+        //Remove the sales listing, before its inventory item may be removed
         saleListingRepository.delete(listing);
+
+        //Update the inventory items quantity or remove it if its new quantity is 0
+        List<Integer> removedIds = new ArrayList<>(updateInventoryItem(listing));
+        removedIds.add(listing.getId());
+        //Remove the listings from the search index and leaderboard of every node once the purchase commits
+        saleListingSearchIndex.removeAll(removedIds);
+        popularListingsLeaderboard.removeAll(removedIds);
+        return removedIds;
     }
 
     /**
      * Helper method of the buySaleListing method that updates a sales listings inventory item after it has been purchased
-     * lowers the quantity of the inventory item, and removes the inventory item if the quantity is at or below zero
+     * lowers the quantity of the inventory item, and removes the inventory item if the quantity is at or below zero.
+     * The quantity is lowered with a conditional update, so concurrent purchases of listings for the same item
+     * can't overwrite each other or take the quantity below zero.
      *
      * @param listing listing purchased
+     * @return the ids of the other listings removed along with the inventory item
      */
-    private void updateInventoryItem(SaleListing listing) {
+    private List<Integer> updateInventoryItem(SaleListing listing) {
         var inventoryItem = listing.getInventoryItem();
-        inventoryItem.setQuantity(inventoryItem.getQuantity() - listing.getQuantity());
-        inventoryItemRepository.save(inventoryItem);
+        if (inventoryItemRepository.sellQuantity(inventoryItem.getId(), listing.getQuantity()) == 0) {
+            var exception = new BadRequestException(String.format(
+                    "Inventory item with id %d doesn't have enough stock left for this sale listing.",
+                    inventoryItem.getId()));
+            logger.warn(exception.getMessage());
+            throw exception;
+        }
+        // Keep the loaded item in step with the database, which is locked until the purchase commits
+        Integer quantity = inventoryItemRepository.findQuantityById(inventoryItem.getId());
+        inventoryItem.setQuantity(quantity);
 
         //Remove the inventory item if the quantity is 0
-        if (inventoryItem.getQuantity() <= 0) {
+        if (quantity <= 0) {
             //Check if sale listings exist for current inventory item wanting to be deleted (there shouldn't be..)
-            removeSaleListings(listing.getBusiness().getId(), inventoryItem);
+            List<Integer> removedIds = removeSaleListings(listing, inventoryItem);
             inventoryItemRepository.delete(inventoryItem);
+            return removedIds;
         }
+        return List.of();
     }
 
     /**
      * Helper method for the updateInventoryItem method, this is sort of a contingency method that removes
      * sale listings for an inventory item that has a quantity of 0, which shouldn't happen.
+     * The listings and their likes are removed with bulk deletes, leaving the purchased listing for the purchase
+     * to remove. They are only removed from the in-memory structures once the purchase has committed.
      *
-     * @param businessId    Id of the business with the inventory item
+     * @param purchased     the listing that was purchased
      * @param inventoryItem inventory item being removed
+     * @return the ids of the listings removed
      */
-    private void removeSaleListings(Integer businessId, InventoryItem inventoryItem) {
-        var saleListings = saleListingRepository.findAllByBusinessIdAndInventoryItemId(
-                businessId, inventoryItem.getId());
-        for (var saleListing : saleListings) {
-            List<LikedSaleListing> likes = likedSaleListingRepository.findAllByListing(saleListing);
-            for (var like : likes) {
-                var user = like.getUser();
-                user.removeLikedListing(like);
-                userRepository.save(user);
-                likedSaleListingRepository.delete(like);
-            }
-            saleListingRepository.delete(saleListing);
+    private List<Integer> removeSaleListings(SaleListing purchased, InventoryItem inventoryItem) {
+        List<Integer> listingIds = new ArrayList<>(saleListingRepository.findIdsByBusinessIdAndInventoryItemId(
+                purchased.getBusiness().getId(), inventoryItem.getId()));
+        listingIds.remove(purchased.getId());
+        if (!listingIds.isEmpty()) {
+            likedSaleListingRepository.deleteByListingIds(listingIds);
+            saleListingRepository.deleteByIds(listingIds);
         }
+        return listingIds;
     }
 
     /**
-     * Helper method of the buySaleListing method that sends a notification to the purchaser of the sale listing
-     * and notifications to the users that liked the sale listing
+     * Helper method of the buySaleListing method that sends a notification to the purchaser of the sale listing,
+     * and queues the notifications to the users that liked the sale listing in the purchase outbox.
+     * The users who liked the listing are copied into the outbox and their likes removed in a couple of statements,
+     * however many there are, and the PurchaseNotificationService sends their notifications after the purchase.
      *
      * @param listing listing purchased
      * @param buyer   user who purchased the listing
@@ -707,19 +1166,10 @@ public class SaleListingService {
         var purchaseNotification = new PurchaserNotification(buyer, listing, listing.getBusiness());
         userNotificationRepository.save(purchaseNotification);
 
-        //Send notifications to interested users
-        List<LikedSaleListing> likes = likedSaleListingRepository.findAllByListing(listing);
-        for (var like : likes) {
-            //Make sure not to send this notification to the buyer
-            if (!like.getUser().getId().equals(buyer.getId())) {
-                var interestedUserNotification = new InterestedUserNotification(like.getUser(), like.getListing());
-                userNotificationRepository.save(interestedUserNotification);
-            }
-            var user = like.getUser();
-            user.removeLikedListing(like);
-            userRepository.save(user);
-            likedSaleListingRepository.delete(like);
-        }
+        //Queue notifications to interested users, making sure not to send one to the buyer
+        var outboxEvent = purchaseOutboxEventRepository.save(new PurchaseOutboxEvent(listing, buyer));
+        purchaseOutboxEventRepository.addRecipients(outboxEvent.getId(), listing.getId(), buyer.getId());
+        likedSaleListingRepository.deleteByListingIds(List.of(listing.getId()));
     }
 
     /**
@@ -780,53 +1230,169 @@ public class SaleListingService {
     /**
      * Retrieves the popular sale listings from the specified country,
      * if no country is specified then it retrieves the popular sale listings worldwide.
+     * The popular listings are found with the in-memory leaderboard, or from the like counters until it is seeded.
      *
      * @param country country to get popular listings for.
      * @return List of the up to 10 most popular sale listings in GetSaleListingDTOs'.
      */
     public List<GetSaleListingDTO> getPopularListings(String country) {
-        List<List<Object>> response;
-        if (country == null) {
-            response = likedSaleListingRepository.findPopular(PageRequest.of(0, 9));
+        List<SaleListing> popular;
+        if (popularListingsLeaderboard.isReady()) {
+            popular = getListingsInOrder(popularListingsLeaderboard.getTopListingIds(country, 9));
+        } else if (country == null) {
+            popular = saleListingRepository.findPopular(PageRequest.of(0, 9));
         } else {
-            response = likedSaleListingRepository.findPopularByCountry(country, PageRequest.of(0, 9));
+            popular = saleListingRepository.findPopularByCountry(country, PageRequest.of(0, 9));
         }
         List<GetSaleListingDTO> listings = new ArrayList<>();
-        for (List<Object> listing : response) {
-            //Making sure that the Objects are the right class
-            if (listing.get(0).getClass() == SaleListing.class && listing.get(1).getClass() == Long.class) {
-                GetSaleListingDTO dto = new GetSaleListingDTO((SaleListing) listing.get(0));
-                Long numLikes = (Long) listing.get(1);
-                dto.attachLikeData(numLikes.intValue(), false);
-                listings.add(dto);
-            }
+        for (SaleListing listing : popular) {
+            GetSaleListingDTO dto = new GetSaleListingDTO(listing);
+            dto.attachLikeData(listing.getLikes(), false);
+            listings.add(dto);
         }
         return listings;
     }
 
     /**
-     * Deletes sale listings that have expired.
+     * Expires the sale listings which have closed since this last ran, taking them from the expiry queue
+     * in batches, earliest closing first.
+     * Scheduled to run every 5 seconds, so listings are expired within a few seconds of closing.
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void expireClosedSaleListings() {
+        long startTime = System.currentTimeMillis();
+        var expired = 0;
+        List<ExpiringListing> batch;
+        do {
+            batch = listingExpiryQueue.pollDue(LocalDateTime.now(), EXPIRY_BATCH_SIZE);
+            if (batch.isEmpty()) break;
+
+            List<Integer> listingIds = new ArrayList<>();
+            for (ExpiringListing listing : batch) {
+                listingIds.add(listing.getListingId());
+            }
+            try {
+                expired += deleteListings(listingIds);
+            } catch (Exception exception) {
+                // Put the batch back so it is retried next time
+                for (ExpiringListing listing : batch) {
+                    listingExpiryQueue.schedule(listing.getListingId(), listing.getCloses());
+                }
+                logger.error(String.format("Unexpected error while expiring sale listings : %s", exception.getMessage()));
+                break;
+            }
+            listingExpiryQueue.recordBatch(batch, LocalDateTime.now());
+        } while (batch.size() == EXPIRY_BATCH_SIZE);
+
+        if (expired > 0) {
+            logger.info("Expired {} closed sale listings in {} ms", expired, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * Deletes all sale listings that have expired, in batches.
+     * The expiry queue normally expires listings as they close, so this only finds listings the queue has missed,
+     * such as listings saved directly to the repository.
      * Scheduled to run at midnight every day.
      */
     @Scheduled(cron = "@midnight")
     public void deleteExpiredSaleListings() {
-        // create specification for getting LikedSaleListings of listings that are expired
-        var now = LocalDateTime.now();
-        Specification<LikedSaleListing> spec = LikedSaleListingSpecification.saleListingClosesBefore(now);
+        long startTime = System.currentTimeMillis();
+        var deleted = 0;
+        List<Integer> expiredIds = saleListingRepository.findIdsByClosesBefore(LocalDateTime.now());
+        for (var start = 0; start < expiredIds.size(); start += EXPIRY_BATCH_SIZE) {
+            deleted += deleteListings(
+                    expiredIds.subList(start, Math.min(start + EXPIRY_BATCH_SIZE, expiredIds.size())));
+        }
+        listingExpiryQueue.removeAll(expiredIds);
 
-        // find expired saleListings and likedSaleListings
-        List<SaleListing> expiredListings = saleListingRepository.findAllByClosesBefore(now);
-        List<LikedSaleListing> expiredLikedListings = likedSaleListingRepository.findAll(spec);
+        logger.info("Deleted {} expired sales listings in {} ms", deleted, System.currentTimeMillis() - startTime);
+    }
 
-        // delete all that are expired
-        if (!expiredLikedListings.isEmpty()) {
-            likedSaleListingRepository.deleteAll(expiredLikedListings);
-        }
-        saleListingRepository.deleteAll(expiredListings);
+    /**
+     * Deletes a batch of sale listings and their likes with bulk deletes, releasing the quantities
+     * they reserved on their inventory items and recording their expiry in the same transaction,
+     * and removes them from the search index and popular listings leaderboard.
+     * The batch is claimed first by locking the listings, so when every node expires the same listings
+     * only one of them records and deletes each listing, and the others find it gone.
+     * The transaction is retried if it fails because of a concurrency failure.
+     *
+     * @param listingIds ids of the listings to delete
+     * @return the number of listings deleted
+     */
+    private int deleteListings(List<Integer> listingIds) {
+        Integer deleted = executeWithRetries("expiring a batch of sale listings", status -> {
+            List<Integer> claimedIds = saleListingRepository.claimForExpiry(listingIds);
+            if (claimedIds.isEmpty()) return 0;
+            marketplaceAnalyticsService.recordExpired(claimedIds);
+            inventoryItemRepository.releaseReservedByListingIds(claimedIds);
+            likedSaleListingRepository.deleteByListingIds(claimedIds);
+            saleListingSearchIndex.removeAll(claimedIds);
+            popularListingsLeaderboard.removeAll(claimedIds);
+            return saleListingRepository.deleteByIds(claimedIds);
+        });
+        searchCounter.invalidate(SearchCounter.LISTINGS);
+        return deleted == null ? 0 : deleted;
+    }
 
-        // logging
-        var logMessage = String.format("Deleted %d expired sales listings", expiredListings.size());
-        logger.info(logMessage);
+    /**
+     * Gets the metrics of the sale listing expiry queue.
+     *
+     * @return JSONObject with the expiry metrics
+     */
+    public JSONObject getExpiryStatistics() {
+        return listingExpiryQueue.getStatistics();
+    }
+
+    /**
+     * Repairs any drift between the stored like counters of sale listings and their actual likes.
+     * Listings are checked in chunks, each starting after the last id of the chunk before, so listings deleted
+     * meanwhile don't shift the chunks. Each repair only applies if the counter hasn't changed since it was read.
+     * Scheduled to run every hour.
+     */
+    @Scheduled(cron = "@hourly")
+    public void reconcileLikeCounts() {
+        var repaired = 0;
+        var lastId = 0;
+        List<List<Object>> storedCounts;
+        do {
+            storedCounts = saleListingRepository.findLikeCounts(lastId, PageRequest.of(0, RECONCILE_CHUNK_SIZE));
+            if (storedCounts.isEmpty()) break;
+
+            List<Integer> listingIds = new ArrayList<>();
+            for (List<Object> row : storedCounts) {
+                listingIds.add((Integer) row.get(0));
+            }
+            Map<Integer, Integer> actualCounts = new HashMap<>();
+            for (List<Object> row : likedSaleListingRepository.countLikesByListingIds(listingIds)) {
+                actualCounts.put((Integer) row.get(0), ((Number) row.get(1)).intValue());
+            }
+
+            for (List<Object> row : storedCounts) {
+                Integer listingId = (Integer) row.get(0);
+                Integer storedLikes = (Integer) row.get(1);
+                Integer actualLikes = actualCounts.getOrDefault(listingId, 0);
+                if (!storedLikes.equals(actualLikes)) {
+                    repaired += saleListingRepository.updateLikes(listingId, storedLikes, actualLikes);
+                }
+            }
+            lastId = (Integer) storedCounts.get(storedCounts.size() - 1).get(0);
+        } while (storedCounts.size() == RECONCILE_CHUNK_SIZE);
+
+        logger.info("Repaired the like counts of {} sale listings", repaired);
+        // Reseed so the leaderboard picks up the repaired counters
+        popularListingsLeaderboard.seed();
+    }
+
+    /**
+     * Sets the reserved quantity of each inventory item from its sale listings.
+     * Run at startup, so items with listings from before quantities were reserved, or listings added
+     * without going through newBusinessListing, have the right amount reserved.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileReservedQuantities() {
+        int updated = inventoryItemRepository.reconcileReservedQuantities();
+        logger.info("Reconciled the reserved quantities of {} inventory items", updated);
     }
 
     /**
@@ -862,6 +1428,7 @@ public class SaleListingService {
         SaleListing listing = retrieveListing(listingId);
         listing.setFeatured(featured);
         saleListingRepository.save(listing);
+        searchCounter.invalidate(SearchCounter.LISTINGS);
 
     }
 }
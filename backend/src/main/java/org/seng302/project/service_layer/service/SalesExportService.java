@@ -0,0 +1,150 @@
+package org.seng302.project.service_layer.service;
+
+import net.minidev.json.JSONObject;
+import org.seng302.project.repository_layer.model.Business;
+import org.seng302.project.repository_layer.model.enums.ExportFormat;
+import org.seng302.project.repository_layer.repository.SaleHistoryRepository;
+import org.seng302.project.service_layer.exceptions.BadRequestException;
+import org.seng302.project.web_layer.authentication.AppUserDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service for exporting the full sale history of a business, for accounting.
+ * Sales are read in batches ordered by their ids and written to the output as they are read,
+ * so no more than one batch is held in memory however many sales the business has.
+ * Every row has the sale's id, so an export which was cut off can be carried on from the last id received.
+ */
+@Service
+public class SalesExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SalesExportService.class.getName());
+    static final int EXPORT_BATCH_SIZE = 1000;
+    private static final String[] COLUMNS = {"id", "dateSold", "listingId", "productId", "productName",
+            "quantity", "price", "currencyCountry", "buyerId", "rating"};
+
+    private final BusinessService businessService;
+    private final SaleHistoryRepository saleHistoryRepository;
+
+    @Autowired
+    public SalesExportService(BusinessService businessService, SaleHistoryRepository saleHistoryRepository) {
+        this.businessService = businessService;
+        this.saleHistoryRepository = saleHistoryRepository;
+    }
+
+    /**
+     * Checks a user can export a business' sale history in the given format.
+     * Called before anything is written, so an invalid export gets an error response rather than an empty file.
+     *
+     * @param businessId ID of the business to export the sales of
+     * @param format     name of the format to export in, "csv" or "ndjson"
+     * @param appUser    the user that made the request
+     * @return the format to export in
+     */
+    public ExportFormat checkExport(Integer businessId, String format, AppUserDetails appUser) {
+        logger.info("Request to export the sales of business with id {} as {}", businessId, format);
+
+        Business business = businessService.checkBusiness(businessId);
+        businessService.checkUserCanDoBusinessAction(appUser, business);
+
+        ExportFormat exportFormat = ExportFormat.getFormat(format);
+        if (exportFormat == null) {
+            String message = format + " is not a valid export format";
+            logger.warn(message);
+            throw new BadRequestException(message);
+        }
+        return exportFormat;
+    }
+
+    /**
+     * Writes a business' sales to an output stream, oldest first, a batch at a time.
+     * The output is flushed after each batch so the client receives the rows as they are read.
+     *
+     * @param businessId ID of the business to export the sales of
+     * @param format     the format to write the sales in
+     * @param since      ID of the last sale already exported, only later sales are written. Null to write them all
+     * @param output     the stream to write to, not closed by this
+     * @return the number of sales written
+     * @throws IOException if the stream can't be written to, e.g. because the client went away
+     */
+    public long writeSales(Integer businessId, ExportFormat format, Integer since, OutputStream output)
+            throws IOException {
+        var writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        if (format == ExportFormat.CSV) {
+            writer.write(String.join(",", COLUMNS));
+            writer.write("\r\n");
+        }
+
+        int afterId = since == null ? 0 : since;
+        long written = 0;
+        List<List<Object>> rows;
+        do {
+            rows = saleHistoryRepository.findExportRows(businessId, afterId, PageRequest.of(0, EXPORT_BATCH_SIZE));
+            for (List<Object> row : rows) {
+                if (format == ExportFormat.CSV) {
+                    writeCsvRow(writer, row);
+                } else {
+                    writeJsonRow(writer, row);
+                }
+                afterId = (Integer) row.get(0);
+            }
+            written += rows.size();
+            writer.flush();
+        } while (rows.size() == EXPORT_BATCH_SIZE);
+
+        logger.info("Exported {} sales of business with id {}", written, businessId);
+        return written;
+    }
+
+    private void writeCsvRow(Writer writer, List<Object> row) throws IOException {
+        for (var i = 0; i < row.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(toCsvField(row.get(i)));
+        }
+        writer.write("\r\n");
+    }
+
+    private void writeJsonRow(Writer writer, List<Object> row) throws IOException {
+        Map<String, Object> sale = new LinkedHashMap<>();
+        for (var i = 0; i < row.size(); i++) {
+            Object value = row.get(i);
+            // Dates are written as ISO 8601 strings, the same as the rest of the API
+            sale.put(COLUMNS[i], value instanceof Number || value == null ? value : value.toString());
+        }
+        writer.write(JSONObject.toJSONString(sale));
+        writer.write('\n');
+    }
+
+    /**
+     * Turns a value into a CSV field, quoting it if it has a comma, quote or line break.
+     * Text starting with a character a spreadsheet would read as a formula is prefixed with a quote,
+     * as product names are entered by users.
+     *
+     * @param value the value of the field
+     * @return the field to write
+     */
+    static String toCsvField(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String field = value.toString();
+        if (value instanceof String && !field.isEmpty() && "=+-@\t\r".indexOf(field.charAt(0)) >= 0) {
+            field = "'" + field;
+        }
+        if (field.contains(",") || field.contains("\"") || field.contains("\n") || field.contains("\r")) {
+            field = "\"" + field.replace("\"", "\"\"") + "\"";
+        }
+        return field;
+    }
+}
@@ -1,18 +1,22 @@
 package org.seng302.project.service_layer.service;
 
+import net.minidev.json.JSONObject;
 import org.seng302.project.repository_layer.model.Business;
+import org.seng302.project.repository_layer.model.DailySalesRollup;
 import org.seng302.project.repository_layer.model.Sale;
 import org.seng302.project.repository_layer.model.enums.ReportGranularity;
 
+import org.seng302.project.repository_layer.repository.DailySalesRollupRepository;
 import org.seng302.project.repository_layer.repository.SaleHistoryRepository;
 import org.seng302.project.repository_layer.specification.SalesReportSpecifications;
-import org.seng302.project.service_layer.dto.sales_report.GetSaleDTO;
 import org.seng302.project.service_layer.dto.sales_report.GetSalesReportDTO;
 import org.seng302.project.service_layer.exceptions.BadRequestException;
+import org.seng302.project.service_layer.util.SalesReportCache;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 
@@ -20,9 +24,9 @@ import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.TemporalAdjusters;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 @Service
 public class SalesReportService {
@@ -31,11 +35,17 @@ public class SalesReportService {
 
     private final BusinessService businessService;
     private final SaleHistoryRepository saleHistoryRepository;
+    private final DailySalesRollupRepository dailySalesRollupRepository;
+    private final SalesReportCache salesReportCache;
 
     @Autowired
-    public SalesReportService(BusinessService businessService, SaleHistoryRepository saleHistoryRepository) {
+    public SalesReportService(BusinessService businessService, SaleHistoryRepository saleHistoryRepository,
+                              DailySalesRollupRepository dailySalesRollupRepository,
+                              SalesReportCache salesReportCache) {
         this.businessService = businessService;
         this.saleHistoryRepository = saleHistoryRepository;
+        this.dailySalesRollupRepository = dailySalesRollupRepository;
+        this.salesReportCache = salesReportCache;
     }
 
 
@@ -58,7 +68,7 @@ public class SalesReportService {
 
 
     /**
-     * Gets all sales a business had within the given date range
+     * Gets all sales a business had within the given date range, ordered by when they were sold
      * @param businessId Id of the business to get sales for
      * @param periodStartDate LocalDate of the period start date
      * @param periodEndDate LocalDate of the period end date
@@ -71,165 +81,171 @@ public class SalesReportService {
         saleSpec = saleSpec.and(Specification.where(SalesReportSpecifications.soldAfter(periodStartDate.atStartOfDay())));
         saleSpec = saleSpec.and(Specification.where(SalesReportSpecifications.soldBefore(periodEndDate.atTime(23, 59))));
 
-        return saleHistoryRepository.findAll(saleSpec);
+        return saleHistoryRepository.findAll(saleSpec, Sort.by("dateSold"));
     }
 
 
     /**
-     * Generates a sales report with granularity 'all'
-     * i.e. just a list of all sales in the period
-     * @param businessId Id of the business to get the sale report for
-     * @param periodStartDate LocalDate of the report start date
-     * @param periodEndDate LocalDate of the report end date
-     * @return a list of sales (with stats) for the requested period
+     * Gets the last day of the period of the given granularity that starts on the given day
+     * @param granularity the granularity of the report, one of daily, weekly, monthly or yearly
+     * @param periodStartDate the first day of the period
+     * @return the last day of the period
      */
-    private List<GetSalesReportDTO> getAllReport(Integer businessId, LocalDate periodStartDate, LocalDate periodEndDate) {
-        List<Sale> salesWithinPeriod = getSalesWithinPeriod(businessId, periodStartDate, periodEndDate);
-
-        List<GetSaleDTO> resultList = new ArrayList<>();
-
-        for (Sale sale : salesWithinPeriod) {
-            GetSaleDTO dto = new GetSaleDTO(sale);
-            if (sale.getReview() != null){
-                dto.attachReview(sale.getReview());
-            }
-            resultList.add(dto);
+    private LocalDate getPeriodEnd(ReportGranularity granularity, LocalDate periodStartDate) {
+        switch (granularity) {
+            case DAY:
+                return periodStartDate;
+            case WEEK:
+                return periodStartDate.plusDays(6);
+            case MONTH:
+                return periodStartDate.with(TemporalAdjusters.lastDayOfMonth());
+            default:
+                return periodStartDate.with(TemporalAdjusters.lastDayOfYear());
         }
-
-        return List.of(new GetSalesReportDTO(periodStartDate, periodEndDate, resultList));
     }
 
 
     /**
-     * Generates a sales report with granularity 'daily'
-     * i.e. just a list of all sales in the period
-     * @param businessId Id of the business to get the sale report for
+     * Creates the empty reports for every period of the given granularity that the report covers,
+     * keyed by the first day of each period.
+     * Weekly periods start on the report start date, monthly and yearly periods on the first day of the month
+     * or year the report starts in. The last period ends on the report end date.
+     * @param granularity the granularity of the report
      * @param periodStartDate LocalDate of the report start date
      * @param periodEndDate LocalDate of the report end date
-     * @return a list of sales (with stats) for the requested period, separated by day
+     * @return the reports for each period, in order
      */
-    private List<GetSalesReportDTO> getDailyReport(Integer businessId, LocalDate periodStartDate, LocalDate periodEndDate) {
-        List<Sale> salesWithinPeriod = getSalesWithinPeriod(businessId, periodStartDate, periodEndDate);
-
-        List<GetSalesReportDTO> resultList = new ArrayList<>();
-        Map<LocalDate, List<GetSaleDTO>> salesForDays = new HashMap<>();
+    private TreeMap<LocalDate, GetSalesReportDTO> createPeriods(ReportGranularity granularity,
+                                                                LocalDate periodStartDate, LocalDate periodEndDate) {
+        TreeMap<LocalDate, GetSalesReportDTO> periods = new TreeMap<>();
+        if (granularity == ReportGranularity.ALL) {
+            periods.put(periodStartDate, new GetSalesReportDTO(periodStartDate, periodEndDate));
+            return periods;
+        }
 
-        for (Sale sale : salesWithinPeriod) {
-            if (salesForDays.containsKey(sale.getDateSold().toLocalDate())) {
-                salesForDays.get(sale.getDateSold().toLocalDate()).add(new GetSaleDTO(sale));
-            } else {
-                List<GetSaleDTO> sales = new ArrayList<>();
-                GetSaleDTO dto = new GetSaleDTO(sale);
-                if (sale.getReview() != null){
-                    dto.attachReview(sale.getReview());
-                }
-                sales.add(dto);
-                salesForDays.put(sale.getDateSold().toLocalDate(), sales);
-            }
+        LocalDate currentStartDate = periodStartDate;
+        if (granularity == ReportGranularity.MONTH) {
+            currentStartDate = periodStartDate.with(TemporalAdjusters.firstDayOfMonth());
+        } else if (granularity == ReportGranularity.YEAR) {
+            currentStartDate = periodStartDate.with(TemporalAdjusters.firstDayOfYear());
         }
 
-        for (Map.Entry<LocalDate, List<GetSaleDTO>> entry : salesForDays.entrySet()) {
-            List<GetSaleDTO> sales = entry.getValue();
-            LocalDate day = sales.get(0).getDateSold().toLocalDate();
-            resultList.add(new GetSalesReportDTO(day, day, sales));
+        LocalDate currentEndDate = getPeriodEnd(granularity, currentStartDate);
+        while (currentEndDate.isBefore(periodEndDate)) {
+            periods.put(currentStartDate, new GetSalesReportDTO(currentStartDate, currentEndDate));
+            currentStartDate = currentEndDate.plusDays(1);
+            currentEndDate = getPeriodEnd(granularity, currentStartDate);
         }
+        periods.put(currentStartDate, new GetSalesReportDTO(currentStartDate, periodEndDate));
 
-        return resultList;
+        return periods;
     }
 
 
     /**
-     * Generates a sales report with granularity 'weekly'
-     * i.e. just a list of all sales in the period
-     * @param businessId Id of the business to get the sale report for
-     * @param periodStartDate LocalDate of the report start date
-     * @param periodEndDate LocalDate of the report end date
-     * @return a list of sales (with stats) for the requested period, separated by week
+     * Gets the report of the period a day falls in, out of the given periods
+     * @param periods the reports for each period, keyed by the first day of each period
+     * @param day the day to find the period of
+     * @return the report of the period, or null if the day isn't in one of the periods
      */
-    private List<GetSalesReportDTO> getWeeklyReport(Integer businessId, LocalDate periodStartDate, LocalDate periodEndDate) {
-        List<GetSalesReportDTO> resultList = new ArrayList<>();
-        LocalDate currentStartDate = periodStartDate;
-
-        LocalDate currentEndDate = currentStartDate.plusDays(6);
-        while (currentEndDate.isBefore(periodEndDate)) {
-
-            List<Sale> salesInWeek = getSalesWithinPeriod(businessId, currentStartDate, currentEndDate);
-            GetSalesReportDTO weekDTO = new GetSalesReportDTO(currentStartDate, currentEndDate, List.of());
-            weekDTO.attachSales(salesInWeek);
-            resultList.add(weekDTO);
-            currentStartDate = currentEndDate.plusDays(1);
-            currentEndDate = currentStartDate.plusDays(6);
+    private GetSalesReportDTO getPeriod(TreeMap<LocalDate, GetSalesReportDTO> periods, LocalDate day) {
+        Map.Entry<LocalDate, GetSalesReportDTO> period = periods.floorEntry(day);
+        if (period == null || day.isAfter(period.getValue().getPeriodEnd())) {
+            return null;
         }
-
-        List<Sale> salesInWeek = getSalesWithinPeriod(businessId, currentStartDate, periodEndDate);
-        GetSalesReportDTO weekDTO = new GetSalesReportDTO(currentStartDate, periodEndDate, List.of());
-        weekDTO.attachSales(salesInWeek);
-        resultList.add(weekDTO);
-
-        return resultList;
+        return period.getValue();
     }
 
+
     /**
-     * Generates a sales report with granularity 'monthly'
-     * i.e. just a list of all sales in the period
+     * Computes the given periods of a sales report in a single query, whatever the number of periods.
+     * When the sales aren't wanted they are made from the daily rollups of the business' sales,
+     * otherwise the sales themselves are loaded.
      * @param businessId Id of the business to get the sale report for
-     * @param periodStartDate LocalDate of the report start date
-     * @param periodEndDate LocalDate of the report end date
-     * @return a list of sales (with stats) for the requested period, separated by month
+     * @param periods the reports for each period to compute, keyed by the first day of each period
+     * @param includeSales whether to include the sales in each period, or only their totals
      */
-    private List<GetSalesReportDTO> getMonthlyReport(Integer businessId, LocalDate periodStartDate, LocalDate periodEndDate) {
-        List<GetSalesReportDTO> resultList = new ArrayList<>();
-        LocalDate currentStartDate = periodStartDate.with(TemporalAdjusters.firstDayOfMonth());
-
-        LocalDate currentEndDate = currentStartDate.with(TemporalAdjusters.lastDayOfMonth());
-        while (currentEndDate.isBefore(periodEndDate)) {
-
-            List<Sale> salesInMonth = getSalesWithinPeriod(businessId, currentStartDate, currentEndDate);
-            GetSalesReportDTO monthDTO = new GetSalesReportDTO(currentStartDate, currentEndDate, List.of());
-            monthDTO.attachSales(salesInMonth);
-            resultList.add(monthDTO);
-            currentStartDate = currentEndDate.plusDays(1);
-            currentEndDate = currentStartDate.with(TemporalAdjusters.lastDayOfMonth());
+    private void computePeriods(Integer businessId, TreeMap<LocalDate, GetSalesReportDTO> periods,
+                                boolean includeSales) {
+        LocalDate queryStartDate = periods.firstKey();
+        LocalDate queryEndDate = periods.lastEntry().getValue().getPeriodEnd();
+
+        if (includeSales) {
+            for (Sale sale : getSalesWithinPeriod(businessId, queryStartDate, queryEndDate)) {
+                GetSalesReportDTO period = getPeriod(periods, sale.getDateSold().toLocalDate());
+                if (period != null) {
+                    period.addSale(sale);
+                }
+            }
+        } else {
+            for (DailySalesRollup rollup : dailySalesRollupRepository.findWithinPeriod(businessId,
+                    queryStartDate, queryEndDate)) {
+                GetSalesReportDTO period = getPeriod(periods, rollup.getSaleDate());
+                if (period != null) {
+                    period.addRollup(rollup);
+                }
+            }
         }
-
-        List<Sale> salesInMonth = getSalesWithinPeriod(businessId, currentStartDate, periodEndDate);
-        GetSalesReportDTO monthDTO = new GetSalesReportDTO(currentStartDate, periodEndDate, List.of());
-        monthDTO.attachSales(salesInMonth);
-        resultList.add(monthDTO);
-
-        return resultList;
     }
 
 
     /**
-     * Generates a sales report with granularity 'yearly'
-     * i.e. just a list of all sales in the period
+     * Generates a sales report split into periods of the given granularity.
+     * Periods which closed before today are taken from the SalesReportCache where possible, and the rest are
+     * computed together then cached if they have closed. The sales of the cached periods are loaded by their ids.
      * @param businessId Id of the business to get the sale report for
      * @param periodStartDate LocalDate of the report start date
      * @param periodEndDate LocalDate of the report end date
-     * @return a list of sales (with stats) for the requested period, separated by year
+     * @param granularity the granularity of the report
+     * @param includeSales whether to include the sales in each period, or only their totals
+     * @return a list of sales (with stats) for the requested period, separated by the granularity
      */
-    private List<GetSalesReportDTO> getYearlyReport(Integer businessId, LocalDate periodStartDate, LocalDate periodEndDate) {
-        List<GetSalesReportDTO> resultList = new ArrayList<>();
-        LocalDate currentStartDate = periodStartDate.with(TemporalAdjusters.firstDayOfYear());
-
-        LocalDate currentEndDate = currentStartDate.with(TemporalAdjusters.lastDayOfYear());
-        while (currentEndDate.isBefore(periodEndDate)) {
+    private List<GetSalesReportDTO> getReport(Integer businessId, LocalDate periodStartDate, LocalDate periodEndDate,
+                                              ReportGranularity granularity, boolean includeSales) {
+        TreeMap<LocalDate, GetSalesReportDTO> periods = createPeriods(granularity, periodStartDate, periodEndDate);
+        long generation = salesReportCache.getGeneration();
+        LocalDate today = LocalDate.now();
+
+        TreeMap<LocalDate, GetSalesReportDTO> uncachedPeriods = new TreeMap<>();
+        List<Integer> cachedSaleIds = new ArrayList<>();
+        for (GetSalesReportDTO period : periods.values()) {
+            SalesReportCache.CachedPeriod cached = period.getPeriodEnd().isBefore(today)
+                    ? salesReportCache.get(businessId, granularity, period.getPeriodStart(), period.getPeriodEnd(),
+                    includeSales)
+                    : null;
+            if (cached == null) {
+                uncachedPeriods.put(period.getPeriodStart(), period);
+            } else {
+                period.addTotals(cached.getPurchaseCount(), cached.getTotalPurchaseValue(),
+                        cached.getTotalQuantity(), cached.getReviewCount(), cached.getRatingTotal());
+                if (includeSales) {
+                    cachedSaleIds.addAll(cached.getSaleIds());
+                }
+            }
+        }
 
-            List<Sale> salesInYear = getSalesWithinPeriod(businessId, currentStartDate, currentEndDate);
-            GetSalesReportDTO yearDTO = new GetSalesReportDTO(currentStartDate, currentEndDate, List.of());
-            yearDTO.attachSales(salesInYear);
-            resultList.add(yearDTO);
-            currentStartDate = currentEndDate.plusDays(1);
-            currentEndDate = currentStartDate.with(TemporalAdjusters.lastDayOfYear());
+        if (!uncachedPeriods.isEmpty()) {
+            computePeriods(businessId, uncachedPeriods, includeSales);
+            for (GetSalesReportDTO period : uncachedPeriods.values()) {
+                if (period.getPeriodEnd().isBefore(today)) {
+                    salesReportCache.put(businessId, granularity, period, includeSales, generation);
+                }
+            }
         }
 
-        List<Sale> salesInYear = getSalesWithinPeriod(businessId, currentStartDate, periodEndDate);
-        GetSalesReportDTO yearDTO = new GetSalesReportDTO(currentStartDate, periodEndDate, List.of());
-        yearDTO.attachSales(salesInYear);
-        resultList.add(yearDTO);
+        if (!cachedSaleIds.isEmpty()) {
+            List<Sale> cachedSales = saleHistoryRepository.findAllById(cachedSaleIds);
+            cachedSales.sort(Sale.compareByDateSold);
+            for (Sale sale : cachedSales) {
+                periods.floorEntry(sale.getDateSold().toLocalDate()).getValue().attachSale(sale);
+            }
+        }
 
-        return resultList;
+        if (granularity == ReportGranularity.DAY) {
+            // Daily reports only show the days with sales
+            periods.values().removeIf(period -> period.getPurchaseCount() == 0);
+        }
+        return new ArrayList<>(periods.values());
     }
 
 
@@ -244,6 +260,22 @@ public class SalesReportService {
      */
     public List<GetSalesReportDTO> getSalesReport(Integer businessId, String periodStart, String periodEnd,
                                             String granularity, AppUserDetails appUser) {
+        return getSalesReport(businessId, periodStart, periodEnd, granularity, true, appUser);
+    }
+
+
+    /**
+     * Gets a sales report
+     * @param businessId Business to get the sale report for
+     * @param periodStart The date to start the report in the form "yyyy-MM-dd"
+     * @param periodEnd The date to end the report in the form "yyyy-MM-dd"
+     * @param granularity The granularity for the report e.g. "monthly", "weekly"
+     * @param includeSales Whether to include the sales in each period, or only their totals
+     * @param appUser    The user that made the request.
+     * @return  a list of GetSalesReportDTOs containing stats, and sales if included, from the requested time period
+     */
+    public List<GetSalesReportDTO> getSalesReport(Integer businessId, String periodStart, String periodEnd,
+                                            String granularity, boolean includeSales, AppUserDetails appUser) {
 
         logger.info("Request to get a sales report for business with id {}, from {} to {}",
                 businessId, periodStart, periodEnd);
@@ -268,26 +300,16 @@ public class SalesReportService {
 
         ReportGranularity reportGranularity = ReportGranularity.getGranularity(granularity);
 
-        List<GetSalesReportDTO> result = new ArrayList<>();
+        return getReport(businessId, periodStartDate, periodEndDate, reportGranularity, includeSales);
+    }
 
-        switch (reportGranularity) { //Can ignore warning here because of above comment
-            case ALL:
-                result = getAllReport(businessId, periodStartDate, periodEndDate);
-                break;
-            case DAY:
-                result = getDailyReport(businessId, periodStartDate, periodEndDate);
-                break;
-            case WEEK:
-                result = getWeeklyReport(businessId, periodStartDate, periodEndDate);
-                break;
-            case MONTH:
-                result = getMonthlyReport(businessId, periodStartDate, periodEndDate);
-                break;
-            case YEAR:
-                result = getYearlyReport(businessId, periodStartDate, periodEndDate);
-                break;
-        }
 
-        return result;
+    /**
+     * Gets the hit, miss, eviction and invalidation metrics of the sales report cache.
+     *
+     * @return JSONObject with the cache metrics
+     */
+    public JSONObject getReportCacheStatistics() {
+        return salesReportCache.getStatistics();
     }
 }
@@ -0,0 +1,153 @@
+package org.seng302.project.service_layer.service;
+
+import org.seng302.project.repository_layer.model.DailySalesRollup;
+import org.seng302.project.repository_layer.model.Sale;
+import org.seng302.project.repository_layer.repository.DailySalesRollupRepository;
+import org.seng302.project.repository_layer.repository.SaleHistoryRepository;
+import org.seng302.project.service_layer.util.SalesReportCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Service that keeps the daily rollups of each business' sales, which sales reports are answered from.
+ * Each purchase and review adds to the rollup of the day the sale was made, in the same transaction.
+ * The rollups can be rebuilt from the sales, which happens at startup if there are sales but no rollups yet.
+ */
+@Service
+public class SalesRollupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SalesRollupService.class.getName());
+
+    private final DailySalesRollupRepository dailySalesRollupRepository;
+    private final SaleHistoryRepository saleHistoryRepository;
+    private final SalesReportCache salesReportCache;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public SalesRollupService(DailySalesRollupRepository dailySalesRollupRepository,
+                              SaleHistoryRepository saleHistoryRepository,
+                              SalesReportCache salesReportCache,
+                              PlatformTransactionManager transactionManager) {
+        this.dailySalesRollupRepository = dailySalesRollupRepository;
+        this.saleHistoryRepository = saleHistoryRepository;
+        this.salesReportCache = salesReportCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Adds a sale to the rollup of the day it was made, creating the rollup if it is the business' first sale
+     * that day. Must be called before the sale is saved, so the buyer's earlier sales that day can be told apart
+     * from this one.
+     * Adding the sale locks the day's rollup until the purchase commits, so the buyer is only checked once any
+     * other purchase from the business that day has committed. If another purchase creates the day's rollup
+     * at the same time, a ConcurrencyFailureException is thrown so the purchase is retried, and adds to that
+     * rollup instead.
+     *
+     * @param sale the sale to add, not yet saved
+     */
+    public void addSale(Sale sale) {
+        Integer businessId = sale.getBusiness().getId();
+        LocalDate saleDate = sale.getDateSold().toLocalDate();
+        double price = sale.getPrice() == null ? 0 : sale.getPrice();
+        long quantity = sale.getQuantity() == null ? 0 : sale.getQuantity();
+
+        if (dailySalesRollupRepository.addSale(businessId, saleDate, price, quantity) == 0) {
+            try {
+                dailySalesRollupRepository.createRollup(businessId, saleDate, price, quantity);
+            } catch (DataIntegrityViolationException exception) {
+                throw new ConcurrencyFailureException(String.format(
+                        "Sales rollup of business with ID %d for %s was created by another purchase",
+                        businessId, saleDate), exception);
+            }
+        }
+
+        if (sale.getBuyerId() != null && !saleHistoryRepository.existsByBusinessIdAndBuyerIdAndDateSoldBetween(
+                businessId, sale.getBuyerId(), saleDate.atStartOfDay(), saleDate.atTime(LocalTime.MAX))) {
+            dailySalesRollupRepository.addBuyer(businessId, saleDate);
+        }
+    }
+
+    /**
+     * Adds a review's rating to the rollup of the day the reviewed sale was made.
+     * Sales made before the rollups were kept have no rollup until they are rebuilt, so their reviews are skipped.
+     *
+     * @param sale   the sale that was reviewed
+     * @param rating star rating of the review, from 1 to 5
+     */
+    public void addReview(Sale sale, int rating) {
+        LocalDate saleDate = sale.getDateSold().toLocalDate();
+        if (dailySalesRollupRepository.addReview(sale.getBusiness().getId(), saleDate, rating) == 0) {
+            logger.warn("No sales rollup of business with ID {} for {}, the rollups need rebuilding",
+                    sale.getBusiness().getId(), saleDate);
+        }
+    }
+
+    /**
+     * Rebuilds the rollups of every business from their sales, in a single transaction.
+     * Used to fill in the rollups of sales made before they were kept, or that were added without a purchase.
+     * The cached sales report periods are cleared, as their totals may have been made from the old rollups.
+     *
+     * @return the number of rollups, one for each day a business made sales on
+     */
+    public int rebuildRollups() {
+        Integer rebuilt = transactionTemplate.execute(status -> {
+            dailySalesRollupRepository.deleteAllRollups();
+            List<DailySalesRollup> rollups = new ArrayList<>();
+            for (List<Object> row : saleHistoryRepository.findDailyRollups()) {
+                var rollup = new DailySalesRollup((Integer) row.get(0), toLocalDate(row.get(1)));
+                rollup.setSaleCount(((Number) row.get(2)).intValue());
+                rollup.setRevenue(row.get(3) == null ? 0 : ((Number) row.get(3)).doubleValue());
+                rollup.setUnits(row.get(4) == null ? 0 : ((Number) row.get(4)).longValue());
+                rollup.setBuyerCount(((Number) row.get(5)).intValue());
+                rollup.setReviewCount(((Number) row.get(6)).intValue());
+                rollup.setRatingTotal(row.get(7) == null ? 0 : ((Number) row.get(7)).intValue());
+                rollups.add(rollup);
+            }
+            dailySalesRollupRepository.saveAll(rollups);
+            return rollups.size();
+        });
+        salesReportCache.clear();
+        logger.info("Rebuilt {} daily sales rollups", rebuilt);
+        return rebuilt == null ? 0 : rebuilt;
+    }
+
+    /**
+     * Backfills the rollups at startup if there are sales but no rollups, e.g. the first time the application
+     * is run with them.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillRollups() {
+        if (dailySalesRollupRepository.count() == 0 && saleHistoryRepository.count() > 0) {
+            logger.info("No daily sales rollups found, backfilling them from the sales");
+            rebuildRollups();
+        }
+    }
+
+    /**
+     * Converts the day a grouped query returns into a LocalDate, as the type depends on the database driver
+     * @param day the day as returned by the query
+     * @return the day as a LocalDate
+     */
+    private LocalDate toLocalDate(Object day) {
+        if (day instanceof java.sql.Date) {
+            return ((java.sql.Date) day).toLocalDate();
+        } else if (day instanceof Timestamp) {
+            return ((Timestamp) day).toLocalDateTime().toLocalDate();
+        }
+        return (LocalDate) day;
+    }
+}
@@ -19,11 +19,14 @@ import org.seng302.project.service_layer.exceptions.NotAcceptableException;
 import org.seng302.project.service_layer.exceptions.dgaa.DGAARevokeAdminSelfException;
 import org.seng302.project.service_layer.exceptions.dgaa.ForbiddenDGAAActionException;
 import org.seng302.project.service_layer.exceptions.register.ExistingRegisteredEmailException;
+import org.seng302.project.service_layer.util.CountMode;
+import org.seng302.project.service_layer.util.SearchCounter;
+import org.seng302.project.service_layer.util.SearchQuery.SearchTerm;
+import org.seng302.project.service_layer.util.SearchQueryParser;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
@@ -38,7 +41,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
-import java.util.regex.Pattern;
 
 /**
  * Provides logic for User objects
@@ -53,6 +55,7 @@ public class UserService {
     private final AuthenticationManager authenticationManager;
     private final BCryptPasswordEncoder passwordEncoder;
     private final SaleHistoryRepository saleHistoryRepository;
+    private final SearchCounter searchCounter;
 
     @Autowired
     public UserService(UserRepository userRepository,
@@ -60,13 +63,15 @@ public class UserService {
                        LikedSaleListingRepository likedSaleListingRepository,
                        AuthenticationManager authenticationManager,
                        BCryptPasswordEncoder passwordEncoder,
-                       SaleHistoryRepository saleHistoryRepository) {
+                       SaleHistoryRepository saleHistoryRepository,
+                       SearchCounter searchCounter) {
         this.userRepository = userRepository;
         this.addressRepository = addressRepository;
         this.likedSaleListingRepository = likedSaleListingRepository;
         this.authenticationManager = authenticationManager;
         this.passwordEncoder = passwordEncoder;
         this.saleHistoryRepository = saleHistoryRepository;
+        this.searchCounter = searchCounter;
     }
 
     /**
@@ -75,33 +80,43 @@ public class UserService {
      *
      * @param searchQuery Query to search users by.
      * @return List of users matching the search query.
-     * @see <a href="https://stackoverflow.com/questions/1757065/java-splitting-a-comma-separated-string-but-ignoring-commas-in-quotes">
-     * https://stackoverflow.com/questions/1757065/java-splitting-a-comma-separated-string-but-ignoring-commas-in-quotes</a>
+     * @see SearchQueryParser
      */
     public List<Object> searchUsers(String searchQuery, Integer pageNumber, String sortBy) {
+        return searchUsers(searchQuery, pageNumber, sortBy, CountMode.EXACT);
+    }
+
+    /**
+     * Searches for users based on a search query string,
+     * counting the total number of matching users with the given count mode.
+     *
+     * @param searchQuery Query to search users by.
+     * @param pageNumber  The page number to get.
+     * @param sortBy      The column to sort by, with ASC or DESC on the end.
+     * @param countMode   How to count the total number of matching users.
+     * @return List of the page of users, the total number of users and how the total was counted.
+     */
+    public List<Object> searchUsers(String searchQuery, Integer pageNumber, String sortBy, CountMode countMode) {
         List<User> users;
         long totalCount;
         boolean sortASC;
         List<Object> sortChecker = checkSort(sortBy);
         sortASC = (boolean) sortChecker.get(0);
         sortBy = (String) sortChecker.get(1);
-        searchQuery = searchQuery.toLowerCase(); // Convert search query to all lowercase.
-        String[] conjunctions = searchQuery.split(" or (?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)"); // Split by OR
+        var query = SearchQueryParser.parse(searchQuery);
 
         Specification<User> spec = null;
 
-        for (String conjunction : conjunctions) {
+        for (List<SearchTerm> conjunction : query.getConjunctions()) {
             Specification<User> newSpec = Specification.where(null);
 
-            String[] names = conjunction.split("( and |\\s)(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)"); // Split by AND
             // Iterate over the names in the search and check if they are quoted
-            for (String name : names) {
-                if (Pattern.matches("^\".*\"$", name)) {
-                    name = name.replace("\"", "");
-                    newSpec = newSpec.and(UserSpecifications.hasName(name));
+            for (SearchTerm name : conjunction) {
+                if (name.isQuoted()) {
+                    newSpec = newSpec.and(UserSpecifications.hasName(name.getText()));
                 } else {
-                    newSpec = newSpec.and(UserSpecifications.hasName(name))
-                            .or(UserSpecifications.containsName(name));
+                    newSpec = newSpec.and(UserSpecifications.hasName(name.getText()))
+                            .or(UserSpecifications.containsName(name.getText()));
                 }
             }
             if (spec == null) {
@@ -111,17 +126,12 @@ public class UserService {
             }
         }
 
-        // query the repository and get a Page object, from which you can get the content by doing page.getContent()
-        if (!sortBy.isEmpty()) {
-            Page<User> page = sortUserSearch(spec, sortBy, sortASC, pageNumber);
-            totalCount = page.getTotalElements();
-            users = page.getContent();
-        } else {
-            Pageable pageable = PageRequest.of(pageNumber, 10);
-            Page<User> page = userRepository.findAll(spec, pageable);
-            totalCount = page.getTotalElements();
-            users = page.getContent();
-        }
+        // query the repository for the page, counting the total with the count mode
+        Pageable pageable = buildUserSearchPageable(sortBy, sortASC, pageNumber);
+        var page = searchCounter.findPage(countMode, SearchCounter.USERS, List.of(query),
+                userRepository, User.class, spec, pageable);
+        totalCount = page.getTotalCount().getCount();
+        users = page.getContent();
 
         logger.info("Retrieved {} users, showing {}", totalCount, users.size());
 
@@ -132,7 +142,7 @@ public class UserService {
             dto.attachLikedSaleListings(user);
             userDTOs.add(dto);
         }
-        return Arrays.asList(userDTOs, totalCount);
+        return Arrays.asList(userDTOs, totalCount, page.getTotalCount());
     }
 
     /**
@@ -172,6 +182,7 @@ public class UserService {
         newUser.setPassword(passwordEncoder.encode(newUser.getPassword()));
         addressRepository.save(newUser.getHomeAddress());
         userRepository.save(newUser);
+        searchCounter.invalidate(SearchCounter.USERS);
 
         logger.info("Successful registration of user with ID: {}", newUser.getId());
         return new LoginCredentialsDTO(dto.getEmail(), dto.getPassword());
@@ -232,6 +243,7 @@ public class UserService {
 
         addressRepository.save(user.getHomeAddress());
         userRepository.save(user);
+        searchCounter.invalidate(SearchCounter.USERS);
     }
 
     /**
@@ -260,7 +272,8 @@ public class UserService {
      * @throws NotAcceptableException if the given user does not exist
      */
     public GetUserDTO getUser(Integer userId) throws NotAcceptableException {
-        User user = checkUser(userId);
+        User user = userRepository.findProfileById(userId).orElseThrow(() ->
+                new NotAcceptableException(String.format("User with ID %d does not exist", userId)));
         GetUserDTO getUserDTO = new GetUserDTO(user);
         getUserDTO.attachBusinessesAdministered(user);
         getUserDTO.attachLikedSaleListings(user);
@@ -353,22 +366,22 @@ public class UserService {
     }
 
     /**
-     * Helper function for user search, does the sorting
+     * Helper function for user search, creates the page request with the sorting
      *
-     * @param spec    the specification used to search by
-     * @param sortBy  the column that is to be sorted
-     * @param sortASC the direction of the sort
-     * @return the sorted list of users searched for
+     * @param sortBy     the column that is to be sorted, or the empty string for no sorting
+     * @param sortASC    the direction of the sort
+     * @param pageNumber the page number to get
+     * @return the page request
      */
-    public Page<User> sortUserSearch(Specification<User> spec, String sortBy, boolean sortASC, Integer pageNumber) {
-        if (sortASC) {
+    public Pageable buildUserSearchPageable(String sortBy, boolean sortASC, Integer pageNumber) {
+        if (sortBy.isEmpty()) {
+            return PageRequest.of(pageNumber, 10);
+        } else if (sortASC) {
             sortBy = sortBy.substring(0, sortBy.lastIndexOf("A"));
-            Pageable pageable = PageRequest.of(pageNumber, 10, Sort.by(Sort.Order.asc(sortBy).ignoreCase()));
-            return userRepository.findAll(spec, pageable);
+            return PageRequest.of(pageNumber, 10, Sort.by(Sort.Order.asc(sortBy).ignoreCase()));
         } else {
             sortBy = sortBy.substring(0, sortBy.lastIndexOf("D"));
-            Pageable pageable = PageRequest.of(pageNumber, 10, Sort.by(Sort.Order.desc(sortBy).ignoreCase()));
-            return userRepository.findAll(spec, pageable);
+            return PageRequest.of(pageNumber, 10, Sort.by(Sort.Order.desc(sortBy).ignoreCase()));
         }
     }
 
@@ -407,6 +420,19 @@ public class UserService {
      * @return list of the user's purchases
      */
     public List<Object> getPurchaseHistory(Integer userId, Integer pageNumber, String sortBy) {
+        return getPurchaseHistory(userId, pageNumber, sortBy, CountMode.EXACT);
+    }
+
+    /**
+     * Gets a page of a user's purchases, counting the total number of purchases with the given count mode
+     *
+     * @param userId     ID of the user to get purchases for
+     * @param pageNumber the page number to get
+     * @param sortBy     the column to sort by
+     * @param countMode  how to count the total number of purchases
+     * @return list of the page of the user's purchases, the total number of purchases and how the total was counted
+     */
+    public List<Object> getPurchaseHistory(Integer userId, Integer pageNumber, String sortBy, CountMode countMode) {
         Specification<Sale> spec = SalesReportSpecifications.purchasedByUser(userId);
 
         var sort = buildPurchaseSort(sortBy);
@@ -418,8 +444,9 @@ public class UserService {
             pageable = PageRequest.of(pageNumber, 10);
         }
 
-        Page<Sale> page = saleHistoryRepository.findAll(spec, pageable);
-        long totalCount = page.getTotalElements();
+        var page = searchCounter.findPage(countMode, SearchCounter.PURCHASES, List.of(userId),
+                saleHistoryRepository, Sale.class, spec, pageable);
+        long totalCount = page.getTotalCount().getCount();
         List<Sale> purchases = page.getContent();
         List<GetSaleDTO> saleList = new ArrayList<>();
 
@@ -432,7 +459,7 @@ public class UserService {
         }
 
         logger.info("Retrieved {} Purchases, showing {}", totalCount, purchases.size());
-        return Arrays.asList(saleList, totalCount);
+        return Arrays.asList(saleList, totalCount, page.getTotalCount());
     }
 
     /**
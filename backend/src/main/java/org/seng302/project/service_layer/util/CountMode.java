@@ -0,0 +1,49 @@
+package org.seng302.project.service_layer.util;
+
+import org.seng302.project.service_layer.exceptions.BadRequestException;
+
+/**
+ * How the total number of results of a paginated search is counted.
+ */
+public enum CountMode {
+
+    /**
+     * Counts every matching row on every request.
+     */
+    EXACT("exact"),
+    /**
+     * Counts every matching row once, then reuses the count for other pages of the same search
+     * until it expires or the searched data changes.
+     */
+    CACHED("cached"),
+    /**
+     * Counts matching rows up to a cap, so the total is shown as e.g. "1000+" for large results.
+     */
+    ESTIMATED("estimated");
+
+    private final String name;
+
+    CountMode(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the CountMode given its name, throws a BadRequestException if the name is not valid
+     *
+     * @param name String name of the count mode to get, e.g., "cached"
+     * @return the CountMode corresponding to the name given
+     */
+    public static CountMode getCountMode(String name) {
+        for (CountMode mode : CountMode.values()) {
+            if (mode.name.equals(name)) {
+                return mode;
+            }
+        }
+        throw new BadRequestException(String.format("%s is not a valid count mode.", name));
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
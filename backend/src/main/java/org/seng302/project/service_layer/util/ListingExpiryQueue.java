@@ -0,0 +1,191 @@
+package org.seng302.project.service_layer.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import net.minidev.json.JSONObject;
+import org.seng302.project.repository_layer.model.SaleListing;
+import org.seng302.project.repository_layer.repository.SaleListingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue of the open sale listings ordered by closing date, so listings can be expired shortly after they close
+ * instead of in one sweep a day.
+ * The queue is loaded from the closing dates of the sale listings at startup, then new listings are added
+ * as they are created and bought listings are removed.
+ * Every node keeps its own queue, so the queue is only a hint of which listings are due. Each batch is
+ * claimed in the database before it is expired, so a listing is only expired once however many nodes queue it.
+ * <p>
+ * Also keeps the expiry metrics: the size of the batches listings are expired in,
+ * and the lag between a listing closing and it being expired.
+ */
+@Component
+public class ListingExpiryQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListingExpiryQueue.class.getName());
+    private static final Comparator<ExpiringListing> EXPIRY_ORDER = Comparator.comparing(ExpiringListing::getCloses)
+            .thenComparing(ExpiringListing::getListingId);
+
+    private final SaleListingRepository saleListingRepository;
+    private final NavigableSet<ExpiringListing> queue = new ConcurrentSkipListSet<>(EXPIRY_ORDER);
+    private final ConcurrentMap<Integer, ExpiringListing> byListingId = new ConcurrentHashMap<>();
+
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile int lastBatchSize = 0;
+    private volatile int maxBatchSize = 0;
+    private volatile long lastLagMillis = 0;
+    private volatile long maxLagMillis = 0;
+
+    @Autowired
+    public ListingExpiryQueue(SaleListingRepository saleListingRepository) {
+        this.saleListingRepository = saleListingRepository;
+    }
+
+    /**
+     * Loads the closing dates of all sale listings into the queue.
+     * Listings which have already closed are due straight away.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        for (List<Object> row : saleListingRepository.findClosingDates()) {
+            schedule((Integer) row.get(0), (LocalDateTime) row.get(1));
+        }
+        logger.info("Loaded {} sale listings into the expiry queue", byListingId.size());
+    }
+
+    /**
+     * Adds a new sale listing to the queue, to be expired when it closes.
+     *
+     * @param listing the listing to add
+     */
+    public void add(SaleListing listing) {
+        schedule(listing.getId(), listing.getCloses());
+    }
+
+    /**
+     * Adds a sale listing to the queue, replacing any closing date it was already queued with.
+     *
+     * @param listingId id of the listing
+     * @param closes    when the listing closes
+     */
+    public void schedule(Integer listingId, LocalDateTime closes) {
+        if (listingId == null || closes == null) return;
+        var entry = new ExpiringListing(listingId, closes);
+        // Add to the map before the queue, so an entry taken from the queue is always found in the map
+        var old = byListingId.put(listingId, entry);
+        queue.add(entry);
+        if (old != null && !old.equals(entry)) {
+            queue.remove(old);
+        }
+    }
+
+    /**
+     * Removes sale listings from the queue, for when they are bought or removed.
+     *
+     * @param listingIds ids of the listings to remove
+     */
+    public void removeAll(Collection<Integer> listingIds) {
+        for (Integer listingId : listingIds) {
+            var entry = byListingId.remove(listingId);
+            if (entry != null) {
+                queue.remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Takes the sale listings which have closed from the front of the queue, earliest closing first.
+     *
+     * @param now      the current time
+     * @param maxCount maximum number of listings to take
+     * @return List of the closed listings, which are no longer in the queue
+     */
+    public List<ExpiringListing> pollDue(LocalDateTime now, int maxCount) {
+        List<ExpiringListing> due = new ArrayList<>();
+        while (due.size() < maxCount) {
+            var first = queue.pollFirst();
+            if (first == null) break;
+            if (first.getCloses().isAfter(now)) {
+                // Not due yet, so put it back
+                queue.add(first);
+                break;
+            }
+            // Another thread may have rescheduled or removed the listing since it was queued
+            if (byListingId.remove(first.getListingId(), first)) {
+                due.add(first);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Records a batch of sale listings being expired.
+     *
+     * @param batch   listings that were expired
+     * @param expired when the listings were expired
+     */
+    public void recordBatch(List<ExpiringListing> batch, LocalDateTime expired) {
+        if (batch.isEmpty()) return;
+        long lag = 0;
+        for (ExpiringListing listing : batch) {
+            lag = Math.max(lag, Duration.between(listing.getCloses(), expired).toMillis());
+        }
+        this.expired.addAndGet(batch.size());
+        batches.incrementAndGet();
+        lastBatchSize = batch.size();
+        maxBatchSize = Math.max(maxBatchSize, batch.size());
+        lastLagMillis = lag;
+        maxLagMillis = Math.max(maxLagMillis, lag);
+    }
+
+    /**
+     * Gets the number of sale listings waiting to close.
+     *
+     * @return the number of queued listings
+     */
+    public int size() {
+        return byListingId.size();
+    }
+
+    /**
+     * Gets the expiry metrics: the number of queued listings, the number of listings expired and batches run
+     * since startup, the size of the last and largest batches, and the longest time between a listing in the last
+     * batch closing and it being expired, along with the longest such lag since startup.
+     *
+     * @return JSONObject with the expiry metrics
+     */
+    public JSONObject getStatistics() {
+        var statistics = new JSONObject();
+        statistics.put("queued", size());
+        statistics.put("expired", expired.get());
+        statistics.put("batches", batches.get());
+        statistics.put("lastBatchSize", lastBatchSize);
+        statistics.put("maxBatchSize", maxBatchSize);
+        statistics.put("lastLagMillis", lastLagMillis);
+        statistics.put("maxLagMillis", maxLagMillis);
+        return statistics;
+    }
+
+    /**
+     * A sale listing waiting to close.
+     */
+    @Data
+    @AllArgsConstructor
+    public static class ExpiringListing {
+        private Integer listingId;
+        private LocalDateTime closes;
+    }
+}
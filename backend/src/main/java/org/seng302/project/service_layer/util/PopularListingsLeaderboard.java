@@ -0,0 +1,324 @@
+package org.seng302.project.service_layer.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.seng302.project.repository_layer.repository.SaleListingRepository;
+import org.seng302.project.service_layer.service.EntityCacheService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory leaderboard of the most liked sale listings, both overall and for each business country,
+ * so the popular listings on the home page can be found without querying the likes.
+ * The leaderboard is seeded from the like counters of the sale listings at startup,
+ * then updated as listings are liked, unliked, bought and expire.
+ * Likes are set from the like counter read in the transaction that changed it, rather than added locally,
+ * so the leaderboard can't drift from the counters.
+ * The leaderboard is local to each node, so changes are recorded through the {@link EntityCacheService}
+ * for the other nodes to re-read the counters of the changed listings.
+ * Two likes of a listing committing at once can be applied out of order on the node making them, which leaves
+ * the listing a like out until it is next liked or the leaderboard is reseeded.
+ * <p>
+ * Each listing's rank is replaced atomically, so updates from many request threads are applied one at a time.
+ * Reads are not locked, and may briefly see a listing at either its old or new position while it is being updated.
+ */
+@Component
+public class PopularListingsLeaderboard {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopularListingsLeaderboard.class.getName());
+    private static final String REMOTE_CHANGE_PREFIX = "PopularListingsLeaderboard:";
+    // Keeps the ids of a change within the length of the name it is recorded with
+    private static final int IDS_PER_CHANGE = 20;
+    private static final Comparator<Rank> RANK_ORDER = Comparator.comparingInt(Rank::getLikes).reversed()
+            .thenComparing(Rank::getListingId);
+
+    private final SaleListingRepository saleListingRepository;
+    private final EntityCacheService entityCacheService;
+    /**
+     * Updates hold the read lock so they can run concurrently, and seeding holds the write lock
+     * so no update is applied to a leaderboard that is about to be replaced.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile LeaderboardState state = new LeaderboardState();
+    private volatile boolean ready = false;
+
+    @Autowired
+    public PopularListingsLeaderboard(SaleListingRepository saleListingRepository,
+                                      EntityCacheService entityCacheService) {
+        this.saleListingRepository = saleListingRepository;
+        this.entityCacheService = entityCacheService;
+        entityCacheService.addRemoteChangeHandler(REMOTE_CHANGE_PREFIX, this::applyRemoteChange);
+    }
+
+    /**
+     * Returns whether the leaderboard has been seeded and can be used to find popular listings.
+     *
+     * @return true if the leaderboard has been seeded
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Seeds the leaderboard from the like counters of the sale listings, replacing the current leaderboard.
+     * Runs once the application has started, and again after the like counters are reconciled.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void seed() {
+        lock.writeLock().lock();
+        try {
+            var newState = new LeaderboardState();
+            for (List<Object> row : saleListingRepository.findLikedListingRanks()) {
+                var rank = new Rank((Integer) row.get(0), (Integer) row.get(1), (Integer) row.get(2),
+                        (String) row.get(3));
+                newState.ranks.put(rank.getListingId(), rank);
+                newState.replace(null, rank);
+            }
+            state = newState;
+            ready = true;
+            logger.info("Seeded the popular listings leaderboard with {} liked sale listings",
+                    newState.ranks.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the likes of a sale listing to its like counter, after it was liked or unliked.
+     * Must be called in the transaction which changed the counter, after the change, so the counter is read while
+     * the transaction still holds the listing's row. The leaderboard is updated once the transaction commits, and
+     * the other nodes re-read the counter once they read the record of the change, written in the same transaction.
+     *
+     * @param listingId id of the listing which was liked or unliked
+     */
+    public void updateLikes(Integer listingId) {
+        List<Integer> listingIds = List.of(listingId);
+        List<List<Object>> rows = saleListingRepository.findListingRanks(listingIds);
+        recordChange(listingIds);
+        afterCommit(() -> setRanks(listingIds, rows));
+    }
+
+    /**
+     * Removes sale listings from the leaderboard of every node, for when they are bought or expire.
+     * If called in a transaction the listings are removed once it commits, and the other nodes remove them once
+     * they read the record of the removal, written in the same transaction. Every node's leaderboard holds the
+     * same liked listings, so only the listings on this node's leaderboard are recorded.
+     *
+     * @param listingIds ids of the listings to remove
+     */
+    public void removeAll(Collection<Integer> listingIds) {
+        var current = state;
+        List<Integer> ranked = listingIds.stream().filter(current.ranks::containsKey).collect(Collectors.toList());
+        if (!ranked.isEmpty()) {
+            recordChange(ranked);
+        }
+        List<Integer> ids = new ArrayList<>(listingIds);
+        afterCommit(() -> remove(ids));
+    }
+
+    /**
+     * Removes sale listings from this node's leaderboard.
+     *
+     * @param listingIds ids of the listings to remove
+     */
+    private void remove(Collection<Integer> listingIds) {
+        update(current -> {
+            for (Integer listingId : listingIds) {
+                current.ranks.computeIfPresent(listingId, (id, old) -> {
+                    current.replace(old, null);
+                    return null;
+                });
+            }
+        });
+    }
+
+    /**
+     * Moves the listings of a business to the country the business is now in.
+     *
+     * @param businessId id of the business whose address changed
+     * @param country    new country of the business
+     */
+    public void updateCountry(Integer businessId, String country) {
+        update(current -> {
+            for (Rank rank : current.ranks.values()) {
+                if (!businessId.equals(rank.getBusinessId())) continue;
+                current.ranks.computeIfPresent(rank.getListingId(), (id, old) -> {
+                    var moved = new Rank(id, old.getLikes(), businessId, country);
+                    current.replace(old, moved);
+                    return moved;
+                });
+            }
+        });
+    }
+
+    /**
+     * Gets the ids of the most liked sale listings, most liked first.
+     * Listings with the same number of likes are ordered by id.
+     *
+     * @param country country to get the most liked listings for, or null for all countries
+     * @param limit   maximum number of listing ids to get
+     * @return List of listing ids
+     */
+    public List<Integer> getTopListingIds(String country, int limit) {
+        var current = state;
+        NavigableSet<Rank> ranked = country == null ? current.global : current.byCountry.get(country);
+        if (ranked == null) {
+            return List.of();
+        }
+
+        // A listing being updated can be in a set twice, at its old and new position
+        Set<Integer> listingIds = new LinkedHashSet<>();
+        for (Rank rank : ranked) {
+            if (listingIds.size() == limit) break;
+            listingIds.add(rank.getListingId());
+        }
+        return new ArrayList<>(listingIds);
+    }
+
+    /**
+     * Sets the ranks of listings from their like counters. Listings without any likes, or which no longer exist,
+     * are removed from the leaderboard.
+     *
+     * @param listingIds ids of the listings to set
+     * @param rows       rows returned by the repository's findListingRanks query for the listings
+     */
+    private void setRanks(Collection<Integer> listingIds, List<List<Object>> rows) {
+        Map<Integer, Rank> ranks = new HashMap<>();
+        for (List<Object> row : rows) {
+            var rank = new Rank((Integer) row.get(0), (Integer) row.get(1), (Integer) row.get(2),
+                    (String) row.get(3));
+            if (rank.getLikes() > 0) {
+                ranks.put(rank.getListingId(), rank);
+            }
+        }
+        update(current -> {
+            for (Integer listingId : listingIds) {
+                current.ranks.compute(listingId, (id, old) -> {
+                    Rank rank = ranks.get(id);
+                    current.replace(old, rank);
+                    return rank;
+                });
+            }
+        });
+    }
+
+    /**
+     * Records a change to the ranks of listings for the other nodes, in as few records as fit the ids.
+     *
+     * @param listingIds ids of the changed listings
+     */
+    private void recordChange(List<Integer> listingIds) {
+        for (var i = 0; i < listingIds.size(); i += IDS_PER_CHANGE) {
+            entityCacheService.recordCacheChange(REMOTE_CHANGE_PREFIX + listingIds
+                    .subList(i, Math.min(i + IDS_PER_CHANGE, listingIds.size())).stream()
+                    .map(String::valueOf).collect(Collectors.joining(",")));
+        }
+    }
+
+    /**
+     * Applies a change made on another node by re-reading the like counters of its listings.
+     *
+     * @param change the comma separated ids of the changed listings, without the prefix it was recorded with
+     */
+    private void applyRemoteChange(String change) {
+        List<Integer> listingIds = Arrays.stream(change.split(",")).map(Integer::valueOf)
+                .collect(Collectors.toList());
+        setRanks(listingIds, saleListingRepository.findListingRanks(listingIds));
+    }
+
+    /**
+     * Runs an update of the leaderboard once the current transaction commits, or straight away if there isn't one.
+     * Updates aren't made if the transaction rolls back.
+     *
+     * @param update the update to run
+     */
+    private static void afterCommit(Runnable update) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    update.run();
+                }
+            });
+        } else {
+            update.run();
+        }
+    }
+
+    /**
+     * Applies an update to the current leaderboard. Updates made before the leaderboard is seeded are dropped,
+     * as seeding reads the like counters they have already changed.
+     */
+    private void update(Consumer<LeaderboardState> update) {
+        lock.readLock().lock();
+        try {
+            if (ready) {
+                update.accept(state);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Position of a sale listing on the leaderboard.
+     */
+    @Data
+    @AllArgsConstructor
+    static class Rank {
+        private Integer listingId;
+        private int likes;
+        private Integer businessId;
+        private String country;
+    }
+
+    /**
+     * The ranks of the liked listings, and the sets ordering them overall and for each country.
+     * Ranks are only replaced inside a compute on the listing's entry in the ranks map,
+     * so updates to the same listing are applied one at a time.
+     */
+    private static class LeaderboardState {
+        private final ConcurrentMap<Integer, Rank> ranks = new ConcurrentHashMap<>();
+        private final NavigableSet<Rank> global = new ConcurrentSkipListSet<>(RANK_ORDER);
+        private final ConcurrentMap<String, NavigableSet<Rank>> byCountry = new ConcurrentHashMap<>();
+
+        /**
+         * Replaces the old rank of a listing with its new rank in the ordered sets.
+         * The new rank is added before the old one is removed, so the listing is never missing from a set.
+         */
+        private void replace(Rank old, Rank rank) {
+            if (rank != null) {
+                global.add(rank);
+                if (rank.getCountry() != null) {
+                    byCountry.computeIfAbsent(rank.getCountry(), key -> new ConcurrentSkipListSet<>(RANK_ORDER))
+                            .add(rank);
+                }
+            }
+            if (old != null) {
+                // A rank which orders the same as the new one is the same set element, so must not be removed
+                boolean sameOrder = rank != null && RANK_ORDER.compare(old, rank) == 0;
+                if (!sameOrder) {
+                    global.remove(old);
+                }
+                if (old.getCountry() != null && !(sameOrder && old.getCountry().equals(rank.getCountry()))) {
+                    byCountry.get(old.getCountry()).remove(old);
+                }
+            }
+        }
+    }
+}
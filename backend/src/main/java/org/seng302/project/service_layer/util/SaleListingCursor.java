@@ -0,0 +1,107 @@
+package org.seng302.project.service_layer.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.seng302.project.repository_layer.model.SaleListing;
+import org.seng302.project.service_layer.exceptions.BadRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in a sorted sale listing search, used for cursor (keyset) pagination.
+ * Holds the sort the search was made with, and the sort value and id of the last listing on a page.
+ * Cursors are given to clients as opaque Base64 strings.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SaleListingCursor {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private String sortBy;
+    /**
+     * Sort value of the last listing for text sorts (product name, country, city, expiry date and seller).
+     */
+    private String key;
+    /**
+     * Sort value of the last listing for price sorts.
+     */
+    private Double price;
+    private Integer id;
+
+    /**
+     * Creates the cursor pointing after a listing in a search sorted by sortBy.
+     *
+     * @param sortBy  sort the search was made with
+     * @param listing last listing on the page
+     * @return the cursor
+     */
+    public static SaleListingCursor after(String sortBy, SaleListing listing) {
+        var cursor = new SaleListingCursor(sortBy, null, null, listing.getId());
+        var business = listing.getBusiness();
+        var address = business.getAddress();
+        switch (sortBy) {
+            case "priceAsc":
+            case "priceDesc":
+                cursor.setPrice(listing.getPrice());
+                break;
+            case "productName":
+                cursor.setKey(listing.getInventoryItem().getProduct().getName());
+                break;
+            case "country":
+                cursor.setKey(address == null ? null : address.getCountry());
+                break;
+            case "city":
+                cursor.setKey(address == null ? null : address.getCity());
+                break;
+            case "expiryDateAsc":
+            case "expiryDateDesc":
+                cursor.setKey(listing.getInventoryItem().getExpires());
+                break;
+            case "seller":
+                cursor.setKey(business.getName());
+                break;
+            default:
+                break;
+        }
+        return cursor;
+    }
+
+    /**
+     * Encodes the cursor as an opaque string to give to clients.
+     *
+     * @return the encoded cursor
+     */
+    public String encode() {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(this));
+        } catch (JsonProcessingException exception) {
+            throw new IllegalStateException("Unable to encode sale listing cursor", exception);
+        }
+    }
+
+    /**
+     * Decodes a cursor given by a client.
+     * Throws a BadRequestException if the cursor is invalid.
+     *
+     * @param encoded the encoded cursor
+     * @return the decoded cursor
+     */
+    public static SaleListingCursor decode(String encoded) {
+        try {
+            var json = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+            var cursor = objectMapper.readValue(json, SaleListingCursor.class);
+            if (cursor.getId() == null || cursor.getSortBy() == null) {
+                throw new BadRequestException("Invalid cursor.");
+            }
+            return cursor;
+        } catch (IllegalArgumentException | JsonProcessingException exception) {
+            throw new BadRequestException("Invalid cursor.");
+        }
+    }
+}
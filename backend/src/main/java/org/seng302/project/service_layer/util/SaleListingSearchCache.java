@@ -0,0 +1,125 @@
+package org.seng302.project.service_layer.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import net.minidev.json.JSONObject;
+import org.seng302.project.service_layer.dto.search.TotalCountDTO;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of sale listing search results, so the same search is not recomputed for every user.
+ * Only the ids of the listings on a page and the total count are cached, so a result can be shared between users,
+ * and the listings themselves (with the user's like flags) are loaded fresh for each request.
+ * <p>
+ * Cached results are tied to the listings generation of the SearchCounter, so they are invalidated by any write
+ * that invalidates listing counts (new, bought, featured and expired listings, and business changes).
+ * Results are also dropped after a time to live, to cover changes which don't invalidate the listings,
+ * such as product name changes.
+ */
+@Component
+public class SaleListingSearchCache {
+
+    private static final int CACHE_SIZE = 1000;
+    private static final long TIME_TO_LIVE = 120000;
+
+    private final SearchCounter searchCounter;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final Map<List<Object>, CachedSearch> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedSearch> eldest) {
+                    if (size() > CACHE_SIZE) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            });
+
+    public SaleListingSearchCache(SearchCounter searchCounter) {
+        this.searchCounter = searchCounter;
+    }
+
+    /**
+     * Gets a cached search result. Results from before the listings were last invalidated,
+     * or older than the time to live, are removed and count as a miss.
+     *
+     * @param key normalised search, made up of everything that affects the result
+     * @return the cached result, or null if there isn't a valid one
+     */
+    public CachedSearch get(List<Object> key) {
+        var cached = cache.get(key);
+        if (cached != null && (cached.getGeneration() != getGeneration()
+                || System.currentTimeMillis() - cached.getCreated() > TIME_TO_LIVE)) {
+            // Only count the eviction if another request hasn't already replaced or removed the entry
+            if (cache.remove(key, cached)) {
+                evictions.incrementAndGet();
+            }
+            cached = null;
+        }
+
+        if (cached == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return cached;
+    }
+
+    /**
+     * Caches a search result. The generation should be read with getGeneration before searching,
+     * so a result which may have missed a write made during the search is never used.
+     *
+     * @param key        normalised search, made up of everything that affects the result
+     * @param generation generation read before searching
+     * @param listingIds ids of the listings on the page, in order
+     * @param totalCount total number of matching listings
+     */
+    public void put(List<Object> key, long generation, List<Integer> listingIds, TotalCountDTO totalCount) {
+        if (generation == getGeneration()) {
+            cache.put(key, new CachedSearch(List.copyOf(listingIds), totalCount, generation, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Gets the current listings generation, which changes every time the listings are invalidated.
+     *
+     * @return the current generation
+     */
+    public long getGeneration() {
+        return searchCounter.getGeneration(SearchCounter.LISTINGS);
+    }
+
+    /**
+     * Gets the cache metrics: the number of hits, misses and evictions (entries removed for space,
+     * or because they were out of date) since startup, and the number of cached results.
+     *
+     * @return JSONObject with the cache metrics
+     */
+    public JSONObject getStatistics() {
+        var statistics = new JSONObject();
+        statistics.put("hits", hits.get());
+        statistics.put("misses", misses.get());
+        statistics.put("evictions", evictions.get());
+        statistics.put("size", cache.size());
+        return statistics;
+    }
+
+    /**
+     * A cached search result.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class CachedSearch {
+        private final List<Integer> listingIds;
+        private final TotalCountDTO totalCount;
+        private final long generation;
+        private final long created;
+    }
+}
@@ -0,0 +1,855 @@
+package org.seng302.project.service_layer.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.seng302.project.repository_layer.model.Address;
+import org.seng302.project.repository_layer.model.Business;
+import org.seng302.project.repository_layer.model.SaleListing;
+import org.seng302.project.repository_layer.repository.SaleListingRepository;
+import org.seng302.project.service_layer.dto.sale_listings.SaleListingFacetsDTO;
+import org.seng302.project.service_layer.dto.sale_listings.SearchSaleListingsDTO;
+import org.seng302.project.service_layer.service.EntityCacheService;
+import org.seng302.project.service_layer.util.SearchQuery.SearchTerm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory inverted index over the searchable fields of sale listings
+ * (product name, business name, business country and business type).
+ * Marketplace searches are evaluated against the index's posting lists rather than with LIKE queries,
+ * so only the requested page of listings needs to be loaded from the database.
+ * The index is built at startup and kept up to date as listings are created, bought and expire, and as the
+ * products, inventory items and businesses they are of are edited. Changes made in a transaction are applied
+ * once it commits, so searches never see uncommitted listings, and searches never query the database to check
+ * the index. The index is local to each node, so each change is recorded through the {@link EntityCacheService},
+ * and the other nodes reload the changed listings from the database once they read the record.
+ * The index is rebuilt every 10 minutes to pick up listings changed by other means.
+ */
+@Component
+public class SaleListingSearchIndex {
+
+    /**
+     * The fields of a sale listing that can be searched.
+     */
+    public enum Field {
+        PRODUCT_NAME,
+        BUSINESS_NAME,
+        BUSINESS_COUNTRY,
+        BUSINESS_TYPE
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(SaleListingSearchIndex.class.getName());
+    private static final int LOAD_CHUNK_SIZE = 1000;
+    private static final int GRAM_LENGTH = 3;
+    private static final String REMOTE_CHANGE_PREFIX = "SaleListingSearchIndex:";
+    // Keeps the ids of a change within the length of the name it is recorded with
+    private static final int IDS_PER_CHANGE = 20;
+    private static final Comparator<Document> ID_ORDER = Comparator.comparingInt(document -> document.id);
+
+    private final SaleListingRepository saleListingRepository;
+    private final EntityCacheService entityCacheService;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private IndexState state = new IndexState();
+    // Changes made while the index is being rebuilt, replayed onto the rebuilt index. Null when not rebuilding
+    private List<Consumer<IndexState>> changesDuringRebuild = null;
+    private volatile boolean ready = false;
+
+    @Autowired
+    public SaleListingSearchIndex(SaleListingRepository saleListingRepository,
+                                  EntityCacheService entityCacheService) {
+        this.saleListingRepository = saleListingRepository;
+        this.entityCacheService = entityCacheService;
+        entityCacheService.addRemoteChangeHandler(REMOTE_CHANGE_PREFIX, this::applyRemoteChange);
+    }
+
+    /**
+     * Returns whether the index has been built and can be used for searching.
+     *
+     * @return true if the index has been built
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Builds the index from scratch from the sale listing repository.
+     * Runs once the application has started, then every 10 minutes to pick up listings changed other than
+     * through the services. Changes made to the index while it is being rebuilt are replayed onto the new index,
+     * so they aren't lost if they were committed after their listings were loaded.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelay = 600000, initialDelay = 600000)
+    public void rebuild() {
+        List<Consumer<IndexState>> changes = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            changesDuringRebuild = changes;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        var newState = new IndexState();
+        try {
+            for (Document document : loadDocuments(0)) {
+                newState.add(document);
+            }
+        } finally {
+            lock.writeLock().lock();
+            try {
+                changesDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Consumer<IndexState> change : changes) {
+                change.accept(newState);
+            }
+            state = newState;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ready = true;
+        logger.info("Built sale listing search index with {} listings", newState.documents.size());
+    }
+
+    /**
+     * Adds a sale listing to the index, replacing it if it is already indexed.
+     * If called in a transaction the listing is added once it commits.
+     *
+     * @param listing the sale listing to add, already saved
+     */
+    public void add(SaleListing listing) {
+        var document = Document.of(listing);
+        recordListingsChange(List.of(listing.getId()));
+        afterCommit(() -> apply(indexState -> indexState.add(document)));
+    }
+
+    /**
+     * Removes sale listings from the index.
+     * If called in a transaction the listings are removed once it commits.
+     *
+     * @param listingIds ids of the sale listings to remove
+     */
+    public void removeAll(Collection<Integer> listingIds) {
+        List<Integer> ids = new ArrayList<>(listingIds);
+        recordListingsChange(ids);
+        afterCommit(() -> apply(indexState -> {
+            for (Integer listingId : ids) {
+                indexState.remove(listingId);
+            }
+        }));
+    }
+
+    /**
+     * Reindexes the sale listings of a business, after its name, type or address is edited.
+     * If called in a transaction the listings are reindexed once it commits.
+     *
+     * @param businessId id of the business
+     */
+    public void reindexBusiness(Integer businessId) {
+        entityCacheService.recordCacheChange(REMOTE_CHANGE_PREFIX + "business:" + businessId);
+        afterCommit(() -> reindex(saleListingRepository.findSearchDocumentsByBusinessId(businessId)));
+    }
+
+    /**
+     * Reindexes the sale listings of a product, after its name is edited.
+     * If called in a transaction the listings are reindexed once it commits.
+     *
+     * @param businessId id of the business with the product
+     * @param productId  id of the product, after the edit
+     */
+    public void reindexProduct(Integer businessId, String productId) {
+        entityCacheService.recordCacheChange(REMOTE_CHANGE_PREFIX + "product:" + businessId + ":" + productId);
+        afterCommit(() -> reindex(saleListingRepository.findSearchDocumentsByProduct(businessId, productId)));
+    }
+
+    /**
+     * Reindexes the sale listings of an inventory item, after its product or expiry date is edited.
+     * If called in a transaction the listings are reindexed once it commits.
+     *
+     * @param inventoryItemId id of the inventory item
+     */
+    public void reindexInventoryItem(Integer inventoryItemId) {
+        entityCacheService.recordCacheChange(REMOTE_CHANGE_PREFIX + "inventoryItem:" + inventoryItemId);
+        afterCommit(() -> reindex(saleListingRepository.findSearchDocumentsByInventoryItemId(inventoryItemId)));
+    }
+
+    /**
+     * Replaces the indexed documents of listings with the ones loaded from the repository.
+     *
+     * @param rows rows returned by one of the repository's search document queries
+     */
+    private void reindex(List<List<Object>> rows) {
+        List<Document> documents = new ArrayList<>();
+        for (List<Object> row : rows) {
+            documents.add(Document.of(row));
+        }
+        apply(indexState -> {
+            for (Document document : documents) {
+                indexState.add(document);
+            }
+        });
+    }
+
+    /**
+     * Records a change to listings for the other nodes, in as few records as fit the ids.
+     * The record is written in the current transaction, or on its own if there isn't one.
+     *
+     * @param listingIds ids of the changed listings
+     */
+    private void recordListingsChange(List<Integer> listingIds) {
+        for (var i = 0; i < listingIds.size(); i += IDS_PER_CHANGE) {
+            entityCacheService.recordCacheChange(REMOTE_CHANGE_PREFIX + "listings:" + listingIds
+                    .subList(i, Math.min(i + IDS_PER_CHANGE, listingIds.size())).stream()
+                    .map(String::valueOf).collect(Collectors.joining(",")));
+        }
+    }
+
+    /**
+     * Applies a change made on another node by reloading the changed listings from the database.
+     * The change is the comma separated ids of listings which were added or removed, or the business,
+     * product or inventory item whose listings were reindexed.
+     *
+     * @param change the change, without the prefix it was recorded with
+     */
+    private void applyRemoteChange(String change) {
+        String[] parts = change.split(":", 2);
+        switch (parts[0]) {
+            case "listings":
+                List<Integer> listingIds = Arrays.stream(parts[1].split(",")).map(Integer::valueOf)
+                        .collect(Collectors.toList());
+                reload(listingIds, saleListingRepository.findSearchDocumentsByIds(listingIds));
+                break;
+            case "business":
+                reindex(saleListingRepository.findSearchDocumentsByBusinessId(Integer.valueOf(parts[1])));
+                break;
+            case "product":
+                String[] product = parts[1].split(":", 2);
+                reindex(saleListingRepository.findSearchDocumentsByProduct(Integer.valueOf(product[0]), product[1]));
+                break;
+            case "inventoryItem":
+                reindex(saleListingRepository.findSearchDocumentsByInventoryItemId(Integer.valueOf(parts[1])));
+                break;
+            default:
+                logger.warn("Ignored unknown search index change {}", change);
+        }
+    }
+
+    /**
+     * Replaces the indexed documents of listings with the ones loaded from the repository,
+     * removing the listings which weren't loaded as they no longer exist.
+     *
+     * @param listingIds ids of the listings
+     * @param rows       rows returned by the repository's findSearchDocumentsByIds query for the listings
+     */
+    private void reload(List<Integer> listingIds, List<List<Object>> rows) {
+        List<Document> documents = new ArrayList<>();
+        for (List<Object> row : rows) {
+            documents.add(Document.of(row));
+        }
+        apply(indexState -> {
+            for (Integer listingId : listingIds) {
+                indexState.remove(listingId);
+            }
+            for (Document document : documents) {
+                indexState.add(document);
+            }
+        });
+    }
+
+    /**
+     * Runs an update of the index once the current transaction commits, or straight away if there isn't one.
+     * Updates aren't made if the transaction rolls back.
+     *
+     * @param update the update to run
+     */
+    private static void afterCommit(Runnable update) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    update.run();
+                }
+            });
+        } else {
+            update.run();
+        }
+    }
+
+    /**
+     * Applies a change to the index, and keeps it to replay onto the new index if the index is being rebuilt.
+     *
+     * @param change the change to apply
+     */
+    private void apply(Consumer<IndexState> change) {
+        lock.writeLock().lock();
+        try {
+            change.accept(state);
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the index for sale listings matching a marketplace search.
+     *
+     * @param dto         DTO containing the fields to match, price range, sort and page number
+     * @param query       parsed search query. Quoted terms must match a whole field,
+     *                    other terms can match any part of a field.
+     * @param closesLower the earliest closing date to match, or null
+     * @param closesUpper the latest closing date to match, or null
+     * @param pageSize    number of listings in a page
+     * @return the ids of the listings in the requested page, in order, and the total number of matches
+     */
+    public SearchPage search(SearchSaleListingsDTO dto, SearchQuery query,
+                             LocalDateTime closesLower, LocalDateTime closesUpper, int pageSize) {
+        lock.readLock().lock();
+        try {
+            var comparator = getComparator(dto.getSortBy());
+            if (isUnfilteredBrowse(dto, comparator, closesLower, closesUpper)) {
+                if (dto.getPageNumber() < 0) {
+                    throw new IllegalArgumentException("Page index must not be less than zero!");
+                }
+                return browseById(state.documents, (long) dto.getPageNumber() * pageSize, pageSize);
+            }
+            List<Document> matches = getMatches(dto, query, closesLower, closesUpper);
+            var pageIds = getPage(matches, comparator, dto.getPageNumber(), pageSize);
+            return new SearchPage(pageIds, matches.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the index for the sale listings matching a marketplace search which come after a cursor.
+     *
+     * @param dto         DTO containing the fields to match, price range and sort (the page number is ignored)
+     * @param query       parsed search query
+     * @param closesLower the earliest closing date to match, or null
+     * @param closesUpper the latest closing date to match, or null
+     * @param cursor      cursor pointing to the last listing of the previous page, or null for the first page
+     * @param limit       maximum number of listings to return
+     * @return the ids of the listings after the cursor, in order, and the total number of matches
+     */
+    public SearchPage searchAfter(SearchSaleListingsDTO dto, SearchQuery query, LocalDateTime closesLower,
+                                  LocalDateTime closesUpper, SaleListingCursor cursor, int limit) {
+        lock.readLock().lock();
+        try {
+            var comparator = getComparator(dto.getSortBy());
+            if (isUnfilteredBrowse(dto, comparator, closesLower, closesUpper)) {
+                return browseById(cursor == null ? state.documents : state.documents.tailMap(cursor.getId(), false),
+                        0, limit);
+            }
+            List<Document> matches = getMatches(dto, query, closesLower, closesUpper);
+
+            List<Document> remaining = matches;
+            if (cursor != null) {
+                var position = Document.of(cursor);
+                remaining = new ArrayList<>();
+                for (Document document : matches) {
+                    if (comparator.compare(document, position) > 0) {
+                        remaining.add(document);
+                    }
+                }
+            }
+            return new SearchPage(getPage(remaining, comparator, 0, limit), matches.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the sale listings matching a marketplace search by business type, country and price.
+     *
+     * @param dto         DTO containing the fields to match and price range (the sort and page number are ignored)
+     * @param query       parsed search query
+     * @param closesLower the earliest closing date to match, or null
+     * @param closesUpper the latest closing date to match, or null
+     * @param facets      facet counts to add the matching listings to
+     */
+    public void countFacets(SearchSaleListingsDTO dto, SearchQuery query, LocalDateTime closesLower,
+                            LocalDateTime closesUpper, SaleListingFacetsDTO facets) {
+        lock.readLock().lock();
+        try {
+            for (Document document : getMatches(dto, query, closesLower, closesUpper)) {
+                facets.add(document.businessType, document.country, document.price, 1);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether a search matches every listing and is ordered by id, so its pages can be read straight
+     * from the documents in id order rather than from all the matches.
+     */
+    private static boolean isUnfilteredBrowse(SearchSaleListingsDTO dto, Comparator<Document> comparator,
+                                              LocalDateTime closesLower, LocalDateTime closesUpper) {
+        return comparator == ID_ORDER && getFields(dto).isEmpty() && dto.getPriceRangeLower() == null
+                && dto.getPriceRangeUpper() == null && closesLower == null && closesUpper == null;
+    }
+
+    /**
+     * Gets a page of an unfiltered browse ordered by id, only reading the documents up to the end of the page.
+     * Must be called while holding the read lock.
+     *
+     * @param documents the documents from the start of the browse, in id order
+     * @param from      number of documents before the page
+     * @param limit     maximum number of listings in the page
+     * @return the ids of the listings in the page, in order, and the total number of listings
+     */
+    private SearchPage browseById(NavigableMap<Integer, Document> documents, long from, int limit) {
+        List<Integer> pageIds = new ArrayList<>();
+        long position = 0;
+        for (Integer id : documents.keySet()) {
+            if (pageIds.size() == limit) break;
+            if (position++ >= from) {
+                pageIds.add(id);
+            }
+        }
+        return new SearchPage(pageIds, state.documents.size());
+    }
+
+    /**
+     * Gets the documents matching a marketplace search. Must be called while holding the read lock.
+     *
+     * @param dto         DTO containing the fields to match and price range
+     * @param query       parsed search query
+     * @param closesLower the earliest closing date to match, or null
+     * @param closesUpper the latest closing date to match, or null
+     * @return the matching documents, in no particular order
+     */
+    private List<Document> getMatches(SearchSaleListingsDTO dto, SearchQuery query,
+                                      LocalDateTime closesLower, LocalDateTime closesUpper) {
+        Collection<Document> candidates;
+        Set<Field> fields = getFields(dto);
+        if (fields.isEmpty()) {
+            candidates = state.documents.values();
+        } else {
+            Set<Integer> ids = new HashSet<>();
+            for (Field field : fields) {
+                ids.addAll(state.fields.get(field).match(query));
+            }
+            candidates = new ArrayList<>();
+            for (Integer id : ids) {
+                candidates.add(state.documents.get(id));
+            }
+        }
+
+        List<Document> matches = new ArrayList<>();
+        for (Document document : candidates) {
+            if (document.inRange(dto.getPriceRangeLower(), dto.getPriceRangeUpper(), closesLower, closesUpper)) {
+                matches.add(document);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Loads the search documents of all listings with an id greater than the one given, in chunks.
+     *
+     * @param afterId only listings with a greater id than this are loaded
+     * @return the loaded documents
+     */
+    private List<Document> loadDocuments(int afterId) {
+        List<Document> documents = new ArrayList<>();
+        List<List<Object>> rows;
+        do {
+            rows = saleListingRepository.findSearchDocuments(afterId, PageRequest.of(0, LOAD_CHUNK_SIZE));
+            for (List<Object> row : rows) {
+                var document = Document.of(row);
+                documents.add(document);
+                afterId = document.id;
+            }
+        } while (rows.size() == LOAD_CHUNK_SIZE);
+        return documents;
+    }
+
+    /**
+     * Gets the fields a search should match against.
+     *
+     * @param dto DTO containing which fields to match
+     * @return set of fields to match
+     */
+    private static Set<Field> getFields(SearchSaleListingsDTO dto) {
+        Set<Field> fields = EnumSet.noneOf(Field.class);
+        if (dto.isMatchProductName()) fields.add(Field.PRODUCT_NAME);
+        if (dto.isMatchBusinessName()) fields.add(Field.BUSINESS_NAME);
+        if (dto.isMatchBusinessLocation()) fields.add(Field.BUSINESS_COUNTRY);
+        if (dto.isMatchBusinessType()) fields.add(Field.BUSINESS_TYPE);
+        return fields;
+    }
+
+    /**
+     * Gets the comparator used to order search results, matching the sorts available in the database search.
+     * Listings with equal sort values are ordered by id.
+     *
+     * @param sortBy String query to sort by
+     * @return comparator of search documents
+     */
+    private static Comparator<Document> getComparator(String sortBy) {
+        Comparator<Document> comparator;
+        switch (sortBy) {
+            case "priceAsc":
+                comparator = ascending(document -> document.price);
+                break;
+            case "priceDesc":
+                comparator = ascending((Document document) -> document.price).reversed();
+                break;
+            case "productName":
+                comparator = ascending(document -> document.values.get(Field.PRODUCT_NAME));
+                break;
+            case "country":
+                comparator = ascending(document -> document.values.get(Field.BUSINESS_COUNTRY));
+                break;
+            case "city":
+                comparator = ascending(document -> document.city);
+                break;
+            case "expiryDateAsc":
+                comparator = ascending(document -> document.expires);
+                break;
+            case "expiryDateDesc":
+                comparator = ascending((Document document) -> document.expires).reversed();
+                break;
+            case "seller":
+                comparator = ascending(document -> document.values.get(Field.BUSINESS_NAME));
+                break;
+            default:
+                return ID_ORDER;
+        }
+        return comparator.thenComparing(ID_ORDER);
+    }
+
+    /**
+     * Creates a comparator ordering documents by a key, with null keys first as in the database.
+     *
+     * @param key function getting the key from a document
+     * @param <T> type of the key
+     * @return comparator of search documents
+     */
+    private static <T extends Comparable<T>> Comparator<Document> ascending(Function<Document, T> key) {
+        return Comparator.comparing(key, Comparator.nullsFirst(Comparator.naturalOrder()));
+    }
+
+    /**
+     * Gets the ids of a page of search results.
+     * Only the listings up to the end of the page are kept in order, rather than sorting every match.
+     *
+     * @param matches    all documents matching the search
+     * @param comparator order of the results
+     * @param pageNumber the page number to get
+     * @param pageSize   number of listings in a page
+     * @return ids of the listings in the page, in order
+     */
+    private static List<Integer> getPage(List<Document> matches, Comparator<Document> comparator,
+                                         int pageNumber, int pageSize) {
+        if (pageNumber < 0) {
+            throw new IllegalArgumentException("Page index must not be less than zero!");
+        }
+        long from = (long) pageNumber * pageSize;
+        if (from >= matches.size()) return new ArrayList<>();
+        var to = (int) Math.min(from + pageSize, matches.size());
+
+        PriorityQueue<Document> top = new PriorityQueue<>(to + 1, comparator.reversed());
+        for (Document document : matches) {
+            top.add(document);
+            if (top.size() > to) {
+                top.poll();
+            }
+        }
+        List<Document> sorted = new ArrayList<>(top);
+        sorted.sort(comparator);
+
+        List<Integer> pageIds = new ArrayList<>();
+        for (Document document : sorted.subList((int) from, to)) {
+            pageIds.add(document.id);
+        }
+        return pageIds;
+    }
+
+    /**
+     * A page of search results.
+     */
+    @Data
+    @AllArgsConstructor
+    public static class SearchPage {
+        private List<Integer> listingIds;
+        private long totalCount;
+    }
+
+    /**
+     * The indexed data of a single sale listing. Searchable values are stored in lower case,
+     * and the business type and country are also kept as they are for facet counts.
+     */
+    private static final class Document {
+        private final int id;
+        private final Map<Field, String> values = new EnumMap<>(Field.class);
+        private final String businessType;
+        private final String country;
+        private final String city;
+        private final String expires;
+        private final Double price;
+        private final LocalDateTime closes;
+
+        private Document(int id, String productName, String businessName, String businessType, String country,
+                         String city, Double price, LocalDateTime closes, String expires) {
+            this.id = id;
+            putValue(Field.PRODUCT_NAME, productName);
+            putValue(Field.BUSINESS_NAME, businessName);
+            putValue(Field.BUSINESS_TYPE, businessType);
+            putValue(Field.BUSINESS_COUNTRY, country);
+            this.businessType = businessType;
+            this.country = country;
+            this.city = city == null ? null : city.toLowerCase();
+            this.price = price;
+            this.closes = closes;
+            this.expires = expires;
+        }
+
+        /**
+         * Creates a document from a row returned by the repository's search document queries.
+         */
+        private static Document of(List<Object> row) {
+            return new Document((Integer) row.get(0), (String) row.get(1), (String) row.get(2),
+                    (String) row.get(3), (String) row.get(4), (String) row.get(5),
+                    (Double) row.get(6), (LocalDateTime) row.get(7), (String) row.get(8));
+        }
+
+        /**
+         * Creates a document holding only the sort value and id of a cursor, to compare other documents to.
+         */
+        private static Document of(SaleListingCursor cursor) {
+            String sortBy = cursor.getSortBy();
+            String key = cursor.getKey();
+            return new Document(cursor.getId(), "productName".equals(sortBy) ? key : null,
+                    "seller".equals(sortBy) ? key : null, null,
+                    "country".equals(sortBy) ? key : null, "city".equals(sortBy) ? key : null,
+                    cursor.getPrice(), null, sortBy.startsWith("expiryDate") ? key : null);
+        }
+
+        /**
+         * Creates a document from a sale listing entity.
+         */
+        private static Document of(SaleListing listing) {
+            Business business = listing.getBusiness();
+            Address address = business.getAddress();
+            return new Document(listing.getId(), listing.getInventoryItem().getProduct().getName(),
+                    business.getName(), business.getBusinessType(),
+                    address == null ? null : address.getCountry(), address == null ? null : address.getCity(),
+                    listing.getPrice(), listing.getCloses(), listing.getInventoryItem().getExpires());
+        }
+
+        private void putValue(Field field, String value) {
+            if (value != null) {
+                values.put(field, value.toLowerCase());
+            }
+        }
+
+        /**
+         * Checks the listing is within a price and closing date range, with null bounds ignored.
+         */
+        private boolean inRange(Double priceLower, Double priceUpper, LocalDateTime closesLower, LocalDateTime closesUpper) {
+            if (priceLower != null && (price == null || price < priceLower)) return false;
+            if (priceUpper != null && (price == null || price > priceUpper)) return false;
+            if (closesLower != null && (closes == null || closes.isBefore(closesLower))) return false;
+            return closesUpper == null || (closes != null && !closes.isAfter(closesUpper));
+        }
+    }
+
+    /**
+     * The documents and per-field indexes making up the index.
+     */
+    private static final class IndexState {
+        // Kept in id order, so unfiltered browses can be paged without reading every document
+        private final NavigableMap<Integer, Document> documents = new TreeMap<>();
+        private final Map<Field, FieldIndex> fields = new EnumMap<>(Field.class);
+
+        private IndexState() {
+            for (Field field : Field.values()) {
+                fields.put(field, new FieldIndex());
+            }
+        }
+
+        private void add(Document document) {
+            remove(document.id);
+            documents.put(document.id, document);
+            for (Map.Entry<Field, String> value : document.values.entrySet()) {
+                fields.get(value.getKey()).add(document.id, value.getValue());
+            }
+        }
+
+        private void remove(Integer id) {
+            var document = documents.remove(id);
+            if (document != null) {
+                for (Map.Entry<Field, String> value : document.values.entrySet()) {
+                    fields.get(value.getKey()).remove(document.id, value.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Inverted index of a single field.
+     * Maps each whitespace separated token to the listings containing it, each trigram to the tokens containing it
+     * (so tokens containing a search term can be found without checking every token),
+     * and each whole value to the listings with that value (for quoted searches).
+     */
+    private static final class FieldIndex {
+        private final Map<String, Set<Integer>> postings = new HashMap<>();
+        private final Map<String, Set<String>> grams = new HashMap<>();
+        private final Map<String, Set<Integer>> values = new HashMap<>();
+        private final Set<Integer> present = new HashSet<>();
+
+        private void add(int id, String value) {
+            present.add(id);
+            values.computeIfAbsent(value, key -> new HashSet<>()).add(id);
+            for (String token : tokenize(value)) {
+                Set<Integer> posting = postings.get(token);
+                if (posting == null) {
+                    posting = new HashSet<>();
+                    postings.put(token, posting);
+                    for (String gram : getGrams(token)) {
+                        grams.computeIfAbsent(gram, key -> new HashSet<>()).add(token);
+                    }
+                }
+                posting.add(id);
+            }
+        }
+
+        private void remove(int id, String value) {
+            present.remove(id);
+            removeId(values, value, id);
+            for (String token : tokenize(value)) {
+                if (removeId(postings, token, id)) {
+                    for (String gram : getGrams(token)) {
+                        Set<String> tokens = grams.get(gram);
+                        if (tokens != null) {
+                            tokens.remove(token);
+                            if (tokens.isEmpty()) grams.remove(gram);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Removes an id from a set in a map, removing the set if it becomes empty.
+         *
+         * @return true if the set was removed
+         */
+        private static boolean removeId(Map<String, Set<Integer>> map, String key, int id) {
+            Set<Integer> ids = map.get(key);
+            if (ids == null) return false;
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                map.remove(key);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Finds the listings matching a query of ORed conjunctions of ANDed terms.
+         */
+        private Set<Integer> match(SearchQuery query) {
+            Set<Integer> result = new HashSet<>();
+            for (List<SearchTerm> conjunction : query.getConjunctions()) {
+                Set<Integer> conjunctionIds = null;
+                for (SearchTerm term : conjunction) {
+                    if (conjunctionIds == null) {
+                        conjunctionIds = new HashSet<>(matchTerm(term));
+                    } else {
+                        conjunctionIds.retainAll(matchTerm(term));
+                    }
+                    if (conjunctionIds.isEmpty()) break;
+                }
+                if (conjunctionIds == null) {
+                    // A conjunction without any terms matches everything
+                    conjunctionIds = present;
+                }
+                result.addAll(conjunctionIds);
+            }
+            return result;
+        }
+
+        /**
+         * Finds the listings matching a single term.
+         * A quoted term must equal the whole value, otherwise the term can appear anywhere in the value.
+         */
+        private Set<Integer> matchTerm(SearchTerm searchTerm) {
+            String term = searchTerm.getText();
+            if (searchTerm.isQuoted()) {
+                return values.getOrDefault(term, Collections.emptySet());
+            }
+            if (term.isEmpty()) {
+                return present;
+            }
+
+            Set<Integer> ids = new HashSet<>();
+            for (String token : getCandidateTokens(term)) {
+                if (token.contains(term)) {
+                    ids.addAll(postings.get(token));
+                }
+            }
+            return ids;
+        }
+
+        /**
+         * Gets tokens that could contain a term, using the smallest set of tokens sharing a trigram with it.
+         */
+        private Set<String> getCandidateTokens(String term) {
+            if (term.length() < GRAM_LENGTH) {
+                return postings.keySet();
+            }
+            Set<String> smallest = null;
+            for (String gram : getGrams(term)) {
+                Set<String> tokens = grams.get(gram);
+                if (tokens == null) return Collections.emptySet();
+                if (smallest == null || tokens.size() < smallest.size()) {
+                    smallest = tokens;
+                }
+            }
+            return smallest;
+        }
+
+        private static Set<String> tokenize(String value) {
+            Set<String> tokens = new HashSet<>();
+            for (String token : value.split("\\s+")) {
+                if (!token.isEmpty()) {
+                    tokens.add(token);
+                }
+            }
+            return tokens;
+        }
+
+        private static Set<String> getGrams(String token) {
+            Set<String> tokenGrams = new HashSet<>();
+            for (var i = 0; i + GRAM_LENGTH <= token.length(); i++) {
+                tokenGrams.add(token.substring(i, i + GRAM_LENGTH));
+            }
+            return tokenGrams;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.seng302.project.service_layer.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import net.minidev.json.JSONObject;
+import org.seng302.project.repository_layer.model.enums.ReportGranularity;
+import org.seng302.project.service_layer.dto.sales_report.GetSaleDTO;
+import org.seng302.project.service_layer.dto.sales_report.GetSalesReportDTO;
+import org.seng302.project.service_layer.service.EntityCacheService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Cache of the periods of sales reports which have closed, so the same past periods are not recomputed
+ * every time a business' report is opened.
+ * A closed period can't gain or lose sales, so its totals and the ids of its sales are kept until they are evicted
+ * for space or expire. The sales themselves are loaded fresh for each report, as they show the current details of
+ * the business and the reviews. Only the review totals of a closed period can change, so leaving a review
+ * invalidates the periods holding the reviewed sale, and rebuilding the sales rollups clears the cache.
+ * The cache is local to each node, so invalidations are recorded through the {@link EntityCacheService} for the
+ * other nodes to apply. The time to live bounds how long a period stays stale if a node misses one.
+ * <p>
+ * Periods which haven't closed yet are never cached.
+ */
+@Component
+public class SalesReportCache {
+
+    private static final int CACHE_SIZE = 10000;
+    private static final Duration TIME_TO_LIVE = Duration.ofHours(1);
+    private static final String REMOTE_CHANGE_PREFIX = "SalesReportCache:";
+
+    private final EntityCacheService entityCacheService;
+    private final Clock clock;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final Map<List<Object>, CachedPeriod> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedPeriod> eldest) {
+                    if (size() > CACHE_SIZE) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            });
+
+    @Autowired
+    public SalesReportCache(EntityCacheService entityCacheService) {
+        this(entityCacheService, Clock.systemUTC());
+    }
+
+    SalesReportCache(EntityCacheService entityCacheService, Clock clock) {
+        this.entityCacheService = entityCacheService;
+        this.clock = clock;
+        entityCacheService.addRemoteChangeHandler(REMOTE_CHANGE_PREFIX, this::applyRemoteChange);
+    }
+
+    private static List<Object> getKey(Integer businessId, ReportGranularity granularity,
+                                       LocalDate periodStart, LocalDate periodEnd) {
+        return List.of(businessId, granularity, periodStart, periodEnd);
+    }
+
+    /**
+     * Gets a cached period of a business' sales report.
+     * A period cached from a report without its sales only has its totals, so counts as a miss if the sales
+     * are wanted. An expired period is evicted and counts as a miss.
+     *
+     * @param businessId   id of the business the report is for
+     * @param granularity  granularity of the report
+     * @param periodStart  first day of the period
+     * @param periodEnd    last day of the period
+     * @param includeSales whether the report includes the sales in each period
+     * @return the cached period, or null if there isn't one
+     */
+    public CachedPeriod get(Integer businessId, ReportGranularity granularity, LocalDate periodStart,
+                            LocalDate periodEnd, boolean includeSales) {
+        var key = getKey(businessId, granularity, periodStart, periodEnd);
+        var cached = cache.get(key);
+        if (cached != null && !clock.instant().isBefore(cached.getExpires())) {
+            if (cache.remove(key, cached)) {
+                evictions.incrementAndGet();
+            }
+            cached = null;
+        }
+        if (cached == null || (includeSales && cached.getSaleIds() == null)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached;
+    }
+
+    /**
+     * Caches a closed period of a business' sales report. The generation should be read with getGeneration
+     * before the period is computed, so a period which may have missed a review left meanwhile is never cached.
+     *
+     * @param businessId   id of the business the report is for
+     * @param granularity  granularity of the report
+     * @param period       the computed period
+     * @param includeSales whether the period was computed with its sales, so their ids can be kept
+     * @param generation   generation read before computing the period
+     */
+    public void put(Integer businessId, ReportGranularity granularity, GetSalesReportDTO period,
+                    boolean includeSales, long generation) {
+        List<Integer> saleIds = includeSales
+                ? period.getSales().stream().map(GetSaleDTO::getId).collect(Collectors.toUnmodifiableList())
+                : null;
+        var cached = new CachedPeriod(period.getPurchaseCount(), period.getTotalPurchaseValue(),
+                period.getTotalQuantity(), period.getReviewCount(), period.getRatingTotal(), saleIds,
+                clock.instant().plus(TIME_TO_LIVE));
+        synchronized (cache) {
+            if (generation == getGeneration()) {
+                cache.put(getKey(businessId, granularity, period.getPeriodStart(), period.getPeriodEnd()), cached);
+            }
+        }
+    }
+
+    /**
+     * Gets the current generation, which changes every time periods are invalidated.
+     *
+     * @return the current generation
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Invalidates the cached periods of a business' reports which include a day, as a review has been left
+     * on or changed for a sale made that day.
+     * If called in a transaction the periods are invalidated again once it commits, so a period computed
+     * before the review could be seen isn't left in the cache. The other nodes invalidate the periods once
+     * they read the record of the invalidation, which is written in the same transaction.
+     *
+     * @param businessId id of the business that was reviewed
+     * @param day        the day the reviewed sale was made
+     */
+    public void invalidate(Integer businessId, LocalDate day) {
+        entityCacheService.recordCacheChange(REMOTE_CHANGE_PREFIX + businessId + ":" + day);
+        removePeriods(businessId, day);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    removePeriods(businessId, day);
+                }
+            });
+        }
+    }
+
+    private void removePeriods(Integer businessId, LocalDate day) {
+        synchronized (cache) {
+            generation.incrementAndGet();
+            // The key is the business, granularity, period start and period end
+            cache.keySet().removeIf(key -> {
+                boolean affected = businessId.equals(key.get(0)) && !day.isBefore((LocalDate) key.get(2))
+                        && !day.isAfter((LocalDate) key.get(3));
+                if (affected) {
+                    invalidations.incrementAndGet();
+                }
+                return affected;
+            });
+        }
+    }
+
+    /**
+     * Removes every cached period, used when the sales rollups the totals come from are rebuilt.
+     * The other nodes remove their periods once they read the record of the clear.
+     */
+    public void clear() {
+        entityCacheService.recordCacheChange(REMOTE_CHANGE_PREFIX);
+        removeAllPeriods();
+    }
+
+    /**
+     * Applies an invalidation made on another node, which is either a business id and day or empty
+     * if the cache was cleared.
+     *
+     * @param change the invalidation, without the prefix it was recorded with
+     */
+    private void applyRemoteChange(String change) {
+        if (change.isEmpty()) {
+            removeAllPeriods();
+            return;
+        }
+        String[] parts = change.split(":");
+        removePeriods(Integer.valueOf(parts[0]), LocalDate.parse(parts[1]));
+    }
+
+    private void removeAllPeriods() {
+        synchronized (cache) {
+            generation.incrementAndGet();
+            invalidations.addAndGet(cache.size());
+            cache.clear();
+        }
+    }
+
+    /**
+     * Gets the cache metrics: the number of hits, misses, evictions (periods removed for space or expired) and
+     * invalidations (periods removed because of a review) since startup, the hit rate, and the number
+     * of cached periods.
+     *
+     * @return JSONObject with the cache metrics
+     */
+    public JSONObject getStatistics() {
+        var statistics = new JSONObject();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        statistics.put("hits", hitCount);
+        statistics.put("misses", missCount);
+        statistics.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        statistics.put("evictions", evictions.get());
+        statistics.put("invalidations", invalidations.get());
+        statistics.put("size", cache.size());
+        return statistics;
+    }
+
+    /**
+     * The totals of a cached period, and the ids of its sales in the order they were made if the period
+     * was computed with them, along with when the period expires.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class CachedPeriod {
+        private final int purchaseCount;
+        private final double totalPurchaseValue;
+        private final long totalQuantity;
+        private final int reviewCount;
+        private final long ratingTotal;
+        private final List<Integer> saleIds;
+        private final Instant expires;
+    }
+}
@@ -0,0 +1,180 @@
+package org.seng302.project.service_layer.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.seng302.project.repository_layer.repository.SpecificationQueryRepository;
+import org.seng302.project.service_layer.dto.search.TotalCountDTO;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Gets pages of search results, counting the total number of results with a chosen CountMode.
+ * <p>
+ * Cached counts are stored per namespace (the kind of entity searched) and search key, which should hold
+ * everything that affects the results other than the page and sort. A cached count is reused until it is
+ * older than the time to live, or until the namespace is invalidated by a write to the searched entities.
+ */
+@Component
+public class SearchCounter {
+
+    public static final String LISTINGS = "listings";
+    public static final String BUSINESSES = "businesses";
+    public static final String USERS = "users";
+    public static final String CARDS = "cards";
+    public static final String PURCHASES = "purchases";
+
+    /**
+     * Estimated counts stop counting at this many results.
+     */
+    public static final int ESTIMATE_LIMIT = 1000;
+    private static final long TIME_TO_LIVE = 120000;
+    private static final int CACHE_SIZE = 10000;
+
+    private final SpecificationQueryRepository specificationQueryRepository;
+
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final Map<List<Object>, CachedCount> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedCount> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    public SearchCounter(SpecificationQueryRepository specificationQueryRepository) {
+        this.specificationQueryRepository = specificationQueryRepository;
+    }
+
+    /**
+     * Gets a page of the entities matching a specification, along with the total number of matches.
+     *
+     * @param mode       how to count the total number of matches
+     * @param namespace  kind of entity searched, used to invalidate cached counts
+     * @param key        search key for cached counts, made up of everything except the page and sort
+     * @param repository repository of the entities
+     * @param type       type of the entities
+     * @param spec       specification the entities must match
+     * @param pageable   page to get
+     * @param <T>        type of the entities
+     * @return the page of entities and the total count
+     */
+    public <T> CountedPage<T> findPage(CountMode mode, String namespace, List<Object> key,
+                                       JpaSpecificationExecutor<T> repository, Class<T> type,
+                                       Specification<T> spec, Pageable pageable) {
+        if (mode == CountMode.ESTIMATED) {
+            List<T> content = specificationQueryRepository.findPage(type, spec, pageable);
+            long shown = pageable.getOffset() + content.size();
+            // A partial page means the count is already known exactly
+            if (content.size() < pageable.getPageSize() && (!content.isEmpty() || pageable.getOffset() == 0)) {
+                return new CountedPage<>(content, new TotalCountDTO(shown, mode.toString(), false));
+            }
+            long counted = specificationQueryRepository.countUpTo(type, spec, ESTIMATE_LIMIT + 1);
+            if (counted > ESTIMATE_LIMIT) {
+                return new CountedPage<>(content,
+                        new TotalCountDTO(Math.max(ESTIMATE_LIMIT, shown), mode.toString(), true));
+            }
+            return new CountedPage<>(content, new TotalCountDTO(counted, mode.toString(), false));
+        }
+
+        if (mode == CountMode.CACHED) {
+            Long cached = getCachedCount(namespace, key);
+            if (cached != null) {
+                List<T> content = specificationQueryRepository.findPage(type, spec, pageable);
+                return new CountedPage<>(content, new TotalCountDTO(cached, mode.toString(), false));
+            }
+        }
+
+        long generation = getGeneration(namespace);
+        Page<T> page = repository.findAll(spec, pageable);
+        putCount(namespace, key, generation, page.getTotalElements());
+        return new CountedPage<>(page.getContent(), new TotalCountDTO(page.getTotalElements(), mode.toString(), false));
+    }
+
+    /**
+     * Gets a count from the cache, or counts and caches it if there is no valid cached count.
+     *
+     * @param namespace kind of entity counted, used to invalidate cached counts
+     * @param key       key of the count
+     * @param counter   counts the entities exactly
+     * @return the count
+     */
+    public long getCount(String namespace, List<Object> key, LongSupplier counter) {
+        Long cached = getCachedCount(namespace, key);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = getGeneration(namespace);
+        long count = counter.getAsLong();
+        putCount(namespace, key, generation, count);
+        return count;
+    }
+
+    /**
+     * Invalidates all cached counts of a namespace.
+     * Should be called whenever entities of the namespace are created, deleted or changed.
+     *
+     * @param namespace the namespace to invalidate
+     */
+    public void invalidate(String namespace) {
+        generations.computeIfAbsent(namespace, name -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Gets a cached count if it is still valid.
+     */
+    private Long getCachedCount(String namespace, List<Object> key) {
+        var cached = cache.get(Arrays.asList(namespace, key));
+        if (cached == null
+                || cached.getGeneration() != getGeneration(namespace)
+                || System.currentTimeMillis() - cached.getCreated() > TIME_TO_LIVE) {
+            return null;
+        }
+        return cached.getCount();
+    }
+
+    /**
+     * Caches a count. The generation should be read before counting,
+     * so a write made while counting invalidates the count straight away.
+     */
+    private void putCount(String namespace, List<Object> key, long generation, long count) {
+        cache.put(Arrays.asList(namespace, key), new CachedCount(count, generation, System.currentTimeMillis()));
+    }
+
+    /**
+     * Gets the current generation of a namespace, which changes every time the namespace is invalidated.
+     *
+     * @param namespace the namespace
+     * @return the current generation
+     */
+    public long getGeneration(String namespace) {
+        return generations.computeIfAbsent(namespace, name -> new AtomicLong()).get();
+    }
+
+    /**
+     * A page of search results with the total count.
+     *
+     * @param <T> type of the results
+     */
+    @Data
+    @AllArgsConstructor
+    public static class CountedPage<T> {
+        private List<T> content;
+        private TotalCountDTO totalCount;
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class CachedCount {
+        private long count;
+        private long generation;
+        private long created;
+    }
+}
@@ -0,0 +1,54 @@
+package org.seng302.project.service_layer.util;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parsed form of a search query, created by SearchQueryParser.
+ * A query is a list of conjunctions which are ORed together, each made up of terms which are ANDed together.
+ * Instances are immutable, so parsed queries can be shared between requests.
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public final class SearchQuery {
+
+    /**
+     * The conjunctions of the query, each an unmodifiable list of terms.
+     */
+    private final List<List<SearchTerm>> conjunctions;
+
+    SearchQuery(List<List<SearchTerm>> conjunctions) {
+        List<List<SearchTerm>> copy = new ArrayList<>();
+        for (List<SearchTerm> conjunction : conjunctions) {
+            copy.add(List.copyOf(conjunction));
+        }
+        this.conjunctions = Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * A single term of a search query.
+     * Quoted terms should match a whole field, other terms can match part of a field.
+     */
+    @Getter
+    @EqualsAndHashCode
+    @ToString
+    public static final class SearchTerm {
+
+        /**
+         * Text of the term, with any quotes removed.
+         */
+        private final String text;
+        private final boolean quoted;
+
+        SearchTerm(String text, boolean quoted) {
+            this.text = text;
+            this.quoted = quoted;
+        }
+    }
+}
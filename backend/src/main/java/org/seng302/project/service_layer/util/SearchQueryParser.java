@@ -0,0 +1,156 @@
+package org.seng302.project.service_layer.util;
+
+import org.seng302.project.service_layer.util.SearchQuery.SearchTerm;
+
+import java.util.*;
+
+/**
+ * Parses search queries into SearchQuery objects, which the search services turn into specifications.
+ * Queries are split into conjunctions on " or ", then into terms on " and " and whitespace,
+ * ignoring separators inside quotes. A term surrounded by quotes is a quoted term.
+ * <p>
+ * This gives the same result as splitting with the lookahead regexes the services used before,
+ * but in a single pass rather than rescanning the rest of the query at every possible separator.
+ * Parsed queries are immutable, so recently parsed queries are kept in a bounded LRU cache.
+ */
+public final class SearchQueryParser {
+
+    private static final int CACHE_SIZE = 512;
+    private static final int MAX_CACHED_QUERY_LENGTH = 1000;
+    private static final String OR_SEPARATOR = " or ";
+    private static final String AND_SEPARATOR = " and ";
+
+    private static final Map<String, SearchQuery> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SearchQuery> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    /**
+     * Private SearchQueryParser constructor to hide the implicit one
+     * SonarLint recommendation
+     */
+    private SearchQueryParser() {
+        throw new IllegalStateException("SearchQueryParser is a utility class and should not be instantiated");
+    }
+
+    /**
+     * Parses a search query, using the cached result if the same query was parsed recently.
+     * Queries are case insensitive, so the query is converted to lowercase first.
+     *
+     * @param query the search query
+     * @return the parsed query
+     */
+    public static SearchQuery parse(String query) {
+        String normalised = query.toLowerCase();
+        if (normalised.length() > MAX_CACHED_QUERY_LENGTH) {
+            return compile(normalised);
+        }
+
+        var parsed = cache.get(normalised);
+        if (parsed == null) {
+            parsed = compile(normalised);
+            cache.put(normalised, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses a search query without using the cache. The query is not converted to lowercase.
+     *
+     * @param query the search query
+     * @return the parsed query
+     */
+    static SearchQuery compile(String query) {
+        List<List<SearchTerm>> conjunctions = new ArrayList<>();
+        for (String conjunction : split(query, OR_SEPARATOR, false)) {
+            List<SearchTerm> terms = new ArrayList<>();
+            for (String term : split(conjunction, AND_SEPARATOR, true)) {
+                if (isQuoted(term)) {
+                    terms.add(new SearchTerm(term.replace("\"", ""), true));
+                } else {
+                    terms.add(new SearchTerm(term, false));
+                }
+            }
+            conjunctions.add(terms);
+        }
+        return new SearchQuery(conjunctions);
+    }
+
+    /**
+     * Splits a string on a separator (and optionally whitespace characters) which is not inside quotes.
+     * A separator is outside quotes if there are an even number of quote characters after it.
+     * Matches String.split, so when a separator is found empty trailing parts are dropped.
+     *
+     * @param value             string to split
+     * @param separator         separator to split on
+     * @param splitOnWhitespace whether to also split on single whitespace characters
+     * @return the parts of the string
+     */
+    private static List<String> split(String value, String separator, boolean splitOnWhitespace) {
+        // evenQuotesAfter[i] is whether there are an even number of quotes from index i to the end
+        var evenQuotesAfter = new boolean[value.length() + 1];
+        evenQuotesAfter[value.length()] = true;
+        for (int i = value.length() - 1; i >= 0; i--) {
+            evenQuotesAfter[i] = evenQuotesAfter[i + 1] ^ (value.charAt(i) == '"');
+        }
+
+        List<String> parts = new ArrayList<>();
+        var start = 0;
+        var i = 0;
+        while (i < value.length()) {
+            var length = 0;
+            if (value.startsWith(separator, i) && evenQuotesAfter[i + separator.length()]) {
+                length = separator.length();
+            } else if (splitOnWhitespace && isWhitespace(value.charAt(i)) && evenQuotesAfter[i + 1]) {
+                length = 1;
+            }
+
+            if (length > 0) {
+                parts.add(value.substring(start, i));
+                i += length;
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        if (parts.isEmpty()) {
+            return List.of(value);
+        }
+        parts.add(value.substring(start));
+
+        var size = parts.size();
+        while (size > 0 && parts.get(size - 1).isEmpty()) {
+            size--;
+        }
+        return parts.subList(0, size);
+    }
+
+    /**
+     * Checks if a character is whitespace, using the same characters as \s in a regex.
+     */
+    private static boolean isWhitespace(char character) {
+        return character == ' ' || character == '\t' || character == '\n'
+                || character == '\u000B' || character == '\f' || character == '\r';
+    }
+
+    /**
+     * Checks if a term is surrounded by quotes, matching the regex ^".*"$
+     * (so a term containing a line break is not quoted).
+     */
+    private static boolean isQuoted(String term) {
+        if (term.length() < 2 || term.charAt(0) != '"' || term.charAt(term.length() - 1) != '"') {
+            return false;
+        }
+        for (var i = 1; i < term.length() - 1; i++) {
+            char character = term.charAt(i);
+            if (character == '\n' || character == '\r' || character == '\u0085'
+                    || character == '\u2028' || character == '\u2029') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
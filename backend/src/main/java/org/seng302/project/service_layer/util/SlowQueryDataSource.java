@@ -0,0 +1,226 @@
+package org.seng302.project.service_layer.util;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Data source which times every statement run through it, and logs the ones over the threshold
+ * in the {@link SlowQueryLog}.
+ * Statements under the threshold only cost the timing and the keeping of their parameters, the rows of a
+ * slow select are counted as they are read and it is logged once its result set is finished with.
+ */
+public class SlowQueryDataSource extends DelegatingDataSource {
+
+    private static final Set<String> EXECUTE_METHODS = Set.of(
+            "execute", "executeQuery", "executeUpdate", "executeLargeUpdate", "executeBatch", "executeLargeBatch");
+
+    private final SlowQueryLog slowQueryLog;
+
+    public SlowQueryDataSource(DataSource targetDataSource, SlowQueryLog slowQueryLog) {
+        super(targetDataSource);
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return proxyConnection(getTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return proxyConnection(getTargetDataSource().getConnection(username, password));
+    }
+
+    private Connection proxyConnection(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                new ConnectionHandler(connection));
+    }
+
+    /**
+     * Calls a method on the object being proxied, throwing what it throws rather than the reflection exception.
+     */
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException exception) {
+            throw exception.getCause();
+        }
+    }
+
+    /**
+     * Handler for connections, which proxies the statements they create.
+     */
+    private class ConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+
+        ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = SlowQueryDataSource.invoke(connection, method, args);
+            if (result instanceof Statement) {
+                // Prepared and callable statements get their SQL when created, plain statements when run
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+                        : result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{type},
+                        new StatementHandler((Statement) result, sql));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Handler for statements, which keeps their parameters and times them when they are run.
+     */
+    private class StatementHandler implements InvocationHandler {
+
+        private final Statement statement;
+        private final String preparedSql;
+        private final List<Object> parameters = new ArrayList<>();
+        private SlowSelect openSelect;
+
+        StatementHandler(Statement statement, String preparedSql) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                bindParameter((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            } else if (name.equals("close")) {
+                finishSelect();
+            } else if (EXECUTE_METHODS.contains(name)) {
+                return execute(method, args);
+            }
+            return SlowQueryDataSource.invoke(statement, method, args);
+        }
+
+        private void bindParameter(int index, Object value) {
+            while (parameters.size() < index) {
+                parameters.add(null);
+            }
+            parameters.set(index - 1, value instanceof byte[] ? "<binary>" : value);
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            finishSelect();
+            boolean prepared = args == null || args.length == 0 || !(args[0] instanceof String);
+            String sql = prepared ? preparedSql : (String) args[0];
+            long start = System.nanoTime();
+            Object result = SlowQueryDataSource.invoke(statement, method, args);
+            long elapsed = System.nanoTime() - start;
+            if (!slowQueryLog.isSlow(elapsed)) {
+                return result;
+            }
+
+            List<Object> boundParameters = prepared ? parameters : Collections.<Object>emptyList();
+            if (result instanceof ResultSet) {
+                // Count the rows as they are read, and log the select when the result set is finished with
+                openSelect = new SlowSelect(sql, new ArrayList<>(boundParameters), elapsed);
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet.class},
+                        new ResultSetHandler((ResultSet) result, openSelect));
+            }
+            slowQueryLog.record(sql, boundParameters, getRowsChanged(result), elapsed, getTargetDataSource());
+            return result;
+        }
+
+        /**
+         * Gets the number of rows an update changed from what running it returned.
+         */
+        private Long getRowsChanged(Object result) throws SQLException {
+            if (result instanceof Number) {
+                return ((Number) result).longValue();
+            } else if (result instanceof int[]) {
+                long rows = 0;
+                for (int count : (int[]) result) rows += Math.max(count, 0);
+                return rows;
+            } else if (result instanceof long[]) {
+                long rows = 0;
+                for (long count : (long[]) result) rows += Math.max(count, 0);
+                return rows;
+            } else if (Boolean.FALSE.equals(result)) {
+                return (long) statement.getUpdateCount();
+            }
+            return null;
+        }
+
+        private void finishSelect() {
+            if (openSelect != null) {
+                openSelect.finish();
+                openSelect = null;
+            }
+        }
+    }
+
+    /**
+     * A slow select whose rows are being counted.
+     */
+    private class SlowSelect {
+
+        private final String sql;
+        private final List<Object> parameters;
+        private final long elapsedNanos;
+        private long rows = 0;
+        private boolean finished = false;
+
+        SlowSelect(String sql, List<Object> parameters, long elapsedNanos) {
+            this.sql = sql;
+            this.parameters = parameters;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        void finish() {
+            if (!finished) {
+                finished = true;
+                slowQueryLog.record(sql, parameters, rows, elapsedNanos, getTargetDataSource());
+            }
+        }
+    }
+
+    /**
+     * Handler for the result set of a slow select, which counts its rows.
+     */
+    private static class ResultSetHandler implements InvocationHandler {
+
+        private final ResultSet resultSet;
+        private final SlowSelect select;
+
+        ResultSetHandler(ResultSet resultSet, SlowSelect select) {
+            this.resultSet = resultSet;
+            this.select = select;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = SlowQueryDataSource.invoke(resultSet, method, args);
+            if (method.getName().equals("next")) {
+                if (Boolean.TRUE.equals(result)) {
+                    select.rows++;
+                } else {
+                    select.finish();
+                }
+            } else if (method.getName().equals("close")) {
+                select.finish();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package org.seng302.project.service_layer.util;
+
+import lombok.Data;
+import net.minidev.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Log of the SQL statements which took longer than the threshold to run, kept in memory with a fixed capacity,
+ * dropping the oldest statements first.
+ * Each entry has the SQL, its parameters, the number of rows it read or changed, how long it took and
+ * the endpoint which ran it. Parameters are only shown when the column they are bound to can be worked out and
+ * doesn't hold personal details or secrets, all other parameters are redacted.
+ * On MariaDB the plan of each slow select is also got with EXPLAIN, on a background thread so the request
+ * which ran it isn't slowed down any further.
+ * <p>
+ * Statements are timed by {@link SlowQueryDataSource}, which only calls this for statements over the threshold.
+ */
+@Component
+public class SlowQueryLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlowQueryLog.class.getName());
+    private static final String REDACTED = "<redacted>";
+    private static final int MAX_PARAMETER_LENGTH = 100;
+
+    // The column a parameter is compared with or assigned to, e.g. "user0_.email=" or "lower(name) like lower("
+    private static final Pattern PARAMETER_COLUMN = Pattern.compile(
+            "([\\w.]+)\\)*\\s*(?:=|<>|!=|<=|>=|<|>|\\blike|\\bin)\\s*(?:\\w*\\(\\s*)*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern IN_LIST_SEPARATOR = Pattern.compile(",\\s*$");
+    // The row limit and offset of a page, e.g. "limit ?" or "limit ?, ?"
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\b(?:limit|offset)\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final String LIMIT_COLUMN = "limit";
+    private static final Pattern INSERT_COLUMNS = Pattern.compile(
+            "^\\s*insert\\s+into\\s+\\S+\\s*\\(([^)]*)\\)", Pattern.CASE_INSENSITIVE);
+
+    private final long thresholdNanos;
+    private final int capacity;
+    private final Pattern redactedColumns;
+    private final Deque<SlowQuery> entries = new ArrayDeque<>();
+    private final AtomicLong recorded = new AtomicLong();
+    private final ExecutorService explainExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "slow-query-explain");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Boolean explainSupported;
+
+    @Autowired
+    public SlowQueryLog(@Value("${slowqueries.threshold-ms:500}") long thresholdMillis,
+                        @Value("${slowqueries.capacity:200}") int capacity,
+                        @Value("${slowqueries.redacted-columns:password|token|email|phone}") String redactedColumns) {
+        this.thresholdNanos = thresholdMillis * 1_000_000;
+        this.capacity = capacity;
+        this.redactedColumns = Pattern.compile(redactedColumns, Pattern.CASE_INSENSITIVE);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        explainExecutor.shutdownNow();
+    }
+
+    /**
+     * Checks whether a statement took long enough to be logged.
+     *
+     * @param elapsedNanos how long the statement took
+     * @return true if the statement is over the threshold
+     */
+    public boolean isSlow(long elapsedNanos) {
+        return elapsedNanos >= thresholdNanos;
+    }
+
+    /**
+     * Logs a slow statement, along with the endpoint being served on this thread.
+     * If it is a select, its plan is got from the given data source afterwards.
+     *
+     * @param sql          the SQL of the statement
+     * @param parameters   the parameters bound to the statement, in order
+     * @param rows         the number of rows read or changed, or null if not known
+     * @param elapsedNanos how long the statement took
+     * @param dataSource   the data source to explain the statement with, this must not log statements itself
+     */
+    public void record(String sql, List<Object> parameters, Long rows, long elapsedNanos, DataSource dataSource) {
+        var entry = new SlowQuery();
+        entry.setSql(sql);
+        entry.setParameters(redact(sql, parameters));
+        entry.setRows(rows);
+        entry.setDurationMillis(elapsedNanos / 1_000_000.0);
+        entry.setEndpoint(getEndpoint());
+        entry.setExecuted(LocalDateTime.now());
+        synchronized (entries) {
+            if (entries.size() == capacity) {
+                entries.removeLast();
+            }
+            entries.addFirst(entry);
+        }
+        recorded.incrementAndGet();
+        logger.warn("Slow query took {} ms on {}: {}", entry.getDurationMillis(), entry.getEndpoint(), sql);
+
+        if (dataSource != null && !Boolean.FALSE.equals(explainSupported) && isSelect(sql)) {
+            // Copy the parameters, as the statement may be reused with others before the plan is got
+            List<Object> boundParameters = new ArrayList<>(parameters);
+            try {
+                explainExecutor.execute(() -> explain(entry, boundParameters, dataSource));
+            } catch (RejectedExecutionException exception) {
+                logger.debug("Not explaining slow query as the application is shutting down");
+            }
+        }
+    }
+
+    /**
+     * Gets the endpoint being served on this thread, as the method and the path pattern it was mapped to.
+     *
+     * @return the endpoint, or the thread name if this thread isn't serving a request, e.g. for scheduled jobs
+     */
+    private String getEndpoint() {
+        var attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes)) {
+            return Thread.currentThread().getName();
+        }
+        var request = ((ServletRequestAttributes) attributes).getRequest();
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return request.getMethod() + " " + (pattern != null ? pattern : request.getRequestURI());
+    }
+
+    /**
+     * Turns the parameters of a statement into strings, replacing the ones bound to redacted columns
+     * and the ones whose column can't be worked out.
+     *
+     * @param sql        the SQL of the statement
+     * @param parameters the parameters bound to the statement, in order
+     * @return the parameters to show
+     */
+    public List<String> redact(String sql, List<Object> parameters) {
+        List<String> columns = getParameterColumns(sql);
+        List<String> shown = new ArrayList<>(parameters.size());
+        for (var i = 0; i < parameters.size(); i++) {
+            String column = i < columns.size() ? columns.get(i) : null;
+            if (column == null || redactedColumns.matcher(column).find()) {
+                shown.add(REDACTED);
+            } else {
+                String value = String.valueOf(parameters.get(i));
+                shown.add(value.length() > MAX_PARAMETER_LENGTH ? value.substring(0, MAX_PARAMETER_LENGTH) + "..." : value);
+            }
+        }
+        return shown;
+    }
+
+    /**
+     * Works out which column each parameter of a statement is bound to, from the SQL Hibernate generates.
+     * Parameters are matched to the insert columns in order, otherwise to the column they are compared with
+     * or assigned to. Each parameter of an in list is bound to the column of the list, and the parameters
+     * of a limit clause, such as "limit ?, ?", are given the column "limit".
+     *
+     * @param sql the SQL of the statement
+     * @return the column of each parameter without its table alias, or null where it can't be worked out
+     */
+    private List<String> getParameterColumns(String sql) {
+        List<String> columns = new ArrayList<>();
+        Matcher insert = INSERT_COLUMNS.matcher(sql);
+        if (insert.find()) {
+            for (String column : insert.group(1).split(",")) {
+                columns.add(column.trim());
+            }
+            return columns;
+        }
+
+        String lastColumn = null;
+        var start = 0;
+        for (int index = sql.indexOf('?'); index >= 0; index = sql.indexOf('?', index + 1)) {
+            String before = sql.substring(start, index);
+            Matcher column = PARAMETER_COLUMN.matcher(before);
+            if (LIMIT_CLAUSE.matcher(before).find()) {
+                lastColumn = LIMIT_COLUMN;
+            } else if (column.find()) {
+                String name = column.group(1);
+                lastColumn = name.substring(name.lastIndexOf('.') + 1);
+            } else if (!IN_LIST_SEPARATOR.matcher(before).find()) {
+                lastColumn = null;
+            }
+            columns.add(lastColumn);
+            start = index + 1;
+        }
+        return columns;
+    }
+
+    private boolean isSelect(String sql) {
+        return sql.stripLeading().regionMatches(true, 0, "select", 0, "select".length());
+    }
+
+    /**
+     * Gets the plan of a slow select with EXPLAIN, if the database is MariaDB, and adds it to its log entry.
+     */
+    private void explain(SlowQuery entry, List<Object> parameters, DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            if (explainSupported == null) {
+                String product = connection.getMetaData().getDatabaseProductName();
+                explainSupported = product.contains("MariaDB") || product.contains("MySQL");
+            }
+            if (Boolean.FALSE.equals(explainSupported)) return;
+
+            try (var statement = connection.prepareStatement("EXPLAIN " + entry.getSql())) {
+                for (var i = 0; i < parameters.size(); i++) {
+                    statement.setObject(i + 1, parameters.get(i));
+                }
+                List<String> plan = new ArrayList<>();
+                try (var resultSet = statement.executeQuery()) {
+                    var metaData = resultSet.getMetaData();
+                    while (resultSet.next()) {
+                        var row = new StringJoiner(", ");
+                        for (var column = 1; column <= metaData.getColumnCount(); column++) {
+                            row.add(metaData.getColumnLabel(column) + "=" + resultSet.getString(column));
+                        }
+                        plan.add(row.toString());
+                    }
+                }
+                entry.setPlan(plan);
+            }
+        } catch (SQLException exception) {
+            logger.warn("Could not explain slow query: {}", exception.getMessage());
+        }
+    }
+
+    /**
+     * Gets the slow query log: the threshold and capacity, the number of statements logged since startup,
+     * and the entries still kept, newest first.
+     *
+     * @return JSONObject with the slow query log
+     */
+    public JSONObject getStatistics() {
+        var statistics = new JSONObject();
+        statistics.put("thresholdMillis", thresholdNanos / 1_000_000);
+        statistics.put("capacity", capacity);
+        statistics.put("recorded", recorded.get());
+        synchronized (entries) {
+            statistics.put("queries", new ArrayList<>(entries));
+        }
+        return statistics;
+    }
+
+    /**
+     * A statement which took longer than the threshold to run.
+     */
+    @Data
+    public static class SlowQuery {
+        private String sql;
+        private List<String> parameters;
+        private Long rows;
+        private double durationMillis;
+        private String endpoint;
+        private LocalDateTime executed;
+        private volatile List<String> plan;
+    }
+}
@@ -320,6 +320,7 @@ public class TestDataRunner {
                             likedSaleListingRepository.save(likedListing);
                             value.addLikedListing(likedListing);
                             userRepository.save(value);
+                            saleListingRepository.incrementLikes(listing.getId());
                         });
 
                         var user2 = userRepository.findById(2);
@@ -328,6 +329,7 @@ public class TestDataRunner {
                             likedSaleListingRepository.save(likedListing);
                             value.addLikedListing(likedListing);
                             userRepository.save(value);
+                            saleListingRepository.incrementLikes(listing.getId());
                         });
                     } else {
                         //Test data for sales
@@ -341,6 +343,7 @@ public class TestDataRunner {
                             User user = userOptional.get();
                             Review review = new Review(sale, user, ratingNumbers.get((listing.getId()-1)%5), "Was a great product!");
                             reviewRepository.save(review);
+                            businessRepository.addReviewRating(review.getBusiness().getId(), review.getRating());
                         }
                     }
                 }
@@ -9,6 +9,7 @@ import org.seng302.project.service_layer.dto.business.PutBusinessAdminDTO;
 import org.seng302.project.service_layer.exceptions.BadRequestException;
 import org.seng302.project.service_layer.service.BusinessService;
 import org.seng302.project.service_layer.service.UserService;
+import org.seng302.project.service_layer.util.CountMode;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -124,6 +125,7 @@ public class BusinessController {
      * of businesses based on the query.
      *
      * @param searchQuery business's name, or part of their name
+     * @param countMode   how to count the total number of businesses: "exact", "cached" or "estimated"
      * @return 200 response with (potentially empty) list of businesses or
      * 400 if invalid business type provided or
      * 401 if not authenticated.
@@ -132,7 +134,9 @@ public class BusinessController {
     public List<Object> searchBusiness(@RequestParam("searchQuery") String searchQuery,
                                          @RequestParam(name = "businessType", required = false)
                                                  String businessTypeParam, @RequestParam("pageNumber") Integer pageNumber,
-                                         @RequestParam("sortBy") String sortBy){
+                                         @RequestParam("sortBy") String sortBy,
+                                         @RequestParam(name = "countMode", required = false, defaultValue = "cached")
+                                                 String countMode){
 
         BusinessType businessType = null;
         if (businessTypeParam != null) {
@@ -146,7 +150,8 @@ public class BusinessController {
         logger.info("Request to search businesses with searchQuery: {} and businessType: {}",
                 searchQuery, businessType);
         try{
-            return businessService.searchBusiness(searchQuery, businessType, pageNumber, sortBy);
+            return businessService.searchBusiness(searchQuery, businessType, pageNumber, sortBy,
+                    CountMode.getCountMode(countMode));
         } catch (BadRequestException badRequestException) {
             logger.error(badRequestException.getMessage());
             throw badRequestException;
@@ -205,4 +210,19 @@ public class BusinessController {
         }
     }
 
+    /**
+     * Rebuilds the rating summaries of all businesses from their reviews.
+     * Only the DGAA can rebuild the rating summaries.
+     *
+     * @param appUser the currently logged in user
+     * @return JSONObject with the number of businesses with reviews
+     */
+    @PostMapping("/businesses/ratings/rebuild")
+    public JSONObject rebuildRatingSummaries(@AuthenticationPrincipal AppUserDetails appUser) {
+        logger.info("Request to rebuild business rating summaries");
+        userService.checkRequesterIsDGAA(appUser);
+        JSONObject response = new JSONObject();
+        response.put("businessesWithReviews", businessService.rebuildRatingSummaries());
+        return response;
+    }
 }
@@ -7,6 +7,7 @@ import org.seng302.project.service_layer.dto.card.EditCardDTO;
 import org.seng302.project.service_layer.dto.card.GetCardResponseDTO;
 import org.seng302.project.service_layer.service.CardService;
 import org.seng302.project.service_layer.service.UserService;
+import org.seng302.project.service_layer.util.CountMode;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -61,14 +62,16 @@ public class CardController {
     /**
      * Endpoint for getting all cards in a section.
      *
-     * @param section Section to get all cards from.
+     * @param section   Section to get all cards from.
+     * @param countMode How to count the total number of cards: "exact", "cached" or "estimated".
      * @return List of Cards in the corresponding section.
      */
     @GetMapping("/cards")
     public JSONObject getAllCards(@RequestParam String section,
                                   @RequestParam(defaultValue = "0") Integer page,
-                                  @RequestParam(defaultValue = "newest") String sortBy) {
-        return cardService.getAllCardsForSection(section, page, sortBy);
+                                  @RequestParam(defaultValue = "newest") String sortBy,
+                                  @RequestParam(defaultValue = "cached") String countMode) {
+        return cardService.getAllCardsForSection(section, page, sortBy, CountMode.getCountMode(countMode));
     }
 
     /**
@@ -123,6 +126,7 @@ public class CardController {
      * @param section    The section to search by
      * @param keywordIds The list of keyword IDs to search by
      * @param union      Option to match the search with all or some of the inputs
+     * @param countMode  How to count the total number of cards: "exact", "cached" or "estimated"
      * @return List of cards that fit the search criteria
      */
     @GetMapping("/cards/search")
@@ -132,9 +136,10 @@ public class CardController {
             @RequestParam List<Integer> keywordIds,
             @RequestParam Boolean union,
             @RequestParam(defaultValue = "0") Integer page,
-            @RequestParam(defaultValue = "newest") String sortBy
+            @RequestParam(defaultValue = "newest") String sortBy,
+            @RequestParam(defaultValue = "cached") String countMode
     ) {
-        return cardService.searchCards(section, keywordIds, union, page, sortBy);
+        return cardService.searchCards(section, keywordIds, union, page, sortBy, CountMode.getCountMode(countMode));
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package org.seng302.project.web_layer.controller;
+
+import net.minidev.json.JSONObject;
+import org.seng302.project.service_layer.service.EntityCacheService;
+import org.seng302.project.service_layer.service.UserService;
+import org.seng302.project.web_layer.authentication.AppUserDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Rest controller for the entity cache.
+ */
+@RestController
+public class EntityCacheController {
+    private static final Logger logger = LoggerFactory.getLogger(EntityCacheController.class.getName());
+
+    private final EntityCacheService entityCacheService;
+    private final UserService userService;
+
+    @Autowired
+    public EntityCacheController(EntityCacheService entityCacheService, UserService userService) {
+        this.entityCacheService = entityCacheService;
+        this.userService = userService;
+    }
+
+    /**
+     * Gets the metrics of the entity cache on this node: the hits, misses and puts of the cache and of each
+     * of its regions, and how many changes have been recorded for and evicted from other nodes.
+     * Only the DGAA can get the metrics.
+     *
+     * @param appUser the currently logged in user
+     * @return JSONObject with the cache metrics
+     */
+    @GetMapping("/cache")
+    public JSONObject getCacheStatistics(@AuthenticationPrincipal AppUserDetails appUser) {
+        logger.info("Request to get entity cache statistics");
+        userService.checkRequesterIsDGAA(appUser);
+        return entityCacheService.getStatistics();
+    }
+}
@@ -8,6 +8,7 @@ import org.seng302.project.service_layer.exceptions.*;
 import org.seng302.project.service_layer.exceptions.business.BusinessNotFoundException;
 import org.seng302.project.service_layer.exceptions.businessAdministrator.ForbiddenAdministratorActionException;
 import org.seng302.project.service_layer.exceptions.product.NoProductExistsException;
+import org.seng302.project.service_layer.util.SaleListingSearchIndex;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,22 +33,22 @@ public class InventoryItemController {
     private static final Logger logger = LoggerFactory.getLogger(InventoryItemController.class.getName());
     private final BusinessRepository businessRepository;
     private final ProductRepository productRepository;
-    private final SaleListingRepository saleListingRepository;
     private final InventoryItemRepository inventoryItemRepository;
     private final UserRepository userRepository;
+    private final SaleListingSearchIndex saleListingSearchIndex;
 
     @Autowired
     public InventoryItemController(
             BusinessRepository businessRepository,
             ProductRepository productRepository,
             InventoryItemRepository inventoryItemRepository,
-            SaleListingRepository saleListingRepository,
-            UserRepository userRepository) {
+            UserRepository userRepository,
+            SaleListingSearchIndex saleListingSearchIndex) {
         this.businessRepository = businessRepository;
         this.productRepository = productRepository;
         this.inventoryItemRepository = inventoryItemRepository;
-        this.saleListingRepository = saleListingRepository;
         this.userRepository = userRepository;
+        this.saleListingSearchIndex = saleListingSearchIndex;
     }
 
     /**
@@ -353,6 +354,7 @@ public class InventoryItemController {
             InventoryItem originalItem = itemResult.get();
 
             //Quantity
+            var quantityChanged = false;
             try {
                 if (json.containsKey("quantity")) {
                     Number newQuantity = json.getAsNumber("quantity");
@@ -367,23 +369,15 @@ public class InventoryItemController {
                             logger.warn(exception.getMessage());
                             throw exception;
                         }
-                        //Check if there is enough inventory items
-                        //Calculates the quantity used of this Inventory item in other sales listings, if any
-                        Integer quantityUsed = 0;
-                        List<SaleListing> listings = saleListingRepository.findAllByBusinessIdAndInventoryItemId(businessId, inventoryItemId);
-                        for(SaleListing listing: listings) {
-                            quantityUsed += listing.getQuantity();
-                        }
-                        //Check if there is enough of the inventory item
+                        //Check if there is enough of the inventory item for the quantity used in sales listings
+                        Integer quantityUsed = item.getReservedQuantity();
                         if (newQuantity.intValue() < quantityUsed) {
                             NotEnoughOfInventoryItemException exception = new NotEnoughOfInventoryItemException(inventoryItemId, item.getQuantity() - quantityUsed, quantityUsed);
                             logger.warn(exception.getMessage());
                             throw exception;
                         }
-
-
-
                         item.setQuantity(newQuantity.intValue());
+                        quantityChanged = true;
                     }
                 }
             } catch (NumberFormatException e) {
@@ -542,11 +536,22 @@ public class InventoryItemController {
                 Product product = productResult.get();
                 item.setProduct(product);
             }
+            //Set the new quantity only if it still covers the quantity used in sales listings,
+            //which could have changed since the item was loaded
+            if (quantityChanged && inventoryItemRepository.updateQuantity(inventoryItemId, item.getQuantity()) == 0) {
+                Integer quantityUsed = inventoryItemRepository.findReservedQuantityById(inventoryItemId);
+                NotEnoughOfInventoryItemException exception = new NotEnoughOfInventoryItemException(inventoryItemId, item.getQuantity() - quantityUsed, quantityUsed);
+                logger.warn(exception.getMessage());
+                throw exception;
+            }
             inventoryItemRepository.save(item);
+            // Sale listings can be searched by the item's product, and sorted by its expiry date
+            saleListingSearchIndex.reindexInventoryItem(inventoryItemId);
         } catch (BusinessNotFoundException | NoProductExistsException | MissingProductIdException |
                 ForbiddenAdministratorActionException | InvalidPriceException | InvalidManufactureDateException |
                 InvalidSellByDateException | ItemExpiredException | InvalidBestBeforeDateException |
-                MissingInventoryItemExpiryException | InvalidQuantityException handledException) {
+                MissingInventoryItemExpiryException | InvalidQuantityException |
+                NotEnoughOfInventoryItemException handledException) {
             throw handledException;
         } catch (Exception unhandledException) {
             logger.error(String.format("Unexpected error while editing inventory item: %s",
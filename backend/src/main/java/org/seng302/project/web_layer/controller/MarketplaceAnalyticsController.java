@@ -0,0 +1,108 @@
+package org.seng302.project.web_layer.controller;
+
+import net.minidev.json.JSONObject;
+import org.seng302.project.service_layer.dto.statistics.GetMarketplaceSalesDTO;
+import org.seng302.project.service_layer.dto.statistics.GetTopBusinessDTO;
+import org.seng302.project.service_layer.service.MarketplaceAnalyticsService;
+import org.seng302.project.service_layer.service.UserService;
+import org.seng302.project.web_layer.authentication.AppUserDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Rest controller for the marketplace-wide analytics. Only the DGAA can get the analytics.
+ */
+@RestController
+public class MarketplaceAnalyticsController {
+
+    private static final Logger logger = LoggerFactory.getLogger(MarketplaceAnalyticsController.class.getName());
+
+    private final MarketplaceAnalyticsService marketplaceAnalyticsService;
+    private final UserService userService;
+
+    @Autowired
+    public MarketplaceAnalyticsController(MarketplaceAnalyticsService marketplaceAnalyticsService,
+                                          UserService userService) {
+        this.marketplaceAnalyticsService = marketplaceAnalyticsService;
+        this.userService = userService;
+    }
+
+    /**
+     * Gets the sales and revenue of the marketplace over time, by the country and type of the businesses.
+     *
+     * @param periodStart The date to start the report in the form "yyyy-MM-dd"
+     * @param periodEnd   The date to end the report in the form "yyyy-MM-dd"
+     * @param granularity The granularity for the report e.g. "monthly", "weekly"
+     * @param appUser     the currently logged in user
+     * @return a list of GetMarketplaceSalesDTOs with the sales of each country and business type in each period
+     */
+    @GetMapping("/statistics/marketplace/sales")
+    public List<GetMarketplaceSalesDTO> getMarketplaceSales(
+            @RequestParam("periodStart") String periodStart,
+            @RequestParam("periodEnd") String periodEnd,
+            @RequestParam("granularity") String granularity,
+            @AuthenticationPrincipal AppUserDetails appUser) {
+        userService.checkRequesterIsDGAA(appUser);
+        return marketplaceAnalyticsService.getSales(periodStart, periodEnd, granularity);
+    }
+
+    /**
+     * Gets the businesses with the most revenue within a period.
+     *
+     * @param periodStart The date to start the period in the form "yyyy-MM-dd"
+     * @param periodEnd   The date to end the period in the form "yyyy-MM-dd"
+     * @param limit       The number of businesses to get, from 1 to 100. Defaults to 10.
+     * @param appUser     the currently logged in user
+     * @return a list of GetTopBusinessDTOs, highest revenue first
+     */
+    @GetMapping("/statistics/marketplace/businesses")
+    public List<GetTopBusinessDTO> getTopBusinesses(
+            @RequestParam("periodStart") String periodStart,
+            @RequestParam("periodEnd") String periodEnd,
+            @RequestParam(name = "limit", required = false, defaultValue = "10") int limit,
+            @AuthenticationPrincipal AppUserDetails appUser) {
+        userService.checkRequesterIsDGAA(appUser);
+        return marketplaceAnalyticsService.getTopBusinesses(periodStart, periodEnd, limit);
+    }
+
+    /**
+     * Gets the number of listings created, sold and expired within a period, and the number of likes and how
+     * many of them were converted into purchases.
+     *
+     * @param periodStart The date to start the period in the form "yyyy-MM-dd"
+     * @param periodEnd   The date to end the period in the form "yyyy-MM-dd"
+     * @param appUser     the currently logged in user
+     * @return JSONObject with the listing totals, the sell-through rate and the like conversion rate
+     */
+    @GetMapping("/statistics/marketplace/listings")
+    public JSONObject getListingStatistics(
+            @RequestParam("periodStart") String periodStart,
+            @RequestParam("periodEnd") String periodEnd,
+            @AuthenticationPrincipal AppUserDetails appUser) {
+        userService.checkRequesterIsDGAA(appUser);
+        return marketplaceAnalyticsService.getListingStatistics(periodStart, periodEnd);
+    }
+
+    /**
+     * Rebuilds the marketplace rollups from the marketplace event log.
+     *
+     * @param appUser the currently logged in user
+     * @return JSONObject with the number of rollups, one for each day a business had events on
+     */
+    @PostMapping("/statistics/marketplace/rollups/rebuild")
+    public JSONObject rebuildMarketplaceRollups(@AuthenticationPrincipal AppUserDetails appUser) {
+        logger.info("Request to rebuild the marketplace rollups");
+        userService.checkRequesterIsDGAA(appUser);
+        JSONObject response = new JSONObject();
+        response.put("rollups", marketplaceAnalyticsService.rebuildRollups());
+        return response;
+    }
+}
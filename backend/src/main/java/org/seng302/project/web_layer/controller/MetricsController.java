@@ -0,0 +1,59 @@
+package org.seng302.project.web_layer.controller;
+
+import io.prometheus.client.exporter.common.TextFormat;
+import net.minidev.json.JSONObject;
+import org.seng302.project.service_layer.service.MetricsService;
+import org.seng302.project.service_layer.service.UserService;
+import org.seng302.project.web_layer.authentication.AppUserDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Rest controller for the metrics of this node.
+ */
+@RestController
+public class MetricsController {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsController.class.getName());
+
+    private final MetricsService metricsService;
+    private final UserService userService;
+
+    @Autowired
+    public MetricsController(MetricsService metricsService, UserService userService) {
+        this.metricsService = metricsService;
+        this.userService = userService;
+    }
+
+    /**
+     * Gets the metrics of this node in the Prometheus text format, for Prometheus to scrape.
+     * Only the DGAA can get the metrics, so Prometheus logs in as the DGAA with basic authentication.
+     *
+     * @param appUser the currently logged in user
+     * @return the metrics in the Prometheus text format
+     */
+    @GetMapping(value = "/metrics", produces = TextFormat.CONTENT_TYPE_004)
+    public String getMetrics(@AuthenticationPrincipal AppUserDetails appUser) {
+        logger.debug("Request to get metrics");
+        userService.checkRequesterIsDGAA(appUser);
+        return metricsService.getMetrics();
+    }
+
+    /**
+     * Gets the statements run on this node which took longer than the slow query threshold, newest first,
+     * with their parameters, rows, duration, the endpoint which ran them and, on MariaDB, their plan.
+     * Only the DGAA can get the slow queries.
+     *
+     * @param appUser the currently logged in user
+     * @return JSONObject with the slow query log
+     */
+    @GetMapping("/metrics/slowqueries")
+    public JSONObject getSlowQueries(@AuthenticationPrincipal AppUserDetails appUser) {
+        logger.info("Request to get slow queries");
+        userService.checkRequesterIsDGAA(appUser);
+        return metricsService.getSlowQueries();
+    }
+}
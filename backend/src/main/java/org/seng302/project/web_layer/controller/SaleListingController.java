@@ -8,8 +8,10 @@ import org.seng302.project.service_layer.dto.sale_listings.SearchSaleListingsDTO
 import org.seng302.project.service_layer.exceptions.BadRequestException;
 import org.seng302.project.service_layer.exceptions.NotAcceptableException;
 import org.seng302.project.service_layer.service.BusinessService;
+import org.seng302.project.service_layer.service.PurchaseNotificationService;
 import org.seng302.project.service_layer.service.SaleListingService;
 import org.seng302.project.service_layer.service.UserService;
+import org.seng302.project.service_layer.util.CountMode;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +22,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
 import javax.validation.Valid;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -34,14 +37,17 @@ public class SaleListingController {
     private final UserService userService;
     private final BusinessService businessService;
     private final SaleListingService saleListingService;
+    private final PurchaseNotificationService purchaseNotificationService;
 
     @Autowired
     public SaleListingController(SaleListingService saleListingService,
                                  BusinessService businessService,
-                                 UserService userService) {
+                                 UserService userService,
+                                 PurchaseNotificationService purchaseNotificationService) {
         this.userService = userService;
         this.businessService = businessService;
         this.saleListingService = saleListingService;
+        this.purchaseNotificationService = purchaseNotificationService;
     }
 
     /**
@@ -55,10 +61,20 @@ public class SaleListingController {
      * @param priceRangeUpper          the upper price range (can be null)
      * @param closingDateLower         the lower closing date range (can be null)
      * @param closingDateUpper         the upper closing date range (can be null)
-     * @param pageNumber               the page number to get
+     * @param pageNumber               the page number to get (ignored when a cursor is given)
      * @param sortBy                   the sorting parameter
+     * @param cursor                   the cursor returned with the previous page, or empty for the first page.
+     *                                 When given, pages are found by cursor rather than page number.
+     * @param includeCount             whether to count the total number of matching listings, when using a cursor
+     * @param countMode                how to count the total number of matching listings: "exact", "cached" or "estimated"
+     * @param facets                   whether to also count the matching listings by business type, country and price
+     * @param priceBuckets             prices to split the facet price buckets at, in ascending order (can be null)
      * @param appUser                  the currently lodged in user (used to check if the logged in user likes a listing)
-     * @return A list of sale listings, with the specified sorting and page applied
+     * @return A list of sale listings, with the specified sorting and page applied, the total count,
+     * and how the total count was counted.
+     * When using a cursor, also the cursor for the next page (null if there are no more pages),
+     * and the total count is null unless requested.
+     * When facets are requested, the facet counts are added to the end of the list.
      */
     @GetMapping("/listings")
     public List<Object> searchSaleListings(
@@ -71,8 +87,13 @@ public class SaleListingController {
             @RequestParam(name = "priceRangeUpper", required = false) Double priceRangeUpper,
             @RequestParam(name = "closingDateLower", required = false) String closingDateLower,
             @RequestParam(name = "closingDateUpper", required = false) String closingDateUpper,
-            @RequestParam("pageNumber") Integer pageNumber,
+            @RequestParam(name = "pageNumber", required = false, defaultValue = "0") Integer pageNumber,
             @RequestParam("sortBy") String sortBy,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "includeCount", required = false, defaultValue = "false") boolean includeCount,
+            @RequestParam(name = "countMode", required = false, defaultValue = "cached") String countMode,
+            @RequestParam(name = "facets", required = false, defaultValue = "false") boolean facets,
+            @RequestParam(name = "priceBuckets", required = false) List<Double> priceBuckets,
             @AuthenticationPrincipal AppUserDetails appUser) {
         try {
             SearchSaleListingsDTO dto = new SearchSaleListingsDTO(
@@ -88,7 +109,18 @@ public class SaleListingController {
                     sortBy,
                     pageNumber);
 
-            return saleListingService.searchSaleListings(dto, appUser);
+            List<Object> response;
+            if (cursor != null) {
+                response = saleListingService.searchSaleListingsAfter(dto, cursor, includeCount, appUser);
+            } else {
+                response = saleListingService.searchSaleListings(dto, CountMode.getCountMode(countMode), appUser);
+            }
+
+            if (facets) {
+                response = new ArrayList<>(response);
+                response.add(saleListingService.getListingFacets(dto, priceBuckets));
+            }
+            return response;
         } catch (Exception unhandledException) {
             logger.error(String.format("Unexpected error while searching sales listings: %s",
                     unhandledException.getMessage()));
@@ -106,7 +138,7 @@ public class SaleListingController {
     public void buySaleListing(@PathVariable int listingId, @AuthenticationPrincipal AppUserDetails appUser) {
         try {
             saleListingService.buySaleListing(listingId, appUser);
-        } catch (NotAcceptableException handledException) {
+        } catch (NotAcceptableException | BadRequestException handledException) {
             logger.error(handledException.getMessage());
             throw handledException;
         } catch (Exception unhandledException) {
@@ -283,4 +315,48 @@ public class SaleListingController {
         }
         return saleListingService.getPopularListings(country);
     }
+
+    /**
+     * Gets the hit, miss and eviction metrics of the sale listing search cache.
+     * Only the DGAA can get the metrics.
+     *
+     * @param appUser the currently logged in user
+     * @return JSONObject with the cache metrics
+     */
+    @GetMapping("/listings/searchcache")
+    public JSONObject getSearchCacheStatistics(@AuthenticationPrincipal AppUserDetails appUser) {
+        logger.info("Request to get sale listing search cache statistics");
+        userService.checkRequesterIsDGAA(appUser);
+        return saleListingService.getSearchCacheStatistics();
+    }
+
+    /**
+     * Gets the metrics of the sale listing expiry queue: the number of queued listings,
+     * the size of the expiry batches and how long after closing listings are expired.
+     * Only the DGAA can get the metrics.
+     *
+     * @param appUser the currently logged in user
+     * @return JSONObject with the expiry metrics
+     */
+    @GetMapping("/listings/expiry")
+    public JSONObject getExpiryStatistics(@AuthenticationPrincipal AppUserDetails appUser) {
+        logger.info("Request to get sale listing expiry statistics");
+        userService.checkRequesterIsDGAA(appUser);
+        return saleListingService.getExpiryStatistics();
+    }
+
+    /**
+     * Gets the metrics of the purchase notification worker: the number of purchases waiting to have
+     * their notifications sent, how many notifications have been sent and how long after a purchase they are sent.
+     * Only the DGAA can get the metrics.
+     *
+     * @param appUser the currently logged in user
+     * @return JSONObject with the worker metrics
+     */
+    @GetMapping("/listings/notificationoutbox")
+    public JSONObject getNotificationOutboxStatistics(@AuthenticationPrincipal AppUserDetails appUser) {
+        logger.info("Request to get purchase notification outbox statistics");
+        userService.checkRequesterIsDGAA(appUser);
+        return purchaseNotificationService.getStatistics();
+    }
 }
@@ -1,17 +1,30 @@
 package org.seng302.project.web_layer.controller;
 
 
+import net.minidev.json.JSONObject;
+import org.seng302.project.repository_layer.model.enums.ExportFormat;
 import org.seng302.project.service_layer.dto.sales_report.GetSalesReportDTO;
+import org.seng302.project.service_layer.service.SalesExportService;
 import org.seng302.project.service_layer.service.SalesReportService;
+import org.seng302.project.service_layer.service.SalesRollupService;
+import org.seng302.project.service_layer.service.UserService;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 
 /**
@@ -20,12 +33,22 @@ import java.util.List;
 @RestController
 public class SalesReportController {
 
+    private static final Logger logger = LoggerFactory.getLogger(SalesReportController.class.getName());
+
     private final SalesReportService salesReportService;
+    private final SalesRollupService salesRollupService;
+    private final SalesExportService salesExportService;
+    private final UserService userService;
 
     @Autowired
-    public SalesReportController(SalesReportService salesReportService) {
+    public SalesReportController(SalesReportService salesReportService,
+                                 SalesRollupService salesRollupService,
+                                 SalesExportService salesExportService,
+                                 UserService userService) {
         this.salesReportService = salesReportService;
-
+        this.salesRollupService = salesRollupService;
+        this.salesExportService = salesExportService;
+        this.userService = userService;
     }
 
     /**
@@ -35,6 +58,7 @@ public class SalesReportController {
      * @param periodStart The date to start the report in the form "yyyy-MM-dd"
      * @param periodEnd The date to end the report in the form "yyyy-MM-dd"
      * @param granularity The granularity for the report e.g. "monthly", "weekly"
+     * @param includeSales Whether to include the sales in each period, or only their totals. Defaults to true.
      * @param appUser    The user that made the request.
      * @return  a list of GetSalesReportDTOs containing stats and sales from the requested time period
      */
@@ -44,8 +68,80 @@ public class SalesReportController {
             @RequestParam("periodStart") String periodStart,
             @RequestParam("periodEnd") String periodEnd,
             @RequestParam("granularity") String granularity,
+            @RequestParam(name = "includeSales", required = false, defaultValue = "true") boolean includeSales,
             @AuthenticationPrincipal AppUserDetails appUser) {
 
-        return salesReportService.getSalesReport(businessId, periodStart, periodEnd, granularity, appUser);
+        return salesReportService.getSalesReport(businessId, periodStart, periodEnd, granularity, includeSales,
+                appUser);
+    }
+
+    /**
+     * Exports the full sale history of a business as CSV or newline delimited JSON, oldest sale first.
+     * The sales are streamed to the response as they are read, compressed with gzip if the client accepts it.
+     * Each row has the sale's id, so an export which was cut off can be carried on by passing the id of the
+     * last sale received as since.
+     *
+     * @param businessId     Business to export the sales of
+     * @param format         The format to export in, "csv" or "ndjson". Defaults to csv.
+     * @param since          Id of the last sale already exported, only later sales are exported. Optional.
+     * @param acceptEncoding The encodings the client accepts
+     * @param appUser        The user that made the request.
+     * @param response       The response to write the sales to
+     * @throws IOException if the response can't be written to
+     */
+    @GetMapping("/businesses/{businessId}/sales/export")
+    public void exportSales(
+            @PathVariable int businessId,
+            @RequestParam(name = "format", required = false, defaultValue = "csv") String format,
+            @RequestParam(name = "since", required = false) Integer since,
+            @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            @AuthenticationPrincipal AppUserDetails appUser,
+            HttpServletResponse response) throws IOException {
+
+        ExportFormat exportFormat = salesExportService.checkExport(businessId, format, appUser);
+
+        response.setContentType(exportFormat.getContentType() + ";charset=UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"sales-" + businessId + "." + exportFormat.getName() + "\"");
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip")) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            try (var output = new GZIPOutputStream(response.getOutputStream(), true)) {
+                salesExportService.writeSales(businessId, exportFormat, since, output);
+            }
+        } else {
+            salesExportService.writeSales(businessId, exportFormat, since, response.getOutputStream());
+        }
+    }
+
+    /**
+     * Rebuilds the daily sales rollups of all businesses from their sales.
+     * Only the DGAA can rebuild the sales rollups.
+     *
+     * @param appUser the currently logged in user
+     * @return JSONObject with the number of rollups, one for each day a business made sales on
+     */
+    @PostMapping("/businesses/sales/rollups/rebuild")
+    public JSONObject rebuildSalesRollups(@AuthenticationPrincipal AppUserDetails appUser) {
+        logger.info("Request to rebuild the daily sales rollups");
+        userService.checkRequesterIsDGAA(appUser);
+        JSONObject response = new JSONObject();
+        response.put("rollups", salesRollupService.rebuildRollups());
+        return response;
+    }
+
+    /**
+     * Gets the metrics of the sales report cache.
+     * Only the DGAA can get the cache metrics.
+     *
+     * @param appUser the currently logged in user
+     * @return JSONObject with the number of hits, misses, evictions and invalidations, the hit rate
+     * and the number of cached periods
+     */
+    @GetMapping("/businesses/sales/cache")
+    public JSONObject getReportCacheStatistics(@AuthenticationPrincipal AppUserDetails appUser) {
+        logger.info("Request to get the sales report cache metrics");
+        userService.checkRequesterIsDGAA(appUser);
+        return salesReportService.getReportCacheStatistics();
     }
 }
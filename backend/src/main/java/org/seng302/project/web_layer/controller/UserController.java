@@ -5,6 +5,7 @@ import org.seng302.project.service_layer.dto.user.*;
 import org.seng302.project.service_layer.exceptions.*;
 import org.seng302.project.service_layer.exceptions.register.*;
 import org.seng302.project.service_layer.service.UserService;
+import org.seng302.project.service_layer.util.CountMode;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.seng302.project.service_layer.exceptions.dgaa.DGAARevokeAdminSelfException;
 import org.seng302.project.service_layer.exceptions.dgaa.ForbiddenDGAAActionException;
@@ -181,17 +182,19 @@ public class UserController {
      * of users based on the query.
      *
      * @param searchQuery user’s full name or one or more of their names/nickname.
+     * @param countMode   how to count the total number of users: "exact", "cached" or "estimated".
      * @return 200 response with (potentially empty) list of users or 401 if not authenticated.
      */
     @GetMapping("/users/search")
     @ResponseStatus(HttpStatus.OK)
     public List<Object> searchUsers(@RequestParam("searchQuery") String searchQuery, @RequestParam("pageNumber") Integer pageNumber
-    , @RequestParam("sortBy") String sortBy) {
+    , @RequestParam("sortBy") String sortBy,
+                                    @RequestParam(name = "countMode", required = false, defaultValue = "cached") String countMode) {
 
         logger.info("Request to search users with query: {}", searchQuery);
 
         try {
-            return userService.searchUsers(searchQuery, pageNumber, sortBy);
+            return userService.searchUsers(searchQuery, pageNumber, sortBy, CountMode.getCountMode(countMode));
         } catch (BadRequestException badRequestException) {
             logger.error(badRequestException.getMessage());
             throw badRequestException;
@@ -206,6 +209,7 @@ public class UserController {
      * Receives a request to get a user's purchase history
      *
      * @param userId ID of the user to get purchase history for
+     * @param countMode how to count the total number of purchases: "exact", "cached" or "estimated"
      * @param appUser currently logged-in user
      * @return the user's purchase history
      */
@@ -215,12 +219,13 @@ public class UserController {
             @PathVariable Integer userId,
             @RequestParam("pageNumber") Integer pageNumber,
             @RequestParam("sortBy") String sortBy,
+            @RequestParam(name = "countMode", required = false, defaultValue = "exact") String countMode,
             @AuthenticationPrincipal AppUserDetails appUser
     ) {
         try {
             userService.checkUser(userId);
             userService.checkForbidden(userId, appUser);
-            return userService.getPurchaseHistory(userId, pageNumber, sortBy);
+            return userService.getPurchaseHistory(userId, pageNumber, sortBy, CountMode.getCountMode(countMode));
         } catch (NotAcceptableException exception) {
             throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, exception.getMessage(), exception);
         } catch (ForbiddenException exception) {
@@ -156,4 +156,15 @@ public class InventoryItemControllerAdvice {
     public ResponseEntity<String> invalidPrice(NoInventoryItemExistsException ex) {
         return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
     }
+
+    /**
+     * Exception thrown by the editInventoryItem() function in InventoryItemController
+     * when the new quantity is less than the quantity used in sale listings.
+     *
+     * @return a 400 response with an appropriate message
+     */
+    @ExceptionHandler(NotEnoughOfInventoryItemException.class)
+    public ResponseEntity<String> notEnoughOfInventoryItem(NotEnoughOfInventoryItemException ex) {
+        return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+    }
 }
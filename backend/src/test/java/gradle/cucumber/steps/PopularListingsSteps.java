@@ -194,6 +194,9 @@ public class PopularListingsSteps extends AbstractInitializer {
         likedSaleListingRepository.save(like);
         testUser4.addLikedListing(like);
         userRepository.save(testUser4);
+
+        //Likes were saved directly, so bring the listings' like counters up to date
+        saleListingService.reconcileLikeCounts();
     }
 
     @When("I retrieve the popular sale listings with no country selected")
@@ -0,0 +1,47 @@
+package org.seng302.project;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hibernate statement inspector which records the SQL statements run on each thread,
+ * so tests can check how many statements a request takes.
+ * Registered in the test application.properties.
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<List<String>> statements = ThreadLocal.withInitial(ArrayList::new);
+
+    @Override
+    public String inspect(String sql) {
+        statements.get().add(sql);
+        return sql;
+    }
+
+    /**
+     * Forgets the statements recorded on this thread so far.
+     */
+    public static void reset() {
+        statements.get().clear();
+    }
+
+    /**
+     * Gets the number of statements recorded on this thread since the last reset.
+     *
+     * @return the number of statements
+     */
+    public static int count() {
+        return statements.get().size();
+    }
+
+    /**
+     * Gets the statements recorded on this thread since the last reset.
+     *
+     * @return the SQL of each statement, in the order they were run
+     */
+    public static List<String> getStatements() {
+        return new ArrayList<>(statements.get());
+    }
+}
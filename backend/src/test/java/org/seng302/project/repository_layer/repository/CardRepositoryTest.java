@@ -0,0 +1,90 @@
+package org.seng302.project.repository_layer.repository;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.seng302.project.AbstractInitializer;
+import org.seng302.project.repository_layer.model.Card;
+import org.seng302.project.repository_layer.model.Keyword;
+import org.seng302.project.repository_layer.model.Message;
+import org.seng302.project.repository_layer.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@DataJpaTest
+class CardRepositoryTest extends AbstractInitializer {
+
+    @Autowired
+    private AddressRepository addressRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private KeywordRepository keywordRepository;
+    @Autowired
+    private MessageRepository messageRepository;
+    @Autowired
+    private CardRepository cardRepository;
+
+    User creator;
+    Card expiredCard;
+    Card activeCard;
+
+    @BeforeEach
+    void setup() {
+        this.initialise();
+        creator = this.getTestUser();
+        addressRepository.save(creator.getHomeAddress());
+        creator.setId(null);
+        creator = userRepository.save(creator);
+        User sender = this.getTestOtherUser();
+        addressRepository.save(sender.getHomeAddress());
+        sender.setId(null);
+        sender = userRepository.save(sender);
+
+        Keyword keyword = keywordRepository.save(new Keyword("Apples"));
+        expiredCard = new Card(creator, "ForSale", "Expired card", null, new HashSet<>(Set.of(keyword)));
+        expiredCard.setDisplayPeriodEnd(LocalDateTime.now().minusDays(2));
+        expiredCard = cardRepository.save(expiredCard);
+        activeCard = cardRepository.save(new Card(creator, "ForSale", "Active card", null,
+                new HashSet<>(Set.of(keyword))));
+
+        messageRepository.save(new Message("Is this still available?", creator, expiredCard, sender));
+        messageRepository.save(new Message("Is this still available?", creator, activeCard, sender));
+    }
+
+    /**
+     * Tests that only the cards with a display period that has ended are found, with their creator and title.
+     */
+    @Test
+    void findExpiredCards_oneExpired_returnsExpiredCard() {
+        List<List<Object>> expired = cardRepository.findExpiredCards(LocalDateTime.now().minusDays(1),
+                PageRequest.of(0, 10));
+
+        Assertions.assertEquals(1, expired.size());
+        Assertions.assertEquals(List.of(expiredCard.getId(), creator.getId(), "Expired card"), expired.get(0));
+    }
+
+    /**
+     * Tests that the bulk deletes remove a card along with its messages and keywords,
+     * leaving the keyword itself and the other cards.
+     */
+    @Test
+    void deleteByIds_messagesAndKeywordsDeleted_cardDeleted() {
+        List<Integer> cardIds = List.of(expiredCard.getId());
+
+        Assertions.assertEquals(1, messageRepository.deleteByCardIds(cardIds));
+        Assertions.assertEquals(1, cardRepository.deleteKeywordsByCardIds(cardIds));
+        Assertions.assertEquals(1, cardRepository.deleteByIds(cardIds));
+
+        Assertions.assertEquals(1, cardRepository.count());
+        Assertions.assertEquals(activeCard.getId(), cardRepository.findAll().get(0).getId());
+        Assertions.assertEquals(1, messageRepository.count());
+        Assertions.assertEquals(1, keywordRepository.count());
+    }
+}
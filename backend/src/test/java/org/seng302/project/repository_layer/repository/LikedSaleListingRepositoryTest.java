@@ -150,4 +150,36 @@ class LikedSaleListingRepositoryTest extends AbstractInitializer {
         Assertions.assertTrue(likes2 >= likes3);
         Assertions.assertTrue(likes3 >= likes4);
     }
+
+    /**
+     * Tests that countLikesByListingIds returns the like count of each listing in a single grouped result
+     */
+    @Test
+    void likedSaleListing_countLikesByListingIds_countsEachListing() {
+        List<SaleListing> listings = saleListingRepository.findAll();
+        List<Integer> listingIds = List.of(listings.get(0).getId(), listings.get(2).getId(), listings.get(3).getId());
+
+        List<List<Object>> response = likedSaleListingRepository.countLikesByListingIds(listingIds);
+        Assertions.assertEquals(3, response.size());
+        for (List<Object> row : response) {
+            Integer listingId = (Integer) row.get(0);
+            Long likes = (Long) row.get(1);
+            Assertions.assertEquals(likedSaleListingRepository.findAllByListingId(listingId).size(), likes.intValue());
+        }
+    }
+
+    /**
+     * Tests that findListingIdsLikedByUser only returns the listings the user has liked
+     */
+    @Test
+    void likedSaleListing_findListingIdsLikedByUser_returnsLikedIds() {
+        List<SaleListing> listings = saleListingRepository.findAll();
+        List<Integer> listingIds = List.of(listings.get(0).getId(), listings.get(1).getId(), listings.get(2).getId());
+        User user = userRepository.findByEmail(this.getTestUser().getEmail()).get(0);
+
+        List<Integer> likedIds = likedSaleListingRepository.findListingIdsLikedByUser(user.getId(), listingIds);
+        Assertions.assertEquals(2, likedIds.size());
+        Assertions.assertTrue(likedIds.contains(listings.get(0).getId()));
+        Assertions.assertTrue(likedIds.contains(listings.get(1).getId()));
+    }
 }
@@ -8,6 +8,8 @@ import org.seng302.project.repository_layer.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 
+import javax.persistence.EntityManager;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
@@ -25,8 +27,11 @@ class ReviewRepositoryTest extends AbstractInitializer {
     private UserRepository userRepository;
     @Autowired
     private AddressRepository addressRepository;
+    @Autowired
+    private EntityManager entityManager;
 
     Review review;
+    Business business;
 
     @BeforeEach
     void setup() {
@@ -35,7 +40,7 @@ class ReviewRepositoryTest extends AbstractInitializer {
         User user = this.getTestUser();
         addressRepository.save(user.getHomeAddress());
         user = userRepository.save(user);
-        Business business =  sale.getBusiness();
+        business =  sale.getBusiness();
         addressRepository.save(business.getAddress());
         business = businessRepository.save(business);
         review = new Review(sale, user, 5, "Very Good!");
@@ -58,4 +63,63 @@ class ReviewRepositoryTest extends AbstractInitializer {
         Optional<Review> foundReview = reviewRepository.findById(review.getReviewId());
         Assertions.assertTrue(foundReview.isPresent());
     }
+
+    /**
+     * Test that countRatedBusinesses counts each business with a review once.
+     */
+    @Test
+    void countRatedBusinesses_reviewSaved_countsBusiness() {
+        reviewRepository.save(review);
+
+        Assertions.assertEquals(1L, reviewRepository.countRatedBusinesses());
+    }
+
+    /**
+     * Test that rebuilding the rating summaries sets the count, total and histogram of a business from its reviews.
+     */
+    @Test
+    void rebuildRatingSummaries_reviewSaved_setsRatingSummary() {
+        reviewRepository.saveAndFlush(review);
+        businessRepository.addReviewRating(business.getId(), 1);
+
+        businessRepository.rebuildRatingSummaries();
+        entityManager.clear();
+
+        RatingSummary summary = businessRepository.findById(business.getId()).orElseThrow().getRatingSummary();
+        Assertions.assertEquals(1, summary.getReviewCount());
+        Assertions.assertEquals(5, summary.getRatingTotal());
+        Assertions.assertEquals(List.of(0, 0, 0, 0, 1), summary.getHistogram());
+    }
+
+    /**
+     * Test that adding review ratings to a business updates its count, total and histogram.
+     */
+    @Test
+    void addReviewRating_twoRatings_updatesRatingSummary() {
+        businessRepository.addReviewRating(business.getId(), 5);
+        businessRepository.addReviewRating(business.getId(), 2);
+        entityManager.clear();
+
+        RatingSummary summary = businessRepository.findById(business.getId()).orElseThrow().getRatingSummary();
+        Assertions.assertEquals(2, summary.getReviewCount());
+        Assertions.assertEquals(7, summary.getRatingTotal());
+        Assertions.assertEquals(3.5, summary.getAverageRating());
+        Assertions.assertEquals(List.of(0, 1, 0, 0, 1), summary.getHistogram());
+    }
+
+    /**
+     * Test that saving a business doesn't overwrite review ratings added since it was loaded.
+     */
+    @Test
+    void addReviewRating_staleBusinessSaved_ratingKept() {
+        Business stale = businessRepository.findById(business.getId()).orElseThrow();
+        businessRepository.addReviewRating(business.getId(), 4);
+        stale.setName("Renamed Business");
+        businessRepository.saveAndFlush(stale);
+        entityManager.clear();
+
+        RatingSummary summary = businessRepository.findById(business.getId()).orElseThrow().getRatingSummary();
+        Assertions.assertEquals(1, summary.getReviewCount());
+        Assertions.assertEquals(List.of(0, 0, 0, 1, 0), summary.getHistogram());
+    }
 }
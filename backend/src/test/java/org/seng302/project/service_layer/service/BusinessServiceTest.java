@@ -22,6 +22,9 @@ import org.seng302.project.service_layer.exceptions.businessAdministrator.Admini
 import org.seng302.project.service_layer.exceptions.businessAdministrator.CantRemoveAdministratorException;
 import org.seng302.project.service_layer.exceptions.businessAdministrator.UserNotAdministratorException;
 import org.seng302.project.service_layer.exceptions.register.UserUnderageException;
+import org.seng302.project.service_layer.util.PopularListingsLeaderboard;
+import org.seng302.project.service_layer.util.SaleListingSearchIndex;
+import org.seng302.project.service_layer.util.SearchCounter;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
@@ -30,6 +33,7 @@ import org.springframework.data.jpa.domain.Specification;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -45,6 +49,7 @@ class BusinessServiceTest extends AbstractInitializer {
     private ReviewRepository reviewRepository;
     private ProductCatalogueService productCatalogueService;
     private BusinessNotificationRepository businessNotificationRepository;
+    private EntityCacheService entityCacheService;
 
     private User testPrimaryAdmin;
     private User testUser;
@@ -61,9 +66,13 @@ class BusinessServiceTest extends AbstractInitializer {
         reviewRepository = Mockito.mock(ReviewRepository.class);
         productCatalogueService = Mockito.mock(ProductCatalogueService.class);
         businessNotificationRepository = Mockito.mock(BusinessNotificationRepository.class);
+        entityCacheService = Mockito.mock(EntityCacheService.class);
 
         businessService = new BusinessService(businessRepository, addressRepository,
-                userRepository, reviewRepository, productCatalogueService, businessNotificationRepository);
+                userRepository, reviewRepository, productCatalogueService, businessNotificationRepository,
+                new SearchCounter(Mockito.mock(SpecificationQueryRepository.class)),
+                Mockito.mock(PopularListingsLeaderboard.class), Mockito.mock(SaleListingSearchIndex.class),
+                entityCacheService);
 
         //Mock a test user to be used as business primary admin
         testPrimaryAdmin = this.getTestUserBusinessAdmin();
@@ -89,6 +98,7 @@ class BusinessServiceTest extends AbstractInitializer {
         //Spy on this business so we can check when methods on the business object are called
         testBusiness = Mockito.spy(this.getTestBusiness());
         Mockito.when(businessRepository.findById(testBusiness.getId())).thenReturn(Optional.of(testBusiness));
+        Mockito.when(businessRepository.findProfileById(testBusiness.getId())).thenReturn(Optional.of(testBusiness));
         Mockito.when(businessRepository.findByName(testBusiness.getName())).thenReturn(List.of(testBusiness));
     }
 
@@ -194,7 +204,7 @@ class BusinessServiceTest extends AbstractInitializer {
      */
     @Test
     void getNonExistentBusiness() {
-        Mockito.when(businessRepository.findById(200)).thenReturn(Optional.empty());
+        Mockito.when(businessRepository.findProfileById(200)).thenReturn(Optional.empty());
 
         Assertions.assertThrows(BusinessNotFoundException.class,
                 () -> businessService.getBusiness(200));
@@ -597,40 +607,57 @@ class BusinessServiceTest extends AbstractInitializer {
      */
     @Test
     void getAverageStarRating_noRatings_returns_null() {
-        Mockito.when(reviewRepository.findAllByBusinessId(any(Integer.class), any(Pageable.class)))
-                .thenReturn(Page.empty());
-
-        Assertions.assertNull(businessService.getAverageStarRating(1));
+        Assertions.assertNull(businessService.getAverageStarRating(testBusiness.getId()));
     }
 
     /**
-     * Tests the getAverageStarRating method when there are reviews for a business, should return X
+     * Tests the getAverageStarRating method when there are reviews for a business,
+     * should return the average from the business' rating summary without loading its reviews
      */
     @Test
     void getAverageStarRating_withRatings_returns_Double() {
-        SaleListing saleListing = this.getSaleListings().get(0);
-        Sale sale = new Sale(saleListing);
-        User user = this.getTestUser();
-        List<Review> reviews = List.of(
-                new Review(sale, user, 4, ""),
-                new Review(sale, user, 1, ""),
-                new Review(sale, user, 2, ""),
-                new Review(sale, user, 5, ""),
-                new Review(sale, user, 1, ""),
-                new Review(sale, user, 4, ""),
-                new Review(sale, user, 1, ""),
-                new Review(sale, user, 4, ""));
-        Mockito.when(reviewRepository.findAllByBusinessId(any(Integer.class), any(Pageable.class)))
-                .thenReturn(new PageImpl<>(reviews));
+        RatingSummary summary = testBusiness.getRatingSummary();
+        summary.setReviewCount(8);
+        summary.setRatingTotal(22);
+
+        Assertions.assertEquals(2.75, businessService.getAverageStarRating(testBusiness.getId()));
+        verify(reviewRepository, times(0)).findAllByBusinessId(any(Integer.class), any(Pageable.class));
+    }
+
+    /**
+     * Tests the getAverageStarRating method for a business that doesn't exist, should return null
+     */
+    @Test
+    void getAverageStarRating_nonExistentBusiness_returns_null() {
+        Mockito.when(businessRepository.findById(200)).thenReturn(Optional.empty());
+
+        Assertions.assertNull(businessService.getAverageStarRating(200));
+    }
+
+    /**
+     * Tests that adding a review rating updates the business' rating summary in the repository,
+     * and records the change for the entity caches of the other nodes
+     */
+    @Test
+    void addReviewRating_validRating_updatesSummary() {
+        businessService.addReviewRating(testBusiness.getId(), 4);
+
+        verify(businessRepository, times(1)).addReviewRating(testBusiness.getId(), 4);
+        verify(entityCacheService, times(1)).recordBulkChange(Business.class);
+    }
+
+    /**
+     * Tests that rebuilding the rating summaries rebuilds them in the repository
+     * and returns the number of businesses with reviews
+     */
+    @Test
+    void rebuildRatingSummaries_withReviews_rebuildsSummaries() {
+        Mockito.when(reviewRepository.countRatedBusinesses()).thenReturn(2L);
 
-        //Calculating what the star rating should be
-        var total = 0.0;
-        for (var review: reviews) {
-            total += review.getRating();
-        }
-        Double average = total/reviews.size();
+        Assertions.assertEquals(2, businessService.rebuildRatingSummaries());
 
-        Assertions.assertEquals(average, businessService.getAverageStarRating(1));
+        verify(businessRepository, times(1)).rebuildRatingSummaries();
+        verify(entityCacheService, times(1)).recordBulkChange(Business.class);
     }
 
     /**
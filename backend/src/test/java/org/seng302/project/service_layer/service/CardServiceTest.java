@@ -14,19 +14,23 @@ import org.seng302.project.repository_layer.model.Card;
 import org.seng302.project.repository_layer.model.CardExpiryNotification;
 import org.seng302.project.repository_layer.model.Keyword;
 import org.seng302.project.repository_layer.model.User;
+import org.seng302.project.repository_layer.model.UserNotification;
 import org.seng302.project.repository_layer.repository.*;
 import org.seng302.project.service_layer.dto.card.CreateCardDTO;
 import org.seng302.project.service_layer.dto.card.EditCardDTO;
 import org.seng302.project.service_layer.dto.card.GetCardResponseDTO;
 import org.seng302.project.service_layer.exceptions.BadRequestException;
 import org.seng302.project.service_layer.exceptions.card.NoCardExistsException;
+import org.seng302.project.service_layer.util.SearchCounter;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -51,6 +55,7 @@ class CardServiceTest extends AbstractInitializer {
     private CardRepository cardRepository;
     private KeywordRepository keywordRepository;
     private UserNotificationRepository userNotificationRepository;
+    private MessageRepository messageRepository;
 
     @BeforeEach
     void setup() {
@@ -58,13 +63,15 @@ class CardServiceTest extends AbstractInitializer {
         this.keywordRepository = Mockito.mock(KeywordRepository.class);
         this.userNotificationRepository = Mockito.mock(UserNotificationRepository.class);
         UserRepository userRepository = Mockito.mock(UserRepository.class);
-        MessageRepository messageRepository = Mockito.mock(MessageRepository.class);
+        this.messageRepository = Mockito.mock(MessageRepository.class);
         this.cardService = new CardService(
                 this.cardRepository,
-                messageRepository,
+                this.messageRepository,
                 userRepository,
                 this.keywordRepository,
-                this.userNotificationRepository
+                this.userNotificationRepository,
+                new SearchCounter(Mockito.mock(SpecificationQueryRepository.class)),
+                Mockito.mock(PlatformTransactionManager.class)
         );
         this.initialise();
         testUser = this.getTestUser();
@@ -369,21 +376,26 @@ class CardServiceTest extends AbstractInitializer {
      */
     @Test
     void testCardExpirySendsNotification() {
-        //Mocking that the card is returned from the delete function, making it look like it was deleted
-        Mockito.when(cardRepository.findAllByDisplayPeriodEndBefore(any(LocalDateTime.class))).thenReturn(List.of(testUsersCard1));
+        //Mocking that the card is returned as expired
+        Mockito.when(cardRepository.findExpiredCards(any(LocalDateTime.class), any(Pageable.class)))
+                .thenReturn(List.<List<Object>>of(
+                        Arrays.asList(testUsersCard1.getId(), testUser.getId(), testUsersCard1.getTitle())));
 
         //Simulating an automatic call for removal of expired cards
         cardService.removeCardsAfter24Hrs();
 
-        //Verifies that a notification was created
-        verify(userNotificationRepository, times(1)).save(any(CardExpiryNotification.class));
-
-        //Retrieves the created notification
-        ArgumentCaptor<CardExpiryNotification> cardExpiryArgumentCaptor = ArgumentCaptor.forClass(CardExpiryNotification.class);
-        verify(userNotificationRepository).save(cardExpiryArgumentCaptor.capture());
-        CardExpiryNotification notification = cardExpiryArgumentCaptor.getValue();
+        //Verifies that the card was deleted along with its messages and keywords
+        verify(messageRepository).deleteByCardIds(List.of(testUsersCard1.getId()));
+        verify(cardRepository).deleteKeywordsByCardIds(List.of(testUsersCard1.getId()));
+        verify(cardRepository).deleteByIds(List.of(testUsersCard1.getId()));
 
+        //Retrieves the created notifications
+        ArgumentCaptor<List<UserNotification>> notificationsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(userNotificationRepository, times(1)).saveAll(notificationsCaptor.capture());
+        List<UserNotification> notifications = notificationsCaptor.getValue();
 
+        Assertions.assertEquals(1, notifications.size());
+        CardExpiryNotification notification = (CardExpiryNotification) notifications.get(0);
         Assertions.assertEquals(testUsersCard1.getTitle(), notification.getCardTitle());
     }
 }
\ No newline at end of file
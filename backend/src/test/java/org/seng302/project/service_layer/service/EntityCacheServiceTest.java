@@ -0,0 +1,264 @@
+package org.seng302.project.service_layer.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.seng302.project.AbstractInitializer;
+import org.seng302.project.repository_layer.model.*;
+import org.seng302.project.repository_layer.repository.*;
+import org.seng302.project.service_layer.dto.address.AddressDTO;
+import org.seng302.project.service_layer.dto.business.PostBusinessDTO;
+import org.seng302.project.service_layer.dto.product.DeleteProductImageDTO;
+import org.seng302.project.service_layer.dto.product.EditProductDTO;
+import org.seng302.project.service_layer.dto.product.SetPrimaryProductImageDTO;
+import org.seng302.project.service_layer.dto.review.PostReviewDTO;
+import org.seng302.project.service_layer.util.ImageUtil;
+import org.seng302.project.web_layer.authentication.AppUserDetails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Tests that the reference entities are kept in the second-level cache, and that the cache never serves
+ * them stale after they are edited, whether on this node or another one.
+ * Each step commits its own transaction, as it would when serving requests.
+ */
+@SpringBootTest
+class EntityCacheServiceTest extends AbstractInitializer {
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private EntityCacheService entityCacheService;
+    @Autowired
+    private BusinessService businessService;
+    @Autowired
+    private ProductCatalogueService productCatalogueService;
+    @Autowired
+    private ProductImageService productImageService;
+    @Autowired
+    private ReviewService reviewService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private AddressRepository addressRepository;
+    @Autowired
+    private BusinessRepository businessRepository;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private ImageRepository imageRepository;
+    @Autowired
+    private SaleHistoryRepository saleHistoryRepository;
+    @Autowired
+    private CacheInvalidationRepository cacheInvalidationRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @MockBean
+    private ImageUtil imageUtil;
+
+    private Cache cache;
+    private Statistics statistics;
+    private User owner;
+    private AppUserDetails appUser;
+    private Business business;
+    private Product product;
+    private Image firstImage;
+    private Image secondImage;
+
+    /**
+     * Before each test, setup a business with a product that has two images
+     */
+    @BeforeEach
+    void setup() {
+        cache = entityManagerFactory.getCache();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        owner = this.getTestUser();
+        addressRepository.save(owner.getHomeAddress());
+        owner.setId(null);
+        owner.setEmail(String.format("cache.owner.%d@gmail.com", System.nanoTime()));
+        owner = userRepository.save(owner);
+        appUser = new AppUserDetails(owner);
+
+        Address address = addressRepository.save(new Address(null, null, "Christchurch", null, "New Zealand", null));
+        business = businessRepository.save(new Business("Cached Business", null, address,
+                "Retail Trade", owner.getId()));
+
+        firstImage = imageRepository.save(new Image("first.png", "first_thumbnail.png"));
+        secondImage = imageRepository.save(new Image("second.png", "second_thumbnail.png"));
+        product = new Product("CACHE-" + System.nanoTime(), "Cached Product", null, null, 5.00, business.getId());
+        product.addImage(firstImage);
+        product.addImage(secondImage);
+        product = productRepository.save(product);
+    }
+
+    /**
+     * Runs a step in its own transaction, as the session is kept open for the whole of a request.
+     */
+    private void inTransaction(Runnable step) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> step.run());
+    }
+
+    /**
+     * Gets the ids of the product's images, which are loaded lazily so need a transaction to read.
+     */
+    private List<Integer> getImageIds() {
+        return new TransactionTemplate(transactionManager).execute(status ->
+                productRepository.findByIdAndBusinessId(product.getId(), business.getId()).orElseThrow()
+                        .getImages().stream().map(Image::getId).collect(Collectors.toList()));
+    }
+
+    /**
+     * Gets the hits of one of the entity regions of the cache.
+     */
+    private long getRegionHits(Class<?> entityClass) {
+        return statistics.getDomainDataRegionStatistics(entityClass.getName()).getHitCount();
+    }
+
+    /**
+     * Tests that a business and its address are read from the cache, and that editing the business
+     * updates what is read afterwards and records the change for the other nodes.
+     */
+    @Test
+    void editBusiness_businessCached_readsNewDetails() {
+        businessRepository.findById(business.getId());
+        Assertions.assertTrue(cache.contains(Business.class, business.getId()));
+        Assertions.assertTrue(cache.contains(Address.class, business.getAddress().getId()));
+        long businessHits = getRegionHits(Business.class);
+        businessRepository.findById(business.getId());
+        Assertions.assertTrue(getRegionHits(Business.class) > businessHits);
+
+        Integer lastInvalidationId = cacheInvalidationRepository.findLastId();
+        var address = new AddressDTO("20", "Kirkwood Avenue", "Auckland", "Auckland", "New Zealand", "1010");
+        inTransaction(() -> businessService.editBusiness(new PostBusinessDTO("Renamed Business",
+                "Now with a description", address, "Retail Trade", owner.getId()), business.getId(), appUser));
+
+        var edited = businessRepository.findProfileById(business.getId()).orElseThrow();
+        Assertions.assertEquals("Renamed Business", edited.getName());
+        Assertions.assertEquals("Now with a description", edited.getDescription());
+        Assertions.assertEquals("Auckland", edited.getAddress().getCity());
+
+        List<String> changed = cacheInvalidationRepository
+                .findAfter(lastInvalidationId == null ? 0 : lastInvalidationId, PageRequest.of(0, 100)).stream()
+                .filter(invalidation -> entityCacheService.getNodeId().equals(invalidation.getNodeId()))
+                .map(CacheInvalidation::getEntityName)
+                .collect(Collectors.toList());
+        Assertions.assertTrue(changed.contains(Business.class.getName()));
+        Assertions.assertTrue(changed.contains(Address.class.getName()));
+    }
+
+    /**
+     * Tests that finding a product is answered from the query cache, and that editing the product
+     * updates what is found afterwards.
+     */
+    @Test
+    void editProduct_productCached_readsNewDetails() {
+        productRepository.findByIdAndBusinessId(product.getId(), business.getId());
+        long queryHits = statistics.getQueryCacheHitCount();
+        productRepository.findByIdAndBusinessId(product.getId(), business.getId());
+        Assertions.assertTrue(statistics.getQueryCacheHitCount() > queryHits);
+
+        var dto = new EditProductDTO(product.getId(), "Renamed Product", "Now with a description",
+                "Manufacturer", 7.50);
+        dto.setBusinessId(business.getId());
+        dto.setProductId(product.getId());
+        dto.setAppUser(appUser);
+        inTransaction(() -> productCatalogueService.editProduct(dto));
+
+        var edited = productRepository.findByIdAndBusinessId(product.getId(), business.getId()).orElseThrow();
+        Assertions.assertEquals("Renamed Product", edited.getName());
+        Assertions.assertEquals("Now with a description", edited.getDescription());
+        Assertions.assertEquals(7.50, edited.getRecommendedRetailPrice());
+    }
+
+    /**
+     * Tests that changing the primary image of a product and deleting one of its images
+     * updates the cached product and its cached images.
+     */
+    @Test
+    void setPrimaryImageAndDeleteImage_imagesCached_readsNewImages() {
+        var cached = productRepository.findByIdAndBusinessId(product.getId(), business.getId()).orElseThrow();
+        Assertions.assertEquals(firstImage.getId(), cached.getPrimaryImageId());
+        Assertions.assertEquals(2, getImageIds().size());
+        Assertions.assertTrue(cache.contains(Image.class, secondImage.getId()));
+
+        inTransaction(() -> productImageService.setPrimaryImage(new SetPrimaryProductImageDTO(business.getId(),
+                product.getId(), secondImage.getId(), appUser)));
+        var edited = productRepository.findByIdAndBusinessId(product.getId(), business.getId()).orElseThrow();
+        Assertions.assertEquals(secondImage.getId(), edited.getPrimaryImageId());
+
+        inTransaction(() -> productImageService.deleteImage(new DeleteProductImageDTO(business.getId(),
+                product.getId(), secondImage.getId(), appUser)));
+        edited = productRepository.findByIdAndBusinessId(product.getId(), business.getId()).orElseThrow();
+        Assertions.assertEquals(firstImage.getId(), edited.getPrimaryImageId());
+        Assertions.assertEquals(List.of(firstImage.getId()), getImageIds());
+        Assertions.assertFalse(cache.contains(Image.class, secondImage.getId()));
+        Assertions.assertTrue(imageRepository.findById(secondImage.getId()).isEmpty());
+    }
+
+    /**
+     * Tests that a change recorded by another node evicts the changed entity, while changes recorded
+     * by this node and other entities are left alone.
+     */
+    @Test
+    void evictRemoteChanges_changedOnOtherNode_evicted() {
+        businessRepository.findById(business.getId());
+        entityCacheService.evictRemoteChanges();
+        Assertions.assertTrue(cache.contains(Business.class, business.getId()));
+
+        cacheInvalidationRepository.save(new CacheInvalidation(Business.class.getName(), "another-node"));
+        entityCacheService.evictRemoteChanges();
+
+        Assertions.assertFalse(cache.contains(Business.class, business.getId()));
+        Assertions.assertTrue(cache.contains(Address.class, business.getAddress().getId()));
+        Assertions.assertEquals("Cached Business",
+                businessRepository.findById(business.getId()).orElseThrow().getName());
+    }
+
+    /**
+     * Tests that posting a review, which adds its rating to the cached business with a bulk update,
+     * records the change so that another node evicts the business and reads its new rating summary.
+     */
+    @Test
+    void newReview_businessCached_evictedOnOtherNode() {
+        var sale = new Sale();
+        sale.setBusiness(business);
+        sale.setBuyerId(owner.getId());
+        Integer saleId = saleHistoryRepository.save(sale).getSaleId();
+        Integer lastInvalidationId = cacheInvalidationRepository.findLastId();
+
+        inTransaction(() -> reviewService.newReview(owner.getId(), saleId, new PostReviewDTO(4, "Good product"),
+                appUser));
+
+        List<String> changed = cacheInvalidationRepository
+                .findAfter(lastInvalidationId == null ? 0 : lastInvalidationId, PageRequest.of(0, 100)).stream()
+                .filter(invalidation -> entityCacheService.getNodeId().equals(invalidation.getNodeId()))
+                .map(CacheInvalidation::getEntityName)
+                .collect(Collectors.toList());
+        Assertions.assertTrue(changed.contains(Business.class.getName()));
+
+        // Stand in for another node that has the business cached, by reading the change as another node's record
+        businessRepository.findById(business.getId());
+        Assertions.assertTrue(cache.contains(Business.class, business.getId()));
+        for (String entityName : changed) {
+            cacheInvalidationRepository.save(new CacheInvalidation(entityName, "another-node"));
+        }
+        entityCacheService.evictRemoteChanges();
+
+        Assertions.assertFalse(cache.contains(Business.class, business.getId()));
+        Assertions.assertEquals(1, businessRepository.findById(business.getId()).orElseThrow()
+                .getRatingSummary().getReviewCount());
+    }
+}
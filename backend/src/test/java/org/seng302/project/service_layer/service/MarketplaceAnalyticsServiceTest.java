@@ -0,0 +1,331 @@
+package org.seng302.project.service_layer.service;
+
+import net.minidev.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.seng302.project.AbstractInitializer;
+import org.seng302.project.repository_layer.model.*;
+import org.seng302.project.repository_layer.repository.*;
+import org.seng302.project.service_layer.dto.statistics.GetMarketplaceSalesDTO;
+import org.seng302.project.service_layer.dto.statistics.GetTopBusinessDTO;
+import org.seng302.project.service_layer.exceptions.BadRequestException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+
+/**
+ * Tests that the marketplace events are added to the rollups as they are recorded or folded, that the rollups can be
+ * rebuilt from the events, and that the marketplace analytics are answered from the rollups.
+ */
+@DataJpaTest
+class MarketplaceAnalyticsServiceTest extends AbstractInitializer {
+
+    private static final String PERIOD_START = "2021-03-01";
+    private static final String PERIOD_END = "2021-04-30";
+
+    private final UserRepository userRepository;
+    private final AddressRepository addressRepository;
+    private final BusinessRepository businessRepository;
+    private final ProductRepository productRepository;
+    private final InventoryItemRepository inventoryItemRepository;
+    private final SaleListingRepository saleListingRepository;
+    private final SaleHistoryRepository saleHistoryRepository;
+    private final MarketplaceEventRepository marketplaceEventRepository;
+    private final MarketplaceRollupRepository marketplaceRollupRepository;
+    private final MarketplaceAnalyticsService marketplaceAnalyticsService;
+
+    private Business retailBusiness;
+    private Business farmBusiness;
+    private InventoryItem inventoryItem;
+
+    @Autowired
+    MarketplaceAnalyticsServiceTest(UserRepository userRepository,
+                                    AddressRepository addressRepository,
+                                    BusinessRepository businessRepository,
+                                    ProductRepository productRepository,
+                                    InventoryItemRepository inventoryItemRepository,
+                                    SaleListingRepository saleListingRepository,
+                                    SaleHistoryRepository saleHistoryRepository,
+                                    MarketplaceEventRepository marketplaceEventRepository,
+                                    MarketplaceRollupRepository marketplaceRollupRepository,
+                                    PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.addressRepository = addressRepository;
+        this.businessRepository = businessRepository;
+        this.productRepository = productRepository;
+        this.inventoryItemRepository = inventoryItemRepository;
+        this.saleListingRepository = saleListingRepository;
+        this.saleHistoryRepository = saleHistoryRepository;
+        this.marketplaceEventRepository = marketplaceEventRepository;
+        this.marketplaceRollupRepository = marketplaceRollupRepository;
+        this.marketplaceAnalyticsService = new MarketplaceAnalyticsService(marketplaceEventRepository,
+                marketplaceRollupRepository, saleListingRepository, saleHistoryRepository, transactionManager);
+    }
+
+    /**
+     * Before each test, setup a retail business in New Zealand and a farm in Australia,
+     * with no marketplace events or sales
+     */
+    @BeforeEach
+    void setup() {
+        User owner = this.getTestUserBusinessAdmin();
+        addressRepository.save(owner.getHomeAddress());
+        owner.setId(null);
+        owner = userRepository.save(owner);
+
+        Address nzAddress = addressRepository.save(new Address(null, null, "Christchurch", null, "New Zealand", null));
+        retailBusiness = businessRepository.save(new Business("Retail Business", null, nzAddress,
+                "Retail Trade", owner.getId()));
+        Address auAddress = addressRepository.save(new Address(null, null, "Sydney", null, "Australia", null));
+        farmBusiness = businessRepository.save(new Business("Farm Business", null, auAddress,
+                "Accommodation and Food Services", owner.getId()));
+
+        Product product = productRepository.save(new Product("ANALYTICS-1", "Analytics Product", null, null,
+                5.00, retailBusiness.getId()));
+        inventoryItem = inventoryItemRepository.save(new InventoryItem(product, 10, null, null,
+                "2021-01-01", null, null, "2099-12-31"));
+
+        marketplaceEventRepository.deleteAllInBatch();
+        marketplaceRollupRepository.deleteAllRollups();
+        saleHistoryRepository.deleteAll();
+    }
+
+    private SaleListing createListing(Business business, double price, int quantity) {
+        return saleListingRepository.save(new SaleListing(business, inventoryItem, price, null,
+                LocalDateTime.now().plusDays(7), quantity));
+    }
+
+    /**
+     * Records the sale of a listing with the given number of likes, as a purchase does.
+     */
+    private void sell(SaleListing listing, int likes, LocalDateTime dateSold) {
+        Sale sale = new Sale(listing);
+        sale.setDateSold(dateSold);
+        marketplaceAnalyticsService.recordSale(listing, sale, likes);
+    }
+
+    /**
+     * Tests that recording a business' events adds them to the rollup of the day they happened on, once the likes,
+     * unlikes and expiries are folded in, which the listing statistics are then answered from
+     */
+    @Test
+    void record_severalEvents_addedToRollup() {
+        SaleListing sold = createListing(retailBusiness, 10.00, 2);
+        SaleListing liked = createListing(retailBusiness, 4.00, 1);
+        marketplaceAnalyticsService.recordListingCreated(sold);
+        marketplaceAnalyticsService.recordListingCreated(liked);
+        marketplaceAnalyticsService.recordLike(sold);
+        marketplaceAnalyticsService.recordLike(sold);
+        marketplaceAnalyticsService.recordLike(liked);
+        marketplaceAnalyticsService.recordUnlike(liked);
+        sell(sold, 2, LocalDateTime.now());
+        marketplaceAnalyticsService.recordExpired(List.of(liked.getId()));
+        marketplaceAnalyticsService.foldEvents();
+
+        String today = LocalDate.now().toString();
+        JSONObject statistics = marketplaceAnalyticsService.getListingStatistics(today, today);
+        Assertions.assertEquals(2L, statistics.get("listingsCreated"));
+        Assertions.assertEquals(1L, statistics.get("listingsSold"));
+        Assertions.assertEquals(1L, statistics.get("listingsExpired"));
+        Assertions.assertEquals(0.5, statistics.get("sellThroughRate"));
+        Assertions.assertEquals(3L, statistics.get("likes"));
+        Assertions.assertEquals(1L, statistics.get("unlikes"));
+        Assertions.assertEquals(2L, statistics.get("likesConverted"));
+        Assertions.assertEquals(1.0, statistics.get("likeConversionRate"));
+        Assertions.assertEquals(8, marketplaceEventRepository.count());
+        Assertions.assertEquals(1, marketplaceRollupRepository.count());
+    }
+
+    /**
+     * Tests that likes, unlikes and expiries are only appended to the log when recorded, and are added to the rollups
+     * exactly once however many times the log is folded
+     */
+    @Test
+    void foldEvents_likesAndExpiries_addedToRollupOnce() {
+        SaleListing listing = createListing(retailBusiness, 10.00, 2);
+        marketplaceAnalyticsService.recordLike(listing);
+        marketplaceAnalyticsService.recordLike(listing);
+        marketplaceAnalyticsService.recordUnlike(listing);
+        marketplaceAnalyticsService.recordExpired(List.of(listing.getId()));
+
+        Assertions.assertEquals(0, marketplaceRollupRepository.count());
+
+        marketplaceAnalyticsService.foldEvents();
+        marketplaceAnalyticsService.foldEvents();
+
+        String today = LocalDate.now().toString();
+        JSONObject statistics = marketplaceAnalyticsService.getListingStatistics(today, today);
+        Assertions.assertEquals(2L, statistics.get("likes"));
+        Assertions.assertEquals(1L, statistics.get("unlikes"));
+        Assertions.assertEquals(1L, statistics.get("listingsExpired"));
+        Assertions.assertEquals(1, marketplaceRollupRepository.count());
+    }
+
+    /**
+     * Tests that the rates are null when there are no listings or likes in the period
+     */
+    @Test
+    void getListingStatistics_noEvents_ratesNull() {
+        JSONObject statistics = marketplaceAnalyticsService.getListingStatistics(PERIOD_START, PERIOD_END);
+
+        Assertions.assertEquals(0L, statistics.get("listingsCreated"));
+        Assertions.assertNull(statistics.get("sellThroughRate"));
+        Assertions.assertNull(statistics.get("likeConversionRate"));
+    }
+
+    /**
+     * Tests that the sales are split into periods of the granularity and by the country and type of the businesses
+     */
+    @Test
+    void getSales_monthly_groupedByCountryAndType() {
+        sell(createListing(retailBusiness, 10.00, 2), 0, LocalDateTime.of(2021, 3, 1, 10, 0));
+        sell(createListing(retailBusiness, 5.00, 1), 0, LocalDateTime.of(2021, 3, 20, 10, 0));
+        sell(createListing(farmBusiness, 7.50, 3), 0, LocalDateTime.of(2021, 3, 5, 10, 0));
+        sell(createListing(retailBusiness, 2.00, 1), 0, LocalDateTime.of(2021, 4, 2, 10, 0));
+
+        List<GetMarketplaceSalesDTO> sales = marketplaceAnalyticsService.getSales(PERIOD_START, PERIOD_END,
+                "monthly");
+
+        Assertions.assertEquals(3, sales.size());
+        GetMarketplaceSalesDTO retailMarch = sales.stream().filter(period -> "New Zealand".equals(period.getCountry())
+                && period.getPeriodStart().getMonthValue() == 3).findFirst().orElseThrow();
+        Assertions.assertEquals("Retail Trade", retailMarch.getBusinessType());
+        Assertions.assertEquals(LocalDate.of(2021, 3, 31), retailMarch.getPeriodEnd());
+        Assertions.assertEquals(2, retailMarch.getPurchaseCount());
+        Assertions.assertEquals(15.00, retailMarch.getTotalPurchaseValue(), 0.001);
+        Assertions.assertEquals(3L, retailMarch.getTotalQuantity());
+        GetMarketplaceSalesDTO farmMarch = sales.stream().filter(period -> "Australia".equals(period.getCountry()))
+                .findFirst().orElseThrow();
+        Assertions.assertEquals(1, farmMarch.getPurchaseCount());
+        Assertions.assertEquals(LocalDate.of(2021, 4, 1), sales.get(2).getPeriodStart());
+        Assertions.assertEquals(LocalDate.of(2021, 4, 30), sales.get(2).getPeriodEnd());
+    }
+
+    /**
+     * Tests that the businesses are ordered by revenue, and only as many as the limit are returned
+     */
+    @Test
+    void getTopBusinesses_limit_highestRevenueFirst() {
+        sell(createListing(retailBusiness, 10.00, 1), 0, LocalDateTime.of(2021, 3, 1, 10, 0));
+        sell(createListing(farmBusiness, 30.00, 1), 0, LocalDateTime.of(2021, 3, 2, 10, 0));
+        sell(createListing(farmBusiness, 5.00, 1), 0, LocalDateTime.of(2021, 3, 3, 10, 0));
+
+        List<GetTopBusinessDTO> businesses = marketplaceAnalyticsService.getTopBusinesses(PERIOD_START, PERIOD_END, 2);
+        Assertions.assertEquals(2, businesses.size());
+        Assertions.assertEquals(farmBusiness.getId(), businesses.get(0).getBusinessId());
+        Assertions.assertEquals("Farm Business", businesses.get(0).getName());
+        Assertions.assertEquals("Australia", businesses.get(0).getCountry());
+        Assertions.assertEquals(2, businesses.get(0).getPurchaseCount());
+        Assertions.assertEquals(35.00, businesses.get(0).getTotalPurchaseValue(), 0.001);
+        Assertions.assertEquals(retailBusiness.getId(), businesses.get(1).getBusinessId());
+
+        Assertions.assertEquals(1, marketplaceAnalyticsService.getTopBusinesses(PERIOD_START, PERIOD_END, 1).size());
+    }
+
+    /**
+     * Tests that rebuilding the rollups from the events gives the same analytics as adding each event as it happens
+     */
+    @Test
+    void rebuildRollups_fromEvents_sameAsIncremental() {
+        SaleListing listing = createListing(retailBusiness, 10.00, 2);
+        marketplaceAnalyticsService.recordListingCreated(listing);
+        marketplaceAnalyticsService.recordLike(listing);
+        sell(listing, 1, LocalDateTime.of(2021, 3, 1, 10, 0));
+        sell(createListing(farmBusiness, 7.50, 3), 0, LocalDateTime.of(2021, 3, 1, 11, 0));
+        sell(createListing(farmBusiness, 2.50, 1), 0, LocalDateTime.of(2021, 3, 2, 11, 0));
+        marketplaceAnalyticsService.foldEvents();
+
+        String today = LocalDate.now().toString();
+        JSONObject incrementalStatistics = marketplaceAnalyticsService.getListingStatistics(PERIOD_START, today);
+        List<GetMarketplaceSalesDTO> incrementalSales = marketplaceAnalyticsService.getSales(PERIOD_START, today,
+                "daily");
+
+        Assertions.assertEquals(4, marketplaceAnalyticsService.rebuildRollups());
+        marketplaceAnalyticsService.foldEvents();
+
+        Assertions.assertEquals(incrementalStatistics,
+                marketplaceAnalyticsService.getListingStatistics(PERIOD_START, today));
+        List<GetMarketplaceSalesDTO> rebuiltSales = marketplaceAnalyticsService.getSales(PERIOD_START, today, "daily");
+        Assertions.assertEquals(incrementalSales.size(), rebuiltSales.size());
+        for (int i = 0; i < incrementalSales.size(); i++) {
+            Assertions.assertEquals(incrementalSales.get(i).getPeriodStart(), rebuiltSales.get(i).getPeriodStart());
+            Assertions.assertEquals(incrementalSales.get(i).getCountry(), rebuiltSales.get(i).getCountry());
+            Assertions.assertEquals(incrementalSales.get(i).getPurchaseCount(),
+                    rebuiltSales.get(i).getPurchaseCount());
+            Assertions.assertEquals(incrementalSales.get(i).getTotalPurchaseValue(),
+                    rebuiltSales.get(i).getTotalPurchaseValue(), 0.001);
+            Assertions.assertEquals(incrementalSales.get(i).getTotalQuantity(),
+                    rebuiltSales.get(i).getTotalQuantity());
+        }
+    }
+
+    /**
+     * Tests that the startup backfill records the sales, listings and likes when there are no events,
+     * and builds the rollups from them
+     */
+    @Test
+    void backfillEvents_noEvents_eventsAndRollupsBuilt() {
+        SaleListing listing = createListing(retailBusiness, 10.00, 2);
+        Sale sale = new Sale(listing);
+        sale.setDateSold(LocalDateTime.of(2021, 3, 1, 10, 0));
+        sale.setCreated(LocalDateTime.of(2021, 2, 27, 10, 0));
+        saleHistoryRepository.save(sale);
+
+        marketplaceAnalyticsService.backfillEvents();
+
+        // The sale, its listing being created and the current listing being created
+        Assertions.assertEquals(3, marketplaceEventRepository.count());
+        JSONObject statistics = marketplaceAnalyticsService.getListingStatistics("2021-02-01", PERIOD_END);
+        Assertions.assertEquals(1L, statistics.get("listingsCreated"));
+        Assertions.assertEquals(1L, statistics.get("listingsSold"));
+        List<GetTopBusinessDTO> businesses = marketplaceAnalyticsService.getTopBusinesses(PERIOD_START, PERIOD_END, 10);
+        Assertions.assertEquals(1, businesses.size());
+        Assertions.assertEquals(10.00, businesses.get(0).getTotalPurchaseValue(), 0.001);
+    }
+
+    /**
+     * Tests that if another transaction creates the rollup of the day first, a ConcurrencyFailureException is
+     * thrown so the caller retries
+     */
+    @Test
+    void recordListingCreated_rollupCreatedConcurrently_concurrencyFailureException() {
+        var rollupRepository = Mockito.mock(MarketplaceRollupRepository.class);
+        Mockito.when(rollupRepository.createRollup(any(), any(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt(),
+                anyInt(), anyDouble(), anyLong())).thenThrow(new DataIntegrityViolationException("Duplicate key"));
+        var service = new MarketplaceAnalyticsService(Mockito.mock(MarketplaceEventRepository.class),
+                rollupRepository, saleListingRepository, saleHistoryRepository,
+                Mockito.mock(PlatformTransactionManager.class));
+        SaleListing listing = createListing(retailBusiness, 10.00, 1);
+
+        Assertions.assertThrows(ConcurrencyFailureException.class, () -> service.recordListingCreated(listing));
+    }
+
+    /**
+     * Tests that invalid dates, granularities and limits are rejected
+     */
+    @Test
+    void getAnalytics_invalidParameters_badRequestException() {
+        Assertions.assertThrows(BadRequestException.class,
+                () -> marketplaceAnalyticsService.getSales("2021-13-01", PERIOD_END, "monthly"));
+        Assertions.assertThrows(BadRequestException.class,
+                () -> marketplaceAnalyticsService.getSales(PERIOD_END, PERIOD_START, "monthly"));
+        Assertions.assertThrows(BadRequestException.class,
+                () -> marketplaceAnalyticsService.getSales(PERIOD_START, PERIOD_END, "hourly"));
+        Assertions.assertThrows(BadRequestException.class,
+                () -> marketplaceAnalyticsService.getTopBusinesses(PERIOD_START, PERIOD_END, 0));
+        Assertions.assertThrows(BadRequestException.class,
+                () -> marketplaceAnalyticsService.getTopBusinesses(PERIOD_START, PERIOD_END, 101));
+        Assertions.assertThrows(BadRequestException.class,
+                () -> marketplaceAnalyticsService.getListingStatistics("yesterday", PERIOD_END));
+    }
+}
@@ -0,0 +1,82 @@
+package org.seng302.project.service_layer.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.seng302.project.AbstractInitializer;
+import org.seng302.project.MetricsConfig;
+import org.seng302.project.repository_layer.repository.KeywordRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Tests that the repository methods and scheduled jobs are timed, and that the metrics are served
+ * in the Prometheus format along with the ones Spring Boot records.
+ */
+@SpringBootTest
+class MetricsServiceTest extends AbstractInitializer {
+
+    @Autowired
+    private MetricsService metricsService;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private KeywordRepository keywordRepository;
+    @Autowired
+    private LostPasswordService lostPasswordService;
+
+    /**
+     * Gets the number of times a timer has been recorded, or zero if it hasn't been yet.
+     */
+    private long getCount(Timer timer) {
+        return timer == null ? 0 : timer.count();
+    }
+
+    /**
+     * Tests that calling a repository method records its time, tagged with the repository and method.
+     */
+    @Test
+    void repositoryMethod_called_timed() {
+        var search = meterRegistry.find(MetricsConfig.REPOSITORY_TIMER)
+                .tag("repository", "KeywordRepository")
+                .tag("method", "findByName")
+                .tag("outcome", "SUCCESS");
+        long countBefore = getCount(search.timer());
+
+        keywordRepository.findByName("Timed");
+
+        Assertions.assertEquals(countBefore + 1, getCount(search.timer()));
+    }
+
+    /**
+     * Tests that running a scheduled job records its time, tagged with the job.
+     */
+    @Test
+    void scheduledJob_run_timed() {
+        var search = meterRegistry.find(MetricsConfig.SCHEDULED_JOB_TIMER)
+                .tag("job", "LostPasswordService.removeConfirmationTokenAfter1Hr");
+        long countBefore = getCount(search.timer());
+
+        lostPasswordService.removeConfirmationTokenAfter1Hr();
+
+        Assertions.assertEquals(countBefore + 1, getCount(search.timer()));
+    }
+
+    /**
+     * Tests that the metrics include the repository timings with their percentiles,
+     * and the connection pool and JVM metrics.
+     */
+    @Test
+    void getMetrics_prometheusFormat_includesAllMetrics() {
+        keywordRepository.findByName("Timed");
+
+        String metrics = metricsService.getMetrics();
+
+        Assertions.assertTrue(metrics.contains("repository_invocations_seconds_count{"));
+        Assertions.assertTrue(metrics.contains("quantile=\"0.95\""));
+        Assertions.assertTrue(metrics.contains("hikaricp_connections_active"));
+        Assertions.assertTrue(metrics.contains("jvm_memory_used_bytes"));
+        Assertions.assertTrue(metrics.contains("jvm_gc_pause_seconds") || metrics.contains("jvm_gc_memory"));
+    }
+}
@@ -0,0 +1,173 @@
+package org.seng302.project.service_layer.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.seng302.project.AbstractInitializer;
+import org.seng302.project.repository_layer.model.InterestedUserNotification;
+import org.seng302.project.repository_layer.model.PurchaseOutboxEvent;
+import org.seng302.project.repository_layer.model.User;
+import org.seng302.project.repository_layer.model.UserNotification;
+import org.seng302.project.repository_layer.repository.AddressRepository;
+import org.seng302.project.repository_layer.repository.PurchaseOutboxEventRepository;
+import org.seng302.project.repository_layer.repository.UserNotificationRepository;
+import org.seng302.project.repository_layer.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@DataJpaTest
+class PurchaseNotificationServiceTest extends AbstractInitializer {
+
+    private final AddressRepository addressRepository;
+    private final UserRepository userRepository;
+    private final UserNotificationRepository userNotificationRepository;
+    private final PurchaseOutboxEventRepository purchaseOutboxEventRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    private final PurchaseNotificationService purchaseNotificationService;
+
+    User buyer;
+    User interestedUser;
+    User otherInterestedUser;
+
+    @Autowired
+    PurchaseNotificationServiceTest(AddressRepository addressRepository,
+                                    UserRepository userRepository,
+                                    UserNotificationRepository userNotificationRepository,
+                                    PurchaseOutboxEventRepository purchaseOutboxEventRepository,
+                                    DataSource dataSource,
+                                    PlatformTransactionManager transactionManager) {
+        this.addressRepository = addressRepository;
+        this.userRepository = userRepository;
+        this.userNotificationRepository = userNotificationRepository;
+        this.purchaseOutboxEventRepository = purchaseOutboxEventRepository;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.purchaseNotificationService = new PurchaseNotificationService(purchaseOutboxEventRepository,
+                jdbcTemplate, transactionManager);
+    }
+
+    /**
+     * Before each test, setup a buyer and two users who liked the listing they bought
+     */
+    @BeforeEach
+    void setup() {
+        this.initialise();
+        buyer = saveUser(this.getTestUser());
+        interestedUser = saveUser(this.getTestOtherUser());
+        otherInterestedUser = saveUser(this.getTestUserBusinessAdmin());
+    }
+
+    /**
+     * Saves a copy of a test user
+     */
+    private User saveUser(User user) {
+        addressRepository.save(user.getHomeAddress());
+        user.setId(null);
+        return userRepository.save(user);
+    }
+
+    /**
+     * Saves an outbox entry for a purchase
+     */
+    private PurchaseOutboxEvent saveEvent(Integer listingId, String productName, Set<Integer> recipientIds) {
+        var event = new PurchaseOutboxEvent();
+        event.setListingId(listingId);
+        event.setBuyerId(buyer.getId());
+        event.setMessage(String.format("The sale listing for '%s' you liked has been sold to another user.",
+                productName));
+        event.getRecipientIds().addAll(recipientIds);
+        return purchaseOutboxEventRepository.save(event);
+    }
+
+    /**
+     * Tests that each recipient of a purchase gets an interested user notification,
+     * and the purchase is removed from the outbox along with its recipients
+     */
+    @Test
+    void sendPurchaseNotifications_twoRecipients_notificationsSent() {
+        saveEvent(1, "Beans", Set.of(interestedUser.getId(), otherInterestedUser.getId()));
+
+        purchaseNotificationService.sendPurchaseNotifications();
+
+        List<UserNotification> notifications = userNotificationRepository.findAll();
+        Assertions.assertEquals(2, notifications.size());
+        for (UserNotification notification : notifications) {
+            Assertions.assertTrue(notification instanceof InterestedUserNotification);
+            Assertions.assertEquals("interested", notification.getType());
+            Assertions.assertEquals("The sale listing for 'Beans' you liked has been sold to another user.",
+                    notification.getMessage());
+            Assertions.assertFalse(notification.isRead());
+        }
+        Assertions.assertEquals(Set.of(interestedUser.getId(), otherInterestedUser.getId()),
+                Set.of(notifications.get(0).getUser().getId(), notifications.get(1).getUser().getId()));
+
+        Assertions.assertEquals(0, purchaseOutboxEventRepository.count());
+        Assertions.assertEquals(0, jdbcTemplate.queryForObject(
+                "select count(*) from purchase_outbox_recipient", Integer.class));
+    }
+
+    /**
+     * Tests that purchases with no recipients are removed from the outbox without sending any notifications
+     */
+    @Test
+    void sendPurchaseNotifications_noRecipients_removedFromOutbox() {
+        saveEvent(1, "Beans", Set.of());
+
+        purchaseNotificationService.sendPurchaseNotifications();
+
+        Assertions.assertEquals(0, userNotificationRepository.count());
+        Assertions.assertEquals(0, purchaseOutboxEventRepository.count());
+    }
+
+    /**
+     * Tests that when there are more purchases in the outbox than fit in a batch, they are all sent in several batches,
+     * and the statistics count the purchases, notifications and batches
+     */
+    @Test
+    void sendPurchaseNotifications_moreThanBatch_allSentInBatches() {
+        for (var listingId = 1; listingId <= 150; listingId++) {
+            saveEvent(listingId, "Beans", Set.of(interestedUser.getId()));
+        }
+
+        purchaseNotificationService.sendPurchaseNotifications();
+
+        Assertions.assertEquals(150, userNotificationRepository.count());
+        var statistics = purchaseNotificationService.getStatistics();
+        Assertions.assertEquals(0L, statistics.get("pending"));
+        Assertions.assertEquals(150L, statistics.get("purchasesProcessed"));
+        Assertions.assertEquals(150L, statistics.get("notificationsSent"));
+        Assertions.assertEquals(2L, statistics.get("batches"));
+    }
+
+    /**
+     * Tests that purchases claimed by another worker are left for that worker to send,
+     * unless the claim has expired
+     */
+    @Test
+    void sendPurchaseNotifications_claimedByOtherWorker_onlyExpiredClaimSent() {
+        var claimed = saveEvent(1, "Beans", Set.of(interestedUser.getId()));
+        claimed.setClaimedBy("other worker");
+        claimed.setClaimedAt(LocalDateTime.now());
+        var expired = saveEvent(2, "Apples", Set.of(otherInterestedUser.getId()));
+        expired.setClaimedBy("stopped worker");
+        expired.setClaimedAt(LocalDateTime.now().minusHours(1));
+        purchaseOutboxEventRepository.saveAll(List.of(claimed, expired));
+
+        purchaseNotificationService.sendPurchaseNotifications();
+
+        List<UserNotification> notifications = userNotificationRepository.findAll();
+        Assertions.assertEquals(1, notifications.size());
+        Assertions.assertEquals(otherInterestedUser.getId(), notifications.get(0).getUser().getId());
+        Assertions.assertEquals(expired.getId(), notifications.get(0).getPurchaseEventId());
+        Assertions.assertEquals(List.of(claimed.getId()), purchaseOutboxEventRepository.findAll().stream()
+                .map(PurchaseOutboxEvent::getId).collect(Collectors.toList()));
+    }
+}
@@ -13,6 +13,7 @@ import org.seng302.project.service_layer.dto.review.GetReviewDTO;
 import org.seng302.project.service_layer.dto.review.PostReviewDTO;
 import org.seng302.project.service_layer.exceptions.ForbiddenException;
 import org.seng302.project.service_layer.exceptions.NotAcceptableException;
+import org.seng302.project.service_layer.util.SalesReportCache;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
@@ -39,6 +40,8 @@ class ReviewServiceTest extends AbstractInitializer {
     private final ReviewService reviewService;
     private final SaleHistoryRepository saleHistoryRepository;
     private final BusinessNotificationRepository businessNotificationRepository;
+    private final SalesRollupService salesRollupService;
+    private final SalesReportCache salesReportCache;
 
     private User testUser;
     private User testAdmin;
@@ -63,8 +66,11 @@ class ReviewServiceTest extends AbstractInitializer {
         this.businessService = Mockito.mock(BusinessService.class);
         this.businessNotificationRepository = Mockito.mock(
                 BusinessNotificationRepository.class);
+        this.salesRollupService = Mockito.mock(SalesRollupService.class);
+        this.salesReportCache = Mockito.mock(SalesReportCache.class);
         this.reviewService = new ReviewService(businessService, userService, this.reviewRepository,
-                this.saleHistoryRepository, userNotificationRepository, this.businessNotificationRepository);
+                this.saleHistoryRepository, userNotificationRepository, this.businessNotificationRepository,
+                this.salesRollupService, this.salesReportCache);
     }
 
     @BeforeEach
@@ -236,6 +242,10 @@ class ReviewServiceTest extends AbstractInitializer {
 
         //Expect number of reviews from setup() plus the 1 from this test
         Assertions.assertEquals(numOfReviews + 1, reviews.size());
+        //Expect the rating to be added to the business' rating summary
+        Mockito.verify(businessService).addReviewRating(testBusiness.getId(), 5);
+        Mockito.verify(salesRollupService).addReview(Mockito.any(Sale.class), Mockito.eq(5));
+        Mockito.verify(salesReportCache).invalidate(testBusiness.getId(), sale.getDateSold().toLocalDate());
     }
 
     /**
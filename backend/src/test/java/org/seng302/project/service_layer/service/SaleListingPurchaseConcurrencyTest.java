@@ -0,0 +1,224 @@
+package org.seng302.project.service_layer.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.seng302.project.AbstractInitializer;
+import org.seng302.project.repository_layer.model.*;
+import org.seng302.project.repository_layer.repository.*;
+import org.seng302.project.service_layer.exceptions.BadRequestException;
+import org.seng302.project.service_layer.exceptions.NotAcceptableException;
+import org.seng302.project.service_layer.util.*;
+import org.seng302.project.web_layer.authentication.AppUserDetails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+
+/**
+ * Stress tests for buying sale listings from many threads at once.
+ * Each purchase needs to commit its own transaction, so these tests don't run inside a test transaction,
+ * and the context (along with its database) is thrown away afterwards.
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+class SaleListingPurchaseConcurrencyTest extends AbstractInitializer {
+
+    private static final int LISTING_COUNT = 5;
+    private static final int BUYERS_PER_LISTING = 120;
+
+    private final UserRepository userRepository;
+    private final BusinessRepository businessRepository;
+    private final AddressRepository addressRepository;
+    private final ProductRepository productRepository;
+    private final InventoryItemRepository inventoryItemRepository;
+    private final SaleListingRepository saleListingRepository;
+    private final SaleHistoryRepository saleHistoryRepository;
+    private final DailySalesRollupRepository dailySalesRollupRepository;
+    private final UserService userService;
+
+    private final SaleListingService saleListingService;
+
+    Business business;
+    InventoryItem inventoryItem;
+    List<Integer> listingIds;
+
+    @Autowired
+    SaleListingPurchaseConcurrencyTest(UserRepository userRepository,
+                                       BusinessRepository businessRepository,
+                                       AddressRepository addressRepository,
+                                       ProductRepository productRepository,
+                                       InventoryItemRepository inventoryItemRepository,
+                                       SaleListingRepository saleListingRepository,
+                                       LikedSaleListingRepository likedSaleListingRepository,
+                                       SaleHistoryRepository saleHistoryRepository,
+                                       UserNotificationRepository userNotificationRepository,
+                                       PurchaseOutboxEventRepository purchaseOutboxEventRepository,
+                                       DailySalesRollupRepository dailySalesRollupRepository,
+                                       MarketplaceEventRepository marketplaceEventRepository,
+                                       MarketplaceRollupRepository marketplaceRollupRepository,
+                                       EntityManager entityManager,
+                                       PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.businessRepository = businessRepository;
+        this.addressRepository = addressRepository;
+        this.productRepository = productRepository;
+        this.inventoryItemRepository = inventoryItemRepository;
+        this.saleListingRepository = saleListingRepository;
+        this.saleHistoryRepository = saleHistoryRepository;
+        this.dailySalesRollupRepository = dailySalesRollupRepository;
+        this.userService = Mockito.mock(UserService.class);
+
+        var specificationQueryRepository = new SpecificationQueryRepository(entityManager);
+        var searchCounter = new SearchCounter(specificationQueryRepository);
+        this.saleListingService = new SaleListingService(
+                userService,
+                Mockito.mock(BusinessService.class),
+                saleListingRepository,
+                likedSaleListingRepository,
+                saleHistoryRepository,
+                inventoryItemRepository,
+                userRepository,
+                userNotificationRepository,
+                purchaseOutboxEventRepository,
+                new SalesRollupService(dailySalesRollupRepository, saleHistoryRepository,
+                        new SalesReportCache(Mockito.mock(EntityCacheService.class)), transactionManager),
+                new MarketplaceAnalyticsService(marketplaceEventRepository, marketplaceRollupRepository,
+                        saleListingRepository, saleHistoryRepository, transactionManager),
+                new SaleListingSearchIndex(saleListingRepository, Mockito.mock(EntityCacheService.class)),
+                specificationQueryRepository,
+                searchCounter,
+                new SaleListingSearchCache(searchCounter),
+                new PopularListingsLeaderboard(saleListingRepository, Mockito.mock(EntityCacheService.class)),
+                new ListingExpiryQueue(saleListingRepository),
+                transactionManager);
+    }
+
+    /**
+     * Before each test, setup an inventory item with its whole quantity split between sale listings
+     */
+    @BeforeEach
+    void setup() {
+        User buyer = this.getTestUser();
+        addressRepository.save(buyer.getHomeAddress());
+        buyer.setId(null);
+        buyer.setEmail(String.format("buyer.%d@gmail.com", System.nanoTime()));
+        buyer = userRepository.save(buyer);
+        Mockito.when(userService.getUserByEmail(any(String.class))).thenReturn(buyer);
+
+        Address address = new Address(null, null, "Christchurch", null, "New Zealand", null);
+        addressRepository.save(address);
+        business = businessRepository.save(new Business("Flash Sale Business", null, address,
+                "Retail Trade", buyer.getId()));
+        Product product = productRepository.save(new Product("FLASH-" + System.nanoTime(), "Flash Product",
+                null, null, 5.00, business.getId()));
+        inventoryItem = inventoryItemRepository.save(new InventoryItem(product, LISTING_COUNT * 2, null, null,
+                "2021-01-01", null, null, "2099-12-31"));
+
+        listingIds = new ArrayList<>();
+        for (var i = 0; i < LISTING_COUNT; i++) {
+            listingIds.add(saleListingRepository.save(new SaleListing(business, inventoryItem, 10.00, null,
+                    LocalDateTime.now().plusDays(7), 2)).getId());
+            inventoryItemRepository.reserveQuantity(inventoryItem.getId(), 2);
+        }
+    }
+
+    /**
+     * Tests that when 120 buyers try to buy each listing at once, each listing is sold exactly once,
+     * every other buyer is told it has already been bought, and the inventory is reduced exactly once per listing.
+     * The business' sales rollup for the day counts each sale exactly once.
+     */
+    @Test
+    void buySaleListing_concurrentBuyers_eachListingSoldOnce() throws Exception {
+        AtomicInteger bought = new AtomicInteger();
+        AtomicInteger alreadyBought = new AtomicInteger();
+        List<Throwable> unexpected = new CopyOnWriteArrayList<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (var buyer = 0; buyer < BUYERS_PER_LISTING; buyer++) {
+            for (Integer listingId : listingIds) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        start.await();
+                        saleListingService.buySaleListing(listingId, new AppUserDetails(getTestUser()));
+                        bought.incrementAndGet();
+                    } catch (NotAcceptableException exception) {
+                        alreadyBought.incrementAndGet();
+                    } catch (Exception exception) {
+                        unexpected.add(exception);
+                    }
+                    return null;
+                }));
+            }
+        }
+
+        Assertions.assertTimeout(Duration.ofSeconds(60), () -> {
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        });
+        executor.shutdown();
+
+        Assertions.assertEquals(List.of(), unexpected);
+        Assertions.assertEquals(LISTING_COUNT, bought.get());
+        Assertions.assertEquals(LISTING_COUNT * (BUYERS_PER_LISTING - 1), alreadyBought.get());
+
+        List<Integer> soldListingIds = new ArrayList<>();
+        for (Sale sale : saleHistoryRepository.findAll()) {
+            if (listingIds.contains(sale.getOldListingId())) {
+                soldListingIds.add(sale.getOldListingId());
+            }
+        }
+        soldListingIds.sort(Integer::compareTo);
+        Assertions.assertEquals(listingIds, soldListingIds);
+        Assertions.assertTrue(saleListingRepository.findAllById(listingIds).isEmpty());
+        // The whole quantity was split between the listings, so the item is removed once they are all sold
+        Assertions.assertTrue(inventoryItemRepository.findById(inventoryItem.getId()).isEmpty());
+
+        List<DailySalesRollup> rollups = dailySalesRollupRepository.findWithinPeriod(business.getId(),
+                LocalDate.now().minusDays(1), LocalDate.now());
+        Assertions.assertEquals(1, rollups.size());
+        Assertions.assertEquals(LISTING_COUNT, rollups.get(0).getSaleCount());
+        Assertions.assertEquals(LISTING_COUNT * 2, rollups.get(0).getUnits());
+        Assertions.assertEquals(LISTING_COUNT * 10.00, rollups.get(0).getRevenue(), 0.001);
+        // Every purchase was made by the same buyer
+        Assertions.assertEquals(1, rollups.get(0).getBuyerCount());
+    }
+
+    /**
+     * Tests that a purchase which would take the inventory item's quantity below zero is rolled back
+     * without recording a sale or removing the listing.
+     */
+    @Test
+    void buySaleListing_notEnoughStock_purchaseRolledBack() {
+        // Leave less stock than the listing is for
+        inventoryItemRepository.sellQuantity(inventoryItem.getId(), LISTING_COUNT * 2 - 1);
+        Integer listingId = listingIds.get(0);
+        AppUserDetails appUser = new AppUserDetails(getTestUser());
+
+        Assertions.assertThrows(BadRequestException.class, () -> saleListingService.buySaleListing(listingId, appUser));
+
+        Assertions.assertTrue(saleHistoryRepository.findAll().stream()
+                .noneMatch(sale -> listingId.equals(sale.getOldListingId())));
+        Assertions.assertTrue(saleListingRepository.findById(listingId).isPresent());
+        Assertions.assertEquals(1, inventoryItemRepository.findQuantityById(inventoryItem.getId()));
+    }
+}
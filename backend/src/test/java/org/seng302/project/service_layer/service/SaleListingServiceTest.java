@@ -5,25 +5,50 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.seng302.project.AbstractInitializer;
 import org.seng302.project.repository_layer.model.*;
 import org.seng302.project.repository_layer.repository.*;
 import org.seng302.project.service_layer.dto.sale_listings.GetSaleListingDTO;
 import org.seng302.project.service_layer.dto.sale_listings.PostSaleListingDTO;
+import org.seng302.project.service_layer.dto.sale_listings.SaleListingFacetsDTO;
 import org.seng302.project.service_layer.dto.sale_listings.SearchSaleListingsDTO;
 import org.seng302.project.service_layer.exceptions.BadRequestException;
 import org.seng302.project.service_layer.exceptions.ForbiddenException;
 import org.seng302.project.service_layer.exceptions.InvalidDateException;
 import org.seng302.project.service_layer.exceptions.NotAcceptableException;
+import org.seng302.project.service_layer.dto.search.TotalCountDTO;
+import org.seng302.project.service_layer.util.CountMode;
+import org.seng302.project.service_layer.util.ListingExpiryQueue;
+import org.seng302.project.service_layer.util.SaleListingCursor;
+import org.seng302.project.service_layer.util.PopularListingsLeaderboard;
+import org.seng302.project.service_layer.util.SaleListingSearchCache;
+import org.seng302.project.service_layer.util.SaleListingSearchIndex;
+import org.seng302.project.service_layer.util.SalesReportCache;
+import org.seng302.project.service_layer.util.SearchCounter;
+import org.seng302.project.service_layer.util.SearchQueryParser;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
-
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static org.mockito.ArgumentMatchers.any;
 
@@ -42,8 +67,18 @@ class SaleListingServiceTest extends AbstractInitializer {
     private final BusinessService businessService;
     private final SaleHistoryRepository saleHistoryRepository;
     private final UserNotificationRepository userNotificationRepository;
+    private final PurchaseOutboxEventRepository purchaseOutboxEventRepository;
+    private final DailySalesRollupRepository dailySalesRollupRepository;
+    private final MarketplaceRollupRepository marketplaceRollupRepository;
+    private final SaleListingSearchIndex saleListingSearchIndex;
+    private final EntityCacheService entityCacheService;
+    private final SearchCounter searchCounter;
+    private final SaleListingSearchCache saleListingSearchCache;
+    private final PopularListingsLeaderboard popularListingsLeaderboard;
+    private final ListingExpiryQueue listingExpiryQueue;
 
     private final SaleListingService saleListingService;
+    private final PurchaseNotificationService purchaseNotificationService;
 
 
     Business business1;
@@ -71,7 +106,14 @@ class SaleListingServiceTest extends AbstractInitializer {
                            SaleListingRepository saleListingRepository,
                            LikedSaleListingRepository likedSaleListingRepository,
                            SaleHistoryRepository saleHistoryRepository,
-                           UserNotificationRepository userNotificationRepository) {
+                           UserNotificationRepository userNotificationRepository,
+                           PurchaseOutboxEventRepository purchaseOutboxEventRepository,
+                           DailySalesRollupRepository dailySalesRollupRepository,
+                           MarketplaceEventRepository marketplaceEventRepository,
+                           MarketplaceRollupRepository marketplaceRollupRepository,
+                           EntityManager entityManager,
+                           DataSource dataSource,
+                           PlatformTransactionManager transactionManager) {
         this.userRepository = userRepository;
         this.businessRepository = businessRepository;
         this.addressRepository = addressRepository;
@@ -81,9 +123,19 @@ class SaleListingServiceTest extends AbstractInitializer {
         this.likedSaleListingRepository = likedSaleListingRepository;
         this.saleHistoryRepository = saleHistoryRepository;
         this.userNotificationRepository = userNotificationRepository;
+        this.purchaseOutboxEventRepository = purchaseOutboxEventRepository;
+        this.dailySalesRollupRepository = dailySalesRollupRepository;
+        this.marketplaceRollupRepository = marketplaceRollupRepository;
 
         this.userService = Mockito.mock(UserService.class);
         this.businessService = Mockito.mock(BusinessService.class);
+        this.entityCacheService = Mockito.mock(EntityCacheService.class);
+        this.saleListingSearchIndex = new SaleListingSearchIndex(saleListingRepository, entityCacheService);
+        var specificationQueryRepository = new SpecificationQueryRepository(entityManager);
+        this.searchCounter = new SearchCounter(specificationQueryRepository);
+        this.saleListingSearchCache = new SaleListingSearchCache(searchCounter);
+        this.popularListingsLeaderboard = new PopularListingsLeaderboard(saleListingRepository, entityCacheService);
+        this.listingExpiryQueue = new ListingExpiryQueue(saleListingRepository);
 
         this.saleListingService = new SaleListingService(
                 userService,
@@ -93,7 +145,21 @@ class SaleListingServiceTest extends AbstractInitializer {
                 this.saleHistoryRepository,
                 this.inventoryItemRepository,
                 this.userRepository,
-                this.userNotificationRepository);
+                this.userNotificationRepository,
+                this.purchaseOutboxEventRepository,
+                new SalesRollupService(dailySalesRollupRepository, saleHistoryRepository,
+                        new SalesReportCache(Mockito.mock(EntityCacheService.class)), transactionManager),
+                new MarketplaceAnalyticsService(marketplaceEventRepository, marketplaceRollupRepository,
+                        saleListingRepository, saleHistoryRepository, transactionManager),
+                this.saleListingSearchIndex,
+                specificationQueryRepository,
+                this.searchCounter,
+                this.saleListingSearchCache,
+                this.popularListingsLeaderboard,
+                this.listingExpiryQueue,
+                transactionManager);
+        this.purchaseNotificationService = new PurchaseNotificationService(purchaseOutboxEventRepository,
+                new JdbcTemplate(dataSource), transactionManager);
     }
 
     /**
@@ -183,6 +249,8 @@ class SaleListingServiceTest extends AbstractInitializer {
         inventoryItem8 = inventoryItemRepository.save(inventoryItem8);
         saleListing8 = new SaleListing(business1, inventoryItem8, 30.00, null, LocalDateTime.parse("2021-12-29T00:00:00"), 5);
         saleListingRepository.save(saleListing8);
+        // The listings were saved directly, so reserve their quantities like at startup
+        inventoryItemRepository.reconcileReservedQuantities();
 
         Mockito.when(userService.getUserByEmail(testUser.getEmail()))
                 .thenReturn(userRepository.findByEmail(testUser.getEmail()).get(0));
@@ -324,6 +392,44 @@ class SaleListingServiceTest extends AbstractInitializer {
 
         //The business had 6 listings added to it in the setup() method, and we check 1 more was added to this
         Assertions.assertEquals(7, listings.size());
+        //5 of the item was already used by a listing in the setup() method
+        Assertions.assertEquals(6, inventoryItemRepository.findReservedQuantityById(inventoryItem.getId()));
+    }
+
+    /**
+     * Tests that a listing can use all of an inventory item that isn't used by other listings, but no more
+     */
+    @Test
+    void postBusinessListings_moreThanUnreserved_BadRequestException() {
+        Mockito.when(businessService.checkBusiness(business1.getId()))
+                .thenReturn(business1);
+        AppUserDetails appUser = new AppUserDetails(testAdmin);
+        Integer businessId = business1.getId();
+
+        //5 of the 10 items are used by a listing from the setup() method
+        PostSaleListingDTO tooManyDTO = new PostSaleListingDTO(
+                inventoryItem.getId(), 2.20, "Hmmm", "2021-11-29T04:34:55.931Z", 6);
+        Assertions.assertThrows(BadRequestException.class,
+                () -> saleListingService.newBusinessListing(tooManyDTO, businessId, appUser));
+        Assertions.assertEquals(5, inventoryItemRepository.findReservedQuantityById(inventoryItem.getId()));
+
+        PostSaleListingDTO restDTO = new PostSaleListingDTO(
+                inventoryItem.getId(), 2.20, "Hmmm", "2021-11-29T04:34:55.931Z", 5);
+        saleListingService.newBusinessListing(restDTO, businessId, appUser);
+        Assertions.assertEquals(10, inventoryItemRepository.findReservedQuantityById(inventoryItem.getId()));
+    }
+
+    /**
+     * Tests that saving an inventory item doesn't overwrite a sale of the item made since it was loaded
+     */
+    @Test
+    void saveInventoryItem_staleItemSaved_quantityKept() {
+        InventoryItem stale = inventoryItemRepository.findById(inventoryItem.getId()).orElseThrow();
+        inventoryItemRepository.sellQuantity(inventoryItem.getId(), 2);
+        stale.setPricePerItem(3.00);
+        inventoryItemRepository.saveAndFlush(stale);
+
+        Assertions.assertEquals(8, inventoryItemRepository.findQuantityById(inventoryItem.getId()));
     }
 
     /**
@@ -342,7 +448,7 @@ class SaleListingServiceTest extends AbstractInitializer {
             "first AND second, 0"
     })
     void searchByBusinessName_business_returnsBothListings(String searchTerm, Integer expectedListings) {
-        Specification<SaleListing> spec = saleListingService.searchByBusinessName(new String[]{searchTerm});
+        Specification<SaleListing> spec = saleListingService.searchByBusinessName(SearchQueryParser.parse(searchTerm));
         List<SaleListing> listings = saleListingRepository.findAll(spec);
         Assertions.assertEquals(expectedListings, listings.size());
     }
@@ -352,7 +458,7 @@ class SaleListingServiceTest extends AbstractInitializer {
      */
     @Test
     void searchByBusinessName_firstOrSecond_returnsBothListings() {
-        Specification<SaleListing> spec = saleListingService.searchByBusinessName(new String[]{"first", "second"});
+        Specification<SaleListing> spec = saleListingService.searchByBusinessName(SearchQueryParser.parse("first or second"));
         List<SaleListing> listings = saleListingRepository.findAll(spec);
         Assertions.assertEquals(8, listings.size());
     }
@@ -363,7 +469,7 @@ class SaleListingServiceTest extends AbstractInitializer {
     @Test
     void searchByBusinessType_trade_returnsTwoListings() {
         String searchTerm = "trade";
-        Specification<SaleListing> spec = saleListingService.searchByBusinessType(new String[]{searchTerm});
+        Specification<SaleListing> spec = saleListingService.searchByBusinessType(SearchQueryParser.parse(searchTerm));
         List<SaleListing> listings = saleListingRepository.findAll(spec);
         Assertions.assertEquals(6, listings.size());
         Assertions.assertEquals(business1.getId(), listings.get(0).getBusiness().getId());
@@ -376,7 +482,7 @@ class SaleListingServiceTest extends AbstractInitializer {
     @Test
     void searchByBusinessType_exact_returnsTwoListings() {
         String searchTerm = "\"charitable organisation\"";
-        Specification<SaleListing> spec = saleListingService.searchByBusinessType(new String[]{searchTerm});
+        Specification<SaleListing> spec = saleListingService.searchByBusinessType(SearchQueryParser.parse(searchTerm));
         List<SaleListing> listings = saleListingRepository.findAll(spec);
         Assertions.assertEquals(2, listings.size());
         Assertions.assertEquals(business2Id, listings.get(0).getBusiness().getId());
@@ -711,6 +817,449 @@ class SaleListingServiceTest extends AbstractInitializer {
         Assertions.assertEquals("Second Product", listings.get(1).getInventoryItem().getProduct().getName());
     }
 
+    /**
+     * Helper to get the ids of the listings in a search response.
+     */
+    private List<Integer> getResponseIds(List<Object> response) {
+        List<Integer> ids = new ArrayList<>();
+        for (GetSaleListingDTO listing : (List<GetSaleListingDTO>) response.get(0)) {
+            ids.add(listing.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Tests that searching with the search index gives the same total count and listings
+     * as searching the repository. The order is only compared for sorts without ties,
+     * as the repository doesn't define an order between listings with equal sort values.
+     */
+    @ParameterizedTest
+    @CsvSource({
+            "'',true,false,false,false,'',false",
+            "'',false,false,false,false,'',true",
+            "fou,true,false,false,false,'',true",
+            "'\"first product\"',true,false,false,false,'',true",
+            "first or second,true,true,false,false,productName,true",
+            "second and business,false,true,false,false,priceDesc,true",
+            "nether,false,false,true,false,city,false",
+            "trade,false,false,false,true,seller,false",
+            "'',false,false,false,false,expiryDateDesc,true",
+            "pr,true,false,false,false,country,false"
+    })
+    void searchSaleListings_indexBuilt_matchesRepositorySearch(String query, boolean productName,
+                                                               boolean businessName, boolean location,
+                                                               boolean type, String sortBy, boolean ordered) {
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO(query, productName, businessName, location, type,
+                null, null, null, null, sortBy, 0);
+        List<Object> repositoryResponse = saleListingService.searchSaleListings(dto, new AppUserDetails(testUser));
+
+        saleListingSearchIndex.rebuild();
+        // So the second search isn't served from the search cache
+        searchCounter.invalidate(SearchCounter.LISTINGS);
+        List<Object> indexResponse = saleListingService.searchSaleListings(dto, new AppUserDetails(testUser));
+
+        Assertions.assertEquals(repositoryResponse.get(1), indexResponse.get(1));
+        List<Integer> repositoryIds = getResponseIds(repositoryResponse);
+        List<Integer> indexIds = getResponseIds(indexResponse);
+        if (ordered) {
+            Assertions.assertEquals(repositoryIds, indexIds);
+        } else {
+            Assertions.assertEquals(Set.copyOf(repositoryIds), Set.copyOf(indexIds));
+        }
+    }
+
+    /**
+     * Tests that facet counts are grouped by business type, country and price bucket.
+     */
+    @Test
+    void getListingFacets_noIndex_countsListings() {
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("", false, false, false, false,
+                null, null, null, null, "", 0);
+
+        SaleListingFacetsDTO facets = saleListingService.getListingFacets(dto, List.of(15.0, 30.0));
+
+        Assertions.assertEquals(Map.of("Retail Trade", 6L, "Charitable Organisation", 2L), facets.getBusinessTypes());
+        Assertions.assertEquals(Map.of("Netherlands", 6L, "New Zealand", 2L), facets.getCountries());
+        Assertions.assertEquals(List.of(
+                        new SaleListingFacetsDTO.PriceBucket(null, 15.0, 1),
+                        new SaleListingFacetsDTO.PriceBucket(15.0, 30.0, 2),
+                        new SaleListingFacetsDTO.PriceBucket(30.0, null, 5)),
+                facets.getPriceBuckets());
+    }
+
+    /**
+     * Tests that facet counts from the search index are the same as from the repository.
+     */
+    @ParameterizedTest
+    @CsvSource({
+            "'',false,false,false",
+            "first or second,true,false,false",
+            "\"new zealand\",false,false,true",
+            "retail,true,true,false"
+    })
+    void getListingFacets_indexBuilt_matchesRepositoryCounts(String query, boolean productName,
+                                                             boolean businessName, boolean location) {
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO(query, productName, businessName, location, false,
+                12.0, null, null, null, "", 0);
+        SaleListingFacetsDTO repositoryFacets = saleListingService.getListingFacets(dto, null);
+
+        saleListingSearchIndex.rebuild();
+        SaleListingFacetsDTO indexFacets = saleListingService.getListingFacets(dto, null);
+
+        Assertions.assertEquals(repositoryFacets, indexFacets);
+    }
+
+    /**
+     * Tests that price buckets which aren't in ascending order are rejected.
+     */
+    @Test
+    void getListingFacets_bucketsNotAscending_throwsBadRequest() {
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("", false, false, false, false,
+                null, null, null, null, "", 0);
+        List<Double> priceBuckets = List.of(20.0, 10.0);
+
+        Assertions.assertThrows(BadRequestException.class,
+                () -> saleListingService.getListingFacets(dto, priceBuckets));
+    }
+
+    /**
+     * Tests that price buckets split at an infinite price are rejected.
+     */
+    @Test
+    void getListingFacets_infiniteBucket_throwsBadRequest() {
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("", false, false, false, false,
+                null, null, null, null, "", 0);
+        List<Double> priceBuckets = List.of(10.0, Double.POSITIVE_INFINITY);
+
+        Assertions.assertThrows(BadRequestException.class,
+                () -> saleListingService.getListingFacets(dto, priceBuckets));
+    }
+
+    /**
+     * Tests that searching with the search index applies the price and closing date ranges.
+     */
+    @Test
+    void searchSaleListings_indexBuiltWithRanges_filtersListings() {
+        saleListingSearchIndex.rebuild();
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("", false, false, false, false,
+                14.0, 30.0, "2021-12-20", "2021-12-24", "", 0);
+
+        List<Object> response = saleListingService.searchSaleListings(dto, new AppUserDetails(testUser));
+
+        Assertions.assertEquals(2L, response.get(1));
+        Assertions.assertEquals(List.of(saleListing2.getId(), saleListing3.getId()), getResponseIds(response));
+    }
+
+    /**
+     * Runs the after-commit callbacks registered in the test's transaction, as if it had committed.
+     */
+    private void runAfterCommit() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCommit();
+        }
+    }
+
+    /**
+     * Tests that listings added after the search index was built are found,
+     * and that bought listings are no longer found, once the transactions commit.
+     */
+    @Test
+    void searchSaleListings_listingsChangedAfterIndexBuilt_indexUpToDateOnCommit() {
+        saleListingSearchIndex.rebuild();
+
+        SaleListing newListing = new SaleListing(business1, inventoryItem, 12.00, null,
+                LocalDateTime.parse("2021-12-22T00:00:00"), 1);
+        saleListingRepository.save(newListing);
+        saleListingSearchIndex.add(newListing);
+        saleListingService.buySaleListing(saleListing2.getId(), new AppUserDetails(testUser));
+
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("first or second", true, false, false, false,
+                null, null, null, null, "", 0);
+        // Nothing has committed yet, so the index is unchanged
+        var page = saleListingSearchIndex.search(dto, SearchQueryParser.parse(dto.getSearchQuery()),
+                null, null, 10);
+        Assertions.assertEquals(List.of(saleListing1.getId(), saleListing2.getId()), page.getListingIds());
+
+        runAfterCommit();
+        List<Object> response = saleListingService.searchSaleListings(dto, new AppUserDetails(testUser));
+
+        Assertions.assertEquals(List.of(saleListing1.getId(), newListing.getId()), getResponseIds(response));
+    }
+
+    /**
+     * Tests that an unfiltered browse of the search index in id order is paged by id,
+     * and counts every listing.
+     */
+    @Test
+    void searchSaleListings_unfilteredBrowseWithIndex_pagedById() {
+        for (var i = 0; i < 6; i++) {
+            saleListingRepository.save(new SaleListing(business2, inventoryItem, 20.00, null,
+                    LocalDateTime.parse("2021-12-22T00:00:00"), 1));
+        }
+        saleListingSearchIndex.rebuild();
+        List<Integer> expectedIds = new ArrayList<>();
+        for (SaleListing listing : saleListingRepository.findAll(Sort.by("id"))) {
+            expectedIds.add(listing.getId());
+        }
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("", false, false, false, false,
+                null, null, null, null, "", 1);
+
+        List<Object> response = saleListingService.searchSaleListings(dto, new AppUserDetails(testUser));
+
+        Assertions.assertEquals(14L, response.get(1));
+        Assertions.assertEquals(expectedIds.subList(10, 14), getResponseIds(response));
+    }
+
+    /**
+     * Tests that listings created and deleted on another node are added to and removed from the search index
+     * once the record of the change is read, and that changes on this node are recorded for the other nodes.
+     */
+    @Test
+    void searchSaleListings_listingsChangedOnOtherNode_indexUpdatedFromRecord() {
+        saleListingSearchIndex.rebuild();
+        ArgumentCaptor<Consumer<String>> handler = ArgumentCaptor.forClass(Consumer.class);
+        Mockito.verify(entityCacheService).addRemoteChangeHandler(Mockito.eq("SaleListingSearchIndex:"),
+                handler.capture());
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("first", true, false, false, false,
+                null, null, null, null, "", 0);
+
+        SaleListing newListing = saleListingRepository.save(new SaleListing(business1, inventoryItem, 12.00, null,
+                LocalDateTime.parse("2021-12-22T00:00:00"), 1));
+        handler.getValue().accept("listings:" + newListing.getId());
+        var page = saleListingSearchIndex.search(dto, SearchQueryParser.parse(dto.getSearchQuery()),
+                null, null, 10);
+        Assertions.assertEquals(List.of(saleListing1.getId(), newListing.getId()), page.getListingIds());
+
+        saleListingRepository.deleteByIds(List.of(newListing.getId()));
+        handler.getValue().accept("listings:" + newListing.getId());
+        page = saleListingSearchIndex.search(dto, SearchQueryParser.parse(dto.getSearchQuery()), null, null, 10);
+        Assertions.assertEquals(List.of(saleListing1.getId()), page.getListingIds());
+
+        saleListingService.buySaleListing(saleListing2.getId(), new AppUserDetails(testUser));
+        Mockito.verify(entityCacheService).recordCacheChange("SaleListingSearchIndex:listings:" + saleListing2.getId());
+    }
+
+    /**
+     * Tests that renaming a product reindexes its listings once the edit commits,
+     * without waiting for the index to be rebuilt.
+     */
+    @Test
+    void searchSaleListings_productRenamed_reindexedOnCommit() {
+        saleListingSearchIndex.rebuild();
+
+        Product product = productRepository.findByIdAndBusinessId("TEST-1", business1.getId()).orElseThrow();
+        product.setName("Renamed Product");
+        productRepository.save(product);
+        saleListingSearchIndex.reindexProduct(business1.getId(), "TEST-1");
+        runAfterCommit();
+
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("renamed", true, false, false, false,
+                null, null, null, null, "", 0);
+        List<Object> response = saleListingService.searchSaleListings(dto, new AppUserDetails(testUser));
+
+        Assertions.assertEquals(List.of(saleListing1.getId()), getResponseIds(response));
+    }
+
+    /**
+     * Tests that paging through a search with cursors returns every listing once, in order,
+     * with and without the search index.
+     */
+    @ParameterizedTest
+    @CsvSource({
+            "priceAsc,false", "priceDesc,false", "productName,false", "seller,false", "'',false",
+            "priceAsc,true", "priceDesc,true", "productName,true", "seller,true", "'',true"
+    })
+    void searchSaleListingsAfter_pageThroughResults_returnsEveryListingInOrder(String sortBy, boolean useIndex) {
+        for (var i = 0; i < 6; i++) {
+            saleListingRepository.save(new SaleListing(business2, inventoryItem, 20.00, null,
+                    LocalDateTime.parse("2021-12-22T00:00:00"), 1));
+        }
+        if (useIndex) {
+            saleListingSearchIndex.rebuild();
+        }
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("", false, false, false, false,
+                null, null, null, null, sortBy, 0);
+
+        List<Object> firstPage = saleListingService.searchSaleListingsAfter(dto, "", true, new AppUserDetails(testUser));
+        Assertions.assertEquals(14L, firstPage.get(1));
+        Assertions.assertEquals(10, ((List<GetSaleListingDTO>) firstPage.get(0)).size());
+        Assertions.assertNotNull(firstPage.get(2));
+
+        List<Object> secondPage = saleListingService.searchSaleListingsAfter(dto, (String) firstPage.get(2), false,
+                new AppUserDetails(testUser));
+        Assertions.assertNull(secondPage.get(1));
+        Assertions.assertEquals(4, ((List<GetSaleListingDTO>) secondPage.get(0)).size());
+        Assertions.assertNull(secondPage.get(2));
+
+        List<Integer> pagedIds = new ArrayList<>(getResponseIds(firstPage));
+        pagedIds.addAll(getResponseIds(secondPage));
+        List<Integer> expectedIds = new ArrayList<>();
+        for (SaleListing listing : saleListingRepository.findAll(Sort.by("id"))) {
+            expectedIds.add(listing.getId());
+        }
+        Assertions.assertEquals(Set.copyOf(expectedIds), Set.copyOf(pagedIds));
+        Assertions.assertEquals(14, pagedIds.size());
+    }
+
+    /**
+     * Tests that paging by country past listings of a business without an address still returns them,
+     * as they are on the first page.
+     */
+    @Test
+    void searchSaleListingsAfter_countryPastBusinessWithoutAddress_returnsEveryListing() {
+        Business noAddress = businessRepository.save(new Business("No Address Business", null, null,
+                "Retail Trade", testAdmin.getId()));
+        for (var i = 0; i < 11; i++) {
+            saleListingRepository.save(new SaleListing(noAddress, inventoryItem, 20.00, null,
+                    LocalDateTime.parse("2021-12-22T00:00:00"), 1));
+        }
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("", false, false, false, false,
+                null, null, null, null, "country", 0);
+
+        List<Object> firstPage = saleListingService.searchSaleListingsAfter(dto, null, false, new AppUserDetails(testUser));
+        List<Object> secondPage = saleListingService.searchSaleListingsAfter(dto, (String) firstPage.get(2), false,
+                new AppUserDetails(testUser));
+
+        List<Integer> pagedIds = new ArrayList<>(getResponseIds(firstPage));
+        pagedIds.addAll(getResponseIds(secondPage));
+        Assertions.assertEquals(19, Set.copyOf(pagedIds).size());
+        Assertions.assertNull(secondPage.get(2));
+    }
+
+    /**
+     * Tests that the listings on each cursor page follow on from the previous page in the sort order.
+     */
+    @Test
+    void searchSaleListingsAfter_priceAsc_pagesInPriceOrder() {
+        for (var i = 0; i < 6; i++) {
+            saleListingRepository.save(new SaleListing(business2, inventoryItem, 12.00 + i, null,
+                    LocalDateTime.parse("2021-12-22T00:00:00"), 1));
+        }
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("", false, false, false, false,
+                null, null, null, null, "priceAsc", 0);
+
+        List<Object> firstPage = saleListingService.searchSaleListingsAfter(dto, null, false, new AppUserDetails(testUser));
+        List<Object> secondPage = saleListingService.searchSaleListingsAfter(dto, (String) firstPage.get(2), false,
+                new AppUserDetails(testUser));
+
+        List<GetSaleListingDTO> listings = new ArrayList<>((List<GetSaleListingDTO>) firstPage.get(0));
+        listings.addAll((List<GetSaleListingDTO>) secondPage.get(0));
+        for (var i = 1; i < listings.size(); i++) {
+            Assertions.assertTrue(listings.get(i - 1).getPrice() <= listings.get(i).getPrice());
+        }
+    }
+
+    /**
+     * Tests that searching with each count mode returns the same listings and total count
+     * as an exact count, and reports the count mode used.
+     */
+    @ParameterizedTest
+    @CsvSource({"EXACT,exact", "CACHED,cached", "ESTIMATED,estimated"})
+    void searchSaleListings_countMode_countsAllListings(CountMode countMode, String modeName) {
+        for (var i = 0; i < 6; i++) {
+            saleListingRepository.save(new SaleListing(business2, inventoryItem, 20.00, null,
+                    LocalDateTime.parse("2021-12-22T00:00:00"), 1));
+        }
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("", false, false, false, false,
+                null, null, null, null, "priceAsc", 0);
+
+        List<Object> response = saleListingService.searchSaleListings(dto, countMode, new AppUserDetails(testUser));
+
+        Assertions.assertEquals(10, getResponseIds(response).size());
+        Assertions.assertEquals(14L, response.get(1));
+        Assertions.assertEquals(new TotalCountDTO(14, modeName, false), response.get(2));
+    }
+
+    /**
+     * Tests that a cached count is reused for the next page of the same search,
+     * and counted again once the listings are changed through the service.
+     */
+    @Test
+    void searchSaleListings_cachedCount_reusedUntilInvalidated() {
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("", false, false, false, false,
+                null, null, null, null, "", 0);
+        AppUserDetails appUser = new AppUserDetails(testUser);
+        saleListingService.searchSaleListings(dto, CountMode.CACHED, appUser);
+
+        // Saved straight to the repository, so the cached count doesn't know about it
+        saleListingRepository.save(new SaleListing(business2, inventoryItem, 20.00, null,
+                LocalDateTime.parse("2021-12-22T00:00:00"), 1));
+        dto.setPageNumber(1);
+        Assertions.assertEquals(8L, saleListingService.searchSaleListings(dto, CountMode.CACHED, appUser).get(1));
+
+        searchCounter.invalidate(SearchCounter.LISTINGS);
+        Assertions.assertEquals(9L, saleListingService.searchSaleListings(dto, CountMode.CACHED, appUser).get(1));
+    }
+
+    /**
+     * Tests that the same search made twice, with the query in a different case, is served from the search cache
+     * and has the searching user's like flags.
+     */
+    @Test
+    void searchSaleListings_sameSearchTwice_servedFromCache() {
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("First or Second", true, false, false, false,
+                null, null, null, null, "priceAsc", 0);
+        List<Object> firstResponse = saleListingService.searchSaleListings(dto, new AppUserDetails(testUser));
+
+        // Saved straight to the repository, so the search cache doesn't know about it
+        saleListingRepository.save(new SaleListing(business1, inventoryItem, 12.00, null,
+                LocalDateTime.parse("2021-12-22T00:00:00"), 1));
+        likedSaleListingRepository.save(new LikedSaleListing(testAdmin, saleListing1));
+        dto.setSearchQuery("first or second");
+        List<Object> secondResponse = saleListingService.searchSaleListings(dto, new AppUserDetails(testAdmin));
+
+        Assertions.assertEquals(getResponseIds(firstResponse), getResponseIds(secondResponse));
+        Assertions.assertEquals(firstResponse.get(1), secondResponse.get(1));
+        Assertions.assertTrue(((List<GetSaleListingDTO>) secondResponse.get(0)).get(0).isUserLikes());
+        Assertions.assertEquals(1L, saleListingSearchCache.getStatistics().get("hits"));
+        Assertions.assertEquals(1L, saleListingSearchCache.getStatistics().get("misses"));
+    }
+
+    /**
+     * Tests that buying a listing invalidates cached search results.
+     */
+    @Test
+    void searchSaleListings_listingBoughtAfterSearch_cacheInvalidated() {
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("first or second", true, false, false, false,
+                null, null, null, null, "priceAsc", 0);
+        saleListingService.searchSaleListings(dto, new AppUserDetails(testUser));
+
+        saleListingService.buySaleListing(saleListing2.getId(), new AppUserDetails(testUser));
+        List<Object> response = saleListingService.searchSaleListings(dto, new AppUserDetails(testUser));
+
+        Assertions.assertEquals(List.of(saleListing1.getId()), getResponseIds(response));
+        Assertions.assertEquals(0L, saleListingSearchCache.getStatistics().get("hits"));
+        Assertions.assertEquals(1L, saleListingSearchCache.getStatistics().get("evictions"));
+    }
+
+    /**
+     * Tests that a cursor which can't be decoded results in a BadRequestException.
+     */
+    @Test
+    void searchSaleListingsAfter_invalidCursor_BadRequestException() {
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("", false, false, false, false,
+                null, null, null, null, "priceAsc", 0);
+        AppUserDetails appUser = new AppUserDetails(testUser);
+
+        Assertions.assertThrows(BadRequestException.class,
+                () -> saleListingService.searchSaleListingsAfter(dto, "not a cursor", false, appUser));
+    }
+
+    /**
+     * Tests that using a cursor with a different sort to the one it was created with
+     * results in a BadRequestException.
+     */
+    @Test
+    void searchSaleListingsAfter_cursorForDifferentSort_BadRequestException() {
+        String cursor = SaleListingCursor.after("priceAsc", saleListing1).encode();
+        SearchSaleListingsDTO dto = new SearchSaleListingsDTO("", false, false, false, false,
+                null, null, null, null, "seller", 0);
+        AppUserDetails appUser = new AppUserDetails(testUser);
+
+        Assertions.assertThrows(BadRequestException.class,
+                () -> saleListingService.searchSaleListingsAfter(dto, cursor, false, appUser));
+    }
+
     /**
      * Test that ordering listings by lowest price returns a ordered list
      */
@@ -1028,6 +1577,133 @@ class SaleListingServiceTest extends AbstractInitializer {
                 () -> saleListingService.likeSaleListing(saleListingId, appUser));
     }
 
+    /**
+     * Helper to read the stored like counter of a sale listing straight from the database
+     */
+    private Integer getStoredLikes(Integer listingId) {
+        for (List<Object> row : saleListingRepository.findLikeCounts(0, Pageable.unpaged())) {
+            if (row.get(0).equals(listingId)) return (Integer) row.get(1);
+        }
+        return null;
+    }
+
+    /**
+     * Test that liking a sale listing increments its stored like counter
+     */
+    @Test
+    void likeSaleListing_listingNotLiked_incrementsLikeCounter() {
+        saleListingService.likeSaleListing(this.saleListing1.getId(), new AppUserDetails(this.testUser));
+        Assertions.assertEquals(1, getStoredLikes(this.saleListing1.getId()));
+    }
+
+    /**
+     * Test that unliking a sale listing decrements its stored like counter
+     */
+    @Test
+    void unlikeSaleListing_validRequest_decrementsLikeCounter() {
+        saleListingService.likeSaleListing(this.saleListing1.getId(), new AppUserDetails(this.testUser));
+        saleListingService.unlikeSaleListing(this.saleListing1.getId(), new AppUserDetails(this.testUser));
+        Assertions.assertEquals(0, getStoredLikes(this.saleListing1.getId()));
+    }
+
+    /**
+     * Test that reconciling like counts repairs a counter that has drifted from the actual likes
+     */
+    @Test
+    void reconcileLikeCounts_counterDrifted_repairsCounter() {
+        //Saving the like directly doesn't update the counter
+        likedSaleListingRepository.save(new LikedSaleListing(this.testUser, this.saleListing1));
+        likedSaleListingRepository.save(new LikedSaleListing(this.testOtherUser, this.saleListing1));
+        Assertions.assertEquals(0, getStoredLikes(this.saleListing1.getId()));
+
+        saleListingService.reconcileLikeCounts();
+        Assertions.assertEquals(2, getStoredLikes(this.saleListing1.getId()));
+        Assertions.assertEquals(0, getStoredLikes(this.saleListing2.getId()));
+    }
+
+    /**
+     * Test that once the leaderboard is seeded, likes and unlikes are reflected in the popular listings
+     * once they commit, both worldwide and for a country
+     */
+    @Test
+    void getPopularListings_leaderboardSeeded_followsLikes() {
+        Mockito.when(userService.getUserByEmail(testOtherUser.getEmail()))
+                .thenReturn(userRepository.findByEmail(testOtherUser.getEmail()).get(0));
+        popularListingsLeaderboard.seed();
+
+        saleListingService.likeSaleListing(this.saleListing3.getId(), new AppUserDetails(this.testUser));
+        saleListingService.likeSaleListing(this.saleListing1.getId(), new AppUserDetails(this.testUser));
+        saleListingService.likeSaleListing(this.saleListing1.getId(), new AppUserDetails(this.testOtherUser));
+        Assertions.assertTrue(saleListingService.getPopularListings(null).isEmpty());
+
+        runAfterCommit();
+        List<GetSaleListingDTO> worldwide = saleListingService.getPopularListings(null);
+        Assertions.assertEquals(2, worldwide.size());
+        Assertions.assertEquals(this.saleListing1.getId(), worldwide.get(0).getId());
+        Assertions.assertEquals(this.saleListing3.getId(), worldwide.get(1).getId());
+
+        List<GetSaleListingDTO> newZealand = saleListingService.getPopularListings("New Zealand");
+        Assertions.assertEquals(1, newZealand.size());
+        Assertions.assertEquals(this.saleListing3.getId(), newZealand.get(0).getId());
+
+        saleListingService.unlikeSaleListing(this.saleListing3.getId(), new AppUserDetails(this.testUser));
+        runAfterCommit();
+        Assertions.assertTrue(saleListingService.getPopularListings("New Zealand").isEmpty());
+    }
+
+    /**
+     * Test that closed listings in the expiry queue are deleted along with their likes,
+     * and listings which haven't closed yet are left in the queue
+     */
+    @Test
+    void expireClosedSaleListings_listingsClosed_deletesListingsAndLikes() {
+        likedSaleListingRepository.save(new LikedSaleListing(this.testUser, this.saleListing1));
+        likedSaleListingRepository.save(new LikedSaleListing(this.testOtherUser, this.saleListing3));
+        var openListing = saleListingRepository.save(new SaleListing(business1, inventoryItem, 5.00, null,
+                LocalDateTime.now().plusDays(1), 1));
+        listingExpiryQueue.load();
+
+        saleListingService.expireClosedSaleListings();
+
+        Assertions.assertEquals(List.of(openListing.getId()), saleListingRepository.findAllIds());
+        Assertions.assertEquals(0, likedSaleListingRepository.count());
+        //The expired listing's quantity is no longer used (the open listing was saved without reserving any)
+        Assertions.assertEquals(0, inventoryItemRepository.findReservedQuantityById(inventoryItem.getId()));
+        Assertions.assertEquals(1, listingExpiryQueue.size());
+        Assertions.assertEquals(8L, listingExpiryQueue.getStatistics().get("expired"));
+        Assertions.assertEquals(8, listingExpiryQueue.getStatistics().get("lastBatchSize"));
+    }
+
+    /**
+     * Test that the expired listing sweep deletes closed listings which were never added to the expiry queue
+     */
+    @Test
+    void deleteExpiredSaleListings_listingsNotQueued_deletesListings() {
+        likedSaleListingRepository.save(new LikedSaleListing(this.testUser, this.saleListing2));
+
+        saleListingService.deleteExpiredSaleListings();
+
+        Assertions.assertEquals(0, saleListingRepository.count());
+        Assertions.assertEquals(0, likedSaleListingRepository.count());
+    }
+
+    /**
+     * Test that seeding the leaderboard picks up the stored like counters
+     */
+    @Test
+    void getPopularListings_seededFromCounters_ordersByLikes() {
+        saleListingRepository.incrementLikes(this.saleListing2.getId());
+        saleListingRepository.incrementLikes(this.saleListing2.getId());
+        saleListingRepository.incrementLikes(this.saleListing4.getId());
+
+        popularListingsLeaderboard.seed();
+
+        List<GetSaleListingDTO> popular = saleListingService.getPopularListings(null);
+        Assertions.assertEquals(2, popular.size());
+        Assertions.assertEquals(this.saleListing2.getId(), popular.get(0).getId());
+        Assertions.assertEquals(this.saleListing4.getId(), popular.get(1).getId());
+    }
+
     /**
      * Test that trying to unlike a sale listing that doesn't exist throws a NotAcceptableException
      */
@@ -1114,6 +1790,7 @@ class SaleListingServiceTest extends AbstractInitializer {
         testOtherUser.addLikedListing(like2);
 
         saleListingService.buySaleListing(saleListing1.getId(), user);
+        purchaseNotificationService.sendPurchaseNotifications();
 
         List<UserNotification> notifications = userNotificationRepository.findAll();
         Assertions.assertEquals(2, notifications.size());
@@ -1129,6 +1806,53 @@ class SaleListingServiceTest extends AbstractInitializer {
         Assertions.assertEquals(testOtherUser.getEmail(), interestedUserNotification.getUser().getEmail());
     }
 
+    /**
+     * Test that a listing can be claimed for a purchase until it has been bought
+     */
+    @Test
+    void purchase_listing_claimedOnlyUntilBought() {
+        Assertions.assertEquals(0, saleListingRepository.claimForPurchase(saleListing1.getId()));
+
+        saleListingService.buySaleListing(saleListing1.getId(), new AppUserDetails(this.testUser));
+
+        Assertions.assertNull(saleListingRepository.claimForPurchase(saleListing1.getId()));
+    }
+
+    /**
+     * Test that the likes a purchase counts as converted are read when the listing is claimed,
+     * so a like committed after the listing was loaded is still counted
+     */
+    @Test
+    void purchase_listing_likedAfterLoaded_likesConvertedReadFromClaim() {
+        // The listing is already loaded, and the bulk update doesn't change the loaded listing's likes
+        saleListingRepository.incrementLikes(saleListing1.getId());
+
+        saleListingService.buySaleListing(saleListing1.getId(), new AppUserDetails(this.testUser));
+
+        List<Object> totals = marketplaceRollupRepository.findListingTotals(LocalDate.now(), LocalDate.now()).get(0);
+        Assertions.assertEquals(1L, ((Number) totals.get(5)).longValue());
+    }
+
+    /**
+     * Test that when purchasing a listing, the likes of the listing are removed straight away,
+     * and the notifications to the users who liked it are queued in the outbox rather than sent with the purchase
+     */
+    @Test
+    void purchase_listing_interested_notifications_queued() {
+        AppUserDetails user = new AppUserDetails(this.testUser);
+        likedSaleListingRepository.save(new LikedSaleListing(testUser, saleListing1));
+        likedSaleListingRepository.save(new LikedSaleListing(testOtherUser, saleListing1));
+
+        saleListingService.buySaleListing(saleListing1.getId(), user);
+
+        Assertions.assertEquals(0, likedSaleListingRepository.findAllByListingId(saleListing1.getId()).size());
+        Assertions.assertEquals(1, userNotificationRepository.findAll().size());
+        List<PurchaseOutboxEvent> outbox = purchaseOutboxEventRepository.findAll();
+        Assertions.assertEquals(1, outbox.size());
+        Assertions.assertEquals(saleListing1.getId(), outbox.get(0).getListingId());
+        Assertions.assertEquals(testUser.getId(), outbox.get(0).getBuyerId());
+    }
+
     /**
      * Test that when purchasing a listing, the inventory items quantity is reduced and the sales listing is removed
      */
@@ -1144,6 +1868,7 @@ class SaleListingServiceTest extends AbstractInitializer {
         Assertions.assertTrue(itemOptional.isPresent());
         item = itemOptional.get();
         Assertions.assertEquals(requiredQuantity, item.getQuantity());
+        Assertions.assertEquals(0, inventoryItemRepository.findReservedQuantityById(item.getId()));
 
         Optional<SaleListing> listingOptional = saleListingRepository.findById(saleListing1.getId());
         Assertions.assertTrue(listingOptional.isEmpty());
@@ -1166,6 +1891,46 @@ class SaleListingServiceTest extends AbstractInitializer {
         Assertions.assertTrue(listingOptional.isEmpty());
     }
 
+    /**
+     * Test that when purchasing a listing sells out its inventory item, the item's other listings are removed
+     * along with their likes
+     */
+    @Test
+    void purchase_listing_itemSoldOut_otherListingsAndLikesRemoved() {
+        SaleListing otherListing = saleListingRepository.save(new SaleListing(business2,
+                saleListing3.getInventoryItem(), 5.00, null, LocalDateTime.parse("2021-12-24T00:00:00"), 1));
+        likedSaleListingRepository.save(new LikedSaleListing(testOtherUser, otherListing));
+
+        saleListingService.buySaleListing(saleListing3.getId(), new AppUserDetails(this.testUser));
+
+        // The other listing was removed with a bulk delete, so is still loaded
+        List<Integer> listingIds = saleListingRepository.findAllIds();
+        Assertions.assertFalse(listingIds.contains(otherListing.getId()));
+        Assertions.assertFalse(listingIds.contains(saleListing3.getId()));
+        Assertions.assertEquals(0, likedSaleListingRepository.findAllByListingId(otherListing.getId()).size());
+        Assertions.assertTrue(inventoryItemRepository.findById(saleListing3.getInventoryItem().getId()).isEmpty());
+    }
+
+    /**
+     * Test that when purchasing listings, each sale is added to the business' sales rollup for the day,
+     * with a buyer who buys twice only counted once
+     */
+    @Test
+    void purchase_listing_added_to_sales_rollup() {
+        AppUserDetails user = new AppUserDetails(this.testUser);
+
+        saleListingService.buySaleListing(saleListing1.getId(), user);
+        saleListingService.buySaleListing(saleListing2.getId(), user);
+
+        List<DailySalesRollup> rollups = dailySalesRollupRepository.findWithinPeriod(business1.getId(),
+                LocalDate.now(), LocalDate.now());
+        Assertions.assertEquals(1, rollups.size());
+        Assertions.assertEquals(2, rollups.get(0).getSaleCount());
+        Assertions.assertEquals(25.00, rollups.get(0).getRevenue(), 0.001);
+        Assertions.assertEquals(15, rollups.get(0).getUnits());
+        Assertions.assertEquals(1, rollups.get(0).getBuyerCount());
+    }
+
     /**
      * Tests the successful case for tagging a sale listing
      */
@@ -5,20 +5,28 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.seng302.project.AbstractInitializer;
-import org.seng302.project.repository_layer.model.LikedSaleListing;
 import org.seng302.project.repository_layer.model.SaleListing;
 import org.seng302.project.repository_layer.repository.*;
 import org.seng302.project.service_layer.dto.sale_listings.GetSaleListingDTO;
+import org.seng302.project.service_layer.util.ListingExpiryQueue;
+import org.seng302.project.service_layer.util.ListingExpiryQueue.ExpiringListing;
+import org.seng302.project.service_layer.util.PopularListingsLeaderboard;
+import org.seng302.project.service_layer.util.SaleListingSearchCache;
+import org.seng302.project.service_layer.util.SaleListingSearchIndex;
+import org.seng302.project.service_layer.util.SearchCounter;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.jpa.domain.Specification;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -34,10 +42,22 @@ class SaleListingServiceWithMockingTest extends AbstractInitializer {
     private SaleListingRepository saleListingRepository;
     @Mock
     private LikedSaleListingRepository likedSaleListingRepository;
+    @Mock
+    private PopularListingsLeaderboard popularListingsLeaderboard;
+    @Mock
+    private ListingExpiryQueue listingExpiryQueue;
     private SaleListingService saleListingService;
 
     List<SaleListing> listings;
 
+    /**
+     * Makes claiming listings for expiry claim all of them, as if no other node has expired them.
+     */
+    private void claimAllForExpiry() {
+        when(saleListingRepository.claimForExpiry(any()))
+                .thenAnswer(invocation -> new ArrayList<Integer>(invocation.getArgument(0)));
+    }
+
     @BeforeEach
     void setup() {
         this.initialise();
@@ -50,45 +70,105 @@ class SaleListingServiceWithMockingTest extends AbstractInitializer {
                 Mockito.mock(SaleHistoryRepository.class),
                 Mockito.mock(InventoryItemRepository.class),
                 Mockito.mock(UserRepository.class),
-                Mockito.mock(UserNotificationRepository.class)
+                Mockito.mock(UserNotificationRepository.class),
+                Mockito.mock(PurchaseOutboxEventRepository.class),
+                Mockito.mock(SalesRollupService.class),
+                Mockito.mock(MarketplaceAnalyticsService.class),
+                Mockito.mock(SaleListingSearchIndex.class),
+                Mockito.mock(SpecificationQueryRepository.class),
+                Mockito.mock(SearchCounter.class),
+                Mockito.mock(SaleListingSearchCache.class),
+                popularListingsLeaderboard,
+                listingExpiryQueue,
+                Mockito.mock(PlatformTransactionManager.class)
         );
     }
 
     /**
-     * Tests the deleteExpiredSaleListings method doesn't call the delete method on likedSaleListingRepository
-     * when there are no likedSaleListings on expired listings
+     * Tests the deleteExpiredSaleListings method doesn't delete anything when there are no expired listings
      */
     @Test
-    void deleteExpiredSaleListings_noLikes_doesntCallLikeRepo() {
+    void deleteExpiredSaleListings_noListingsExpired_doesntDelete() {
         saleListingService.deleteExpiredSaleListings();
-        verify(likedSaleListingRepository, times(0)).deleteAll(any(List.class));
+        verify(likedSaleListingRepository, times(0)).deleteByListingIds(any());
+        verify(saleListingRepository, times(0)).deleteByIds(any());
     }
 
     /**
-     * Tests the deleteExpiredSaleListings method calls the delete method with returned likedSaleListings
-     * returned from the likedSaleListingRepository
+     * Tests the deleteExpiredSaleListings method deletes the expired listings and their likes in batches of 100
      */
     @Test
-    void deleteExpiredSaleListings_withLikes_callsLikeRepo() {
-        var returnedExpiredLikes = List.of(new LikedSaleListing());
-        when(likedSaleListingRepository.findAll(any(Specification.class))).thenReturn(returnedExpiredLikes);
+    void deleteExpiredSaleListings_listingsExpired_deletesInBatches() {
+        List<Integer> expiredIds = new ArrayList<>();
+        for (var id = 1; id <= 250; id++) {
+            expiredIds.add(id);
+        }
+        when(saleListingRepository.findIdsByClosesBefore(any(LocalDateTime.class))).thenReturn(expiredIds);
+        claimAllForExpiry();
+
         saleListingService.deleteExpiredSaleListings();
-        ArgumentCaptor<List<LikedSaleListing>> likedListCaptor = ArgumentCaptor.forClass(List.class);
-        verify(likedSaleListingRepository, times(1)).deleteAll(likedListCaptor.capture());
-        Assertions.assertEquals(returnedExpiredLikes, likedListCaptor.getValue());
+
+        ArgumentCaptor<List<Integer>> listCaptor = ArgumentCaptor.forClass(List.class);
+        verify(saleListingRepository, times(3)).deleteByIds(listCaptor.capture());
+        Assertions.assertEquals(List.of(100, 100, 50),
+                listCaptor.getAllValues().stream().map(List::size).collect(Collectors.toList()));
+        verify(likedSaleListingRepository, times(3)).deleteByListingIds(any());
+        verify(listingExpiryQueue).removeAll(expiredIds);
     }
 
     /**
-     * Tests the deleteExpiredSaleListings method calls the delete method with returned SaleListings that are expired
+     * Tests the expireClosedSaleListings method deletes the closed listings taken from the expiry queue,
+     * deleting their likes first, and records the batch
      */
     @Test
-    void deleteExpiredSaleListings_listingsExpired_callsDeleteListings() {
-        var returnedExpiredListings = List.of(new SaleListing());
-        when(saleListingRepository.findAllByClosesBefore(any(LocalDateTime.class))).thenReturn(returnedExpiredListings);
-        saleListingService.deleteExpiredSaleListings();
-        ArgumentCaptor<List<SaleListing>> listCaptor = ArgumentCaptor.forClass(List.class);
-        verify(saleListingRepository, times(1)).deleteAll(listCaptor.capture());
-        Assertions.assertEquals(returnedExpiredListings, listCaptor.getValue());
+    void expireClosedSaleListings_listingsDue_deletesListingsAndLikes() {
+        var closes = LocalDateTime.now().minusSeconds(1);
+        List<ExpiringListing> batch = List.of(new ExpiringListing(1, closes), new ExpiringListing(2, closes));
+        when(listingExpiryQueue.pollDue(any(LocalDateTime.class), anyInt())).thenReturn(batch);
+        claimAllForExpiry();
+
+        saleListingService.expireClosedSaleListings();
+
+        InOrder inOrder = inOrder(likedSaleListingRepository, saleListingRepository);
+        inOrder.verify(saleListingRepository).claimForExpiry(List.of(1, 2));
+        inOrder.verify(likedSaleListingRepository).deleteByListingIds(List.of(1, 2));
+        inOrder.verify(saleListingRepository).deleteByIds(List.of(1, 2));
+        verify(popularListingsLeaderboard).removeAll(List.of(1, 2));
+        verify(listingExpiryQueue).recordBatch(eq(batch), any(LocalDateTime.class));
+    }
+
+    /**
+     * Tests the expireClosedSaleListings method only records and deletes the listings it claims,
+     * leaving out listings another node has already expired
+     */
+    @Test
+    void expireClosedSaleListings_someExpiredByOtherNode_onlyClaimedDeleted() {
+        var closes = LocalDateTime.now().minusSeconds(1);
+        List<ExpiringListing> batch = List.of(new ExpiringListing(1, closes), new ExpiringListing(2, closes));
+        when(listingExpiryQueue.pollDue(any(LocalDateTime.class), anyInt())).thenReturn(batch);
+        when(saleListingRepository.claimForExpiry(List.of(1, 2))).thenReturn(List.of(2));
+
+        saleListingService.expireClosedSaleListings();
+
+        verify(likedSaleListingRepository).deleteByListingIds(List.of(2));
+        verify(saleListingRepository).deleteByIds(List.of(2));
+    }
+
+    /**
+     * Tests the expireClosedSaleListings method puts a batch back in the queue if deleting it fails
+     */
+    @Test
+    void expireClosedSaleListings_deleteFails_requeuesBatch() {
+        var closes = LocalDateTime.now().minusSeconds(1);
+        when(listingExpiryQueue.pollDue(any(LocalDateTime.class), anyInt()))
+                .thenReturn(List.of(new ExpiringListing(1, closes)));
+        claimAllForExpiry();
+        when(saleListingRepository.deleteByIds(any())).thenThrow(new RuntimeException("Database unavailable"));
+
+        saleListingService.expireClosedSaleListings();
+
+        verify(listingExpiryQueue).schedule(1, closes);
+        verify(listingExpiryQueue, times(0)).recordBatch(any(), any());
     }
 
     /**
@@ -96,12 +176,11 @@ class SaleListingServiceWithMockingTest extends AbstractInitializer {
      */
     @Test
     void popularListings_fromNewZealand_success(){
-        List<List<Object>> response = Arrays.asList(
-                Arrays.asList(listings.get(2), Long.valueOf("10")),
-                Arrays.asList(listings.get(3), Long.valueOf("6"))
-        );
+        listings.get(2).setLikes(10);
+        listings.get(3).setLikes(6);
+        List<SaleListing> response = Arrays.asList(listings.get(2), listings.get(3));
 
-        doReturn(response).when(likedSaleListingRepository).findPopularByCountry(any(String.class), any(Pageable.class));
+        doReturn(response).when(saleListingRepository).findPopularByCountry(any(String.class), any(Pageable.class));
         List<GetSaleListingDTO> listings = saleListingService.getPopularListings("New Zealand");
         Assertions.assertEquals(2, listings.size());
 
@@ -116,12 +195,11 @@ class SaleListingServiceWithMockingTest extends AbstractInitializer {
      */
     @Test
     void popularListings_fromNetherlands_success(){
-        List<List<Object>> response = Arrays.asList(
-                Arrays.asList(listings.get(0), Long.valueOf("20")),
-                Arrays.asList(listings.get(1), Long.valueOf("4"))
-        );
+        listings.get(0).setLikes(20);
+        listings.get(1).setLikes(4);
+        List<SaleListing> response = Arrays.asList(listings.get(0), listings.get(1));
 
-        doReturn(response).when(likedSaleListingRepository).findPopularByCountry(any(String.class), any(Pageable.class));
+        doReturn(response).when(saleListingRepository).findPopularByCountry(any(String.class), any(Pageable.class));
         List<GetSaleListingDTO> listings = saleListingService.getPopularListings("Netherlands");
         Assertions.assertEquals(2, listings.size());
 
@@ -136,14 +214,13 @@ class SaleListingServiceWithMockingTest extends AbstractInitializer {
      */
     @Test
     void popularListings_worldwide_success(){
-        List<List<Object>> response = Arrays.asList(
-                Arrays.asList(listings.get(0), Long.valueOf("20")),
-                Arrays.asList(listings.get(1), Long.valueOf("10")),
-                Arrays.asList(listings.get(2), Long.valueOf("4")),
-                Arrays.asList(listings.get(3), Long.valueOf("1"))
-        );
+        listings.get(0).setLikes(20);
+        listings.get(1).setLikes(10);
+        listings.get(2).setLikes(4);
+        listings.get(3).setLikes(1);
+        List<SaleListing> response = Arrays.asList(listings.get(0), listings.get(1), listings.get(2), listings.get(3));
 
-        doReturn(response).when(likedSaleListingRepository).findPopular(any(Pageable.class));
+        doReturn(response).when(saleListingRepository).findPopular(any(Pageable.class));
         List<GetSaleListingDTO> listings = saleListingService.getPopularListings(null);
         Assertions.assertEquals(4, listings.size());
 
@@ -151,4 +228,27 @@ class SaleListingServiceWithMockingTest extends AbstractInitializer {
         Assertions.assertTrue(listings.get(1).getLikes() >= listings.get(2).getLikes());
         Assertions.assertTrue(listings.get(2).getLikes() >= listings.get(3).getLikes());
     }
+
+    /**
+     * Tests that once the leaderboard is seeded, popular listings are loaded in leaderboard order
+     * without querying the like counters
+     */
+    @Test
+    void popularListings_leaderboardReady_usesLeaderboardOrder() {
+        listings.get(2).setId(3);
+        listings.get(2).setLikes(6);
+        listings.get(3).setId(4);
+        listings.get(3).setLikes(10);
+        when(popularListingsLeaderboard.isReady()).thenReturn(true);
+        when(popularListingsLeaderboard.getTopListingIds("New Zealand", 9)).thenReturn(List.of(4, 3));
+        doReturn(Arrays.asList(listings.get(2), listings.get(3))).when(saleListingRepository).findAllById(any());
+
+        List<GetSaleListingDTO> popular = saleListingService.getPopularListings("New Zealand");
+
+        Assertions.assertEquals(2, popular.size());
+        Assertions.assertEquals(4, popular.get(0).getId());
+        Assertions.assertEquals(3, popular.get(1).getId());
+        Assertions.assertEquals(10, popular.get(0).getLikes());
+        verify(saleListingRepository, never()).findPopularByCountry(any(String.class), any(Pageable.class));
+    }
 }
@@ -0,0 +1,220 @@
+package org.seng302.project.service_layer.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.seng302.project.AbstractInitializer;
+import org.seng302.project.repository_layer.model.*;
+import org.seng302.project.repository_layer.model.enums.ExportFormat;
+import org.seng302.project.repository_layer.repository.*;
+import org.seng302.project.service_layer.exceptions.BadRequestException;
+import org.seng302.project.service_layer.exceptions.ForbiddenException;
+import org.seng302.project.service_layer.util.PopularListingsLeaderboard;
+import org.seng302.project.service_layer.util.SaleListingSearchIndex;
+import org.seng302.project.service_layer.util.SearchCounter;
+import org.seng302.project.web_layer.authentication.AppUserDetails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for exporting the sale history of a business.
+ */
+@DataJpaTest
+class SalesExportServiceTest extends AbstractInitializer {
+
+    private final UserRepository userRepository;
+    private final AddressRepository addressRepository;
+    private final BusinessRepository businessRepository;
+    private final SaleHistoryRepository saleHistoryRepository;
+    private final ReviewRepository reviewRepository;
+    private final SalesExportService salesExportService;
+
+    private User buyer;
+    private User owner;
+    private Business business;
+    private Sale firstSale;
+    private Sale secondSale;
+
+    @Autowired
+    SalesExportServiceTest(UserRepository userRepository,
+                           AddressRepository addressRepository,
+                           BusinessRepository businessRepository,
+                           SaleHistoryRepository saleHistoryRepository,
+                           ReviewRepository reviewRepository) {
+        this.userRepository = userRepository;
+        this.addressRepository = addressRepository;
+        this.businessRepository = businessRepository;
+        this.saleHistoryRepository = saleHistoryRepository;
+        this.reviewRepository = reviewRepository;
+
+        BusinessService businessService = new BusinessService(businessRepository, addressRepository, userRepository,
+                reviewRepository, Mockito.mock(ProductCatalogueService.class),
+                Mockito.mock(BusinessNotificationRepository.class),
+                new SearchCounter(Mockito.mock(SpecificationQueryRepository.class)),
+                Mockito.mock(PopularListingsLeaderboard.class), Mockito.mock(SaleListingSearchIndex.class),
+                Mockito.mock(EntityCacheService.class));
+        this.salesExportService = new SalesExportService(businessService, saleHistoryRepository);
+    }
+
+    /**
+     * Before each test, setup a business with two sales, the first of them reviewed
+     */
+    @BeforeEach
+    void setup() {
+        buyer = this.getTestUser();
+        addressRepository.save(buyer.getHomeAddress());
+        buyer.setId(null);
+        buyer = userRepository.save(buyer);
+
+        owner = this.getTestUserBusinessAdmin();
+        addressRepository.save(owner.getHomeAddress());
+        owner.setId(null);
+        owner = userRepository.save(owner);
+
+        Address address = addressRepository.save(new Address(null, null, "Christchurch", null, "New Zealand", null));
+        business = businessRepository.save(new Business("Export Business", null, address,
+                "Retail Trade", owner.getId()));
+
+        saleHistoryRepository.deleteAll();
+        firstSale = saleHistoryRepository.save(createSale("Beans, baked", 2.50, LocalDateTime.of(2021, 3, 1, 9, 30)));
+        secondSale = saleHistoryRepository.save(createSale("=SUM(A1)", 4.00, LocalDateTime.of(2021, 3, 2, 10, 0)));
+
+        Review review = reviewRepository.save(new Review(firstSale, buyer, 4, "Good"));
+        firstSale.setReview(review);
+        firstSale = saleHistoryRepository.save(firstSale);
+    }
+
+    /**
+     * Creates a sale of a product from the business, not yet saved.
+     */
+    private Sale createSale(String productName, double price, LocalDateTime dateSold) {
+        var product = new ProductArchive();
+        product.setProductId("PROD");
+        product.setName(productName);
+        product.setCurrencyCountry("New Zealand");
+        var inventoryItem = new InventoryItemArchive();
+        inventoryItem.setProduct(product);
+
+        Sale sale = new Sale();
+        sale.setBusiness(business);
+        sale.setBuyerId(buyer.getId());
+        sale.setInventoryItem(inventoryItem);
+        sale.setPrice(price);
+        sale.setQuantity(1);
+        sale.setDateSold(dateSold);
+        return sale;
+    }
+
+    private List<String> export(ExportFormat format, Integer since) throws IOException {
+        var output = new ByteArrayOutputStream();
+        salesExportService.writeSales(business.getId(), format, since, output);
+        return List.of(output.toString(StandardCharsets.UTF_8).split("\r?\n"));
+    }
+
+    /**
+     * Tests that the sales are exported as CSV with a header, oldest first, with text fields escaped
+     */
+    @Test
+    void writeSales_csv_salesWithHeader() throws IOException {
+        List<String> lines = export(ExportFormat.CSV, null);
+
+        Assertions.assertEquals(3, lines.size());
+        Assertions.assertEquals("id,dateSold,listingId,productId,productName,quantity,price,currencyCountry," +
+                "buyerId,rating", lines.get(0));
+        Assertions.assertEquals(firstSale.getSaleId() + ",2021-03-01T09:30,,PROD,\"Beans, baked\",1,2.5," +
+                "New Zealand," + buyer.getId() + ",4", lines.get(1));
+        Assertions.assertEquals(secondSale.getSaleId() + ",2021-03-02T10:00,,PROD,'=SUM(A1),1,4.0," +
+                "New Zealand," + buyer.getId() + ",", lines.get(2));
+    }
+
+    /**
+     * Tests that the sales are exported as one JSON object per line
+     */
+    @Test
+    void writeSales_ndjson_oneObjectPerLine() throws IOException {
+        List<String> lines = export(ExportFormat.NDJSON, null);
+
+        Assertions.assertEquals(2, lines.size());
+        Assertions.assertTrue(lines.get(0).startsWith("{\"id\":" + firstSale.getSaleId() + ","));
+        Assertions.assertTrue(lines.get(0).contains("\"dateSold\":\"2021-03-01T09:30\""));
+        Assertions.assertTrue(lines.get(0).contains("\"productName\":\"Beans, baked\""));
+        Assertions.assertTrue(lines.get(0).contains("\"rating\":4"));
+        Assertions.assertTrue(lines.get(1).contains("\"rating\":null"));
+    }
+
+    /**
+     * Tests that passing the id of the last sale received only exports the later sales
+     */
+    @Test
+    void writeSales_since_onlyLaterSales() throws IOException {
+        List<String> lines = export(ExportFormat.NDJSON, firstSale.getSaleId());
+
+        Assertions.assertEquals(1, lines.size());
+        Assertions.assertTrue(lines.get(0).startsWith("{\"id\":" + secondSale.getSaleId() + ","));
+    }
+
+    /**
+     * Tests that a business with more sales than fit in one batch has all of them exported once
+     */
+    @Test
+    void writeSales_severalBatches_allSalesWritten() throws IOException {
+        List<Sale> sales = new ArrayList<>();
+        for (var i = 0; i < SalesExportService.EXPORT_BATCH_SIZE; i++) {
+            sales.add(createSale("Product " + i, 1.00, LocalDateTime.of(2021, 4, 1, 12, 0)));
+        }
+        saleHistoryRepository.saveAll(sales);
+
+        var output = new ByteArrayOutputStream();
+        long written = salesExportService.writeSales(business.getId(), ExportFormat.CSV, null, output);
+
+        Assertions.assertEquals(SalesExportService.EXPORT_BATCH_SIZE + 2L, written);
+        List<String> lines = List.of(output.toString(StandardCharsets.UTF_8).split("\r\n"));
+        Assertions.assertEquals(SalesExportService.EXPORT_BATCH_SIZE + 3, lines.size());
+        Assertions.assertEquals(lines.size() - 1, lines.stream().skip(1).map(line -> line.split(",")[0])
+                .distinct().count());
+    }
+
+    /**
+     * Tests that an unknown export format is rejected before anything is written
+     */
+    @Test
+    void checkExport_invalidFormat_badRequestException() {
+        AppUserDetails appUser = new AppUserDetails(owner);
+        Integer businessId = business.getId();
+        Assertions.assertThrows(BadRequestException.class,
+                () -> salesExportService.checkExport(businessId, "xlsx", appUser));
+        Assertions.assertEquals(ExportFormat.NDJSON, salesExportService.checkExport(businessId, "ndjson", appUser));
+    }
+
+    /**
+     * Tests that a user who isn't an admin of the business can't export its sales
+     */
+    @Test
+    void checkExport_notAdmin_forbiddenException() {
+        AppUserDetails appUser = new AppUserDetails(buyer);
+        Integer businessId = business.getId();
+        Assertions.assertThrows(ForbiddenException.class,
+                () -> salesExportService.checkExport(businessId, "csv", appUser));
+    }
+
+    /**
+     * Tests that the CSV fields are only quoted when they need to be
+     */
+    @Test
+    void toCsvField_specialCharacters_quoted() {
+        Assertions.assertEquals("", SalesExportService.toCsvField(null));
+        Assertions.assertEquals("plain", SalesExportService.toCsvField("plain"));
+        Assertions.assertEquals("-2.5", SalesExportService.toCsvField(-2.5));
+        Assertions.assertEquals("\"say \"\"hi\"\"\"", SalesExportService.toCsvField("say \"hi\""));
+        Assertions.assertEquals("\"two\nlines\"", SalesExportService.toCsvField("two\nlines"));
+        Assertions.assertEquals("'+64 3 555", SalesExportService.toCsvField("+64 3 555"));
+    }
+}
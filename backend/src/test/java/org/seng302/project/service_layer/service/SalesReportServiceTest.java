@@ -11,9 +11,14 @@ import org.seng302.project.service_layer.dto.sales_report.GetSalesReportDTO;
 import org.seng302.project.service_layer.exceptions.BadRequestException;
 import org.seng302.project.service_layer.exceptions.ForbiddenException;
 import org.seng302.project.service_layer.exceptions.NotAcceptableException;
+import org.seng302.project.service_layer.util.PopularListingsLeaderboard;
+import org.seng302.project.service_layer.util.SaleListingSearchIndex;
+import org.seng302.project.service_layer.util.SalesReportCache;
+import org.seng302.project.service_layer.util.SearchCounter;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -37,6 +42,8 @@ class SalesReportServiceTest extends AbstractInitializer {
     private final BusinessRepository businessRepository;
     private final UserRepository userRepository;
     private final SalesReportService salesReportService;
+    private final SalesRollupService salesRollupService;
+    private final SalesReportCache salesReportCache;
     private final AddressRepository addressRepository;
     private final ReviewRepository reviewRepository;
 
@@ -45,7 +52,9 @@ class SalesReportServiceTest extends AbstractInitializer {
                                   UserRepository userRepository,
                                   SaleHistoryRepository saleHistoryRepository,
                                   AddressRepository addressRepository,
-                                  ReviewRepository reviewRepository) {
+                                  ReviewRepository reviewRepository,
+                                  DailySalesRollupRepository dailySalesRollupRepository,
+                                  PlatformTransactionManager transactionManager) {
         this.businessRepository = businessRepository;
         this.userRepository = userRepository;
         this.saleHistoryRepository = saleHistoryRepository;
@@ -55,8 +64,15 @@ class SalesReportServiceTest extends AbstractInitializer {
         ProductCatalogueService productCatalogueService = Mockito.mock(ProductCatalogueService.class);
         BusinessNotificationRepository businessNotificationRepository = Mockito.mock(BusinessNotificationRepository.class);
         BusinessService businessService = new BusinessService(businessRepository, addressRepository, userRepository,
-                reviewRepository, productCatalogueService, businessNotificationRepository);
-        this.salesReportService = new SalesReportService(businessService, this.saleHistoryRepository);
+                reviewRepository, productCatalogueService, businessNotificationRepository,
+                new SearchCounter(Mockito.mock(SpecificationQueryRepository.class)),
+                Mockito.mock(PopularListingsLeaderboard.class), Mockito.mock(SaleListingSearchIndex.class),
+                Mockito.mock(EntityCacheService.class));
+        this.salesReportCache = new SalesReportCache(Mockito.mock(EntityCacheService.class));
+        this.salesReportService = new SalesReportService(businessService, this.saleHistoryRepository,
+                dailySalesRollupRepository, salesReportCache);
+        this.salesRollupService = new SalesRollupService(dailySalesRollupRepository, this.saleHistoryRepository,
+                salesReportCache, transactionManager);
     }
 
 
@@ -112,6 +128,9 @@ class SalesReportServiceTest extends AbstractInitializer {
         soldLastYear.setMoreInfo("Sold last year");
         soldLastYear.setDateSold(LocalDateTime.now().minusYears(1));
         saleHistoryRepository.save(soldLastYear);
+
+        //The sales are saved directly rather than bought, so build their rollups from them
+        salesRollupService.rebuildRollups();
     }
 
 
@@ -300,4 +319,145 @@ class SalesReportServiceTest extends AbstractInitializer {
 
         Assertions.assertEquals(soldLastYear.getMoreInfo(), salesReport.get(0).getSales().get(0).getMoreInfo());
     }
+
+
+    /**
+     * Tests that getting a sales report without its sales, which comes from the daily rollups,
+     * gives the same periods and totals as getting it with them, but with no sales
+     */
+    @Test
+    void getSalesReport_withoutSales_sameTotals() {
+        Review review = reviewRepository.save(new Review(soldYesterday, testUser, 4, "Good"));
+        soldYesterday.setReview(review);
+        saleHistoryRepository.save(soldYesterday);
+        salesRollupService.rebuildRollups();
+
+        AppUserDetails appUser = new AppUserDetails(owner);
+        String periodStart = LocalDate.now().minusYears(1).toString();
+        String periodEnd = LocalDate.now().toString();
+        Integer businessId = business.getId();
+
+        for (String granularity : List.of("all", "daily", "weekly", "monthly", "yearly")) {
+            List<GetSalesReportDTO> withSales = salesReportService.getSalesReport(businessId, periodStart,
+                    periodEnd, granularity, true, appUser);
+            List<GetSalesReportDTO> withoutSales = salesReportService.getSalesReport(businessId, periodStart,
+                    periodEnd, granularity, false, appUser);
+
+            Assertions.assertEquals(withSales.size(), withoutSales.size());
+            for (int i = 0; i < withSales.size(); i++) {
+                Assertions.assertEquals(withSales.get(i).getPeriodStart(), withoutSales.get(i).getPeriodStart());
+                Assertions.assertEquals(withSales.get(i).getPeriodEnd(), withoutSales.get(i).getPeriodEnd());
+                Assertions.assertEquals(withSales.get(i).getPurchaseCount(), withoutSales.get(i).getPurchaseCount());
+                Assertions.assertEquals(withSales.get(i).getTotalPurchaseValue(),
+                        withoutSales.get(i).getTotalPurchaseValue(), 0.001);
+                Assertions.assertEquals(withSales.get(i).getTotalQuantity(), withoutSales.get(i).getTotalQuantity());
+                Assertions.assertEquals(withSales.get(i).getReviewCount(), withoutSales.get(i).getReviewCount());
+                Assertions.assertEquals(withSales.get(i).getAverageRating(), withoutSales.get(i).getAverageRating());
+                Assertions.assertTrue(withoutSales.get(i).getSales().isEmpty());
+            }
+        }
+    }
+
+
+    /**
+     * Tests that a weekly report spanning many weeks has a period for every week, with each sale
+     * counted in the week it was sold
+     */
+    @Test
+    void getSalesReport_weeklyOverYear_salesInTheirWeeks() {
+        AppUserDetails appUser = new AppUserDetails(owner);
+        LocalDate periodStart = LocalDate.now().minusYears(1);
+        Integer businessId = business.getId();
+
+        List<GetSalesReportDTO> salesReport = salesReportService.getSalesReport(businessId, periodStart.toString(),
+                LocalDate.now().toString(), "weekly", false, appUser);
+
+        Assertions.assertEquals(periodStart, salesReport.get(0).getPeriodStart());
+        Assertions.assertEquals(LocalDate.now(), salesReport.get(salesReport.size() - 1).getPeriodEnd());
+        Assertions.assertTrue(salesReport.size() >= 52);
+        //soldLastYear is the only sale in the first week
+        Assertions.assertEquals(1, salesReport.get(0).getPurchaseCount());
+        Assertions.assertEquals(6, salesReport.stream().mapToInt(GetSalesReportDTO::getPurchaseCount).sum());
+    }
+
+
+    /**
+     * Tests that getting the same report twice takes its closed periods from the cache,
+     * and gives the same periods, totals and sales
+     */
+    @Test
+    void getSalesReport_repeated_closedPeriodsCached() {
+        AppUserDetails appUser = new AppUserDetails(owner);
+        String periodStart = LocalDate.now().minusMonths(2).toString();
+        String periodEnd = LocalDate.now().toString();
+        Integer businessId = business.getId();
+
+        List<GetSalesReportDTO> first = salesReportService.getSalesReport(businessId, periodStart,
+                periodEnd, "weekly", appUser);
+        long hits = (long) salesReportCache.getStatistics().get("hits");
+        List<GetSalesReportDTO> second = salesReportService.getSalesReport(businessId, periodStart,
+                periodEnd, "weekly", appUser);
+
+        Assertions.assertTrue((long) salesReportCache.getStatistics().get("hits") > hits);
+        Assertions.assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            Assertions.assertEquals(first.get(i).getPeriodStart(), second.get(i).getPeriodStart());
+            Assertions.assertEquals(first.get(i).getPurchaseCount(), second.get(i).getPurchaseCount());
+            Assertions.assertEquals(first.get(i).getTotalPurchaseValue(), second.get(i).getTotalPurchaseValue());
+            Assertions.assertEquals(first.get(i).getSales().size(), second.get(i).getSales().size());
+            for (int j = 0; j < first.get(i).getSales().size(); j++) {
+                Assertions.assertEquals(first.get(i).getSales().get(j).getId(),
+                        second.get(i).getSales().get(j).getId());
+            }
+        }
+    }
+
+
+    /**
+     * Tests that the period including today isn't cached, so a sale made after the report was first got
+     * is in the report the next time
+     */
+    @Test
+    void getSalesReport_saleToday_openPeriodRecomputed() {
+        AppUserDetails appUser = new AppUserDetails(owner);
+        String periodStart = LocalDate.now().minusDays(3).toString();
+        String periodEnd = LocalDate.now().toString();
+        Integer businessId = business.getId();
+        salesReportService.getSalesReport(businessId, periodStart, periodEnd, "daily", appUser);
+
+        Sale soldJustNow = new Sale();
+        soldJustNow.setBusiness(business);
+        soldJustNow.setPrice(1.00);
+        soldJustNow.setQuantity(1);
+        soldJustNow.setDateSold(LocalDateTime.now());
+        saleHistoryRepository.save(soldJustNow);
+
+        List<GetSalesReportDTO> salesReport = salesReportService.getSalesReport(businessId, periodStart,
+                periodEnd, "daily", appUser);
+        Assertions.assertEquals(3, salesReport.get(salesReport.size() - 1).getPurchaseCount());
+    }
+
+
+    /**
+     * Tests that leaving a review on a sale in a cached period is in the report the next time
+     */
+    @Test
+    void getSalesReport_reviewAfterCached_reviewCounted() {
+        AppUserDetails appUser = new AppUserDetails(owner);
+        String periodStart = LocalDate.now().minusDays(3).toString();
+        String periodEnd = LocalDate.now().toString();
+        Integer businessId = business.getId();
+        salesReportService.getSalesReport(businessId, periodStart, periodEnd, "daily", false, appUser);
+
+        Review review = reviewRepository.save(new Review(soldYesterday, testUser, 4, "Good"));
+        soldYesterday.setReview(review);
+        saleHistoryRepository.save(soldYesterday);
+        salesRollupService.addReview(soldYesterday, 4);
+        salesReportCache.invalidate(businessId, soldYesterday.getDateSold().toLocalDate());
+
+        List<GetSalesReportDTO> salesReport = salesReportService.getSalesReport(businessId, periodStart,
+                periodEnd, "daily", false, appUser);
+        Assertions.assertEquals(1, salesReport.get(0).getReviewCount());
+        Assertions.assertEquals(4.0, salesReport.get(0).getAverageRating());
+    }
 }
@@ -0,0 +1,217 @@
+package org.seng302.project.service_layer.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.seng302.project.AbstractInitializer;
+import org.seng302.project.repository_layer.model.*;
+import org.seng302.project.repository_layer.repository.*;
+import org.seng302.project.service_layer.util.SalesReportCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Tests that the daily sales rollups are kept in step with the sales and reviews, and can be rebuilt from them.
+ */
+@DataJpaTest
+class SalesRollupServiceTest extends AbstractInitializer {
+
+    private final UserRepository userRepository;
+    private final AddressRepository addressRepository;
+    private final BusinessRepository businessRepository;
+    private final SaleHistoryRepository saleHistoryRepository;
+    private final ReviewRepository reviewRepository;
+    private final DailySalesRollupRepository dailySalesRollupRepository;
+    private final SalesReportCache salesReportCache;
+    private final SalesRollupService salesRollupService;
+
+    private User buyer;
+    private User otherBuyer;
+    private Business business;
+    private LocalDateTime today;
+
+    @Autowired
+    SalesRollupServiceTest(UserRepository userRepository,
+                           AddressRepository addressRepository,
+                           BusinessRepository businessRepository,
+                           SaleHistoryRepository saleHistoryRepository,
+                           ReviewRepository reviewRepository,
+                           DailySalesRollupRepository dailySalesRollupRepository,
+                           PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.addressRepository = addressRepository;
+        this.businessRepository = businessRepository;
+        this.saleHistoryRepository = saleHistoryRepository;
+        this.reviewRepository = reviewRepository;
+        this.dailySalesRollupRepository = dailySalesRollupRepository;
+        this.salesReportCache = Mockito.mock(SalesReportCache.class);
+        this.salesRollupService = new SalesRollupService(dailySalesRollupRepository, saleHistoryRepository,
+                salesReportCache, transactionManager);
+    }
+
+    /**
+     * Before each test, setup a business and two users to buy from it
+     */
+    @BeforeEach
+    void setup() {
+        buyer = this.getTestUser();
+        addressRepository.save(buyer.getHomeAddress());
+        buyer.setId(null);
+        buyer = userRepository.save(buyer);
+
+        otherBuyer = this.getTestUserBusinessAdmin();
+        addressRepository.save(otherBuyer.getHomeAddress());
+        otherBuyer.setId(null);
+        otherBuyer = userRepository.save(otherBuyer);
+
+        Address address = addressRepository.save(new Address(null, null, "Christchurch", null, "New Zealand", null));
+        business = businessRepository.save(new Business("Rollup Business", null, address,
+                "Retail Trade", otherBuyer.getId()));
+
+        saleHistoryRepository.deleteAll();
+        today = LocalDate.now().atTime(12, 0);
+    }
+
+    /**
+     * Creates a sale from the business, not yet saved.
+     */
+    private Sale createSale(User saleBuyer, double price, int quantity, LocalDateTime dateSold) {
+        Sale sale = new Sale();
+        sale.setBusiness(business);
+        sale.setBuyerId(saleBuyer.getId());
+        sale.setPrice(price);
+        sale.setQuantity(quantity);
+        sale.setDateSold(dateSold);
+        return sale;
+    }
+
+    /**
+     * Adds a sale to the rollups then saves it, as a purchase does.
+     */
+    private Sale buy(User saleBuyer, double price, int quantity, LocalDateTime dateSold) {
+        Sale sale = createSale(saleBuyer, price, quantity, dateSold);
+        salesRollupService.addSale(sale);
+        return saleHistoryRepository.save(sale);
+    }
+
+    private DailySalesRollup getRollup(LocalDate day) {
+        List<DailySalesRollup> rollups = dailySalesRollupRepository.findWithinPeriod(business.getId(), day, day);
+        Assertions.assertEquals(1, rollups.size());
+        return rollups.get(0);
+    }
+
+    /**
+     * Tests that the business' first sale of a day creates the day's rollup, and later sales add to it
+     */
+    @Test
+    void addSale_severalSales_addedToDaysRollup() {
+        buy(buyer, 10.00, 2, today);
+        buy(otherBuyer, 5.50, 1, today.plusHours(1));
+
+        DailySalesRollup rollup = getRollup(today.toLocalDate());
+        Assertions.assertEquals(2, rollup.getSaleCount());
+        Assertions.assertEquals(15.50, rollup.getRevenue(), 0.001);
+        Assertions.assertEquals(3, rollup.getUnits());
+        Assertions.assertEquals(2, rollup.getBuyerCount());
+    }
+
+    /**
+     * Tests that a buyer who buys from the business twice in a day is only counted once that day,
+     * but is counted again on another day
+     */
+    @Test
+    void addSale_sameBuyerTwice_buyerCountedOncePerDay() {
+        buy(buyer, 10.00, 1, today.minusDays(1));
+        buy(buyer, 10.00, 1, today);
+        buy(buyer, 10.00, 1, today.plusHours(2));
+
+        Assertions.assertEquals(1, getRollup(today.toLocalDate().minusDays(1)).getBuyerCount());
+        DailySalesRollup rollup = getRollup(today.toLocalDate());
+        Assertions.assertEquals(2, rollup.getSaleCount());
+        Assertions.assertEquals(1, rollup.getBuyerCount());
+    }
+
+    /**
+     * Tests that a review's rating is added to the rollup of the day the reviewed sale was made
+     */
+    @Test
+    void addReview_saleInRollup_ratingAdded() {
+        Sale sale = buy(buyer, 10.00, 1, today.minusDays(2));
+        buy(otherBuyer, 10.00, 1, today.minusDays(2));
+
+        salesRollupService.addReview(sale, 4);
+        salesRollupService.addReview(sale, 5);
+
+        DailySalesRollup rollup = getRollup(today.toLocalDate().minusDays(2));
+        Assertions.assertEquals(2, rollup.getReviewCount());
+        Assertions.assertEquals(9, rollup.getRatingTotal());
+        Assertions.assertEquals(4.5, rollup.getAverageRating());
+    }
+
+    /**
+     * Tests that reviewing a sale which isn't in the rollups leaves them alone
+     */
+    @Test
+    void addReview_saleNotInRollup_noRollupCreated() {
+        Sale sale = saleHistoryRepository.save(createSale(buyer, 10.00, 1, today));
+
+        salesRollupService.addReview(sale, 3);
+
+        Assertions.assertTrue(dailySalesRollupRepository.findWithinPeriod(business.getId(),
+                today.toLocalDate(), today.toLocalDate()).isEmpty());
+    }
+
+    /**
+     * Tests that rebuilding the rollups gives the same totals as adding each sale and review as it happens,
+     * and clears the cached sales report periods made from the old rollups
+     */
+    @Test
+    void rebuildRollups_fromSales_sameAsIncremental() {
+        buy(buyer, 10.00, 2, today.minusDays(1));
+        Sale reviewed = buy(buyer, 4.00, 1, today);
+        buy(buyer, 6.00, 3, today.plusHours(1));
+        buy(otherBuyer, 8.00, 1, today.plusHours(2));
+        Review review = reviewRepository.save(new Review(reviewed, buyer, 2, "Not great"));
+        reviewed.setReview(review);
+        saleHistoryRepository.save(reviewed);
+        salesRollupService.addReview(reviewed, 2);
+
+        List<DailySalesRollup> incremental = dailySalesRollupRepository.findWithinPeriod(business.getId(),
+                today.toLocalDate().minusDays(1), today.toLocalDate());
+
+        Assertions.assertEquals(2, salesRollupService.rebuildRollups());
+        Mockito.verify(salesReportCache).clear();
+
+        List<DailySalesRollup> rebuilt = dailySalesRollupRepository.findWithinPeriod(business.getId(),
+                today.toLocalDate().minusDays(1), today.toLocalDate());
+        Assertions.assertEquals(incremental.size(), rebuilt.size());
+        for (int i = 0; i < incremental.size(); i++) {
+            Assertions.assertEquals(incremental.get(i).getSaleDate(), rebuilt.get(i).getSaleDate());
+            Assertions.assertEquals(incremental.get(i).getSaleCount(), rebuilt.get(i).getSaleCount());
+            Assertions.assertEquals(incremental.get(i).getRevenue(), rebuilt.get(i).getRevenue(), 0.001);
+            Assertions.assertEquals(incremental.get(i).getUnits(), rebuilt.get(i).getUnits());
+            Assertions.assertEquals(incremental.get(i).getBuyerCount(), rebuilt.get(i).getBuyerCount());
+            Assertions.assertEquals(incremental.get(i).getReviewCount(), rebuilt.get(i).getReviewCount());
+            Assertions.assertEquals(incremental.get(i).getRatingTotal(), rebuilt.get(i).getRatingTotal());
+        }
+    }
+
+    /**
+     * Tests that the startup backfill builds the rollups when there are sales but no rollups
+     */
+    @Test
+    void backfillRollups_noRollups_rollupsBuilt() {
+        saleHistoryRepository.save(createSale(buyer, 10.00, 1, today));
+        dailySalesRollupRepository.deleteAllRollups();
+
+        salesRollupService.backfillRollups();
+
+        Assertions.assertEquals(1, getRollup(today.toLocalDate()).getSaleCount());
+    }
+}
@@ -13,6 +13,7 @@ import org.seng302.project.repository_layer.model.User;
 import org.seng302.project.repository_layer.repository.AddressRepository;
 import org.seng302.project.repository_layer.repository.LikedSaleListingRepository;
 import org.seng302.project.repository_layer.repository.SaleHistoryRepository;
+import org.seng302.project.repository_layer.repository.SpecificationQueryRepository;
 import org.seng302.project.repository_layer.repository.UserRepository;
 import org.seng302.project.service_layer.dto.address.AddressDTO;
 import org.seng302.project.service_layer.dto.user.PostUserDTO;
@@ -21,6 +22,7 @@ import org.seng302.project.service_layer.exceptions.ForbiddenException;
 import org.seng302.project.service_layer.exceptions.NoUserExistsException;
 import org.seng302.project.service_layer.exceptions.dgaa.ForbiddenDGAAActionException;
 import org.seng302.project.service_layer.exceptions.register.ExistingRegisteredEmailException;
+import org.seng302.project.service_layer.util.SearchCounter;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
@@ -64,7 +66,8 @@ class UserServiceTest extends AbstractInitializer {
                 likedSaleListingRepository,
                 authenticationManager,
                 passwordEncoder,
-                saleHistoryRepository
+                saleHistoryRepository,
+                new SearchCounter(Mockito.mock(SpecificationQueryRepository.class))
         );
     }
 
@@ -0,0 +1,113 @@
+package org.seng302.project.service_layer.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.seng302.project.repository_layer.repository.SaleListingRepository;
+import org.seng302.project.service_layer.util.ListingExpiryQueue.ExpiringListing;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for the ListingExpiryQueue class.
+ */
+class ListingExpiryQueueTest {
+
+    private SaleListingRepository saleListingRepository;
+    private ListingExpiryQueue queue;
+    private LocalDateTime now;
+
+    @BeforeEach
+    void setup() {
+        saleListingRepository = Mockito.mock(SaleListingRepository.class);
+        queue = new ListingExpiryQueue(saleListingRepository);
+        now = LocalDateTime.parse("2021-09-01T12:00:00");
+    }
+
+    /**
+     * Gets the ids of the given listings, in order.
+     */
+    private List<Integer> getIds(List<ExpiringListing> listings) {
+        return listings.stream().map(ExpiringListing::getListingId).collect(Collectors.toList());
+    }
+
+    /**
+     * Tests that only listings which have closed are taken, earliest closing first.
+     */
+    @Test
+    void pollDue_someClosed_takesClosedInOrder() {
+        queue.schedule(1, now.minusMinutes(1));
+        queue.schedule(2, now.plusMinutes(1));
+        queue.schedule(3, now.minusHours(1));
+        queue.schedule(4, now);
+
+        Assertions.assertEquals(List.of(3, 1, 4), getIds(queue.pollDue(now, 10)));
+        Assertions.assertEquals(1, queue.size());
+        Assertions.assertEquals(List.of(), queue.pollDue(now, 10));
+        Assertions.assertEquals(List.of(2), getIds(queue.pollDue(now.plusMinutes(1), 10)));
+    }
+
+    /**
+     * Tests that no more than the maximum number of listings are taken at once.
+     */
+    @Test
+    void pollDue_moreThanMaximum_takesMaximum() {
+        for (var id = 1; id <= 5; id++) {
+            queue.schedule(id, now.minusMinutes(id));
+        }
+
+        Assertions.assertEquals(List.of(5, 4), getIds(queue.pollDue(now, 2)));
+        Assertions.assertEquals(List.of(3, 2, 1), getIds(queue.pollDue(now, 10)));
+    }
+
+    /**
+     * Tests that removed listings are never expired, and rescheduled listings expire at their new closing date.
+     */
+    @Test
+    void pollDue_removedAndRescheduled_usesLatestSchedule() {
+        queue.schedule(1, now.minusMinutes(1));
+        queue.schedule(2, now.minusMinutes(1));
+        queue.schedule(2, now.plusMinutes(1));
+        queue.removeAll(List.of(1));
+
+        Assertions.assertEquals(List.of(), queue.pollDue(now, 10));
+        Assertions.assertEquals(List.of(2), getIds(queue.pollDue(now.plusMinutes(1), 10)));
+    }
+
+    /**
+     * Tests that loading the queue reads the closing dates of the sale listings.
+     */
+    @Test
+    void load_listingsSaved_queued() {
+        Mockito.when(saleListingRepository.findClosingDates()).thenReturn(List.<List<Object>>of(
+                Arrays.asList(1, now.minusMinutes(1)),
+                Arrays.asList(2, now.plusMinutes(1))));
+
+        queue.load();
+
+        Assertions.assertEquals(2, queue.size());
+        Assertions.assertEquals(List.of(1), getIds(queue.pollDue(now, 10)));
+    }
+
+    /**
+     * Tests that recording batches keeps the batch sizes and the lag between closing and expiring.
+     */
+    @Test
+    void recordBatch_batchesExpired_updatesStatistics() {
+        queue.recordBatch(List.of(new ExpiringListing(1, now.minusSeconds(3)),
+                new ExpiringListing(2, now.minusSeconds(1))), now);
+        queue.recordBatch(List.of(new ExpiringListing(3, now.minusSeconds(2))), now);
+
+        var statistics = queue.getStatistics();
+        Assertions.assertEquals(3L, statistics.get("expired"));
+        Assertions.assertEquals(2L, statistics.get("batches"));
+        Assertions.assertEquals(1, statistics.get("lastBatchSize"));
+        Assertions.assertEquals(2, statistics.get("maxBatchSize"));
+        Assertions.assertEquals(2000L, statistics.get("lastLagMillis"));
+        Assertions.assertEquals(3000L, statistics.get("maxLagMillis"));
+    }
+}
@@ -0,0 +1,261 @@
+package org.seng302.project.service_layer.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.seng302.project.repository_layer.model.Address;
+import org.seng302.project.repository_layer.model.Business;
+import org.seng302.project.repository_layer.repository.SaleListingRepository;
+import org.seng302.project.service_layer.service.EntityCacheService;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+
+/**
+ * Tests for the PopularListingsLeaderboard class.
+ */
+class PopularListingsLeaderboardTest {
+
+    private SaleListingRepository saleListingRepository;
+    private EntityCacheService entityCacheService;
+    private PopularListingsLeaderboard leaderboard;
+    private Business newZealandBusiness;
+    private Business netherlandsBusiness;
+    // The like counters of the listings, and the business each listing belongs to
+    private final ConcurrentMap<Integer, AtomicInteger> counters = new ConcurrentHashMap<>();
+    private final Map<Integer, Business> businesses = new HashMap<>();
+
+    @BeforeEach
+    void setup() {
+        saleListingRepository = Mockito.mock(SaleListingRepository.class);
+        entityCacheService = Mockito.mock(EntityCacheService.class);
+        leaderboard = new PopularListingsLeaderboard(saleListingRepository, entityCacheService);
+        // The listing ranks are read from the like counters, so listings which weren't created or were deleted
+        // aren't found
+        Mockito.when(saleListingRepository.findListingRanks(any())).thenAnswer(invocation -> {
+            List<List<Object>> rows = new ArrayList<>();
+            for (Integer listingId : invocation.<Collection<Integer>>getArgument(0)) {
+                var counter = counters.get(listingId);
+                if (counter != null) {
+                    var listingBusiness = businesses.get(listingId);
+                    rows.add(Arrays.asList(listingId, counter.get(), listingBusiness.getId(),
+                            listingBusiness.getAddress().getCountry()));
+                }
+            }
+            return rows;
+        });
+
+        newZealandBusiness = new Business("First Business", null,
+                new Address(null, null, "Christchurch", null, "New Zealand", null), "Retail Trade", 1);
+        newZealandBusiness.setId(1);
+        netherlandsBusiness = new Business("Second Business", null,
+                new Address(null, null, "Rangiora", null, "Netherlands", null), "Retail Trade", 1);
+        netherlandsBusiness.setId(2);
+    }
+
+    /**
+     * Creates a sale listing of a business with the given id and no likes.
+     */
+    private void createListing(Integer id, Business business) {
+        counters.put(id, new AtomicInteger());
+        businesses.put(id, business);
+    }
+
+    /**
+     * Changes the like counter of a listing then updates its likes, as liking or unliking it does.
+     */
+    private void like(Integer id, int delta) {
+        counters.get(id).addAndGet(delta);
+        leaderboard.updateLikes(id);
+    }
+
+    /**
+     * Tests that seeding orders listings by likes, then by id, both worldwide and for each country.
+     */
+    @Test
+    void seed_likedListings_orderedByLikes() {
+        Mockito.when(saleListingRepository.findLikedListingRanks()).thenReturn(List.<List<Object>>of(
+                Arrays.asList(1, 2, 1, "New Zealand"),
+                Arrays.asList(2, 5, 2, "Netherlands"),
+                Arrays.asList(3, 2, 2, "Netherlands"),
+                Arrays.asList(4, 1, 1, null)));
+
+        leaderboard.seed();
+
+        Assertions.assertTrue(leaderboard.isReady());
+        Assertions.assertEquals(List.of(2, 1, 3, 4), leaderboard.getTopListingIds(null, 9));
+        Assertions.assertEquals(List.of(2, 1), leaderboard.getTopListingIds(null, 2));
+        Assertions.assertEquals(List.of(2, 3), leaderboard.getTopListingIds("Netherlands", 9));
+        Assertions.assertEquals(List.of(), leaderboard.getTopListingIds("Australia", 9));
+    }
+
+    /**
+     * Tests that likes made before the leaderboard is seeded are ignored, as seeding reads them from the counters.
+     */
+    @Test
+    void updateLikes_beforeSeed_ignored() {
+        createListing(1, newZealandBusiness);
+        like(1, 1);
+
+        Assertions.assertFalse(leaderboard.isReady());
+        Assertions.assertEquals(List.of(), leaderboard.getTopListingIds(null, 9));
+    }
+
+    /**
+     * Tests that likes and unlikes move listings up and down, and listings with no likes are removed.
+     */
+    @Test
+    void updateLikes_afterSeed_reorders() {
+        leaderboard.seed();
+        createListing(1, newZealandBusiness);
+        createListing(2, newZealandBusiness);
+
+        like(1, 1);
+        like(2, 1);
+        like(2, 1);
+        Assertions.assertEquals(List.of(2, 1), leaderboard.getTopListingIds("New Zealand", 9));
+
+        like(2, -1);
+        like(2, -1);
+        Assertions.assertEquals(List.of(1), leaderboard.getTopListingIds("New Zealand", 9));
+        Assertions.assertEquals(List.of(1), leaderboard.getTopListingIds(null, 9));
+    }
+
+    /**
+     * Tests that the likes are set from the like counter, so a listing the leaderboard has fallen behind on
+     * is corrected by its next like.
+     */
+    @Test
+    void updateLikes_counterAhead_setFromCounter() {
+        leaderboard.seed();
+        createListing(1, newZealandBusiness);
+        createListing(2, newZealandBusiness);
+        like(1, 2);
+
+        // Likes made without the leaderboard being updated, e.g. on a node whose change hasn't been read yet
+        counters.get(2).addAndGet(2);
+        like(2, 1);
+
+        Assertions.assertEquals(List.of(2, 1), leaderboard.getTopListingIds(null, 9));
+    }
+
+    /**
+     * Tests that each like is recorded for the other nodes, and a change recorded by another node
+     * re-reads the like counters of its listings.
+     */
+    @Test
+    void updateLikes_otherNodes_changeRecordedAndApplied() {
+        leaderboard.seed();
+        createListing(1, newZealandBusiness);
+        createListing(2, netherlandsBusiness);
+
+        like(1, 1);
+        Mockito.verify(entityCacheService).recordCacheChange("PopularListingsLeaderboard:1");
+
+        ArgumentCaptor<Consumer<String>> handler = ArgumentCaptor.forClass(Consumer.class);
+        Mockito.verify(entityCacheService).addRemoteChangeHandler(anyString(), handler.capture());
+        counters.get(2).addAndGet(3);
+        counters.remove(1);
+        handler.getValue().accept("1,2");
+
+        Assertions.assertEquals(List.of(2), leaderboard.getTopListingIds(null, 9));
+        Assertions.assertEquals(List.of(), leaderboard.getTopListingIds("New Zealand", 9));
+    }
+
+    /**
+     * Tests that bought or expired listings are removed from the leaderboard, and only the listings which
+     * were on it are recorded for the other nodes.
+     */
+    @Test
+    void removeAll_likedListings_removed() {
+        leaderboard.seed();
+        createListing(1, newZealandBusiness);
+        createListing(2, netherlandsBusiness);
+        createListing(3, netherlandsBusiness);
+        like(1, 1);
+        like(2, 1);
+
+        leaderboard.removeAll(List.of(1, 3));
+
+        Assertions.assertEquals(List.of(2), leaderboard.getTopListingIds(null, 9));
+        Assertions.assertEquals(List.of(), leaderboard.getTopListingIds("New Zealand", 9));
+        Mockito.verify(entityCacheService, Mockito.times(2)).recordCacheChange("PopularListingsLeaderboard:1");
+        Mockito.verify(entityCacheService, Mockito.never()).recordCacheChange("PopularListingsLeaderboard:1,3");
+    }
+
+    /**
+     * Tests that a business moving country moves its listings to the new country's leaderboard.
+     */
+    @Test
+    void updateCountry_businessMoved_listingsMoved() {
+        leaderboard.seed();
+        createListing(1, newZealandBusiness);
+        createListing(2, netherlandsBusiness);
+        like(1, 1);
+        like(2, 1);
+
+        leaderboard.updateCountry(1, "Netherlands");
+
+        Assertions.assertEquals(List.of(), leaderboard.getTopListingIds("New Zealand", 9));
+        Assertions.assertEquals(List.of(1, 2), leaderboard.getTopListingIds("Netherlands", 9));
+        Assertions.assertEquals(List.of(1, 2), leaderboard.getTopListingIds(null, 9));
+    }
+
+    /**
+     * Tests that concurrent likes and unlikes from many threads leave each listing in the leaderboard at most once,
+     * so unliking every like empties it.
+     */
+    @Test
+    void updateLikes_concurrentUpdates_eachListingRankedOnce() throws Exception {
+        leaderboard.seed();
+        createListing(1, newZealandBusiness);
+        createListing(2, newZealandBusiness);
+        createListing(3, netherlandsBusiness);
+        List<Integer> listingIds = List.of(1, 2, 3);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (var thread = 0; thread < 8; thread++) {
+            futures.add(executor.submit(() -> {
+                for (var i = 0; i < 1000; i++) {
+                    for (var j = 0; j < listingIds.size(); j++) {
+                        // Listing 1 ends up with 3 likes per round, listing 2 with 2 and listing 3 with 1
+                        for (var k = 0; k < listingIds.size() - j + 1; k++) {
+                            like(listingIds.get(j), 1);
+                        }
+                        like(listingIds.get(j), -1);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // Updates which ran at once may have been applied out of order, until the listing's next like
+        for (Integer listingId : listingIds) {
+            leaderboard.updateLikes(listingId);
+        }
+        Assertions.assertEquals(List.of(1, 2, 3), leaderboard.getTopListingIds(null, 9));
+        Assertions.assertEquals(List.of(1, 2), leaderboard.getTopListingIds("New Zealand", 9));
+
+        for (Integer listingId : listingIds) {
+            counters.get(listingId).set(0);
+            leaderboard.updateLikes(listingId);
+        }
+        Assertions.assertEquals(List.of(), leaderboard.getTopListingIds(null, 9));
+        Assertions.assertEquals(List.of(), leaderboard.getTopListingIds("New Zealand", 9));
+    }
+}
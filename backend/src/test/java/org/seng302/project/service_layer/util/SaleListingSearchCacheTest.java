@@ -0,0 +1,71 @@
+package org.seng302.project.service_layer.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.seng302.project.repository_layer.repository.SpecificationQueryRepository;
+import org.seng302.project.service_layer.dto.search.TotalCountDTO;
+
+import java.util.List;
+
+/**
+ * Tests for the SaleListingSearchCache class.
+ */
+class SaleListingSearchCacheTest {
+
+    private SearchCounter searchCounter;
+    private SaleListingSearchCache saleListingSearchCache;
+    private final TotalCountDTO totalCount = new TotalCountDTO(2, "exact", false);
+
+    @BeforeEach
+    void setup() {
+        searchCounter = new SearchCounter(Mockito.mock(SpecificationQueryRepository.class));
+        saleListingSearchCache = new SaleListingSearchCache(searchCounter);
+    }
+
+    /**
+     * Tests that a cached result is returned for the same key, and counted as a hit.
+     */
+    @Test
+    void get_cachedKey_returnsResult() {
+        saleListingSearchCache.put(List.of("key"), saleListingSearchCache.getGeneration(), List.of(1, 2), totalCount);
+
+        var cached = saleListingSearchCache.get(List.of("key"));
+
+        Assertions.assertEquals(List.of(1, 2), cached.getListingIds());
+        Assertions.assertEquals(totalCount, cached.getTotalCount());
+        Assertions.assertEquals(1L, saleListingSearchCache.getStatistics().get("hits"));
+        Assertions.assertNull(saleListingSearchCache.get(List.of("other key")));
+        Assertions.assertEquals(1L, saleListingSearchCache.getStatistics().get("misses"));
+    }
+
+    /**
+     * Tests that a result computed before the listings were invalidated is not cached.
+     */
+    @Test
+    void put_generationChangedDuringSearch_notCached() {
+        long generation = saleListingSearchCache.getGeneration();
+        searchCounter.invalidate(SearchCounter.LISTINGS);
+        saleListingSearchCache.put(List.of("key"), generation, List.of(1, 2), totalCount);
+
+        Assertions.assertNull(saleListingSearchCache.get(List.of("key")));
+        Assertions.assertEquals(0, saleListingSearchCache.getStatistics().get("size"));
+    }
+
+    /**
+     * Tests that the least recently used result is evicted once the cache is full.
+     */
+    @Test
+    void put_cacheFull_evictsLeastRecentlyUsed() {
+        long generation = saleListingSearchCache.getGeneration();
+        for (var i = 0; i <= 1000; i++) {
+            saleListingSearchCache.put(List.of(i), generation, List.of(i), totalCount);
+        }
+
+        Assertions.assertNull(saleListingSearchCache.get(List.of(0)));
+        Assertions.assertNotNull(saleListingSearchCache.get(List.of(1000)));
+        Assertions.assertEquals(1L, saleListingSearchCache.getStatistics().get("evictions"));
+        Assertions.assertEquals(1000, saleListingSearchCache.getStatistics().get("size"));
+    }
+}
@@ -0,0 +1,165 @@
+package org.seng302.project.service_layer.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.seng302.project.repository_layer.model.enums.ReportGranularity;
+import org.seng302.project.service_layer.dto.sales_report.GetSalesReportDTO;
+import org.seng302.project.service_layer.service.EntityCacheService;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.anyString;
+
+/**
+ * Tests for the SalesReportCache class.
+ */
+class SalesReportCacheTest {
+
+    private static final LocalDate WEEK_START = LocalDate.of(2021, 3, 1);
+    private static final LocalDate WEEK_END = LocalDate.of(2021, 3, 7);
+
+    private static final Instant NOW = Instant.parse("2021-06-01T00:00:00Z");
+
+    private EntityCacheService entityCacheService;
+    private Clock clock;
+    private SalesReportCache salesReportCache;
+    private GetSalesReportDTO period;
+
+    @BeforeEach
+    void setup() {
+        entityCacheService = Mockito.mock(EntityCacheService.class);
+        clock = Mockito.mock(Clock.class);
+        Mockito.when(clock.instant()).thenReturn(NOW);
+        salesReportCache = new SalesReportCache(entityCacheService, clock);
+        period = new GetSalesReportDTO(WEEK_START, WEEK_END);
+        period.addTotals(2, 15.0, 3, 1, 4);
+    }
+
+    /**
+     * Tests that a cached period is returned with its totals, and counted as a hit.
+     */
+    @Test
+    void get_cachedPeriod_returnsTotals() {
+        salesReportCache.put(1, ReportGranularity.WEEK, period, true, salesReportCache.getGeneration());
+
+        var cached = salesReportCache.get(1, ReportGranularity.WEEK, WEEK_START, WEEK_END, true);
+
+        Assertions.assertEquals(2, cached.getPurchaseCount());
+        Assertions.assertEquals(15.0, cached.getTotalPurchaseValue());
+        Assertions.assertEquals(3, cached.getTotalQuantity());
+        Assertions.assertEquals(1, cached.getReviewCount());
+        Assertions.assertEquals(4, cached.getRatingTotal());
+        Assertions.assertEquals(List.of(), cached.getSaleIds());
+        Assertions.assertEquals(1L, salesReportCache.getStatistics().get("hits"));
+        Assertions.assertNull(salesReportCache.get(2, ReportGranularity.WEEK, WEEK_START, WEEK_END, true));
+        Assertions.assertNull(salesReportCache.get(1, ReportGranularity.MONTH, WEEK_START, WEEK_END, true));
+        Assertions.assertEquals(2L, salesReportCache.getStatistics().get("misses"));
+    }
+
+    /**
+     * Tests that a period cached without its sales is a miss when the sales are wanted.
+     */
+    @Test
+    void get_cachedWithoutSales_missWhenSalesWanted() {
+        salesReportCache.put(1, ReportGranularity.WEEK, period, false, salesReportCache.getGeneration());
+
+        Assertions.assertNotNull(salesReportCache.get(1, ReportGranularity.WEEK, WEEK_START, WEEK_END, false));
+        Assertions.assertNull(salesReportCache.get(1, ReportGranularity.WEEK, WEEK_START, WEEK_END, true));
+    }
+
+    /**
+     * Tests that a period computed before a review invalidated it is not cached.
+     */
+    @Test
+    void put_generationChangedDuringReport_notCached() {
+        long generation = salesReportCache.getGeneration();
+        salesReportCache.invalidate(1, WEEK_START);
+        salesReportCache.put(1, ReportGranularity.WEEK, period, true, generation);
+
+        Assertions.assertEquals(0, salesReportCache.getStatistics().get("size"));
+    }
+
+    /**
+     * Tests that invalidating a day only removes the business' periods which include it.
+     */
+    @Test
+    void invalidate_day_removesPeriodsIncludingDay() {
+        var nextWeek = new GetSalesReportDTO(WEEK_END.plusDays(1), WEEK_END.plusDays(7));
+        long generation = salesReportCache.getGeneration();
+        salesReportCache.put(1, ReportGranularity.WEEK, period, true, generation);
+        salesReportCache.put(1, ReportGranularity.WEEK, nextWeek, true, generation);
+        salesReportCache.put(2, ReportGranularity.WEEK, period, true, generation);
+
+        salesReportCache.invalidate(1, WEEK_END);
+
+        Assertions.assertNull(salesReportCache.get(1, ReportGranularity.WEEK, WEEK_START, WEEK_END, true));
+        Assertions.assertNotNull(salesReportCache.get(1, ReportGranularity.WEEK, nextWeek.getPeriodStart(),
+                nextWeek.getPeriodEnd(), true));
+        Assertions.assertNotNull(salesReportCache.get(2, ReportGranularity.WEEK, WEEK_START, WEEK_END, true));
+        Assertions.assertEquals(1L, salesReportCache.getStatistics().get("invalidations"));
+    }
+
+    /**
+     * Tests that clearing the cache removes every period.
+     */
+    @Test
+    void clear_removesAllPeriods() {
+        salesReportCache.put(1, ReportGranularity.WEEK, period, true, salesReportCache.getGeneration());
+        salesReportCache.put(2, ReportGranularity.WEEK, period, true, salesReportCache.getGeneration());
+
+        salesReportCache.clear();
+
+        Assertions.assertEquals(0, salesReportCache.getStatistics().get("size"));
+        Assertions.assertEquals(2L, salesReportCache.getStatistics().get("invalidations"));
+    }
+
+    /**
+     * Tests that a period is evicted once its time to live has passed, and counted as a miss.
+     */
+    @Test
+    void get_expiredPeriod_evicted() {
+        salesReportCache.put(1, ReportGranularity.WEEK, period, true, salesReportCache.getGeneration());
+        Assertions.assertNotNull(salesReportCache.get(1, ReportGranularity.WEEK, WEEK_START, WEEK_END, true));
+
+        Mockito.when(clock.instant()).thenReturn(NOW.plus(Duration.ofHours(1)));
+
+        Assertions.assertNull(salesReportCache.get(1, ReportGranularity.WEEK, WEEK_START, WEEK_END, true));
+        Assertions.assertEquals(1L, salesReportCache.getStatistics().get("evictions"));
+        Assertions.assertEquals(0, salesReportCache.getStatistics().get("size"));
+    }
+
+    /**
+     * Tests that invalidations are recorded for the other nodes, and that the invalidations recorded by
+     * other nodes are applied.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void invalidate_otherNodes_recordedAndApplied() {
+        ArgumentCaptor<Consumer<String>> handler = ArgumentCaptor.forClass(Consumer.class);
+        Mockito.verify(entityCacheService).addRemoteChangeHandler(anyString(), handler.capture());
+        salesReportCache.put(1, ReportGranularity.WEEK, period, true, salesReportCache.getGeneration());
+        salesReportCache.put(2, ReportGranularity.WEEK, period, true, salesReportCache.getGeneration());
+
+        salesReportCache.invalidate(1, WEEK_START);
+        salesReportCache.clear();
+        Mockito.verify(entityCacheService).recordCacheChange("SalesReportCache:1:2021-03-01");
+        Mockito.verify(entityCacheService).recordCacheChange("SalesReportCache:");
+
+        salesReportCache.put(1, ReportGranularity.WEEK, period, true, salesReportCache.getGeneration());
+        salesReportCache.put(2, ReportGranularity.WEEK, period, true, salesReportCache.getGeneration());
+        handler.getValue().accept("1:2021-03-07");
+        Assertions.assertNull(salesReportCache.get(1, ReportGranularity.WEEK, WEEK_START, WEEK_END, true));
+        Assertions.assertNotNull(salesReportCache.get(2, ReportGranularity.WEEK, WEEK_START, WEEK_END, true));
+
+        handler.getValue().accept("");
+        Assertions.assertEquals(0, salesReportCache.getStatistics().get("size"));
+    }
+}
@@ -0,0 +1,174 @@
+package org.seng302.project.service_layer.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.seng302.project.repository_layer.model.SaleListing;
+import org.seng302.project.repository_layer.repository.SaleListingRepository;
+import org.seng302.project.repository_layer.repository.SpecificationQueryRepository;
+import org.seng302.project.service_layer.dto.search.TotalCountDTO;
+import org.seng302.project.service_layer.exceptions.BadRequestException;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * Tests for the SearchCounter class.
+ */
+class SearchCounterTest {
+
+    private SpecificationQueryRepository specificationQueryRepository;
+    private SaleListingRepository saleListingRepository;
+    private SearchCounter searchCounter;
+    private List<SaleListing> fullPage;
+    private final Specification<SaleListing> spec = Specification.where(null);
+
+    @BeforeEach
+    void setup() {
+        specificationQueryRepository = Mockito.mock(SpecificationQueryRepository.class);
+        saleListingRepository = Mockito.mock(SaleListingRepository.class);
+        searchCounter = new SearchCounter(specificationQueryRepository);
+        fullPage = Collections.nCopies(10, Mockito.mock(SaleListing.class));
+
+        Mockito.when(saleListingRepository.findAll(any(Specification.class), any(Pageable.class)))
+                .thenAnswer(invocation -> new PageImpl<>(fullPage, invocation.getArgument(1), 25));
+        Mockito.when(specificationQueryRepository.findPage(eq(SaleListing.class), any(), any(Pageable.class)))
+                .thenReturn(fullPage);
+    }
+
+    /**
+     * Gets a page with the given count mode and search key, returning the total count.
+     */
+    private TotalCountDTO getCount(CountMode mode, int pageNumber, String key) {
+        return searchCounter.findPage(mode, SearchCounter.LISTINGS, List.of(key), saleListingRepository,
+                SaleListing.class, spec, PageRequest.of(pageNumber, 10)).getTotalCount();
+    }
+
+    /**
+     * Tests that exact counts count the matches for every page.
+     */
+    @Test
+    void findPage_exact_countsEveryPage() {
+        Assertions.assertEquals(25, getCount(CountMode.EXACT, 0, "key").getCount());
+        Assertions.assertEquals(25, getCount(CountMode.EXACT, 1, "key").getCount());
+
+        Mockito.verify(saleListingRepository, Mockito.times(2)).findAll(any(Specification.class), any(Pageable.class));
+    }
+
+    /**
+     * Tests that cached counts are reused for other pages of the same search, without counting again.
+     */
+    @Test
+    void findPage_cachedOtherPage_reusesCount() {
+        getCount(CountMode.CACHED, 0, "key");
+        TotalCountDTO count = getCount(CountMode.CACHED, 1, "key");
+
+        Assertions.assertEquals(new TotalCountDTO(25, "cached", false), count);
+        Mockito.verify(saleListingRepository, Mockito.times(1)).findAll(any(Specification.class), any(Pageable.class));
+        Mockito.verify(specificationQueryRepository).findPage(SaleListing.class, spec, PageRequest.of(1, 10));
+    }
+
+    /**
+     * Tests that cached counts are not reused for a search with a different key.
+     */
+    @Test
+    void findPage_cachedDifferentKey_countsAgain() {
+        getCount(CountMode.CACHED, 0, "key");
+        getCount(CountMode.CACHED, 1, "other key");
+
+        Mockito.verify(saleListingRepository, Mockito.times(2)).findAll(any(Specification.class), any(Pageable.class));
+    }
+
+    /**
+     * Tests that invalidating a namespace makes cached counts be counted again.
+     */
+    @Test
+    void findPage_cachedAfterInvalidate_countsAgain() {
+        getCount(CountMode.CACHED, 0, "key");
+        searchCounter.invalidate(SearchCounter.LISTINGS);
+        getCount(CountMode.CACHED, 1, "key");
+
+        Mockito.verify(saleListingRepository, Mockito.times(2)).findAll(any(Specification.class), any(Pageable.class));
+    }
+
+    /**
+     * Tests that invalidating a different namespace keeps cached counts.
+     */
+    @Test
+    void findPage_cachedAfterOtherNamespaceInvalidated_reusesCount() {
+        getCount(CountMode.CACHED, 0, "key");
+        searchCounter.invalidate(SearchCounter.USERS);
+        getCount(CountMode.CACHED, 1, "key");
+
+        Mockito.verify(saleListingRepository, Mockito.times(1)).findAll(any(Specification.class), any(Pageable.class));
+    }
+
+    /**
+     * Tests that estimated counts with more matches than the limit are capped at the limit.
+     */
+    @Test
+    void findPage_estimatedOverLimit_returnsCappedCount() {
+        Mockito.when(specificationQueryRepository.countUpTo(SaleListing.class, spec, SearchCounter.ESTIMATE_LIMIT + 1))
+                .thenReturn((long) SearchCounter.ESTIMATE_LIMIT + 1);
+
+        TotalCountDTO count = getCount(CountMode.ESTIMATED, 0, "key");
+
+        Assertions.assertEquals(new TotalCountDTO(SearchCounter.ESTIMATE_LIMIT, "estimated", true), count);
+        Mockito.verify(saleListingRepository, Mockito.never()).findAll(any(Specification.class), any(Pageable.class));
+    }
+
+    /**
+     * Tests that estimated counts with fewer matches than the limit are exact.
+     */
+    @Test
+    void findPage_estimatedUnderLimit_returnsExactCount() {
+        Mockito.when(specificationQueryRepository.countUpTo(SaleListing.class, spec, SearchCounter.ESTIMATE_LIMIT + 1))
+                .thenReturn(25L);
+
+        Assertions.assertEquals(new TotalCountDTO(25, "estimated", false), getCount(CountMode.ESTIMATED, 0, "key"));
+    }
+
+    /**
+     * Tests that an estimated count for a partial first page uses the page size rather than counting.
+     */
+    @Test
+    void findPage_estimatedPartialPage_doesNotCount() {
+        Mockito.when(specificationQueryRepository.findPage(eq(SaleListing.class), any(), any(Pageable.class)))
+                .thenReturn(fullPage.subList(0, 3));
+
+        Assertions.assertEquals(new TotalCountDTO(3, "estimated", false), getCount(CountMode.ESTIMATED, 0, "key"));
+        Mockito.verify(specificationQueryRepository, Mockito.never()).countUpTo(any(), any(), anyInt());
+    }
+
+    /**
+     * Tests that getCount only calls the counter once for the same key.
+     */
+    @Test
+    void getCount_sameKeyTwice_countsOnce() {
+        var counted = new int[]{0};
+
+        searchCounter.getCount(SearchCounter.LISTINGS, List.of("key"), () -> ++counted[0]);
+        long count = searchCounter.getCount(SearchCounter.LISTINGS, List.of("key"), () -> ++counted[0]);
+
+        Assertions.assertEquals(1, count);
+        Assertions.assertEquals(1, counted[0]);
+    }
+
+    /**
+     * Tests that an invalid count mode name results in a BadRequestException.
+     */
+    @Test
+    void getCountMode_invalidName_BadRequestException() {
+        Assertions.assertEquals(CountMode.ESTIMATED, CountMode.getCountMode("estimated"));
+        Assertions.assertThrows(BadRequestException.class, () -> CountMode.getCountMode("approximate"));
+    }
+}
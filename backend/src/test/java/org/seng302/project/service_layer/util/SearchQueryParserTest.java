@@ -0,0 +1,131 @@
+package org.seng302.project.service_layer.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.seng302.project.service_layer.util.SearchQuery.SearchTerm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for the SearchQueryParser class.
+ */
+class SearchQueryParserTest {
+
+    /**
+     * Parses a query with the lookahead regexes the search services used before SearchQueryParser,
+     * to check the parser gives the same result.
+     */
+    private SearchQuery parseWithRegex(String query) {
+        List<List<SearchTerm>> conjunctions = new ArrayList<>();
+        for (String conjunction : query.split(" or (?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)")) {
+            List<SearchTerm> terms = new ArrayList<>();
+            for (String term : conjunction.split("( and |\\s)(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)")) {
+                if (Pattern.matches("^\".*\"$", term)) {
+                    terms.add(new SearchTerm(term.replace("\"", ""), true));
+                } else {
+                    terms.add(new SearchTerm(term, false));
+                }
+            }
+            conjunctions.add(terms);
+        }
+        return new SearchQuery(conjunctions);
+    }
+
+    /**
+     * Tests that a query with ORs, ANDs, spaces and quotes is parsed into the expected conjunctions and terms.
+     */
+    @Test
+    void parse_mixedQuery_splitsConjunctionsAndTerms() {
+        SearchQuery query = SearchQueryParser.parse("Fresh and \"Green Apples\" OR pears bananas");
+
+        List<List<SearchTerm>> expected = List.of(
+                List.of(new SearchTerm("fresh", false), new SearchTerm("green apples", true)),
+                List.of(new SearchTerm("pears", false), new SearchTerm("bananas", false)));
+        Assertions.assertEquals(expected, query.getConjunctions());
+    }
+
+    /**
+     * Tests that separators inside quotes are not split on.
+     */
+    @Test
+    void parse_separatorsInQuotes_notSplit() {
+        SearchQuery query = SearchQueryParser.parse("\"salt and pepper or chips\"");
+
+        Assertions.assertEquals(List.of(List.of(new SearchTerm("salt and pepper or chips", true))),
+                query.getConjunctions());
+    }
+
+    /**
+     * Tests that the parser gives the same result as the regex splitting for edge cases.
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"", " ", "  ", "a", " a", "a ", "a  b", " or ", "a or ", " or a", "a or or b",
+            "a and b", "a  and  b", "and", " and ", "\"", "\"\"", "\"a\"", "\"a b\" c", "\"a b", "a \"b c",
+            "\"a\" or \"b\"", "\"a or b\" or c", "a\tb", "a\nb", "\"a\nb\"", "\"a\" \"b\" \"c"})
+    void parse_edgeCases_matchesRegexSplit(String query) {
+        Assertions.assertEquals(parseWithRegex(query), SearchQueryParser.compile(query));
+    }
+
+    /**
+     * Tests that the parser gives the same result as the regex splitting for random quote heavy queries.
+     */
+    @Test
+    void parse_randomQueries_matchesRegexSplit() {
+        String[] pieces = {"a", "o", "r", "n", "d", " ", "\"", "\t", " or ", " and ", "or", "and"};
+        var random = new Random(302);
+        for (var i = 0; i < 20000; i++) {
+            var builder = new StringBuilder();
+            int length = random.nextInt(12);
+            for (var j = 0; j < length; j++) {
+                builder.append(pieces[random.nextInt(pieces.length)]);
+            }
+            String query = builder.toString();
+            Assertions.assertEquals(parseWithRegex(query), SearchQueryParser.compile(query), query);
+        }
+    }
+
+    /**
+     * Tests that the parser gives the same result as the regex splitting on a long query with many quoted terms.
+     * The time each takes on this query is compared in SearchQueryParserBenchmark.
+     */
+    @Test
+    void parse_longQuotedQuery_matchesRegexSplit() {
+        var builder = new StringBuilder();
+        for (var i = 0; i < 1000; i++) {
+            builder.append(i % 3 == 0 ? "\"term " + i + "\"" : "term" + i);
+            builder.append(i % 10 == 9 ? " or " : " and ");
+        }
+        builder.append("last");
+        String query = builder.toString();
+
+        Assertions.assertEquals(parseWithRegex(query), SearchQueryParser.compile(query));
+    }
+
+    /**
+     * Tests that parsing the same query twice, in any case, returns the cached parsed query.
+     */
+    @Test
+    void parse_sameQueryTwice_returnsCachedQuery() {
+        SearchQuery first = SearchQueryParser.parse("cached query");
+        SearchQuery second = SearchQueryParser.parse("Cached Query");
+
+        Assertions.assertSame(first, second);
+    }
+
+    /**
+     * Tests that the conjunctions of a parsed query can't be modified.
+     */
+    @Test
+    void parse_modifyConjunctions_throwsException() {
+        List<List<SearchTerm>> conjunctions = SearchQueryParser.parse("a or b").getConjunctions();
+
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> conjunctions.remove(0));
+        List<SearchTerm> terms = conjunctions.get(0);
+        Assertions.assertThrows(UnsupportedOperationException.class, terms::clear);
+    }
+}
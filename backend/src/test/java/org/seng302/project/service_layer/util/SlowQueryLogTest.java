@@ -0,0 +1,168 @@
+package org.seng302.project.service_layer.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.seng302.project.service_layer.util.SlowQueryLog.SlowQuery;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the SlowQueryLog class, with statements run through a SlowQueryDataSource on an in-memory database.
+ */
+class SlowQueryLogTest {
+
+    private DriverManagerDataSource database;
+    private Connection keepAlive;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        database = new DriverManagerDataSource("jdbc:h2:mem:slowquerylog");
+        // The database is dropped when its last connection closes, so keep one open for the test
+        keepAlive = database.getConnection();
+        try (var statement = keepAlive.createStatement()) {
+            statement.execute("create table account (id int primary key, name varchar(50), password varchar(50))");
+        }
+    }
+
+    @AfterEach
+    void teardown() throws SQLException {
+        keepAlive.close();
+    }
+
+    /**
+     * Inserts the given number of accounts, then reads them all back.
+     */
+    private void insertAndSelect(SlowQueryLog log, int accounts) throws SQLException {
+        try (Connection connection = new SlowQueryDataSource(database, log).getConnection()) {
+            for (var id = 1; id <= accounts; id++) {
+                try (var insert = connection.prepareStatement(
+                        "insert into account (id, name, password) values (?, ?, ?)")) {
+                    insert.setInt(1, id);
+                    insert.setString(2, "Account " + id);
+                    insert.setString(3, "Secret" + id);
+                    insert.executeUpdate();
+                }
+            }
+            try (var select = connection.prepareStatement("select * from account where id >= ?")) {
+                select.setInt(1, 1);
+                try (var resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        resultSet.getString("name");
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<SlowQuery> getQueries(SlowQueryLog log) {
+        return (List<SlowQuery>) log.getStatistics().get("queries");
+    }
+
+    /**
+     * Tests that statements over the threshold are logged newest first, with their parameters,
+     * the number of rows they read or changed, and where they were run from.
+     */
+    @Test
+    void record_overThreshold_loggedWithRows() throws SQLException {
+        var log = new SlowQueryLog(0, 10, "password");
+        insertAndSelect(log, 2);
+
+        List<SlowQuery> queries = getQueries(log);
+        Assertions.assertEquals(3, queries.size());
+        SlowQuery select = queries.get(0);
+        Assertions.assertEquals("select * from account where id >= ?", select.getSql());
+        Assertions.assertEquals(List.of("1"), select.getParameters());
+        Assertions.assertEquals(2L, select.getRows());
+        Assertions.assertEquals(Thread.currentThread().getName(), select.getEndpoint());
+        Assertions.assertTrue(select.getDurationMillis() >= 0);
+        Assertions.assertEquals(1L, queries.get(1).getRows());
+    }
+
+    /**
+     * Tests that parameters bound to redacted columns aren't logged.
+     */
+    @Test
+    void record_passwordParameter_redacted() throws SQLException {
+        var log = new SlowQueryLog(0, 10, "password");
+        insertAndSelect(log, 1);
+
+        SlowQuery insert = getQueries(log).get(1);
+        Assertions.assertEquals(List.of("1", "Account 1", "<redacted>"), insert.getParameters());
+    }
+
+    /**
+     * Tests that statements under the threshold aren't logged.
+     */
+    @Test
+    void record_underThreshold_notLogged() throws SQLException {
+        var log = new SlowQueryLog(60000, 10, "password");
+        insertAndSelect(log, 2);
+
+        Assertions.assertTrue(getQueries(log).isEmpty());
+        Assertions.assertEquals(0L, log.getStatistics().get("recorded"));
+    }
+
+    /**
+     * Tests that only the newest statements are kept once the log is full.
+     */
+    @Test
+    void record_overCapacity_oldestDropped() throws SQLException {
+        var log = new SlowQueryLog(0, 2, "password");
+        insertAndSelect(log, 3);
+
+        List<SlowQuery> queries = getQueries(log);
+        Assertions.assertEquals(2, queries.size());
+        Assertions.assertTrue(queries.get(0).getSql().startsWith("select"));
+        Assertions.assertEquals(List.of("3", "Account 3", "<redacted>"), queries.get(1).getParameters());
+        Assertions.assertEquals(4L, log.getStatistics().get("recorded"));
+    }
+
+    /**
+     * Tests that parameters are matched to the columns they are compared with in the SQL Hibernate generates,
+     * including in lists and function calls, and that only the redacted columns are hidden.
+     */
+    @Test
+    void redact_whereClause_redactsMatchingColumns() {
+        var log = new SlowQueryLog(0, 10, "password|email");
+        String sql = "select user0_.id as id1_0_ from user user0_ where user0_.id in (?, ?) " +
+                "and lower(user0_.email) like lower(?) and user0_.password=? limit ?";
+
+        List<String> parameters = log.redact(sql, Arrays.asList(1, 2, "%@gmail.com", "hash", 10));
+
+        Assertions.assertEquals(List.of("1", "2", "<redacted>", "<redacted>", "10"), parameters);
+    }
+
+    /**
+     * Tests that parameters whose column can't be worked out are redacted, while those compared with a known column
+     * and the limit of the page are shown.
+     */
+    @Test
+    void redact_unknownColumns_redacted() {
+        var log = new SlowQueryLog(0, 10, "password");
+        String sql = "select a.id from account a where ? between a.id and 10 and a.name = coalesce(?, ?) " +
+                "limit ?, ?";
+
+        List<String> parameters = log.redact(sql, Arrays.asList(5, "Account", "Default", 20, 10));
+
+        Assertions.assertEquals(List.of("<redacted>", "Account", "Default", "20", "10"), parameters);
+    }
+
+    /**
+     * Tests that the parameters of an insert without a column list are all redacted.
+     */
+    @Test
+    void redact_insertWithoutColumns_redacted() {
+        var log = new SlowQueryLog(0, 10, "password");
+
+        List<String> parameters = log.redact("insert into account values (?, ?, ?)", Arrays.asList(1, "Name", "hash"));
+
+        Assertions.assertEquals(List.of("<redacted>", "<redacted>", "<redacted>"), parameters);
+    }
+}
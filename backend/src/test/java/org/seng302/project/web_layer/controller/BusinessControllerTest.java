@@ -13,6 +13,7 @@ import org.seng302.project.repository_layer.model.enums.BusinessType;
 import org.seng302.project.service_layer.dto.address.AddressDTO;
 import org.seng302.project.service_layer.dto.business.PostBusinessDTO;
 import org.seng302.project.service_layer.dto.business.PutBusinessAdminDTO;
+import org.seng302.project.service_layer.exceptions.dgaa.ForbiddenDGAAActionException;
 import org.seng302.project.service_layer.exceptions.ForbiddenException;
 import org.seng302.project.service_layer.exceptions.NotAcceptableException;
 import org.seng302.project.service_layer.exceptions.business.BusinessNotFoundException;
@@ -21,6 +22,7 @@ import org.seng302.project.service_layer.exceptions.businessAdministrator.CantRe
 import org.seng302.project.service_layer.exceptions.businessAdministrator.UserNotAdministratorException;
 import org.seng302.project.service_layer.service.BusinessService;
 import org.seng302.project.service_layer.service.UserService;
+import org.seng302.project.service_layer.util.CountMode;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -519,7 +521,8 @@ class BusinessControllerTest extends AbstractInitializer {
      */
     @Test
     void searchBusiness_validQueryNoType_200() throws Exception {
-        Mockito.when(businessService.searchBusiness(any(String.class), any(BusinessType.class), any(Integer.class), any(String.class)))
+        Mockito.when(businessService.searchBusiness(any(String.class), any(BusinessType.class), any(Integer.class), any(String.class),
+                any(CountMode.class)))
                 .thenReturn(List.of(testBusiness, 1));
 
         RequestBuilder searchBusinessRequest = MockMvcRequestBuilders
@@ -539,7 +542,8 @@ class BusinessControllerTest extends AbstractInitializer {
     @Test
     void searchBusiness_validQueryValidType_200() throws Exception {
 
-        Mockito.when(businessService.searchBusiness(any(String.class), any(BusinessType.class), any(Integer.class), any(String.class)))
+        Mockito.when(businessService.searchBusiness(any(String.class), any(BusinessType.class), any(Integer.class), any(String.class),
+                any(CountMode.class)))
                 .thenReturn(List.of(testBusiness, 1));
 
         RequestBuilder searchBusinessRequest = MockMvcRequestBuilders
@@ -1060,5 +1064,37 @@ class BusinessControllerTest extends AbstractInitializer {
 
     }
 
+    /**
+     * Tests that the DGAA can rebuild the business rating summaries
+     */
+    @Test
+    void rebuildRatingSummaries_DGAA_200() throws Exception {
+        Mockito.when(businessService.rebuildRatingSummaries()).thenReturn(3);
+
+        RequestBuilder request = MockMvcRequestBuilders
+                .post("/businesses/ratings/rebuild")
+                .with(user(new AppUserDetails(this.getTestSystemAdmin())));
+
+        MvcResult result = this.mvc.perform(request)
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        JSONObject response = new JSONObject(result.getResponse().getContentAsString());
+        Assertions.assertEquals(3, response.getInt("businessesWithReviews"));
+    }
+
+    /**
+     * Tests that a user who isn't the DGAA can't rebuild the business rating summaries
+     */
+    @Test
+    void rebuildRatingSummaries_notDGAA_403() throws Exception {
+        Mockito.doThrow(new ForbiddenDGAAActionException()).when(userService).checkRequesterIsDGAA(any());
 
-}
\ No newline at end of file
+        RequestBuilder request = MockMvcRequestBuilders
+                .post("/businesses/ratings/rebuild")
+                .with(user(new AppUserDetails(testUser)));
+
+        this.mvc.perform(request)
+                .andExpect(MockMvcResultMatchers.status().isForbidden());
+        Mockito.verify(businessService, Mockito.never()).rebuildRatingSummaries();
+    }
+}
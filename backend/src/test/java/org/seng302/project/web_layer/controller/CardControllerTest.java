@@ -13,6 +13,7 @@ import org.seng302.project.service_layer.exceptions.NoUserExistsException;
 import org.seng302.project.service_layer.exceptions.card.ForbiddenCardActionException;
 import org.seng302.project.service_layer.exceptions.card.NoCardExistsException;
 import org.seng302.project.service_layer.service.CardService;
+import org.seng302.project.service_layer.util.CountMode;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -317,7 +318,8 @@ class CardControllerTest extends AbstractInitializer {
                 Mockito.any(List.class),
                 Mockito.any(Boolean.class),
                 Mockito.any(Integer.class),
-                Mockito.any(String.class))
+                Mockito.any(String.class),
+                Mockito.any(CountMode.class))
         ).thenReturn(new JSONObject());
 
         RequestBuilder request = MockMvcRequestBuilders
@@ -338,7 +340,8 @@ class CardControllerTest extends AbstractInitializer {
                 Mockito.any(List.class),
                 Mockito.any(Boolean.class),
                 Mockito.any(Integer.class),
-                Mockito.any(String.class))
+                Mockito.any(String.class),
+                Mockito.any(CountMode.class))
         ).thenThrow(new BadRequestException("Test exception"));
 
         RequestBuilder request = MockMvcRequestBuilders
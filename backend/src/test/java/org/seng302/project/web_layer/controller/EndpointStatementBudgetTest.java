@@ -0,0 +1,897 @@
+package org.seng302.project.web_layer.controller;
+
+import net.minidev.json.JSONObject;
+import org.hibernate.Cache;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.seng302.project.AbstractInitializer;
+import org.seng302.project.SqlStatementCounter;
+import org.seng302.project.repository_layer.model.*;
+import org.seng302.project.repository_layer.repository.*;
+import org.seng302.project.service_layer.service.EmailService;
+import org.seng302.project.service_layer.util.ImageUtil;
+import org.seng302.project.web_layer.authentication.AppUserDetails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+
+/**
+ * Tests that every endpoint runs no more SQL statements than its budget, so a change which adds
+ * queries to an endpoint fails the build rather than slowing it down unnoticed.
+ * Each test calls one endpoint on a fresh set of data, with the second-level cache emptied first,
+ * so the count is for a request which reads everything from the database.
+ * Endpoints returning many entities are also called with a small and a large set of data, which must take
+ * the same number of statements, so their count doesn't grow with the number of entities returned.
+ * When an endpoint is made to run fewer statements, lower its budget to match. When a change needs to raise
+ * a budget, say which statements it adds next to the budget.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMockMvc
+class EndpointStatementBudgetTest extends AbstractInitializer {
+
+    private static final String PASSWORD = "Password123";
+    private static final int SMALL = 2;
+    private static final int LARGE = 10;
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private AddressRepository addressRepository;
+    @Autowired
+    private BusinessRepository businessRepository;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private InventoryItemRepository inventoryItemRepository;
+    @Autowired
+    private SaleListingRepository saleListingRepository;
+    @Autowired
+    private LikedSaleListingRepository likedSaleListingRepository;
+    @Autowired
+    private SaleHistoryRepository saleHistoryRepository;
+    @Autowired
+    private ReviewRepository reviewRepository;
+    @Autowired
+    private CardRepository cardRepository;
+    @Autowired
+    private KeywordRepository keywordRepository;
+    @Autowired
+    private MessageRepository messageRepository;
+    @Autowired
+    private UserNotificationRepository userNotificationRepository;
+    @Autowired
+    private BusinessNotificationRepository businessNotificationRepository;
+    @Autowired
+    private AdminNotificationRepository adminNotificationRepository;
+    @Autowired
+    private ConformationTokenRepository conformationTokenRepository;
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @MockBean
+    private ImageUtil imageUtil;
+    @MockBean
+    private EmailService emailService;
+
+    private User requester;
+    private User otherUser;
+    private User dgaa;
+    private Business business;
+    private Product product;
+    private InventoryItem inventoryItem;
+    private SaleListing listing;
+    private SaleListing unlikedListing;
+    private Sale unreviewedSale;
+    private Review review;
+    private Keyword keyword;
+    private Card card;
+    private Message message;
+    private UserNotification userNotification;
+    private BusinessNotification businessNotification;
+    private AdminNotification adminNotification;
+    private ConformationToken token;
+    private Image userImage;
+    private Image businessImage;
+    private Image productImage;
+
+    /**
+     * Before each test, setup a business administered by the requester, with a product, an inventory item and
+     * sale listings of it, a sale of one of the listings to the requester, and the requester's cards, messages,
+     * notifications and images.
+     */
+    @BeforeEach
+    void setup() {
+        requester = createUser("user");
+        otherUser = createUser("globalApplicationAdmin");
+        dgaa = createUser("defaultGlobalApplicationAdmin");
+
+        business = createBusiness(requester);
+        userImage = imageRepository.save(new Image("user.png", "user_thumbnail.png"));
+        businessImage = imageRepository.save(new Image("business.png", "business_thumbnail.png"));
+        productImage = imageRepository.save(new Image("product.png", "product_thumbnail.png"));
+        inTransaction(() -> {
+            businessRepository.getOne(business.getId()).addImage(imageRepository.getOne(businessImage.getId()));
+            userRepository.getOne(requester.getId()).addImage(imageRepository.getOne(userImage.getId()));
+        });
+
+        product = new Product("BUDGET-" + System.nanoTime(), "Budget Product", null, null, 5.00, business.getId());
+        product.addImage(productImage);
+        product = productRepository.save(product);
+        inventoryItem = inventoryItemRepository.save(new InventoryItem(product, 10, null, null,
+                "2021-01-01", null, null, "2099-12-31"));
+        listing = createListing();
+        unlikedListing = createListing();
+        likedSaleListingRepository.save(new LikedSaleListing(requester, listing));
+
+        unreviewedSale = createSale();
+        Sale reviewedSale = createSale();
+        review = reviewRepository.save(new Review(reviewedSale, requester, 4, "Good product"));
+        reviewedSale.setReview(review);
+        saleHistoryRepository.save(reviewedSale);
+
+        keyword = keywordRepository.save(new Keyword(uniqueName()));
+        card = cardRepository.save(new Card(requester, "ForSale", "Budget Card", null, Set.of(keyword)));
+        message = messageRepository.save(new Message("Is this still available?", requester, card, otherUser));
+
+        userNotification = userNotificationRepository.save(new UserNotification("Budget notification", requester));
+        businessNotification = businessNotificationRepository.save(
+                new BusinessNotification("Budget notification", business));
+        adminNotification = adminNotificationRepository.save(new AdminNotification("Budget notification"));
+        token = conformationTokenRepository.save(new ConformationToken(requester));
+    }
+
+    /**
+     * Creates a name that no other test uses, made only of letters so it can be searched for.
+     */
+    private String uniqueName() {
+        var name = new StringBuilder("Budget");
+        for (char digit : Long.toString(System.nanoTime()).toCharArray()) {
+            name.append((char) ('a' + digit - '0'));
+        }
+        return name.toString();
+    }
+
+    private User createUser(String role) {
+        return createUser(role, uniqueName());
+    }
+
+    private User createUser(String role, String lastName) {
+        Address address = addressRepository.save(new Address(null, null, "Christchurch", null, "New Zealand", null));
+        User user = new User("Budget", lastName, null, null, null,
+                String.format("budget.%d@gmail.com", System.nanoTime()), "1999-04-27", null, address,
+                passwordEncoder.encode(PASSWORD));
+        user.setRole(role);
+        return userRepository.save(user);
+    }
+
+    private Business createBusiness(User admin) {
+        Address address = addressRepository.save(new Address(null, null, "Christchurch", null, "New Zealand", null));
+        Business newBusiness = businessRepository.save(new Business(uniqueName(), null, address, "Retail Trade",
+                admin.getId()));
+        addAdministrator(newBusiness, admin);
+        return newBusiness;
+    }
+
+    /**
+     * Makes a user an administrator of a business, in a transaction so only the business' side of the
+     * relationship is changed.
+     */
+    private void addAdministrator(Business administered, User admin) {
+        inTransaction(() -> businessRepository.getOne(administered.getId())
+                .addAdministrator(userRepository.getOne(admin.getId())));
+    }
+
+    private SaleListing createListing() {
+        return saleListingRepository.save(new SaleListing(business, inventoryItem, 10.00, null,
+                LocalDateTime.now().plusDays(7), 1));
+    }
+
+    private Sale createSale() {
+        Sale sale = new Sale(listing);
+        sale.setBuyerId(requester.getId());
+        return saleHistoryRepository.save(sale);
+    }
+
+    private void inTransaction(Runnable step) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> step.run());
+    }
+
+    private MockMultipartFile imageFile() {
+        return new MockMultipartFile("file", "image.jpg", MediaType.IMAGE_JPEG_VALUE, "image".getBytes());
+    }
+
+    private MockHttpServletRequestBuilder withBody(MockHttpServletRequestBuilder request, Map<String, ?> body) {
+        return request.contentType(MediaType.APPLICATION_JSON).content(new JSONObject(body).toJSONString());
+    }
+
+    /**
+     * Makes a request as the given user, and checks it succeeds in no more statements than the budget.
+     *
+     * @param budget  the most statements the request may run
+     * @param user    the user making the request
+     * @param request the request to make
+     * @return the number of statements the request ran
+     */
+    private int assertWithinBudget(int budget, User user, MockHttpServletRequestBuilder request) throws Exception {
+        entityManagerFactory.getCache().unwrap(Cache.class).evictAllRegions();
+        SqlStatementCounter.reset();
+        mockMvc.perform(request.with(user(new AppUserDetails(user))))
+                .andExpect(MockMvcResultMatchers.status().is2xxSuccessful());
+        int count = SqlStatementCounter.count();
+        Assertions.assertTrue(count <= budget,
+                () -> String.format("Request ran %d statements, over its budget of %d:%n%s", count, budget,
+                        String.join("\n", SqlStatementCounter.getStatements())));
+        return count;
+    }
+
+    private int assertWithinBudget(int budget, MockHttpServletRequestBuilder request) throws Exception {
+        return assertWithinBudget(budget, requester, request);
+    }
+
+    private Map<String, Object> addressBody() {
+        return Map.of("city", "Christchurch", "country", "New Zealand");
+    }
+
+    // Businesses
+
+    @Test
+    void createBusiness_withinBudget() throws Exception {
+        assertWithinBudget(12, withBody(post("/businesses"), Map.of("name", uniqueName(),
+                "address", addressBody(), "businessType", "Retail Trade",
+                "primaryAdministratorId", requester.getId())));
+    }
+
+    @Test
+    void getBusiness_withinBudget() throws Exception {
+        assertWithinBudget(6, get("/businesses/{id}", business.getId()));
+    }
+
+    /**
+     * Gets a business with the given number of administrators.
+     */
+    private int getBusiness(int adminCount) throws Exception {
+        Business administered = createBusiness(createUser("user"));
+        for (var i = 1; i < adminCount; i++) {
+            addAdministrator(administered, createUser("user"));
+        }
+        return assertWithinBudget(6, get("/businesses/{id}", administered.getId()));
+    }
+
+    @Test
+    void getBusiness_moreAdministrators_sameStatements() throws Exception {
+        Assertions.assertEquals(getBusiness(SMALL), getBusiness(LARGE));
+    }
+
+    @Test
+    void editBusiness_withinBudget() throws Exception {
+        // Raised by 2 for the search index: reading the business' listings to reindex them once the edit
+        // commits, and recording the reindex for the other nodes
+        assertWithinBudget(17, withBody(put("/businesses/{id}", business.getId()), Map.of("name", uniqueName(),
+                "address", addressBody(), "businessType", "Retail Trade",
+                "primaryAdministratorId", requester.getId())));
+    }
+
+    @Test
+    void makeAdministrator_withinBudget() throws Exception {
+        assertWithinBudget(12, withBody(put("/businesses/{id}/makeAdministrator", business.getId()),
+                Map.of("userId", otherUser.getId())));
+    }
+
+    @Test
+    void removeAdministrator_withinBudget() throws Exception {
+        addAdministrator(business, otherUser);
+        assertWithinBudget(12, withBody(put("/businesses/{id}/removeAdministrator", business.getId()),
+                Map.of("userId", otherUser.getId())));
+    }
+
+    @Test
+    void searchBusinesses_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/businesses/search").param("searchQuery", business.getName())
+                .param("pageNumber", "0").param("sortBy", "idASC").param("countMode", "exact"));
+    }
+
+    @Test
+    void getBusinessNotifications_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/businesses/{id}/notifications", business.getId()));
+    }
+
+    @Test
+    void deleteBusinessNotification_withinBudget() throws Exception {
+        assertWithinBudget(10, delete("/businesses/{id}/notifications/{notificationId}", business.getId(),
+                businessNotification.getId()));
+    }
+
+    @Test
+    void readBusinessNotification_withinBudget() throws Exception {
+        assertWithinBudget(10, withBody(patch("/businesses/{id}/notifications/{notificationId}/read",
+                business.getId(), businessNotification.getId()), Map.of("read", true)));
+    }
+
+    @Test
+    void rebuildBusinessRatings_withinBudget() throws Exception {
+        assertWithinBudget(6, dgaa, post("/businesses/ratings/rebuild"));
+    }
+
+    // Business images
+
+    @Test
+    void addBusinessImage_withinBudget() throws Exception {
+        assertWithinBudget(12, multipart("/businesses/{id}/images", business.getId()).file(imageFile()));
+    }
+
+    @Test
+    void setPrimaryBusinessImage_withinBudget() throws Exception {
+        assertWithinBudget(10, put("/businesses/{id}/images/{imageId}/makeprimary", business.getId(),
+                businessImage.getId()));
+    }
+
+    @Test
+    void deleteBusinessImage_withinBudget() throws Exception {
+        assertWithinBudget(12, delete("/businesses/{id}/images/{imageId}", business.getId(),
+                businessImage.getId()));
+    }
+
+    // Cards
+
+    @Test
+    void createCard_withinBudget() throws Exception {
+        assertWithinBudget(10, withBody(post("/cards"), Map.of("creatorId", requester.getId(),
+                "section", "ForSale", "title", "New Card", "keywordIds", List.of(keyword.getId()))));
+    }
+
+    @Test
+    void getCard_withinBudget() throws Exception {
+        assertWithinBudget(6, get("/cards/{id}", card.getId()));
+    }
+
+    @Test
+    void getCardsInSection_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/cards").param("section", "ForSale").param("countMode", "exact"));
+    }
+
+    @Test
+    void extendCardDisplayPeriod_withinBudget() throws Exception {
+        assertWithinBudget(8, put("/cards/{id}/extenddisplayperiod", card.getId()));
+    }
+
+    @Test
+    void deleteCard_withinBudget() throws Exception {
+        assertWithinBudget(12, delete("/cards/{id}", card.getId()));
+    }
+
+    @Test
+    void getUserCards_withinBudget() throws Exception {
+        assertWithinBudget(6, get("/users/{id}/cards", requester.getId()));
+    }
+
+    @Test
+    void editCard_withinBudget() throws Exception {
+        assertWithinBudget(12, withBody(put("/cards/{id}", card.getId()), Map.of("section", "Wanted",
+                "title", "Edited Card", "keywordIds", List.of(keyword.getId()))));
+    }
+
+    @Test
+    void searchCards_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/cards/search").param("section", "ForSale")
+                .param("keywordIds", keyword.getId().toString()).param("union", "true")
+                .param("countMode", "exact"));
+    }
+
+    /**
+     * Searches for the marketplace cards with a keyword only the given number of cards have,
+     * each by a different creator.
+     */
+    private int searchCards(int cardCount) throws Exception {
+        Keyword searched = keywordRepository.save(new Keyword(uniqueName()));
+        for (var i = 0; i < cardCount; i++) {
+            cardRepository.save(new Card(createUser("user"), "ForSale", "Budget Card", null, Set.of(searched)));
+        }
+        return assertWithinBudget(8, get("/cards/search").param("section", "ForSale")
+                .param("keywordIds", searched.getId().toString()).param("union", "true")
+                .param("countMode", "exact"));
+    }
+
+    @Test
+    void searchCards_morePageResults_sameStatements() throws Exception {
+        Assertions.assertEquals(searchCards(SMALL), searchCards(LARGE));
+    }
+
+    // Contact
+
+    @Test
+    void contactResale_withinBudget() throws Exception {
+        assertWithinBudget(2, withBody(post("/contact"), Map.of("email", requester.getEmail(),
+                "message", "Hello")));
+    }
+
+    // Entity cache
+
+    @Test
+    void getEntityCacheStatistics_withinBudget() throws Exception {
+        assertWithinBudget(4, dgaa, get("/cache"));
+    }
+
+    // Inventory
+
+    @Test
+    void getInventory_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/businesses/{id}/inventory", business.getId()));
+    }
+
+    @Test
+    void addInventoryItem_withinBudget() throws Exception {
+        assertWithinBudget(12, withBody(post("/businesses/{id}/inventory", business.getId()),
+                Map.of("productId", product.getId(), "quantity", 5, "pricePerItem", 2.00, "totalPrice", 10.00,
+                        "manufactured", "2021-01-01", "expires", "2099-12-31")));
+    }
+
+    @Test
+    void editInventoryItem_withinBudget() throws Exception {
+        // Raised by 2 for the search index: reading the item's listings to reindex them once the edit commits,
+        // and recording the reindex for the other nodes
+        assertWithinBudget(14, withBody(put("/businesses/{id}/inventory/{itemId}", business.getId(),
+                inventoryItem.getId()), Map.of("quantity", 8, "pricePerItem", 2.00)));
+    }
+
+    // Keywords
+
+    @Test
+    void addKeyword_withinBudget() throws Exception {
+        assertWithinBudget(8, withBody(post("/keywords"), Map.of("name", "Budget")));
+    }
+
+    @Test
+    void searchKeywords_withinBudget() throws Exception {
+        assertWithinBudget(3, get("/keywords/search").param("searchQuery", keyword.getName()));
+    }
+
+    @Test
+    void deleteKeyword_withinBudget() throws Exception {
+        assertWithinBudget(12, otherUser, delete("/keywords/{id}", keyword.getId()));
+    }
+
+    // Lost password
+
+    @Test
+    void validateLostPasswordToken_withinBudget() throws Exception {
+        assertWithinBudget(4, get("/lostpassword/validate").param("token", token.getToken()));
+    }
+
+    @Test
+    void changeLostPassword_withinBudget() throws Exception {
+        assertWithinBudget(8, withBody(patch("/lostpassword/edit"), Map.of("token", token.getToken(),
+                "password", "NewPassword123")));
+    }
+
+    @Test
+    void sendLostPasswordEmail_withinBudget() throws Exception {
+        assertWithinBudget(4, withBody(post("/lostpassword/send"), Map.of("email", requester.getEmail())));
+    }
+
+    // Marketplace analytics
+
+    @Test
+    void getMarketplaceSales_withinBudget() throws Exception {
+        assertWithinBudget(4, dgaa, get("/statistics/marketplace/sales").param("periodStart", "2021-01-01")
+                .param("periodEnd", "2099-12-31").param("granularity", "monthly"));
+    }
+
+    @Test
+    void getTopBusinesses_withinBudget() throws Exception {
+        assertWithinBudget(4, dgaa, get("/statistics/marketplace/businesses").param("periodStart", "2021-01-01")
+                .param("periodEnd", "2099-12-31"));
+    }
+
+    @Test
+    void getMarketplaceListingStatistics_withinBudget() throws Exception {
+        assertWithinBudget(4, dgaa, get("/statistics/marketplace/listings").param("periodStart", "2021-01-01")
+                .param("periodEnd", "2099-12-31"));
+    }
+
+    @Test
+    void rebuildMarketplaceRollups_withinBudget() throws Exception {
+        assertWithinBudget(8, dgaa, post("/statistics/marketplace/rollups/rebuild"));
+    }
+
+    // Messages
+
+    @Test
+    void createMessage_withinBudget() throws Exception {
+        assertWithinBudget(8, withBody(post("/users/{userId}/cards/{cardId}/messages", requester.getId(),
+                card.getId()), Map.of("text", "Is this still available?")));
+    }
+
+    @Test
+    void getMessages_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/users/{userId}/messages", requester.getId()));
+    }
+
+    @Test
+    void deleteMessage_withinBudget() throws Exception {
+        assertWithinBudget(8, delete("/users/{userId}/messages/{messageId}", requester.getId(),
+                message.getId()));
+    }
+
+    @Test
+    void readMessage_withinBudget() throws Exception {
+        assertWithinBudget(8, withBody(patch("/users/{userId}/messages/{messageId}/read", requester.getId(),
+                message.getId()), Map.of("read", true)));
+    }
+
+    // Notifications
+
+    @Test
+    void getUserNotifications_withinBudget() throws Exception {
+        assertWithinBudget(6, get("/users/{userId}/notifications", requester.getId()));
+    }
+
+    @Test
+    void deleteUserNotification_withinBudget() throws Exception {
+        assertWithinBudget(8, delete("/users/{userId}/notifications/{notificationId}", requester.getId(),
+                userNotification.getId()));
+    }
+
+    @Test
+    void readUserNotification_withinBudget() throws Exception {
+        assertWithinBudget(8, withBody(patch("/users/{userId}/notifications/{notificationId}/read",
+                requester.getId(), userNotification.getId()), Map.of("read", true)));
+    }
+
+    @Test
+    void getAdminNotifications_withinBudget() throws Exception {
+        assertWithinBudget(4, dgaa, get("/notifications"));
+    }
+
+    @Test
+    void deleteAdminNotification_withinBudget() throws Exception {
+        assertWithinBudget(6, dgaa, delete("/notifications/{notificationId}", adminNotification.getId()));
+    }
+
+    @Test
+    void readAdminNotification_withinBudget() throws Exception {
+        assertWithinBudget(6, dgaa, withBody(patch("/notifications/{notificationId}/read",
+                adminNotification.getId()), Map.of("read", true)));
+    }
+
+    // Products
+
+    @Test
+    void getProducts_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/businesses/{id}/products", business.getId()));
+    }
+
+    @Test
+    void addProduct_withinBudget() throws Exception {
+        assertWithinBudget(10, withBody(post("/businesses/{id}/products", business.getId()),
+                Map.of("id", "BUDGET-NEW", "name", "New Product", "recommendedRetailPrice", 5.00)));
+    }
+
+    @Test
+    void editProduct_withinBudget() throws Exception {
+        // Raised by 2 for the search index: reading the product's listings to reindex them once the edit
+        // commits, and recording the reindex for the other nodes
+        assertWithinBudget(14, withBody(put("/businesses/{id}/products/{productId}", business.getId(),
+                product.getId()), Map.of("id", product.getId(), "name", "Edited Product",
+                "recommendedRetailPrice", 7.50)));
+    }
+
+    @Test
+    void searchProducts_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/businesses/{id}/products/search", business.getId())
+                .param("searchQuery", "Budget").param("matchingName", "true"));
+    }
+
+    // Product images
+
+    @Test
+    void addProductImage_withinBudget() throws Exception {
+        assertWithinBudget(12, multipart("/businesses/{id}/products/{productId}/images", business.getId(),
+                product.getId()).file(imageFile()));
+    }
+
+    @Test
+    void setPrimaryProductImage_withinBudget() throws Exception {
+        assertWithinBudget(10, put("/businesses/{id}/products/{productId}/images/{imageId}/makeprimary",
+                business.getId(), product.getId(), productImage.getId()));
+    }
+
+    @Test
+    void deleteProductImage_withinBudget() throws Exception {
+        assertWithinBudget(12, delete("/businesses/{id}/products/{productId}/images/{imageId}",
+                business.getId(), product.getId(), productImage.getId()));
+    }
+
+    // Resale statistics
+
+    @Test
+    void getResaleStatistics_withinBudget() throws Exception {
+        assertWithinBudget(4, get("/statistics"));
+    }
+
+    // Reviews
+
+    @Test
+    void getBusinessReviews_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/businesses/{id}/reviews", business.getId()));
+    }
+
+    @Test
+    void createReview_withinBudget() throws Exception {
+        // Raised by 3: adding the rating to the day's sales rollup, recording the business' rating summary
+        // update for the other nodes' entity caches, and recording the invalidation of the cached sales
+        // report periods for the other nodes
+        assertWithinBudget(17, withBody(post("/users/{userId}/purchases/{saleId}/review", requester.getId(),
+                unreviewedSale.getSaleId()), Map.of("rating", 5, "reviewMessage", "Great product")));
+    }
+
+    @Test
+    void respondToReview_withinBudget() throws Exception {
+        assertWithinBudget(12, withBody(patch("/businesses/{id}/reviews/{reviewId}/respond", business.getId(),
+                review.getReviewId()), Map.of("reviewResponse", "Thank you")));
+    }
+
+    // Sale listings
+
+    @Test
+    void searchListings_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/listings").param("searchQuery", business.getName())
+                .param("matchingProductName", "false").param("matchingBusinessName", "true")
+                .param("matchingBusinessLocation", "false").param("matchingBusinessType", "false")
+                .param("sortBy", "priceAsc").param("includeCount", "true").param("countMode", "exact"));
+    }
+
+    @Test
+    void buyListing_withinBudget() throws Exception {
+        // Raised by 8: adding the sale to the day's sales rollup (an update, the insert of the day's first
+        // rollup, a check for an earlier sale to the buyer that day and counting the buyer), appending the sale
+        // to the marketplace event log and adding it to the marketplace rollup (an update and the insert of the
+        // day's first rollup), and recording the removal from the search index for the other nodes
+        assertWithinBudget(28, otherUser, post("/listings/{id}/buy", unlikedListing.getId()));
+    }
+
+    @Test
+    void getBusinessListings_withinBudget() throws Exception {
+        assertWithinBudget(6, get("/businesses/{id}/listings", business.getId()));
+    }
+
+    /**
+     * Gets the sale listings of a business with the given number of listings, each for a different product.
+     */
+    private int getBusinessListings(int listingCount) throws Exception {
+        Business listed = createBusiness(requester);
+        for (var i = 0; i < listingCount; i++) {
+            Product listedProduct = productRepository.save(new Product("BUDGET-" + i, "Budget Product", null, null,
+                    5.00, listed.getId()));
+            InventoryItem item = inventoryItemRepository.save(new InventoryItem(listedProduct, 10, null, null,
+                    "2021-01-01", null, null, "2099-12-31"));
+            saleListingRepository.save(new SaleListing(listed, item, 10.00, null,
+                    LocalDateTime.now().plusDays(7), 1));
+        }
+        return assertWithinBudget(6, get("/businesses/{id}/listings", listed.getId()));
+    }
+
+    @Test
+    void getBusinessListings_moreListings_sameStatements() throws Exception {
+        Assertions.assertEquals(getBusinessListings(SMALL), getBusinessListings(LARGE));
+    }
+
+    @Test
+    void createListing_withinBudget() throws Exception {
+        // Raised by 4: appending the listing to the marketplace event log and adding it to the marketplace
+        // rollup (an update and the insert of the day's first rollup), and recording the addition to the
+        // search index for the other nodes
+        assertWithinBudget(14, withBody(post("/businesses/{id}/listings", business.getId()),
+                Map.of("inventoryItemId", inventoryItem.getId(), "price", 10.00, "quantity", 1)));
+    }
+
+    @Test
+    void likeListing_withinBudget() throws Exception {
+        // Raised by 3: appending the like to the marketplace event log, reading the like counter for the
+        // leaderboard, and recording the leaderboard change for the other nodes
+        assertWithinBudget(13, patch("/listings/{id}/like", unlikedListing.getId()));
+    }
+
+    @Test
+    void unlikeListing_withinBudget() throws Exception {
+        // Raised by 3: appending the unlike to the marketplace event log, reading the like counter for the
+        // leaderboard, and recording the leaderboard change for the other nodes
+        assertWithinBudget(13, patch("/listings/{id}/unlike", listing.getId()));
+    }
+
+    @Test
+    void tagListing_withinBudget() throws Exception {
+        assertWithinBudget(8, withBody(patch("/listings/{id}/tag", listing.getId()), Map.of("tag", "red")));
+    }
+
+    @Test
+    void starListing_withinBudget() throws Exception {
+        assertWithinBudget(8, withBody(patch("/listings/{id}/star", listing.getId()), Map.of("star", true)));
+    }
+
+    @Test
+    void getFeaturedListings_withinBudget() throws Exception {
+        assertWithinBudget(6, get("/businesses/{id}/featuredlistings", business.getId()));
+    }
+
+    @Test
+    void featureListing_withinBudget() throws Exception {
+        assertWithinBudget(10, withBody(patch("/businesses/{id}/listings/{listingId}/feature", business.getId(),
+                listing.getId()), Map.of("featured", true)));
+    }
+
+    @Test
+    void getPopularListings_withinBudget() throws Exception {
+        assertWithinBudget(6, get("/popularlistings"));
+    }
+
+    @Test
+    void getSearchCacheStatistics_withinBudget() throws Exception {
+        assertWithinBudget(4, dgaa, get("/listings/searchcache"));
+    }
+
+    @Test
+    void getExpiryStatistics_withinBudget() throws Exception {
+        assertWithinBudget(4, dgaa, get("/listings/expiry"));
+    }
+
+    @Test
+    void getNotificationOutboxStatistics_withinBudget() throws Exception {
+        assertWithinBudget(4, dgaa, get("/listings/notificationoutbox"));
+    }
+
+    // Sales reports
+
+    @Test
+    void getSalesReport_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/businesses/{id}/sales", business.getId())
+                .param("periodStart", "2021-01-01").param("periodEnd", "2099-12-31")
+                .param("granularity", "monthly"));
+    }
+
+    @Test
+    void getSalesReportTotals_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/businesses/{id}/sales", business.getId())
+                .param("periodStart", "2021-01-01").param("periodEnd", "2099-12-31")
+                .param("granularity", "weekly").param("includeSales", "false"));
+    }
+
+    @Test
+    void exportSales_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/businesses/{id}/sales/export", business.getId()).param("format", "ndjson"));
+    }
+
+    @Test
+    void rebuildSalesRollups_withinBudget() throws Exception {
+        // Raised by 1 for recording the clearing of the cached sales report periods for the other nodes
+        assertWithinBudget(9, dgaa, post("/businesses/sales/rollups/rebuild"));
+    }
+
+    @Test
+    void getSalesReportCacheStatistics_withinBudget() throws Exception {
+        assertWithinBudget(4, dgaa, get("/businesses/sales/cache"));
+    }
+
+    // Users
+
+    @Test
+    void login_withinBudget() throws Exception {
+        assertWithinBudget(4, withBody(post("/login"), Map.of("email", requester.getEmail(),
+                "password", PASSWORD)));
+    }
+
+    @Test
+    void createUser_withinBudget() throws Exception {
+        assertWithinBudget(8, withBody(post("/users"), Map.of("firstName", "New", "lastName", "User",
+                "email", String.format("budget.new.%d@gmail.com", System.nanoTime()),
+                "dateOfBirth", "1999-04-27", "homeAddress", addressBody(), "password", PASSWORD)));
+    }
+
+    @Test
+    void editUser_withinBudget() throws Exception {
+        assertWithinBudget(12, withBody(put("/users/{id}", requester.getId()), Map.of("id", requester.getId(),
+                "firstName", "Edited", "lastName", requester.getLastName(), "email", requester.getEmail(),
+                "dateOfBirth", "1999-04-27", "homeAddress", addressBody())));
+    }
+
+    @Test
+    void getUser_withinBudget() throws Exception {
+        assertWithinBudget(6, get("/users/{id}", requester.getId()));
+    }
+
+    /**
+     * Gets a user who administers the given number of businesses.
+     */
+    private int getUser(int businessCount) throws Exception {
+        User admin = createUser("user");
+        for (var i = 0; i < businessCount; i++) {
+            createBusiness(admin);
+        }
+        return assertWithinBudget(6, get("/users/{id}", admin.getId()));
+    }
+
+    @Test
+    void getUser_moreBusinessesAdministered_sameStatements() throws Exception {
+        Assertions.assertEquals(getUser(SMALL), getUser(LARGE));
+    }
+
+    @Test
+    void makeAdmin_withinBudget() throws Exception {
+        assertWithinBudget(6, dgaa, put("/users/{id}/makeadmin", requester.getId()));
+    }
+
+    @Test
+    void revokeAdmin_withinBudget() throws Exception {
+        assertWithinBudget(6, dgaa, put("/users/{id}/revokeadmin", otherUser.getId()));
+    }
+
+    @Test
+    void searchUsers_withinBudget() throws Exception {
+        assertWithinBudget(6, get("/users/search").param("searchQuery", requester.getLastName())
+                .param("pageNumber", "0").param("sortBy", "idASC").param("countMode", "exact"));
+    }
+
+    /**
+     * Searches for the given number of users with the same name.
+     */
+    private int searchUsers(int userCount) throws Exception {
+        String name = uniqueName();
+        for (var i = 0; i < userCount; i++) {
+            createUser("user", name);
+        }
+        return assertWithinBudget(6, get("/users/search").param("searchQuery", name)
+                .param("pageNumber", "0").param("sortBy", "idASC").param("countMode", "exact"));
+    }
+
+    @Test
+    void searchUsers_morePageResults_sameStatements() throws Exception {
+        Assertions.assertEquals(searchUsers(SMALL), searchUsers(LARGE));
+    }
+
+    @Test
+    void getPurchaseHistory_withinBudget() throws Exception {
+        assertWithinBudget(8, get("/users/{id}/purchases", requester.getId())
+                .param("pageNumber", "0").param("sortBy", "datePurchasedASC"));
+    }
+
+    // User images
+
+    @Test
+    void addUserImage_withinBudget() throws Exception {
+        assertWithinBudget(10, multipart("/users/{id}/images", requester.getId()).file(imageFile()));
+    }
+
+    @Test
+    void deleteUserImage_withinBudget() throws Exception {
+        assertWithinBudget(10, delete("/users/{id}/images/{imageId}", requester.getId(), userImage.getId()));
+    }
+
+    @Test
+    void setPrimaryUserImage_withinBudget() throws Exception {
+        assertWithinBudget(8, put("/users/{id}/images/{imageId}/makeprimary", requester.getId(),
+                userImage.getId()));
+    }
+}
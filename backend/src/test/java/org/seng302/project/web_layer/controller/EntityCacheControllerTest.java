@@ -0,0 +1,78 @@
+package org.seng302.project.web_layer.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.seng302.project.AbstractInitializer;
+import org.seng302.project.repository_layer.model.User;
+import org.seng302.project.service_layer.exceptions.dgaa.ForbiddenDGAAActionException;
+import org.seng302.project.service_layer.service.EntityCacheService;
+import org.seng302.project.service_layer.service.UserService;
+import org.seng302.project.web_layer.authentication.AppUserDetails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMockMvc
+class EntityCacheControllerTest extends AbstractInitializer {
+
+    private User testUser;
+    private User systemAdmin;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private EntityCacheService entityCacheService;
+    @MockBean
+    private UserService userService;
+
+    @BeforeEach
+    void setup() {
+        testUser = this.getTestUser();
+        systemAdmin = this.getTestSystemAdmin();
+    }
+
+    /**
+     * Tests that the DGAA can get the entity cache statistics
+     */
+    @Test
+    void getCacheStatistics_DGAA_200() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/cache")
+                        .with(user(new AppUserDetails(systemAdmin))))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        Mockito.verify(entityCacheService).getStatistics();
+    }
+
+    /**
+     * Tests that a user who isn't the DGAA can't get the entity cache statistics
+     */
+    @Test
+    void getCacheStatistics_notDGAA_403() throws Exception {
+        Mockito.doThrow(new ForbiddenDGAAActionException()).when(userService).checkRequesterIsDGAA(any());
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/cache")
+                        .with(user(new AppUserDetails(testUser))))
+                .andExpect(MockMvcResultMatchers.status().isForbidden());
+        Mockito.verify(entityCacheService, Mockito.never()).getStatistics();
+    }
+
+    /**
+     * Tests that getting the entity cache statistics when not logged in gives a 401 response
+     */
+    @Test
+    void getCacheStatistics_notLoggedIn_401() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/cache"))
+                .andExpect(MockMvcResultMatchers.status().isUnauthorized());
+    }
+}
@@ -22,6 +22,7 @@ import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -620,6 +621,40 @@ class InventoryItemControllerTest {
         Assertions.assertEquals(new InvalidQuantityException().getMessage(), returnedExceptionString);
     }
 
+    /**
+     * Tests editing a inventory item and giving it a quantity less than is used by its sale listings
+     */
+    @Test
+    void editItemQuantityBelowReserved() throws Exception {
+        Product product = productRepository.findById(new ProductId("p1", businessId)).orElseThrow();
+        Business business = businessRepository.findById(businessId).orElseThrow();
+        InventoryItem item = new InventoryItem(product, 5, 2.00, 1.80,
+                "2021-04-20", null, null, "2023-05-20");
+        inventoryItemRepository.save(item);
+        saleListingRepository.save(new SaleListing(business, item, 5.00, null,
+                LocalDateTime.now().plusDays(1), 3));
+        inventoryItemRepository.reserveQuantity(item.getId(), 3);
+
+        JSONObject testItem = new JSONObject();
+        testItem.put("quantity", 2);
+
+        RequestBuilder postInventoryRequest = MockMvcRequestBuilders
+                .put("/businesses/{businessId}/inventory/{inventoryItemId}", businessId, item.getId())
+                .content(testItem.toString())
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .with(httpBasic("johnxyz@gmail.com", "1337-H%nt3r2"));
+
+        MvcResult postInventoryResponse = this.mockMvc.perform(postInventoryRequest)
+                .andExpect(MockMvcResultMatchers.status().isBadRequest()) // We expect a 400 response
+                .andReturn();
+
+        String returnedExceptionString = postInventoryResponse.getResponse().getContentAsString();
+        Assertions.assertEquals(new NotEnoughOfInventoryItemException(item.getId(), 2, 3).getMessage(),
+                returnedExceptionString);
+        Assertions.assertEquals(5, inventoryItemRepository.findQuantityById(item.getId()));
+    }
+
     /**
      * Tests editing a inventory item and giving it a price per item that is invalid
      */
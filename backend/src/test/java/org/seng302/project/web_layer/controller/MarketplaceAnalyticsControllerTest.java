@@ -0,0 +1,185 @@
+package org.seng302.project.web_layer.controller;
+
+import net.minidev.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.seng302.project.AbstractInitializer;
+import org.seng302.project.repository_layer.model.User;
+import org.seng302.project.service_layer.dto.statistics.GetMarketplaceSalesDTO;
+import org.seng302.project.service_layer.dto.statistics.GetTopBusinessDTO;
+import org.seng302.project.service_layer.exceptions.BadRequestException;
+import org.seng302.project.service_layer.exceptions.dgaa.ForbiddenDGAAActionException;
+import org.seng302.project.service_layer.service.MarketplaceAnalyticsService;
+import org.seng302.project.service_layer.service.UserService;
+import org.seng302.project.web_layer.authentication.AppUserDetails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMockMvc
+class MarketplaceAnalyticsControllerTest extends AbstractInitializer {
+
+    private User testUser;
+    private User systemAdmin;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private MarketplaceAnalyticsService marketplaceAnalyticsService;
+    @MockBean
+    private UserService userService;
+
+    @BeforeEach
+    void setup() {
+        testUser = this.getTestUser();
+        systemAdmin = this.getTestSystemAdmin();
+    }
+
+    /**
+     * Tests that the DGAA can get the marketplace sales over time
+     */
+    @Test
+    void getMarketplaceSales_DGAA_200() throws Exception {
+        var period = new GetMarketplaceSalesDTO(LocalDate.of(2021, 3, 1), LocalDate.of(2021, 3, 31),
+                "New Zealand", "Retail Trade");
+        period.addTotals(2, 15.00, 3);
+        Mockito.when(marketplaceAnalyticsService.getSales("2021-03-01", "2021-03-31", "monthly"))
+                .thenReturn(List.of(period));
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/statistics/marketplace/sales")
+                        .param("periodStart", "2021-03-01")
+                        .param("periodEnd", "2021-03-31")
+                        .param("granularity", "monthly")
+                        .with(user(new AppUserDetails(systemAdmin))))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].country").value("New Zealand"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].purchaseCount").value(2));
+    }
+
+    /**
+     * Tests that a user who isn't the DGAA can't get the marketplace sales
+     */
+    @Test
+    void getMarketplaceSales_notDGAA_403() throws Exception {
+        Mockito.doThrow(new ForbiddenDGAAActionException()).when(userService).checkRequesterIsDGAA(any());
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/statistics/marketplace/sales")
+                        .param("periodStart", "2021-03-01")
+                        .param("periodEnd", "2021-03-31")
+                        .param("granularity", "monthly")
+                        .with(user(new AppUserDetails(testUser))))
+                .andExpect(MockMvcResultMatchers.status().isForbidden());
+        Mockito.verify(marketplaceAnalyticsService, Mockito.never()).getSales(anyString(), anyString(), anyString());
+    }
+
+    /**
+     * Tests that getting the marketplace sales when not logged in gives a 401 response
+     */
+    @Test
+    void getMarketplaceSales_notLoggedIn_401() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/statistics/marketplace/sales")
+                        .param("periodStart", "2021-03-01")
+                        .param("periodEnd", "2021-03-31")
+                        .param("granularity", "monthly"))
+                .andExpect(MockMvcResultMatchers.status().isUnauthorized());
+    }
+
+    /**
+     * Tests that the DGAA can get the top businesses, with the limit defaulting to 10
+     */
+    @Test
+    void getTopBusinesses_DGAA_200() throws Exception {
+        Mockito.when(marketplaceAnalyticsService.getTopBusinesses("2021-03-01", "2021-03-31", 10))
+                .thenReturn(List.of(new GetTopBusinessDTO(1, "Business", "New Zealand", "Retail Trade",
+                        2, 15.00, 3L)));
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/statistics/marketplace/businesses")
+                        .param("periodStart", "2021-03-01")
+                        .param("periodEnd", "2021-03-31")
+                        .with(user(new AppUserDetails(systemAdmin))))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].businessId").value(1));
+    }
+
+    /**
+     * Tests that an invalid limit for the top businesses gives a 400 response
+     */
+    @Test
+    void getTopBusinesses_invalidLimit_400() throws Exception {
+        Mockito.when(marketplaceAnalyticsService.getTopBusinesses(anyString(), anyString(), anyInt()))
+                .thenThrow(new BadRequestException("Limit must be between 1 and 100"));
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/statistics/marketplace/businesses")
+                        .param("periodStart", "2021-03-01")
+                        .param("periodEnd", "2021-03-31")
+                        .param("limit", "0")
+                        .with(user(new AppUserDetails(systemAdmin))))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    /**
+     * Tests that the DGAA can get the marketplace listing statistics
+     */
+    @Test
+    void getListingStatistics_DGAA_200() throws Exception {
+        var statistics = new JSONObject();
+        statistics.put("listingsSold", 1);
+        Mockito.when(marketplaceAnalyticsService.getListingStatistics("2021-03-01", "2021-03-31"))
+                .thenReturn(statistics);
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/statistics/marketplace/listings")
+                        .param("periodStart", "2021-03-01")
+                        .param("periodEnd", "2021-03-31")
+                        .with(user(new AppUserDetails(systemAdmin))))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.listingsSold").value(1));
+    }
+
+    /**
+     * Tests that the DGAA can rebuild the marketplace rollups
+     */
+    @Test
+    void rebuildMarketplaceRollups_DGAA_200() throws Exception {
+        Mockito.when(marketplaceAnalyticsService.rebuildRollups()).thenReturn(4);
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .post("/statistics/marketplace/rollups/rebuild")
+                        .with(user(new AppUserDetails(systemAdmin))))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.rollups").value(4));
+    }
+
+    /**
+     * Tests that a user who isn't the DGAA can't rebuild the marketplace rollups
+     */
+    @Test
+    void rebuildMarketplaceRollups_notDGAA_403() throws Exception {
+        Mockito.doThrow(new ForbiddenDGAAActionException()).when(userService).checkRequesterIsDGAA(any());
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .post("/statistics/marketplace/rollups/rebuild")
+                        .with(user(new AppUserDetails(testUser))))
+                .andExpect(MockMvcResultMatchers.status().isForbidden());
+        Mockito.verify(marketplaceAnalyticsService, Mockito.never()).rebuildRollups();
+    }
+}
@@ -0,0 +1,110 @@
+package org.seng302.project.web_layer.controller;
+
+import net.minidev.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.seng302.project.AbstractInitializer;
+import org.seng302.project.repository_layer.model.User;
+import org.seng302.project.service_layer.exceptions.dgaa.ForbiddenDGAAActionException;
+import org.seng302.project.service_layer.service.MetricsService;
+import org.seng302.project.service_layer.service.UserService;
+import org.seng302.project.web_layer.authentication.AppUserDetails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMockMvc
+class MetricsControllerTest extends AbstractInitializer {
+
+    private User testUser;
+    private User systemAdmin;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private MetricsService metricsService;
+    @MockBean
+    private UserService userService;
+
+    @BeforeEach
+    void setup() {
+        testUser = this.getTestUser();
+        systemAdmin = this.getTestSystemAdmin();
+    }
+
+    /**
+     * Tests that the DGAA can get the metrics, in the Prometheus text format
+     */
+    @Test
+    void getMetrics_DGAA_200() throws Exception {
+        Mockito.when(metricsService.getMetrics()).thenReturn("jvm_threads_live_threads 20.0\n");
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/metrics")
+                        .with(user(new AppUserDetails(systemAdmin))))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentTypeCompatibleWith("text/plain"))
+                .andExpect(MockMvcResultMatchers.content().string("jvm_threads_live_threads 20.0\n"));
+    }
+
+    /**
+     * Tests that a user who isn't the DGAA can't get the metrics
+     */
+    @Test
+    void getMetrics_notDGAA_403() throws Exception {
+        Mockito.doThrow(new ForbiddenDGAAActionException()).when(userService).checkRequesterIsDGAA(any());
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/metrics")
+                        .with(user(new AppUserDetails(testUser))))
+                .andExpect(MockMvcResultMatchers.status().isForbidden());
+        Mockito.verify(metricsService, Mockito.never()).getMetrics();
+    }
+
+    /**
+     * Tests that getting the metrics when not logged in gives a 401 response
+     */
+    @Test
+    void getMetrics_notLoggedIn_401() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/metrics"))
+                .andExpect(MockMvcResultMatchers.status().isUnauthorized());
+    }
+
+    /**
+     * Tests that the DGAA can get the slow queries
+     */
+    @Test
+    void getSlowQueries_DGAA_200() throws Exception {
+        Mockito.when(metricsService.getSlowQueries()).thenReturn(new JSONObject());
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/metrics/slowqueries")
+                        .with(user(new AppUserDetails(systemAdmin))))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        Mockito.verify(metricsService).getSlowQueries();
+    }
+
+    /**
+     * Tests that a user who isn't the DGAA can't get the slow queries
+     */
+    @Test
+    void getSlowQueries_notDGAA_403() throws Exception {
+        Mockito.doThrow(new ForbiddenDGAAActionException()).when(userService).checkRequesterIsDGAA(any());
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/metrics/slowqueries")
+                        .with(user(new AppUserDetails(testUser))))
+                .andExpect(MockMvcResultMatchers.status().isForbidden());
+        Mockito.verify(metricsService, Mockito.never()).getSlowQueries();
+    }
+}
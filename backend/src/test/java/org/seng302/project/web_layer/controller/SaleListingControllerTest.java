@@ -11,10 +11,13 @@ import org.seng302.project.AbstractInitializer;
 import org.seng302.project.repository_layer.model.*;
 import org.seng302.project.service_layer.dto.sale_listings.GetSaleListingDTO;
 import org.seng302.project.service_layer.dto.sale_listings.PostSaleListingDTO;
+import org.seng302.project.service_layer.dto.sale_listings.SaleListingFacetsDTO;
 import org.seng302.project.service_layer.exceptions.BadRequestException;
 import org.seng302.project.service_layer.exceptions.ForbiddenException;
 import org.seng302.project.service_layer.exceptions.NotAcceptableException;
+import org.seng302.project.service_layer.exceptions.dgaa.ForbiddenDGAAActionException;
 import org.seng302.project.service_layer.service.BusinessService;
+import org.seng302.project.service_layer.service.PurchaseNotificationService;
 import org.seng302.project.service_layer.service.SaleListingService;
 import org.seng302.project.service_layer.service.UserService;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
@@ -30,6 +33,7 @@ import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -60,6 +64,8 @@ class SaleListingControllerTest extends AbstractInitializer {
     private BusinessService businessService;
     @MockBean
     private UserService userService;
+    @MockBean
+    private PurchaseNotificationService purchaseNotificationService;
 
     @BeforeEach
     public void setup() {
@@ -369,6 +375,137 @@ class SaleListingControllerTest extends AbstractInitializer {
                 .andExpect(MockMvcResultMatchers.status().isOk());
     }
 
+    /**
+     * Tests that giving a cursor searches sale listings by cursor rather than page number
+     */
+    @Test
+    void listingSearch_withCursor_usesCursorSearch() throws Exception {
+        Mockito.when(saleListingService.searchSaleListingsAfter(any(), Mockito.eq("abc"), Mockito.eq(true), any()))
+                .thenReturn(Arrays.asList(List.of(), 0L, null));
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/listings")
+                        .param("searchQuery", "")
+                        .param("matchingProductName", String.valueOf(false))
+                        .param("matchingBusinessName", String.valueOf(false))
+                        .param("matchingBusinessLocation", String.valueOf(false))
+                        .param("matchingBusinessType", String.valueOf(false))
+                        .param("sortBy", "")
+                        .param("cursor", "abc")
+                        .param("includeCount", String.valueOf(true))
+                        .with(user(new AppUserDetails(testUser))))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        Mockito.verify(saleListingService).searchSaleListingsAfter(any(), Mockito.eq("abc"), Mockito.eq(true), any());
+        Mockito.verify(saleListingService, Mockito.never()).searchSaleListings(any(), any(), any());
+    }
+
+    /**
+     * Tests that requesting facets adds the facet counts for the search to the end of the response
+     */
+    @Test
+    void listingSearch_withFacets_addsFacetCounts() throws Exception {
+        Mockito.when(saleListingService.searchSaleListings(any(), any(), any()))
+                .thenReturn(Arrays.asList(List.of(), 0L, null));
+        var facets = new SaleListingFacetsDTO(List.of(10.0, 20.0));
+        facets.add("Retail Trade", "New Zealand", 15.0, 3);
+        Mockito.when(saleListingService.getListingFacets(any(), Mockito.eq(List.of(10.0, 20.0)))).thenReturn(facets);
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/listings")
+                        .param("searchQuery", "")
+                        .param("matchingProductName", String.valueOf(false))
+                        .param("matchingBusinessName", String.valueOf(false))
+                        .param("matchingBusinessLocation", String.valueOf(false))
+                        .param("matchingBusinessType", String.valueOf(false))
+                        .param("sortBy", "")
+                        .param("facets", String.valueOf(true))
+                        .param("priceBuckets", "10,20")
+                        .with(user(new AppUserDetails(testUser))))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[3].businessTypes['Retail Trade']").value(3))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[3].countries['New Zealand']").value(3))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[3].priceBuckets[1].count").value(3));
+    }
+
+    /**
+     * Tests that the DGAA can get the search cache statistics
+     */
+    @Test
+    void getSearchCacheStatistics_DGAA_200() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/listings/searchcache")
+                        .with(user(new AppUserDetails(systemAdmin))))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        Mockito.verify(saleListingService).getSearchCacheStatistics();
+    }
+
+    /**
+     * Tests that a user who isn't the DGAA can't get the search cache statistics
+     */
+    @Test
+    void getSearchCacheStatistics_notDGAA_403() throws Exception {
+        Mockito.doThrow(new ForbiddenDGAAActionException()).when(userService).checkRequesterIsDGAA(any());
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/listings/searchcache")
+                        .with(user(new AppUserDetails(testUser))))
+                .andExpect(MockMvcResultMatchers.status().isForbidden());
+        Mockito.verify(saleListingService, Mockito.never()).getSearchCacheStatistics();
+    }
+
+    /**
+     * Tests that the DGAA can get the expiry statistics
+     */
+    @Test
+    void getExpiryStatistics_DGAA_200() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/listings/expiry")
+                        .with(user(new AppUserDetails(systemAdmin))))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        Mockito.verify(saleListingService).getExpiryStatistics();
+    }
+
+    /**
+     * Tests that a user who isn't the DGAA can't get the expiry statistics
+     */
+    @Test
+    void getExpiryStatistics_notDGAA_403() throws Exception {
+        Mockito.doThrow(new ForbiddenDGAAActionException()).when(userService).checkRequesterIsDGAA(any());
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/listings/expiry")
+                        .with(user(new AppUserDetails(testUser))))
+                .andExpect(MockMvcResultMatchers.status().isForbidden());
+        Mockito.verify(saleListingService, Mockito.never()).getExpiryStatistics();
+    }
+
+    /**
+     * Tests that the DGAA can get the purchase notification outbox statistics
+     */
+    @Test
+    void getNotificationOutboxStatistics_DGAA_200() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/listings/notificationoutbox")
+                        .with(user(new AppUserDetails(systemAdmin))))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        Mockito.verify(purchaseNotificationService).getStatistics();
+    }
+
+    /**
+     * Tests that a user who isn't the DGAA can't get the purchase notification outbox statistics
+     */
+    @Test
+    void getNotificationOutboxStatistics_notDGAA_403() throws Exception {
+        Mockito.doThrow(new ForbiddenDGAAActionException()).when(userService).checkRequesterIsDGAA(any());
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/listings/notificationoutbox")
+                        .with(user(new AppUserDetails(testUser))))
+                .andExpect(MockMvcResultMatchers.status().isForbidden());
+        Mockito.verify(purchaseNotificationService, Mockito.never()).getStatistics();
+    }
+
     /**
      * Tests successful liking of a sale listing (by getting a OK response)
      */
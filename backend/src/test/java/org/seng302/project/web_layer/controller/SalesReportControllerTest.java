@@ -1,14 +1,21 @@
 package org.seng302.project.web_layer.controller;
 
 
+import net.minidev.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.seng302.project.AbstractInitializer;
 import org.seng302.project.repository_layer.model.*;
+import org.seng302.project.repository_layer.model.enums.ExportFormat;
+import org.seng302.project.service_layer.exceptions.BadRequestException;
 import org.seng302.project.service_layer.exceptions.ForbiddenException;
+import org.seng302.project.service_layer.exceptions.dgaa.ForbiddenDGAAActionException;
 import org.seng302.project.service_layer.exceptions.NotAcceptableException;
+import org.seng302.project.service_layer.service.SalesExportService;
 import org.seng302.project.service_layer.service.SalesReportService;
+import org.seng302.project.service_layer.service.SalesRollupService;
+import org.seng302.project.service_layer.service.UserService;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -21,8 +28,14 @@ import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import java.time.LocalDate;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
@@ -39,6 +52,15 @@ class SalesReportControllerTest extends AbstractInitializer {
     @MockBean
     private SalesReportService salesReportService;
 
+    @MockBean
+    private SalesRollupService salesRollupService;
+
+    @MockBean
+    private SalesExportService salesExportService;
+
+    @MockBean
+    private UserService userService;
+
     @BeforeEach
     public void setup() {
         testUser = this.getTestUser();
@@ -84,6 +106,27 @@ class SalesReportControllerTest extends AbstractInitializer {
                 .with(user(new AppUserDetails(owner)));
 
         mockMvc.perform(request).andExpect(status().isOk());
+        Mockito.verify(salesReportService).getSalesReport(eq(business.getId()), any(String.class),
+                any(String.class), eq("daily"), eq(true), any(AppUserDetails.class));
+    }
+
+
+    /**
+     * Test that asking for a sales report without its sales passes this on to the service
+     */
+    @Test
+    void getSalesReport_withoutSales_200() throws Exception {
+        RequestBuilder request = MockMvcRequestBuilders
+                .get("/businesses/{id}/sales", business.getId())
+                .param("periodStart", LocalDate.now().minusDays(30).toString())
+                .param("periodEnd", LocalDate.now().toString())
+                .param("granularity", "weekly")
+                .param("includeSales", "false")
+                .with(user(new AppUserDetails(owner)));
+
+        mockMvc.perform(request).andExpect(status().isOk());
+        Mockito.verify(salesReportService).getSalesReport(eq(business.getId()), any(String.class),
+                any(String.class), eq("weekly"), eq(false), any(AppUserDetails.class));
     }
 
     /**
@@ -93,7 +136,7 @@ class SalesReportControllerTest extends AbstractInitializer {
     void getSalesReport_notAdmin_403() throws Exception {
         Mockito.doThrow(new ForbiddenException("message"))
                 .when(salesReportService).getSalesReport(any(Integer.class), any(String.class),
-                any(String.class), any(String.class), any(AppUserDetails.class));
+                any(String.class), any(String.class), anyBoolean(), any(AppUserDetails.class));
 
         RequestBuilder request = MockMvcRequestBuilders
                 .get("/businesses/{id}/sales", business.getId())
@@ -113,7 +156,7 @@ class SalesReportControllerTest extends AbstractInitializer {
     void getSalesReport_invalidBusiness_406() throws Exception {
         Mockito.doThrow(new NotAcceptableException("message"))
                 .when(salesReportService).getSalesReport(any(Integer.class), any(String.class),
-                any(String.class), any(String.class), any(AppUserDetails.class));
+                any(String.class), any(String.class), anyBoolean(), any(AppUserDetails.class));
 
         RequestBuilder request = MockMvcRequestBuilders
                 .get("/businesses/{id}/sales", 7)
@@ -124,4 +167,152 @@ class SalesReportControllerTest extends AbstractInitializer {
 
         mockMvc.perform(request).andExpect(status().isNotAcceptable());
     }
+
+
+    /**
+     * Test that exporting a business' sales writes them to the response as a CSV attachment
+     */
+    @Test
+    void exportSales_csv_200() throws Exception {
+        Mockito.when(salesExportService.checkExport(eq(business.getId()), eq("csv"), any(AppUserDetails.class)))
+                .thenReturn(ExportFormat.CSV);
+
+        RequestBuilder request = MockMvcRequestBuilders
+                .get("/businesses/{id}/sales/export", business.getId())
+                .with(user(new AppUserDetails(owner)));
+
+        mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("text/csv"))
+                .andExpect(header().string("Content-Disposition",
+                        "attachment; filename=\"sales-" + business.getId() + ".csv\""))
+                .andExpect(header().doesNotExist("Content-Encoding"));
+        Mockito.verify(salesExportService).writeSales(eq(business.getId()), eq(ExportFormat.CSV), isNull(), any());
+    }
+
+
+    /**
+     * Test that an export carried on from a sale, by a client accepting gzip, is compressed
+     */
+    @Test
+    void exportSales_gzipSince_200() throws Exception {
+        Mockito.when(salesExportService.checkExport(eq(business.getId()), eq("ndjson"), any(AppUserDetails.class)))
+                .thenReturn(ExportFormat.NDJSON);
+
+        RequestBuilder request = MockMvcRequestBuilders
+                .get("/businesses/{id}/sales/export", business.getId())
+                .param("format", "ndjson")
+                .param("since", "42")
+                .header("Accept-Encoding", "gzip, deflate")
+                .with(user(new AppUserDetails(owner)));
+
+        mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andExpect(header().string("Content-Encoding", "gzip"));
+        Mockito.verify(salesExportService).writeSales(eq(business.getId()), eq(ExportFormat.NDJSON), eq(42), any());
+    }
+
+
+    /**
+     * Test that exporting sales in an unknown format gives a 400 response without writing anything
+     */
+    @Test
+    void exportSales_invalidFormat_400() throws Exception {
+        Mockito.doThrow(new BadRequestException("message"))
+                .when(salesExportService).checkExport(any(Integer.class), any(String.class),
+                any(AppUserDetails.class));
+
+        RequestBuilder request = MockMvcRequestBuilders
+                .get("/businesses/{id}/sales/export", business.getId())
+                .param("format", "xlsx")
+                .with(user(new AppUserDetails(owner)));
+
+        mockMvc.perform(request).andExpect(status().isBadRequest());
+        Mockito.verify(salesExportService, Mockito.never()).writeSales(any(), any(), any(), any());
+    }
+
+
+    /**
+     * Test that exporting the sales of a business when not an admin gives a 403 response
+     */
+    @Test
+    void exportSales_notAdmin_403() throws Exception {
+        Mockito.doThrow(new ForbiddenException("message"))
+                .when(salesExportService).checkExport(any(Integer.class), any(String.class),
+                any(AppUserDetails.class));
+
+        RequestBuilder request = MockMvcRequestBuilders
+                .get("/businesses/{id}/sales/export", business.getId())
+                .with(user(new AppUserDetails(testUser)));
+
+        mockMvc.perform(request).andExpect(status().isForbidden());
+    }
+
+
+    /**
+     * Test that the DGAA can rebuild the daily sales rollups
+     */
+    @Test
+    void rebuildSalesRollups_DGAA_200() throws Exception {
+        Mockito.when(salesRollupService.rebuildRollups()).thenReturn(4);
+
+        RequestBuilder request = MockMvcRequestBuilders
+                .post("/businesses/sales/rollups/rebuild")
+                .with(user(new AppUserDetails(this.getTestSystemAdmin())));
+
+        mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.rollups").value(4));
+    }
+
+
+    /**
+     * Test that a user who isn't the DGAA can't rebuild the daily sales rollups
+     */
+    @Test
+    void rebuildSalesRollups_notDGAA_403() throws Exception {
+        Mockito.doThrow(new ForbiddenDGAAActionException()).when(userService).checkRequesterIsDGAA(any());
+
+        RequestBuilder request = MockMvcRequestBuilders
+                .post("/businesses/sales/rollups/rebuild")
+                .with(user(new AppUserDetails(owner)));
+
+        mockMvc.perform(request).andExpect(status().isForbidden());
+        Mockito.verify(salesRollupService, Mockito.never()).rebuildRollups();
+    }
+
+
+    /**
+     * Test that the DGAA can get the sales report cache metrics
+     */
+    @Test
+    void getSalesReportCacheStatistics_DGAA_200() throws Exception {
+        JSONObject statistics = new JSONObject();
+        statistics.put("hits", 3L);
+        Mockito.when(salesReportService.getReportCacheStatistics()).thenReturn(statistics);
+
+        RequestBuilder request = MockMvcRequestBuilders
+                .get("/businesses/sales/cache")
+                .with(user(new AppUserDetails(this.getTestSystemAdmin())));
+
+        mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.hits").value(3));
+    }
+
+
+    /**
+     * Test that a user who isn't the DGAA can't get the sales report cache metrics
+     */
+    @Test
+    void getSalesReportCacheStatistics_notDGAA_403() throws Exception {
+        Mockito.doThrow(new ForbiddenDGAAActionException()).when(userService).checkRequesterIsDGAA(any());
+
+        RequestBuilder request = MockMvcRequestBuilders
+                .get("/businesses/sales/cache")
+                .with(user(new AppUserDetails(owner)));
+
+        mockMvc.perform(request).andExpect(status().isForbidden());
+    }
 }
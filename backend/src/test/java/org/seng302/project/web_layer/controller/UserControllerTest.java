@@ -21,6 +21,7 @@ import org.seng302.project.service_layer.exceptions.ForbiddenException;
 import org.seng302.project.service_layer.exceptions.NotAcceptableException;
 import org.seng302.project.service_layer.service.SaleListingService;
 import org.seng302.project.service_layer.service.UserService;
+import org.seng302.project.service_layer.util.CountMode;
 import org.seng302.project.web_layer.authentication.AppUserDetails;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -342,7 +343,8 @@ class UserControllerTest extends AbstractInitializer {
     @Test
     void userSearch_blueSky_200() throws Exception {
         // Mock the searchUsers method to return an empty list
-        when(userService.searchUsers(any(String.class), any(Integer.class), any(String.class))).thenReturn(List.of());
+        when(userService.searchUsers(any(String.class), any(Integer.class), any(String.class), any(CountMode.class)))
+                .thenReturn(List.of());
 
         // Make the request, and check it is 200
         mvc.perform(MockMvcRequestBuilders
@@ -508,7 +510,7 @@ class UserControllerTest extends AbstractInitializer {
         sale.setBuyerId(testUser.getId());
         GetSaleDTO dto = new GetSaleDTO(sale);
 
-        Mockito.when(userService.getPurchaseHistory(testUser.getId(), 1, ""))
+        Mockito.when(userService.getPurchaseHistory(testUser.getId(), 1, "", CountMode.EXACT))
                 .thenReturn(List.of(dto));
 
         RequestBuilder request = MockMvcRequestBuilders